@@ -0,0 +1,95 @@
+/*
+ * FastBack - Fast, incremental Minecraft backups powered by Git.
+ * Copyright (C) 2022 pcal.net
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pcal.fastback.repo;
+
+import net.pcal.fastback.logging.Log4jLogger;
+import net.pcal.fastback.logging.SystemLogger;
+import net.pcal.fastback.logging.UserLogger;
+import net.pcal.fastback.logging.UserMessage;
+import org.apache.logging.log4j.LogManager;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static net.pcal.fastback.config.FastbackConfigKey.IS_NATIVE_GIT_ENABLED;
+import static net.pcal.fastback.config.OtherConfigKey.COMMIT_SIGNING_ENABLED;
+
+/**
+ * Setup shared by the benchmarks.
+ *
+ * @author pcal
+ * @since 0.16.0
+ */
+abstract class BenchmarkUtils {
+
+    // ======================================================================
+    // Package private
+
+    static void registerLogger() {
+        SystemLogger.Singleton.register(new Log4jLogger(LogManager.getLogger("fastback-benchmark")));
+    }
+
+    /**
+     * Make the world directory a fastback repo, as enabling backups would.
+     */
+    static RepoImpl initRepo(final Path worldDir, final boolean isNative) throws IOException, GitAPIException {
+        final Git jgit = Git.init().setDirectory(worldDir.toFile()).call();
+        WorldIdUtils.createWorldId(worldDir);
+        final RepoImpl repo = new RepoImpl(jgit);
+        repo.getConfig().updater().
+                set(COMMIT_SIGNING_ENABLED, false).
+                set(IS_NATIVE_GIT_ENABLED, isNative).
+                save();
+        return repo;
+    }
+
+    static RepoImpl openRepo(final Path worldDir) throws IOException {
+        return new RepoImpl(Git.open(worldDir.toFile()));
+    }
+
+    /**
+     * Commit the given number of snapshots, changing some of the world between each one.
+     *
+     * @return the snapshots, oldest first.
+     */
+    static List<SnapshotId> commitSnapshots(final SyntheticWorld world, final RepoImpl repo, final int count,
+                                            final double churn, final UserLogger ulog) throws Exception {
+        final List<SnapshotId> out = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                world.mutate(churn);
+                // Snapshot names have one-second resolution.
+                Thread.sleep(1100);
+            }
+            out.add(CommitUtils.doCommitSnapshot(repo, ulog));
+        }
+        return out;
+    }
+
+    static class BenchmarkLogger implements UserLogger {
+        @Override
+        public void message(final UserMessage message) {
+            SystemLogger.syslog().debug(String.valueOf(message));
+        }
+    }
+}
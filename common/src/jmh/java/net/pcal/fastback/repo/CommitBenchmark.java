@@ -0,0 +1,144 @@
+/*
+ * FastBack - Fast, incremental Minecraft backups powered by Git.
+ * Copyright (C) 2022 pcal.net
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pcal.fastback.repo;
+
+import net.pcal.fastback.logging.UserLogger;
+import net.pcal.fastback.mod.HeadlessMinecraftProvider;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times CommitUtils.doCommitSnapshot against a synthetic world, with jgit and with native git.
+ * <p>
+ * The world comes from {@link SyntheticWorld}, generated once per trial and copied for each iteration.  Every
+ * measured iteration gets a freshly-initialized repo.  For the incremental scenarios, a baseline snapshot is
+ * committed during setup and then a fraction of the chunks are changed (or of the regions deleted), so only the
+ * second commit is timed.  Native git needs git and git-lfs on the path.
+ * <p>
+ * The world size can be changed from the command line, e.g. {@code -PjmhParams=worldMegabytes=1024}.
+ *
+ * @author pcal
+ * @since 0.16.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class CommitBenchmark {
+
+    // ======================================================================
+    // Constants
+
+    public enum Scenario {
+        FIRST_BACKUP,
+        CHANGE_1_PERCENT,
+        CHANGE_10_PERCENT,
+        DELETE_10_PERCENT
+    }
+
+    private static final long SEED = 20240101L;
+
+    // ======================================================================
+    // Parameters
+
+    @Param({"FIRST_BACKUP", "CHANGE_1_PERCENT", "CHANGE_10_PERCENT", "DELETE_10_PERCENT"})
+    public Scenario scenario;
+
+    @Param({"jgit", "native"})
+    public String git;
+
+    @Param({"64"})
+    public int worldMegabytes;
+
+    // ======================================================================
+    // Fields
+
+    private Path tempDir;
+    private SyntheticWorld template;
+    private Path worldDir;
+    private RepoImpl repo;
+    private final UserLogger ulog = new BenchmarkUtils.BenchmarkLogger();
+
+    // ======================================================================
+    // Setup
+
+    @Setup(Level.Trial)
+    public void setupTrial() throws IOException {
+        BenchmarkUtils.registerLogger();
+        this.tempDir = Files.createTempDirectory("fastback-commit-benchmark");
+        this.template = SyntheticWorld.generate(this.tempDir.resolve("template"),
+                SyntheticWorld.Options.of(SEED, this.worldMegabytes * 1024L * 1024L));
+    }
+
+    @Setup(Level.Iteration)
+    public void setupIteration() throws Exception {
+        this.worldDir = this.tempDir.resolve("world");
+        FileUtils.deleteDirectory(this.worldDir.toFile());
+        HeadlessMinecraftProvider.register(this.worldDir);
+        final SyntheticWorld world = this.template.copyTo(this.worldDir);
+        this.repo = BenchmarkUtils.initRepo(this.worldDir, "native".equals(this.git));
+        if (this.scenario == Scenario.FIRST_BACKUP) return;
+        CommitUtils.doCommitSnapshot(this.repo, this.ulog);
+        switch (this.scenario) {
+            case CHANGE_1_PERCENT -> world.mutate(0.01);
+            case CHANGE_10_PERCENT -> world.mutate(0.10);
+            case DELETE_10_PERCENT -> world.deleteRegions(0.10);
+        }
+        // Snapshot names have one-second resolution.
+        Thread.sleep(1100);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDownIteration() {
+        if (this.repo != null) this.repo.close();
+        this.repo = null;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownTrial() throws IOException {
+        FileUtils.deleteDirectory(this.tempDir.toFile());
+    }
+
+    // ======================================================================
+    // Benchmarks
+
+    @Benchmark
+    public SnapshotId commit() throws Exception {
+        return CommitUtils.doCommitSnapshot(this.repo, this.ulog);
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * FastBack - Fast, incremental Minecraft backups powered by Git.
+ * Copyright (C) 2022 pcal.net
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pcal.fastback.repo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static net.pcal.fastback.logging.SystemLogger.syslog;
+
+/**
+ * A loopback tcp relay that counts the bytes going through it in each direction.  Putting one in front of a local
+ * server lets the benchmarks measure what would have gone over the network, whatever the protocol.
+ *
+ * @author pcal
+ * @since 0.16.0
+ */
+class CountingProxy implements AutoCloseable {
+
+    // ======================================================================
+    // Fields
+
+    private final ServerSocket serverSocket;
+    private final int targetPort;
+    private final AtomicLong bytesUp = new AtomicLong();
+    private final AtomicLong bytesDown = new AtomicLong();
+
+    // ======================================================================
+    // Constructors
+
+    CountingProxy(final int targetPort) throws IOException {
+        this.targetPort = targetPort;
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        final Thread acceptor = new Thread(this::acceptLoop, "fastback-proxy-" + targetPort);
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    // ======================================================================
+    // Package private
+
+    int getPort() {
+        return this.serverSocket.getLocalPort();
+    }
+
+    /**
+     * @return bytes sent from clients to the server.
+     */
+    long getBytesUp() {
+        return this.bytesUp.get();
+    }
+
+    /**
+     * @return bytes sent from the server to clients.
+     */
+    long getBytesDown() {
+        return this.bytesDown.get();
+    }
+
+    void resetCounts() {
+        this.bytesUp.set(0);
+        this.bytesDown.set(0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.serverSocket.close();
+    }
+
+    // ======================================================================
+    // Private
+
+    private void acceptLoop() {
+        while (!this.serverSocket.isClosed()) {
+            try {
+                final Socket client = this.serverSocket.accept();
+                final Socket server = new Socket();
+                server.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), this.targetPort));
+                final AtomicInteger openDirections = new AtomicInteger(2);
+                relay(client, server, this.bytesUp, openDirections);
+                relay(server, client, this.bytesDown, openDirections);
+            } catch (IOException e) {
+                if (!this.serverSocket.isClosed()) syslog().error("Proxy connection failed", e);
+            }
+        }
+    }
+
+    /**
+     * Copy from one socket to the other until end of stream, then pass the half-close along.  Both sockets get
+     * closed once both directions are done, or as soon as either one fails.
+     */
+    private static void relay(final Socket from, final Socket to, final AtomicLong counter, final AtomicInteger openDirections) {
+        final Thread t = new Thread(() -> {
+            final byte[] buf = new byte[64 * 1024];
+            try {
+                final InputStream in = from.getInputStream();
+                final OutputStream out = to.getOutputStream();
+                int read;
+                while ((read = in.read(buf)) >= 0) {
+                    out.write(buf, 0, read);
+                    counter.addAndGet(read);
+                }
+                to.shutdownOutput();
+                if (openDirections.decrementAndGet() > 0) return;
+            } catch (IOException ignored) {
+                // the other side went away
+            }
+            closeQuietly(from);
+            closeQuietly(to);
+        }, "fastback-proxy-relay");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private static void closeQuietly(final Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * FastBack - Fast, incremental Minecraft backups powered by Git.
+ * Copyright (C) 2022 pcal.net
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pcal.fastback.repo;
+
+import net.pcal.fastback.logging.UserLogger;
+import net.pcal.fastback.mod.HeadlessMinecraftProvider;
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static net.pcal.fastback.config.FastbackConfigKey.RESTORE_DIRECTORY;
+import static net.pcal.fastback.config.FastbackConfigKey.RESTORE_LFS_CONCURRENCY;
+
+/**
+ * Times native restores with the lfs content coming from an http lfs server, which is where the download
+ * concurrency matters.  A concurrency of 1 is about what the old smudging checkout did; compare it with the
+ * default.  The server adds a fixed delay to every response so the round trips cost something, as they would
+ * against a real remote.
+ * <p>
+ * The git objects come from a file remote.  Since the clone happens before there's a repo to configure, the lfs url
+ * is committed into the world as a .lfsconfig, which git-lfs reads from the checked-out pointers.  Needs git and
+ * git-lfs on the path.
+ *
+ * @author pcal
+ * @since 0.16.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+public class LfsRestoreBenchmark {
+
+    // ======================================================================
+    // Constants
+
+    private static final long SEED = 20240104L;
+
+    // ======================================================================
+    // Parameters
+
+    @Param({"1", "8"})
+    public int lfsConcurrency;
+
+    @Param({"0", "20"})
+    public long latencyMillis;
+
+    @Param({"64"})
+    public int worldMegabytes;
+
+    // ======================================================================
+    // Fields
+
+    private Path tempDir;
+    private RepoImpl repo;
+    private LocalRemote localRemote;
+    private LfsTestServer lfsServer;
+    private SnapshotId snapshot;
+    private Path restoresDir;
+    private final UserLogger ulog = new BenchmarkUtils.BenchmarkLogger();
+
+    // ======================================================================
+    // Setup
+
+    @Setup(Level.Trial)
+    public void setupTrial() throws Exception {
+        BenchmarkUtils.registerLogger();
+        this.tempDir = Files.createTempDirectory("fastback-lfs-restore-benchmark");
+        final Path worldDir = this.tempDir.resolve("world");
+        SyntheticWorld.generate(worldDir, SyntheticWorld.Options.of(SEED, this.worldMegabytes * 1024L * 1024L));
+        HeadlessMinecraftProvider.register(worldDir);
+        this.lfsServer = new LfsTestServer(this.tempDir.resolve("lfs"));
+        final String lfsUrl = "http://127.0.0.1:" + this.lfsServer.getPort() + LfsTestServer.BASE_PATH;
+        Files.writeString(worldDir.resolve(".lfsconfig"), "[lfs]\n\turl = " + lfsUrl + "\n", StandardCharsets.UTF_8);
+        this.repo = BenchmarkUtils.initRepo(worldDir, true);
+        this.localRemote = LocalRemote.create(LocalRemote.Kind.FILE, this.tempDir.resolve("remote"));
+        this.localRemote.configure(this.repo);
+        final StoredConfig config = this.repo.getJGit().getRepository().getConfig();
+        config.setString("lfs", null, "url", lfsUrl);
+        config.setBoolean("lfs", lfsUrl, "locksverify", false);
+        config.save();
+        this.snapshot = CommitUtils.doCommitSnapshot(this.repo, this.ulog);
+        PushUtils.doPush(this.snapshot, this.repo, this.ulog);
+        this.repo.getConfig().updater().set(RESTORE_LFS_CONCURRENCY, this.lfsConcurrency).save();
+        this.lfsServer.setLatencyMillis(this.latencyMillis);
+    }
+
+    @Setup(Level.Iteration)
+    public void setupIteration() throws IOException {
+        this.restoresDir = this.tempDir.resolve("restores");
+        FileUtils.deleteDirectory(this.restoresDir.toFile());
+        Files.createDirectories(this.restoresDir);
+        this.repo.getConfig().updater().set(RESTORE_DIRECTORY, this.restoresDir.toString()).save();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownTrial() throws IOException {
+        if (this.repo != null) this.repo.close();
+        if (this.localRemote != null) this.localRemote.close();
+        if (this.lfsServer != null) this.lfsServer.close();
+        FileUtils.deleteDirectory(this.tempDir.toFile());
+    }
+
+    // ======================================================================
+    // Benchmarks
+
+    @Benchmark
+    public void restore() throws IOException {
+        RestoreUtils.doRestoreRemoteSnapshot(this.snapshot.getShortName(), this.repo, this.ulog);
+        // restore failures are reported to the user rather than thrown.  If the lfs pull didn't happen, level.dat
+        // is still a pointer.
+        try (final Stream<Path> restored = Files.list(this.restoresDir)) {
+            if (restored.noneMatch(dir -> isHydrated(dir.resolve("level.dat")))) {
+                throw new IllegalStateException("Restore of " + this.snapshot + " failed; see the log");
+            }
+        }
+    }
+
+    // ======================================================================
+    // Private
+
+    private static boolean isHydrated(final Path file) {
+        try {
+            return Files.exists(file) && !new String(Files.readAllBytes(file), 0, 40, StandardCharsets.ISO_8859_1).startsWith("version https://git-lfs");
+        } catch (IOException | IndexOutOfBoundsException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * FastBack - Fast, incremental Minecraft backups powered by Git.
+ * Copyright (C) 2022 pcal.net
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pcal.fastback.repo;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static java.util.Objects.requireNonNull;
+import static net.pcal.fastback.logging.SystemLogger.syslog;
+
+/**
+ * Just enough of a git-lfs server for native git to push to and pull from: the batch api and the basic transfer
+ * adapter, storing objects on disk.  No auth and no locking.  Responses can be delayed to stand in for a server
+ * that's some distance away.
+ * <p>
+ * See https://github.com/git-lfs/git-lfs/blob/main/docs/api/batch.md
+ *
+ * @author pcal
+ * @since 0.16.0
+ */
+class LfsTestServer implements AutoCloseable {
+
+    // ======================================================================
+    // Constants
+
+    static final String BASE_PATH = "/lfs";
+
+    private static final String LFS_CONTENT_TYPE = "application/vnd.git-lfs+json";
+    private static final Pattern OPERATION = Pattern.compile("\"operation\"\\s*:\\s*\"(\\w+)\"");
+    private static final Pattern OBJECT = Pattern.compile("\\{\\s*\"oid\"\\s*:\\s*\"([0-9a-f]{64})\"\\s*,\\s*\"size\"\\s*:\\s*(\\d+)");
+    private static final Pattern OBJECT_PATH = Pattern.compile(BASE_PATH + "/objects/([0-9a-f]{64})");
+
+    // ======================================================================
+    // Fields
+
+    private final Path storeDir;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private volatile long latencyMillis = 0;
+
+    // ======================================================================
+    // Constructors
+
+    LfsTestServer(final Path storeDir) throws IOException {
+        this.storeDir = requireNonNull(storeDir);
+        Files.createDirectories(storeDir);
+        this.executor = Executors.newCachedThreadPool();
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.server.createContext(BASE_PATH, this::handle);
+        this.server.setExecutor(this.executor);
+        this.server.start();
+    }
+
+    // ======================================================================
+    // Package private
+
+    int getPort() {
+        return this.server.getAddress().getPort();
+    }
+
+    Path getStoreDirectory() {
+        return this.storeDir;
+    }
+
+    /**
+     * Delay every response by the given amount, like a round trip to a remote server would.
+     */
+    void setLatencyMillis(final long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    @Override
+    public void close() {
+        this.server.stop(0);
+        this.executor.shutdownNow();
+    }
+
+    // ======================================================================
+    // Private
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (this.latencyMillis > 0) Thread.sleep(this.latencyMillis);
+            final String path = exchange.getRequestURI().getPath();
+            final Matcher objectPath = OBJECT_PATH.matcher(path);
+            if (path.equals(BASE_PATH + "/objects/batch") && "POST".equals(exchange.getRequestMethod())) {
+                handleBatch(exchange);
+            } else if (objectPath.matches() && "PUT".equals(exchange.getRequestMethod())) {
+                handleUpload(exchange, objectPath.group(1));
+            } else if (objectPath.matches() && "GET".equals(exchange.getRequestMethod())) {
+                handleDownload(exchange, objectPath.group(1));
+            } else {
+                exchange.sendResponseHeaders(404, -1);
+            }
+        } catch (IOException | RuntimeException e) {
+            syslog().error("LFS request failed", e);
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void handleBatch(final HttpExchange exchange) throws IOException {
+        final String request = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        final Matcher operation = OPERATION.matcher(request);
+        final boolean upload = operation.find() && "upload".equals(operation.group(1));
+        final String href = "http://" + exchange.getRequestHeaders().getFirst("Host") + BASE_PATH + "/objects/";
+        final StringBuilder response = new StringBuilder("{\"transfer\":\"basic\",\"objects\":[");
+        final Matcher object = OBJECT.matcher(request);
+        boolean first = true;
+        while (object.find()) {
+            final String oid = object.group(1);
+            final String size = object.group(2);
+            if (!first) response.append(',');
+            first = false;
+            response.append("{\"oid\":\"").append(oid).append("\",\"size\":").append(size).append(",\"authenticated\":true");
+            final boolean exists = Files.exists(objectFile(oid));
+            if (upload && !exists) {
+                response.append(",\"actions\":{\"upload\":{\"href\":\"").append(href).append(oid).append("\"}}");
+            } else if (!upload && exists) {
+                response.append(",\"actions\":{\"download\":{\"href\":\"").append(href).append(oid).append("\"}}");
+            } else if (!upload) {
+                response.append(",\"error\":{\"code\":404,\"message\":\"Object does not exist\"}");
+            }
+            response.append('}');
+        }
+        response.append("]}");
+        final byte[] body = response.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", LFS_CONTENT_TYPE);
+        exchange.sendResponseHeaders(200, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    /**
+     * Write the object to a temp file and only move it into place if the content matches the oid.
+     */
+    private void handleUpload(final HttpExchange exchange, final String oid) throws IOException {
+        final Path file = objectFile(oid);
+        Files.createDirectories(file.getParent());
+        final Path temp = Files.createTempFile(file.getParent(), oid, ".tmp");
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (final InputStream in = exchange.getRequestBody();
+             final OutputStream out = new DigestOutputStream(Files.newOutputStream(temp), digest)) {
+            in.transferTo(out);
+        }
+        if (!HexFormat.of().formatHex(digest.digest()).equals(oid)) {
+            Files.delete(temp);
+            exchange.sendResponseHeaders(422, -1);
+            return;
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        exchange.sendResponseHeaders(200, -1);
+    }
+
+    private void handleDownload(final HttpExchange exchange, final String oid) throws IOException {
+        final Path file = objectFile(oid);
+        if (!Files.exists(file)) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+        exchange.sendResponseHeaders(200, Files.size(file));
+        Files.copy(file, exchange.getResponseBody());
+    }
+
+    private Path objectFile(final String oid) {
+        return this.storeDir.resolve(oid.substring(0, 2)).resolve(oid.substring(2, 4)).resolve(oid);
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * FastBack - Fast, incremental Minecraft backups powered by Git.
+ * Copyright (C) 2022 pcal.net
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pcal.fastback.repo;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.StoredConfig;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.util.Objects.requireNonNull;
+import static net.pcal.fastback.config.OtherConfigKey.REMOTE_PUSH_URL;
+import static org.apache.commons.io.FileUtils.sizeOfDirectory;
+
+/**
+ * A remote for benchmarks to push to and restore from, running entirely on the local machine so they can run
+ * offline.
+ * <p>
+ * FILE is a bare repo set up the way CreateFileRemoteCommand does it.  SSH serves the same kind of repo from an
+ * embedded ssh server, with lfs content going to a local lfs server; both sit behind a {@link CountingProxy} so
+ * the bytes that would have gone over the network can be measured.
+ *
+ * @author pcal
+ * @since 0.16.0
+ */
+class LocalRemote implements AutoCloseable {
+
+    // ======================================================================
+    // Constants
+
+    enum Kind {
+        FILE,
+        SSH
+    }
+
+    // ======================================================================
+    // Fields
+
+    private final Kind kind;
+    private final Path gitDir;
+    private final SshGitTestServer sshServer;
+    private final CountingProxy sshProxy;
+    private final LfsTestServer lfsServer;
+    private final CountingProxy lfsProxy;
+
+    // ======================================================================
+    // Constructors
+
+    /**
+     * @param dir an empty directory for the remote to keep everything in.
+     */
+    static LocalRemote create(final Kind kind, final Path dir) throws IOException {
+        final Path gitDir = dir.resolve("remote.git");
+        Files.createDirectories(gitDir);
+        try (final Git git = Git.init().setBare(true).setDirectory(gitDir.toFile()).call()) {
+            final StoredConfig config = git.getRepository().getConfig();
+            config.setInt("pack", null, "window", 0);
+            config.setInt("core", null, "bigFileThreshold", 1);
+            config.save();
+        } catch (GitAPIException e) {
+            throw new IOException(e);
+        }
+        if (kind == Kind.FILE) return new LocalRemote(kind, gitDir, null, null, null, null);
+        final SshGitTestServer sshServer = new SshGitTestServer(gitDir, dir.resolve("ssh"));
+        sshServer.installJGitSessionFactory();
+        final LfsTestServer lfsServer = new LfsTestServer(dir.resolve("lfs"));
+        return new LocalRemote(kind, gitDir, sshServer, new CountingProxy(sshServer.getPort()),
+                lfsServer, new CountingProxy(lfsServer.getPort()));
+    }
+
+    private LocalRemote(Kind kind, Path gitDir, SshGitTestServer sshServer, CountingProxy sshProxy,
+                        LfsTestServer lfsServer, CountingProxy lfsProxy) {
+        this.kind = requireNonNull(kind);
+        this.gitDir = requireNonNull(gitDir);
+        this.sshServer = sshServer;
+        this.sshProxy = sshProxy;
+        this.lfsServer = lfsServer;
+        this.lfsProxy = lfsProxy;
+    }
+
+    // ======================================================================
+    // Package private
+
+    String getUrl() {
+        return this.kind == Kind.FILE ? "file://" + this.gitDir.toAbsolutePath() :
+                "ssh://" + SshGitTestServer.USER + "@127.0.0.1:" + this.sshProxy.getPort() + "/remote.git";
+    }
+
+    /**
+     * Point the repo at this remote, including whatever native git and git-lfs need to reach it.
+     */
+    void configure(final RepoImpl repo) throws IOException {
+        repo.getConfig().updater().set(REMOTE_PUSH_URL, getUrl()).save();
+        if (this.kind == Kind.SSH) {
+            final StoredConfig config = repo.getJGit().getRepository().getConfig();
+            final String lfsUrl = "http://127.0.0.1:" + this.lfsProxy.getPort() + LfsTestServer.BASE_PATH;
+            config.setString("core", null, "sshCommand", this.sshServer.getNativeSshCommand());
+            config.setString("lfs", null, "url", lfsUrl);
+            config.setBoolean("lfs", lfsUrl, "locksverify", false);
+            config.save();
+        }
+    }
+
+    /**
+     * @return bytes that went through the proxies in either direction since the last reset.  Always zero for file
+     * remotes.
+     */
+    long getWireBytes() {
+        if (this.kind == Kind.FILE) return 0;
+        return this.sshProxy.getBytesUp() + this.sshProxy.getBytesDown() +
+                this.lfsProxy.getBytesUp() + this.lfsProxy.getBytesDown();
+    }
+
+    void resetWireBytes() {
+        if (this.kind == Kind.FILE) return;
+        this.sshProxy.resetCounts();
+        this.lfsProxy.resetCounts();
+    }
+
+    /**
+     * @return total size of everything the remote is storing.
+     */
+    long getStoredBytes() {
+        long out = sizeOfDirectory(this.gitDir.toFile());
+        if (this.lfsServer != null && Files.exists(this.lfsServer.getStoreDirectory())) {
+            out += sizeOfDirectory(this.lfsServer.getStoreDirectory().toFile());
+        }
+        return out;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.kind == Kind.FILE) return;
+        this.lfsProxy.close();
+        this.lfsServer.close();
+        this.sshProxy.close();
+        this.sshServer.close();
+    }
+}
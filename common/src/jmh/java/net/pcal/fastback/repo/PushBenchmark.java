@@ -0,0 +1,154 @@
+/*
+ * FastBack - Fast, incremental Minecraft backups powered by Git.
+ * Copyright (C) 2022 pcal.net
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pcal.fastback.repo;
+
+import net.pcal.fastback.logging.UserLogger;
+import net.pcal.fastback.mod.HeadlessMinecraftProvider;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import static net.pcal.fastback.config.FastbackConfigKey.IS_SMART_PUSH_ENABLED;
+
+/**
+ * Times PushUtils.doPush to a {@link LocalRemote} with each of the push implementations: plain jgit, jgit smart
+ * push and native git.
+ * <p>
+ * Each trial generates a world and commits a series of snapshots of it.  Each iteration starts with a copy of that
+ * repo and an empty remote, pushes all but the last snapshot, and then times pushing the last one.  With
+ * snapshots=1 that's the first push of a world.  Bytes on the wire and peak heap are reported as secondary
+ * results; see {@link TransferMetrics}.
+ * <p>
+ * Everything runs locally.  Native git needs git and git-lfs on the path, and the ssh remote needs the ssh client.
+ *
+ * @author pcal
+ * @since 0.16.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+public class PushBenchmark {
+
+    // ======================================================================
+    // Constants
+
+    private static final long SEED = 20240102L;
+    private static final double CHURN = 0.05;
+
+    // ======================================================================
+    // Parameters
+
+    @Param({"file", "ssh"})
+    public String remote;
+
+    @Param({"jgit", "smart", "native"})
+    public String push;
+
+    @Param({"1", "3"})
+    public int snapshots;
+
+    @Param({"64"})
+    public int worldMegabytes;
+
+    // ======================================================================
+    // Fields
+
+    private Path tempDir;
+    private SyntheticWorld template;
+    private List<SnapshotId> sids;
+    private RepoImpl repo;
+    private LocalRemote localRemote;
+    private final UserLogger ulog = new BenchmarkUtils.BenchmarkLogger();
+
+    // ======================================================================
+    // Setup
+
+    @Setup(Level.Trial)
+    public void setupTrial() throws Exception {
+        BenchmarkUtils.registerLogger();
+        this.tempDir = Files.createTempDirectory("fastback-push-benchmark");
+        final Path templateDir = this.tempDir.resolve("template");
+        this.template = SyntheticWorld.generate(templateDir, SyntheticWorld.Options.of(SEED, this.worldMegabytes * 1024L * 1024L));
+        HeadlessMinecraftProvider.register(templateDir);
+        try (final RepoImpl templateRepo = BenchmarkUtils.initRepo(templateDir, "native".equals(this.push))) {
+            templateRepo.getConfig().updater().set(IS_SMART_PUSH_ENABLED, "smart".equals(this.push)).save();
+            this.sids = BenchmarkUtils.commitSnapshots(this.template, templateRepo, this.snapshots, CHURN, this.ulog);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setupIteration(final TransferMetrics metrics) throws Exception {
+        final Path worldDir = this.tempDir.resolve("world");
+        final Path remoteDir = this.tempDir.resolve("remote");
+        FileUtils.deleteDirectory(worldDir.toFile());
+        FileUtils.deleteDirectory(remoteDir.toFile());
+        this.template.copyTo(worldDir);
+        HeadlessMinecraftProvider.register(worldDir);
+        this.repo = BenchmarkUtils.openRepo(worldDir);
+        this.localRemote = LocalRemote.create(LocalRemote.Kind.valueOf(this.remote.toUpperCase(Locale.ROOT)), remoteDir);
+        this.localRemote.configure(this.repo);
+        for (final SnapshotId sid : this.sids.subList(0, this.sids.size() - 1)) {
+            PushUtils.doPush(sid, this.repo, this.ulog);
+        }
+        metrics.begin(this.localRemote);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDownIteration() throws IOException {
+        if (this.repo != null) this.repo.close();
+        if (this.localRemote != null) this.localRemote.close();
+        this.repo = null;
+        this.localRemote = null;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownTrial() throws IOException {
+        FileUtils.deleteDirectory(this.tempDir.toFile());
+    }
+
+    // ======================================================================
+    // Benchmarks
+
+    @Benchmark
+    public void push(final TransferMetrics metrics) throws Exception {
+        PushUtils.doPush(this.sids.get(this.sids.size() - 1), this.repo, this.ulog);
+        metrics.end(this.localRemote);
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * FastBack - Fast, incremental Minecraft backups powered by Git.
+ * Copyright (C) 2022 pcal.net
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pcal.fastback.repo;
+
+import net.pcal.fastback.logging.UserLogger;
+import net.pcal.fastback.mod.HeadlessMinecraftProvider;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static net.pcal.fastback.config.FastbackConfigKey.RESTORE_DIRECTORY;
+
+/**
+ * Times RestoreUtils.doRestoreRemoteSnapshot from a {@link LocalRemote}, with jgit (a clone) and with native git
+ * (a pointer checkout followed by a batched lfs pull).
+ * <p>
+ * Each trial generates a world, commits a series of snapshots and pushes them all.  Each iteration then restores
+ * the latest one into an empty directory.
+ * <p>
+ * Native restores only run against the file remote: the clone happens before there's a repo to configure an ssh
+ * command or lfs url in, so reaching the embedded servers would mean changing the user's global git and ssh
+ * configuration.
+ *
+ * @author pcal
+ * @since 0.16.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+public class RestoreBenchmark {
+
+    // ======================================================================
+    // Constants
+
+    private static final long SEED = 20240103L;
+    private static final double CHURN = 0.05;
+
+    // ======================================================================
+    // Parameters
+
+    /**
+     * git implementation and remote kind.
+     */
+    @Param({"jgit-file", "jgit-ssh", "native-file"})
+    public String path;
+
+    @Param({"3"})
+    public int snapshots;
+
+    @Param({"64"})
+    public int worldMegabytes;
+
+    // ======================================================================
+    // Fields
+
+    private Path tempDir;
+    private RepoImpl repo;
+    private LocalRemote localRemote;
+    private SnapshotId latest;
+    private Path restoresDir;
+    private final UserLogger ulog = new BenchmarkUtils.BenchmarkLogger();
+
+    // ======================================================================
+    // Setup
+
+    @Setup(Level.Trial)
+    public void setupTrial() throws Exception {
+        BenchmarkUtils.registerLogger();
+        final String[] gitAndRemote = this.path.split("-");
+        this.tempDir = Files.createTempDirectory("fastback-restore-benchmark");
+        final Path worldDir = this.tempDir.resolve("world");
+        final SyntheticWorld world = SyntheticWorld.generate(worldDir, SyntheticWorld.Options.of(SEED, this.worldMegabytes * 1024L * 1024L));
+        HeadlessMinecraftProvider.register(worldDir);
+        this.repo = BenchmarkUtils.initRepo(worldDir, "native".equals(gitAndRemote[0]));
+        this.localRemote = LocalRemote.create(LocalRemote.Kind.valueOf(gitAndRemote[1].toUpperCase(Locale.ROOT)), this.tempDir.resolve("remote"));
+        this.localRemote.configure(this.repo);
+        final List<SnapshotId> sids = BenchmarkUtils.commitSnapshots(world, this.repo, this.snapshots, CHURN, this.ulog);
+        for (final SnapshotId sid : sids) PushUtils.doPush(sid, this.repo, this.ulog);
+        this.latest = sids.get(sids.size() - 1);
+    }
+
+    @Setup(Level.Iteration)
+    public void setupIteration(final TransferMetrics metrics) throws IOException {
+        this.restoresDir = this.tempDir.resolve("restores");
+        FileUtils.deleteDirectory(this.restoresDir.toFile());
+        Files.createDirectories(this.restoresDir);
+        this.repo.getConfig().updater().set(RESTORE_DIRECTORY, this.restoresDir.toString()).save();
+        metrics.begin(this.localRemote);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownTrial() throws IOException {
+        if (this.repo != null) this.repo.close();
+        if (this.localRemote != null) this.localRemote.close();
+        FileUtils.deleteDirectory(this.tempDir.toFile());
+    }
+
+    // ======================================================================
+    // Benchmarks
+
+    @Benchmark
+    public void restore(final TransferMetrics metrics) throws IOException {
+        RestoreUtils.doRestoreRemoteSnapshot(this.latest.getShortName(), this.repo, this.ulog);
+        metrics.end(this.localRemote);
+        // restore failures are reported to the user rather than thrown
+        try (final Stream<Path> restored = Files.list(this.restoresDir)) {
+            if (restored.noneMatch(dir -> Files.exists(dir.resolve("level.dat")))) {
+                throw new IllegalStateException("Restore of " + this.latest + " failed; see the log");
+            }
+        }
+    }
+}
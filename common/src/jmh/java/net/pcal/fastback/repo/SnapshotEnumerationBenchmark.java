@@ -0,0 +1,151 @@
+/*
+ * FastBack - Fast, incremental Minecraft backups powered by Git.
+ * Copyright (C) 2022 pcal.net
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pcal.fastback.repo;
+
+import com.google.common.collect.ListMultimap;
+import net.pcal.fastback.repo.SnapshotIdUtils.SnapshotIdCodec;
+import net.pcal.fastback.repo.WorldIdUtils.WorldIdImpl;
+import net.pcal.fastback.retention.RetentionPolicy;
+import net.pcal.fastback.retention.RetentionPolicyCodec;
+import net.pcal.fastback.retention.RetentionPolicyType;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdRef;
+import org.eclipse.jgit.lib.Ref;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times snapshot enumeration and retention against a very large number of snapshot branches.
+ * <p>
+ * Setup fakes up packed refs for one world with a snapshot every fifteen minutes going back from now, so the
+ * retention policies have plenty of days, weeks and months to chew on.  Nothing touches disk; this is just the
+ * parsing and bookkeeping we do on every listing and prune.  The parsing benchmark also runs on several threads
+ * at once, which is what a server doing a backup while someone runs /backup list looks like.
+ *
+ * @author pcal
+ * @since 0.16.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class SnapshotEnumerationBenchmark {
+
+    // ======================================================================
+    // Constants
+
+    private static final long INTERVAL_MILLIS = 15 * 60 * 1000L;
+
+    private static final WorldId WORLD_ID = new WorldIdImpl("abcd");
+
+    // ======================================================================
+    // Parameters
+
+    @Param({"100000"})
+    public int refs;
+
+    // ======================================================================
+    // Fields
+
+    private List<String> branchNames;
+    private List<Ref> refList;
+    private Set<SnapshotId> snapshots;
+    private RetentionPolicy daily, gfs, fixed;
+
+    // ======================================================================
+    // Setup
+
+    @Setup
+    public void setup() throws ParseException {
+        BenchmarkUtils.registerLogger();
+        this.branchNames = new ArrayList<>(refs);
+        this.refList = new ArrayList<>(refs);
+        this.snapshots = new LinkedHashSet<>();
+        final long newest = System.currentTimeMillis();
+        for (int i = 0; i < refs; i++) {
+            final String shortName = SnapshotIdCodec.DATE_FORMAT.format(new Date(newest - i * INTERVAL_MILLIS).toInstant());
+            final SnapshotId sid = SnapshotIdCodec.V2.create(WORLD_ID, shortName);
+            this.branchNames.add(sid.getBranchName());
+            this.refList.add(new ObjectIdRef.PeeledNonTag(Ref.Storage.PACKED, "refs/heads/" + sid.getBranchName(),
+                    ObjectId.fromRaw(new byte[]{(byte) i, (byte) (i >> 8), (byte) (i >> 16), 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0})));
+            this.snapshots.add(sid);
+        }
+        this.daily = decode("daily gracePeriodDays=3");
+        this.gfs = decode("gfs");
+        this.fixed = decode("fixed count=1000");
+    }
+
+    // ======================================================================
+    // Benchmarks
+
+    @Benchmark
+    @Threads(4)
+    public void parseBranchNames(Blackhole bh) throws ParseException {
+        for (final String name : branchNames) bh.consume(SnapshotIdCodec.V2.fromBranch(name));
+    }
+
+    @Benchmark
+    public ListMultimap<WorldId, SnapshotId> snapshotsPerWorld() {
+        return SnapshotIdUtils.getSnapshotsPerWorld(refList, SnapshotIdCodec.V2);
+    }
+
+    @Benchmark
+    public Collection<SnapshotId> pruneDaily() {
+        return daily.getSnapshotsToPrune(snapshots);
+    }
+
+    @Benchmark
+    public Collection<SnapshotId> pruneGfs() {
+        return gfs.getSnapshotsToPrune(snapshots);
+    }
+
+    @Benchmark
+    public Collection<SnapshotId> pruneFixed() {
+        return fixed.getSnapshotsToPrune(snapshots);
+    }
+
+    // ======================================================================
+    // Private
+
+    private static RetentionPolicy decode(final String encodedPolicy) {
+        return RetentionPolicyCodec.INSTANCE.decodePolicy(RetentionPolicyType.getAvailable(), encodedPolicy);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * FastBack - Fast, incremental Minecraft backups powered by Git.
+ * Copyright (C) 2022 pcal.net
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pcal.fastback.repo;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+/**
+ * Secondary results for the remote benchmarks, reported by jmh alongside the timings.
+ * <p>
+ * wireBytes counts both directions through the local remote's proxies, so it's zero for file remotes.
+ * remoteGrowthBytes is how much more the remote is storing afterwards; for file remotes that's the nearest thing
+ * to bytes on the wire.  peakHeapBytes is the sum of the heap pools' peak usage during the operation; it only
+ * covers this jvm, which is rather the point when comparing jgit with native git.
+ *
+ * @author pcal
+ * @since 0.16.0
+ */
+@AuxCounters(AuxCounters.Type.EVENTS)
+@State(Scope.Thread)
+public class TransferMetrics {
+
+    // ======================================================================
+    // Fields
+
+    public long wireBytes;
+    public long remoteGrowthBytes;
+    public long peakHeapBytes;
+
+    private long storedBytesBefore;
+
+    // ======================================================================
+    // Setup
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        this.wireBytes = 0;
+        this.remoteGrowthBytes = 0;
+        this.peakHeapBytes = 0;
+    }
+
+    // ======================================================================
+    // Package private
+
+    /**
+     * Call at the end of iteration setup, right before the measured operation.
+     */
+    void begin(final LocalRemote remote) {
+        this.storedBytesBefore = remote.getStoredBytes();
+        remote.resetWireBytes();
+        System.gc();
+        for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) pool.resetPeakUsage();
+        }
+    }
+
+    /**
+     * Call at the end of the measured operation.
+     */
+    void end(final LocalRemote remote) {
+        long peak = 0;
+        for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) peak += pool.getPeakUsage().getUsed();
+        }
+        this.peakHeapBytes = peak;
+        this.wireBytes = remote.getWireBytes();
+        this.remoteGrowthBytes = Math.max(0, remote.getStoredBytes() - this.storedBytesBefore);
+    }
+}
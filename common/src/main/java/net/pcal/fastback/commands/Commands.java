@@ -25,16 +25,22 @@ import net.pcal.fastback.config.GitConfig;
 import net.pcal.fastback.logging.UserLogger;
 import net.pcal.fastback.repo.Repo;
 import net.pcal.fastback.repo.RepoFactory;
+import net.pcal.fastback.utils.Cancellation;
 import net.pcal.fastback.utils.EnvironmentUtils;
 import net.pcal.fastback.utils.Executor.ExecutionLock;
+import net.pcal.fastback.utils.Executor.Priority;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.function.Predicate;
 
 import static net.pcal.fastback.config.FastbackConfigKey.IS_BACKUP_ENABLED;
+import static net.pcal.fastback.config.FastbackConfigKey.OPERATION_TIMEOUT_MINUTES;
+import static net.pcal.fastback.logging.ProgressBus.progressBus;
 import static net.pcal.fastback.logging.SystemLogger.syslog;
 import static net.pcal.fastback.logging.UserMessage.UserMessageStyle.ERROR;
+import static net.pcal.fastback.logging.UserMessage.UserMessageStyle.WARNING;
 import static net.pcal.fastback.logging.UserMessage.styledLocalized;
 import static net.pcal.fastback.mod.Mod.mod;
 import static net.pcal.fastback.utils.EnvironmentUtils.isNativeOk;
@@ -58,17 +64,23 @@ public class Commands {
         InfoCommand.INSTANCE.register(root, pf);
 
         RestoreCommand.INSTANCE.register(root, pf);
+        RestoreChunksCommand.INSTANCE.register(root, pf);
+        RollbackCommand.INSTANCE.register(root, pf);
+        ExportCommand.INSTANCE.register(root, pf);
         CreateFileRemoteCommand.INSTANCE.register(root, pf);
 
         PruneCommand.INSTANCE.register(root, pf);
         DeleteCommand.INSTANCE.register(root, pf);
         GcCommand.INSTANCE.register(root, pf);
         ListCommand.INSTANCE.register(root, pf);
+        StatsCommand.INSTANCE.register(root, pf);
         PushCommand.INSTANCE.register(root, pf);
+        CancelCommand.INSTANCE.register(root, pf);
 
         RemoteListCommand.INSTANCE.register(root, pf);
         RemoteDeleteCommand.INSTANCE.register(root, pf);
         RemotePruneCommand.INSTANCE.register(root, pf);
+        RemoteGcCommand.INSTANCE.register(root, pf);
         RemoteRestoreCommand.INSTANCE.register(root, pf);
 
         SetCommand.INSTANCE.register(root, pf);
@@ -112,8 +124,13 @@ public class Commands {
     }
 
     static void gitOp(final ExecutionLock lock, final UserLogger ulog, final GitOp op) {
+        gitOp(lock, Priority.MANUAL, null, ulog, op);
+    }
+
+    static void gitOp(final ExecutionLock lock, final Priority priority, final String coalesceKey,
+                      final UserLogger ulog, final GitOp op) {
         try {
-            executor().execute(lock, ulog, () -> {
+            executor().execute(lock, priority, coalesceKey, ulog, () -> {
                 final Path worldSaveDir = mod().getWorldDirectory();
                 final RepoFactory rf = RepoFactory.rf();
                 if (!rf.isGitRepo(worldSaveDir)) { // FIXME this is not the right place for these checks
@@ -124,6 +141,7 @@ public class Commands {
                 }
                 try (final Repo repo = rf.load(worldSaveDir)) {
                     final GitConfig repoConfig = repo.getConfig();
+                    Cancellation.current().setTimeout(Duration.ofMinutes(repoConfig.getInt(OPERATION_TIMEOUT_MINUTES)));
                     if (!isNativeOk(repoConfig, ulog, false)) return;
                     if (!repoConfig.getBoolean(IS_BACKUP_ENABLED)) {
                         ulog.message(styledLocalized("fastback.chat.not-enabled", ERROR));
@@ -134,7 +152,12 @@ public class Commands {
                     ulog.message(styledLocalized("fastback.chat.internal-error", ERROR));
                     syslog().error(e);
                 } finally {
-                    mod().clearHudText();
+                    if (Cancellation.current().isTimedOut()) {
+                        ulog.message(styledLocalized("fastback.chat.operation-timed-out", ERROR));
+                    } else if (Cancellation.current().isCancelled()) {
+                        ulog.message(styledLocalized("fastback.chat.operation-cancelled", WARNING));
+                    }
+                    progressBus().clear();
                 }
             });
         } catch (Exception e) {
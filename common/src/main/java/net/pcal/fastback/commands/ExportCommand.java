@@ -0,0 +1,70 @@
+/*
+ * FastBack - Fast, incremental Minecraft backups powered by Git.
+ * Copyright (C) 2022 pcal.net
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pcal.fastback.commands;
+
+import com.mojang.brigadier.arguments.StringArgumentType;
+import com.mojang.brigadier.builder.LiteralArgumentBuilder;
+import com.mojang.brigadier.builder.RequiredArgumentBuilder;
+import com.mojang.brigadier.context.CommandContext;
+import net.minecraft.commands.CommandSourceStack;
+import net.pcal.fastback.logging.UserLogger;
+import net.pcal.fastback.repo.ExportFormat;
+
+import static net.minecraft.commands.Commands.argument;
+import static net.minecraft.commands.Commands.literal;
+import static net.pcal.fastback.commands.Commands.SUCCESS;
+import static net.pcal.fastback.commands.Commands.gitOp;
+import static net.pcal.fastback.commands.Commands.subcommandPermission;
+import static net.pcal.fastback.utils.Executor.ExecutionLock.NONE;
+
+/**
+ * Exports a local snapshot to a zip or tar.gz file in the restores directory, e.g.,
+ * <pre>/backup export 2023-06-01_12-00-00 tar.gz</pre>
+ * Zip is the default.
+ *
+ * @author pcal
+ * @since 0.16.0
+ */
+enum ExportCommand implements Command {
+
+    INSTANCE;
+
+    private static final String COMMAND_NAME = "export";
+    private static final String ARGUMENT = "snapshot";
+
+    @Override
+    public void register(LiteralArgumentBuilder<CommandSourceStack> argb, PermissionsFactory<CommandSourceStack> pf) {
+        final RequiredArgumentBuilder<CommandSourceStack, String> snapshot = argument(ARGUMENT, StringArgumentType.string());
+        snapshot.suggests(SnapshotNameSuggestions.local()).executes(cc -> export(cc, ExportFormat.ZIP));
+        for (final ExportFormat format : ExportFormat.values()) {
+            snapshot.then(literal(format.getExtension()).executes(cc -> export(cc, format)));
+        }
+        argb.then(literal(COMMAND_NAME).requires(subcommandPermission(COMMAND_NAME, pf)).then(snapshot));
+    }
+
+    private static int export(final CommandContext<CommandSourceStack> cc, final ExportFormat format) {
+        try (final UserLogger ulog = UserLogger.ulog(cc)) {
+            gitOp(NONE, ulog, repo -> {
+                final String snapshotName = cc.getArgument(ARGUMENT, String.class);
+                repo.doExport(snapshotName, format, ulog);
+            });
+        }
+        return SUCCESS;
+    }
+}
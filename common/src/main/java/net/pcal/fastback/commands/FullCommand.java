@@ -32,7 +32,9 @@ import static net.pcal.fastback.logging.SystemLogger.syslog;
 import static net.pcal.fastback.logging.UserLogger.ulog;
 import static net.pcal.fastback.logging.UserMessage.localized;
 import static net.pcal.fastback.mod.Mod.mod;
+import static net.pcal.fastback.utils.Executor.BACKUP;
 import static net.pcal.fastback.utils.Executor.ExecutionLock.WRITE;
+import static net.pcal.fastback.utils.Executor.Priority.MANUAL;
 
 /**
  * Perform a local backup.
@@ -62,7 +64,7 @@ enum FullCommand implements Command {
             ulog.internalError();
             syslog().error(e);
         }
-        gitOp(WRITE, ulog, repo -> repo.doCommitAndPush(ulog));
+        gitOp(WRITE, MANUAL, BACKUP, ulog, repo -> repo.doCommitAndPush(ulog));
         return SUCCESS;
     }
 
@@ -29,6 +29,7 @@ import static net.pcal.fastback.commands.Commands.gitOp;
 import static net.pcal.fastback.commands.Commands.subcommandPermission;
 import static net.pcal.fastback.logging.UserLogger.ulog;
 import static net.pcal.fastback.utils.Executor.ExecutionLock.WRITE;
+import static net.pcal.fastback.utils.Executor.Priority.MAINTENANCE;
 
 
 /**
@@ -48,16 +49,23 @@ enum GcCommand implements Command {
         argb.then(
                 literal(COMMAND_NAME).
                         requires(subcommandPermission(COMMAND_NAME, pf)).
-                        executes(GcCommand::gc)
+                        executes(GcCommand::gc).
+                        then(literal("dry-run").executes(GcCommand::gcDryRun))
         );
     }
 
     private static int gc(CommandContext<CommandSourceStack> cc) {
         final UserLogger ulog = ulog(cc);
-        gitOp(WRITE, ulog, repo -> {
+        gitOp(WRITE, MAINTENANCE, null, ulog, repo -> {
             repo.doGc(ulog);
             //log.chat(localized("fastback.chat.gc-done", byteCountToDisplaySize(gc.getBytesReclaimed())));
         });
         return SUCCESS;
     }
+
+    private static int gcDryRun(CommandContext<CommandSourceStack> cc) {
+        final UserLogger ulog = ulog(cc);
+        gitOp(WRITE, ulog, repo -> repo.doGcDryRun(ulog));
+        return SUCCESS;
+    }
 }
@@ -25,10 +25,15 @@ import net.pcal.fastback.config.GitConfigKey;
 import net.pcal.fastback.logging.UserLogger;
 import net.pcal.fastback.logging.UserMessage;
 import net.pcal.fastback.repo.Repo;
+import net.pcal.fastback.repo.SnapshotId;
+import net.pcal.fastback.repo.SnapshotStats;
 import net.pcal.fastback.retention.RetentionPolicy;
 import net.pcal.fastback.retention.RetentionPolicyCodec;
 import net.pcal.fastback.retention.RetentionPolicyType;
 
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
 import java.util.function.Function;
 
 import static java.util.Objects.requireNonNull;
@@ -88,6 +93,7 @@ enum InfoCommand implements Command {
                         final long worldSize = sizeOfDirectory(repo.getWorkTree()) - backupSize;
                         ulog.message(UserMessage.localized("fastback.chat.info-world-size", byteCountToDisplaySize(worldSize)));
                         ulog.message(UserMessage.localized("fastback.chat.info-backup-size", byteCountToDisplaySize(backupSize)));
+                        showSnapshots(repo, ulog);
 
                         show(IS_BACKUP_ENABLED, conf::getBoolean, ulog);
                         show(REMOTE_PUSH_URL, conf::getString, ulog);
@@ -125,6 +131,18 @@ enum InfoCommand implements Command {
         ulog.message(raw(key.getDisplayName() + " = " + valueFn.apply(key)));
     }
 
+    private static void showSnapshots(Repo repo, UserLogger ulog) throws IOException {
+        final Map<SnapshotId, SnapshotStats> stats = repo.getLocalSnapshotStats();
+        ulog.message(UserMessage.localized("fastback.chat.info-snapshot-count", stats.size()));
+        if (stats.isEmpty()) return;
+        final SnapshotId latest = Collections.max(stats.keySet());
+        final SnapshotStats s = stats.get(latest);
+        if (s != null) {
+            ulog.message(UserMessage.localized("fastback.chat.info-latest-snapshot", latest.getShortName(),
+                    s.fileCount(), byteCountToDisplaySize(s.bytesAdded()), Math.max(1, s.durationMillis() / 1000)));
+        }
+    }
+
     private static String getActionDisplay(SchedulableAction action) {
         return action == null ? SchedulableAction.NONE.getArgumentName() : action.getArgumentName();
     }
@@ -24,10 +24,12 @@ import net.minecraft.commands.CommandSourceStack;
 import net.pcal.fastback.logging.UserLogger;
 import net.pcal.fastback.logging.UserMessage;
 import net.pcal.fastback.repo.SnapshotId;
+import net.pcal.fastback.repo.SnapshotStats;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import static net.minecraft.commands.Commands.literal;
 import static net.pcal.fastback.commands.Commands.FAILURE;
@@ -37,6 +39,7 @@ import static net.pcal.fastback.commands.Commands.subcommandPermission;
 import static net.pcal.fastback.mod.Mod.mod;
 import static net.pcal.fastback.repo.RepoFactory.rf;
 import static net.pcal.fastback.utils.Executor.ExecutionLock.NONE;
+import static org.apache.commons.io.FileUtils.byteCountToDisplaySize;
 
 enum ListCommand implements Command {
 
@@ -57,10 +60,18 @@ enum ListCommand implements Command {
         try (final UserLogger ulog = UserLogger.ulog(cc)) {
             if (!rf().doInitCheck(mod().getWorldDirectory(), ulog)) return FAILURE;
             gitOp(NONE, ulog, repo -> {
-                final List<SnapshotId> snapshots = new ArrayList<>(repo.getLocalSnapshots());
+                final Map<SnapshotId, SnapshotStats> stats = repo.getLocalSnapshotStats();
+                final List<SnapshotId> snapshots = new ArrayList<>(stats.keySet());
                 Collections.sort(snapshots);
                 for (final SnapshotId sid : snapshots) {
-                    ulog.message(UserMessage.raw(sid.getShortName()));
+                    final SnapshotStats s = stats.get(sid);
+                    if (s == null) {
+                        ulog.message(UserMessage.raw(sid.getShortName()));
+                    } else {
+                        ulog.message(UserMessage.localized("fastback.chat.list-snapshot-stats", sid.getShortName(),
+                                s.changedFileCount(), s.fileCount(), byteCountToDisplaySize(s.bytesAdded()),
+                                Math.max(1, s.durationMillis() / 1000)));
+                    }
                 }
             });
         }
@@ -32,7 +32,9 @@ import static net.pcal.fastback.logging.SystemLogger.syslog;
 import static net.pcal.fastback.logging.UserLogger.ulog;
 import static net.pcal.fastback.mod.Mod.mod;
 import static net.pcal.fastback.repo.RepoFactory.rf;
+import static net.pcal.fastback.utils.Executor.BACKUP;
 import static net.pcal.fastback.utils.Executor.ExecutionLock.WRITE;
+import static net.pcal.fastback.utils.Executor.Priority.MANUAL;
 
 /**
  * Perform a local backup.
@@ -64,7 +66,7 @@ enum LocalCommand implements Command {
                 ulog.internalError();
                 syslog().error(e);
             }
-            gitOp(WRITE, ulog, repo -> repo.doCommitSnapshot(ulog));
+            gitOp(WRITE, MANUAL, BACKUP, ulog, repo -> repo.doCommitSnapshot(ulog));
         }
         return SUCCESS;
     }
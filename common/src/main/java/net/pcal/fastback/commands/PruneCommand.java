@@ -32,6 +32,7 @@ import static net.pcal.fastback.commands.Commands.gitOp;
 import static net.pcal.fastback.commands.Commands.subcommandPermission;
 import static net.pcal.fastback.logging.UserLogger.ulog;
 import static net.pcal.fastback.utils.Executor.ExecutionLock.WRITE;
+import static net.pcal.fastback.utils.Executor.Priority.MAINTENANCE;
 
 /**
  * Command to prune all snapshots that are not to be retained per the retention policy.
@@ -50,13 +51,14 @@ enum PruneCommand implements Command {
         argb.then(
                 literal(COMMAND_NAME).
                         requires(subcommandPermission(COMMAND_NAME, pf)).
-                        executes(cc -> prune(cc.getSource()))
+                        executes(cc -> prune(cc.getSource())).
+                        then(literal("dry-run").executes(cc -> pruneDryRun(cc.getSource())))
         );
     }
 
     private static int prune(final CommandSourceStack scs) {
         final UserLogger ulog = ulog(scs);
-        gitOp(WRITE, ulog, repo -> {
+        gitOp(WRITE, MAINTENANCE, null, ulog, repo -> {
             final Collection<SnapshotId> pruned = repo.doLocalPrune(ulog);
             if (pruned != null) {
                 ulog.message(UserMessage.localized("fastback.chat.prune-done", pruned.size()));
@@ -65,4 +67,10 @@ enum PruneCommand implements Command {
         });
         return SUCCESS;
     }
+
+    private static int pruneDryRun(final CommandSourceStack scs) {
+        final UserLogger ulog = ulog(scs);
+        gitOp(WRITE, ulog, repo -> repo.doLocalPruneDryRun(ulog));
+        return SUCCESS;
+    }
 }
@@ -31,7 +31,7 @@ import static net.pcal.fastback.commands.Commands.SUCCESS;
 import static net.pcal.fastback.commands.Commands.getArgumentNicely;
 import static net.pcal.fastback.commands.Commands.gitOp;
 import static net.pcal.fastback.commands.Commands.subcommandPermission;
-import static net.pcal.fastback.utils.Executor.ExecutionLock.NONE;
+import static net.pcal.fastback.utils.Executor.ExecutionLock.WRITE;
 
 
 /**
@@ -58,7 +58,7 @@ enum PushCommand implements Command {
 
     private static int execute(CommandContext<CommandSourceStack> cc) {
         final UserLogger log = UserLogger.ulog(cc);
-        gitOp(NONE, log, repo -> {
+        gitOp(WRITE, log, repo -> {
             final String snapshotName = getArgumentNicely(ARGUMENT, String.class, cc.getLastChild(), log);
             final SnapshotId sid = repo.createSnapshotId(snapshotName);
             repo.doPushSnapshot(sid, log);
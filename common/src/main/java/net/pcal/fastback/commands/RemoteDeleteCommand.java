@@ -26,12 +26,18 @@ import net.pcal.fastback.logging.UserLogger;
 import net.pcal.fastback.logging.UserMessage;
 import net.pcal.fastback.repo.SnapshotId;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
 import static net.minecraft.commands.Commands.argument;
 import static net.minecraft.commands.Commands.literal;
 import static net.pcal.fastback.commands.Commands.SUCCESS;
 import static net.pcal.fastback.commands.Commands.gitOp;
 import static net.pcal.fastback.commands.Commands.subcommandPermission;
 import static net.pcal.fastback.logging.UserLogger.ulog;
+import static net.pcal.fastback.logging.UserMessage.UserMessageStyle.ERROR;
+import static net.pcal.fastback.logging.UserMessage.styledLocalized;
 import static net.pcal.fastback.utils.Executor.ExecutionLock.WRITE;
 
 enum RemoteDeleteCommand implements Command {
@@ -39,13 +45,13 @@ enum RemoteDeleteCommand implements Command {
     INSTANCE;
 
     private static final String COMMAND_NAME = "remote-delete";
-    private static final String ARGUMENT = "snapshot";
+    private static final String ARGUMENT = "snapshots";
 
     @Override
     public void register(LiteralArgumentBuilder<CommandSourceStack> argb, PermissionsFactory<CommandSourceStack> pf) {
         argb.then(literal(COMMAND_NAME).
                 requires(subcommandPermission(COMMAND_NAME, pf)).then(
-                        argument(ARGUMENT, StringArgumentType.string()).
+                        argument(ARGUMENT, StringArgumentType.greedyString()).
                                 suggests(SnapshotNameSuggestions.remote()).
                                 executes(RemoteDeleteCommand::delete)
                 )
@@ -55,10 +61,21 @@ enum RemoteDeleteCommand implements Command {
     private static int delete(CommandContext<CommandSourceStack> cc) {
         final UserLogger log = ulog(cc);
         gitOp(WRITE, log, repo -> {
-            final String snapshotName = cc.getLastChild().getArgument(ARGUMENT, String.class);
-            final SnapshotId sid = repo.createSnapshotId(snapshotName);
-            repo.deleteRemoteBranch(sid.getBranchName());
-            log.message(UserMessage.localized("fastback.chat.remote-delete-done", snapshotName));
+            final String[] snapshotNames = cc.getLastChild().getArgument(ARGUMENT, String.class).trim().split("\\s+");
+            final List<String> branchNames = new ArrayList<>();
+            for (final String snapshotName : snapshotNames) {
+                final SnapshotId sid = repo.createSnapshotId(snapshotName);
+                branchNames.add(sid.getBranchName());
+            }
+            final Map<String, String> failures = repo.deleteRemoteBranches(branchNames);
+            for (int i = 0; i < snapshotNames.length; i++) {
+                final String reason = failures.get(branchNames.get(i));
+                if (reason == null) {
+                    log.message(UserMessage.localized("fastback.chat.remote-delete-done", snapshotNames[i]));
+                } else {
+                    log.message(styledLocalized("fastback.chat.remote-delete-failed", ERROR, snapshotNames[i], reason));
+                }
+            }
         });
         return SUCCESS;
     }
@@ -32,6 +32,7 @@ import static net.pcal.fastback.commands.Commands.gitOp;
 import static net.pcal.fastback.commands.Commands.subcommandPermission;
 import static net.pcal.fastback.logging.UserLogger.ulog;
 import static net.pcal.fastback.utils.Executor.ExecutionLock.WRITE;
+import static net.pcal.fastback.utils.Executor.Priority.MAINTENANCE;
 
 /**
  * Command to prune all snapshots that are not to be retained per the retention policy.
@@ -56,9 +57,12 @@ enum RemotePruneCommand implements Command {
 
     private static int remotePrune(final CommandSourceStack scs) {
         final UserLogger ulog = ulog(scs);
-        gitOp(WRITE, ulog, repo -> {
+        gitOp(WRITE, MAINTENANCE, null, ulog, repo -> {
             final Collection<SnapshotId> pruned = repo.doRemotePrune(ulog);
-            ulog.message(UserMessage.localized("fastback.chat.prune-done", pruned.size()));
+            if (pruned != null) {
+                ulog.message(UserMessage.localized("fastback.chat.prune-done", pruned.size()));
+                if (!pruned.isEmpty()) ulog.message(UserMessage.localized("fastback.chat.remote-prune-suggest-gc"));
+            }
         });
         return SUCCESS;
     }
@@ -38,6 +38,7 @@ enum RemoteRestoreCommand implements Command {
 
     private static final String COMMAND_NAME = "remote-restore";
     private static final String ARGUMENT = "snapshot";
+    private static final String LAZY = "lazy";
 
     @Override
     public void register(final LiteralArgumentBuilder<CommandSourceStack> argb, PermissionsFactory<CommandSourceStack> pf) {
@@ -46,7 +47,8 @@ enum RemoteRestoreCommand implements Command {
                         requires(subcommandPermission(COMMAND_NAME, pf)).then(
                                 argument(ARGUMENT, StringArgumentType.string()).
                                         suggests(SnapshotNameSuggestions.remote()).
-                                        executes(RemoteRestoreCommand::remoteRestore)
+                                        executes(RemoteRestoreCommand::remoteRestore).
+                                        then(literal(LAZY).executes(RemoteRestoreCommand::lazyRemoteRestore))
                         )
         );
     }
@@ -59,4 +61,13 @@ enum RemoteRestoreCommand implements Command {
         });
         return SUCCESS;
     }
+
+    private static int lazyRemoteRestore(final CommandContext<CommandSourceStack> cc) {
+        final UserLogger ulog = ulog(cc);
+        gitOp(NONE, ulog, repo -> {
+            final String snapshotName = cc.getLastChild().getArgument(ARGUMENT, String.class);
+            repo.doLazyRestoreRemoteSnapshot(snapshotName, ulog);
+        });
+        return SUCCESS;
+    }
 }
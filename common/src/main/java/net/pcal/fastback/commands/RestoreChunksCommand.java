@@ -0,0 +1,88 @@
+/*
+ * FastBack - Fast, incremental Minecraft backups powered by Git.
+ * Copyright (C) 2022 pcal.net
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pcal.fastback.commands;
+
+import com.mojang.brigadier.arguments.IntegerArgumentType;
+import com.mojang.brigadier.arguments.StringArgumentType;
+import com.mojang.brigadier.builder.LiteralArgumentBuilder;
+import com.mojang.brigadier.builder.RequiredArgumentBuilder;
+import com.mojang.brigadier.context.CommandContext;
+import net.minecraft.commands.CommandSourceStack;
+import net.pcal.fastback.logging.UserLogger;
+
+import static net.minecraft.commands.Commands.argument;
+import static net.minecraft.commands.Commands.literal;
+import static net.pcal.fastback.commands.Commands.SUCCESS;
+import static net.pcal.fastback.commands.Commands.gitOp;
+import static net.pcal.fastback.commands.Commands.subcommandPermission;
+import static net.pcal.fastback.utils.Executor.ExecutionLock.WRITE;
+
+/**
+ * Restores a rectangular area of chunks from a snapshot.  Coordinates are given in blocks, e.g.,
+ * <pre>/backup restore-chunks 2023-06-01_12-00-00 -100 -100 100 100 the_nether</pre>
+ * If no dimension is given, the overworld is assumed.  If the snapshot isn't available locally, it's
+ * fetched from the remote.
+ *
+ * @author pcal
+ * @since 0.16.0
+ */
+enum RestoreChunksCommand implements Command {
+
+    INSTANCE;
+
+    private static final String COMMAND_NAME = "restore-chunks";
+    private static final String SNAPSHOT_ARGUMENT = "snapshot";
+    private static final String FROM_X_ARGUMENT = "x1";
+    private static final String FROM_Z_ARGUMENT = "z1";
+    private static final String TO_X_ARGUMENT = "x2";
+    private static final String TO_Z_ARGUMENT = "z2";
+    private static final String DIMENSION_ARGUMENT = "dimension";
+    private static final String DEFAULT_DIMENSION = "minecraft:overworld";
+
+    @Override
+    public void register(LiteralArgumentBuilder<CommandSourceStack> argb, PermissionsFactory<CommandSourceStack> pf) {
+        final RequiredArgumentBuilder<CommandSourceStack, Integer> toZ = argument(TO_Z_ARGUMENT, IntegerArgumentType.integer());
+        toZ.executes(cc -> restoreChunks(cc, DEFAULT_DIMENSION));
+        toZ.then(argument(DIMENSION_ARGUMENT, StringArgumentType.greedyString()).
+                executes(cc -> restoreChunks(cc, cc.getArgument(DIMENSION_ARGUMENT, String.class))));
+        argb.then(
+                literal(COMMAND_NAME).
+                        requires(subcommandPermission(COMMAND_NAME, pf)).then(
+                                argument(SNAPSHOT_ARGUMENT, StringArgumentType.string()).
+                                        suggests(SnapshotNameSuggestions.local()).then(
+                                                argument(FROM_X_ARGUMENT, IntegerArgumentType.integer()).then(
+                                                        argument(FROM_Z_ARGUMENT, IntegerArgumentType.integer()).then(
+                                                                argument(TO_X_ARGUMENT, IntegerArgumentType.integer()).then(toZ))))
+                        )
+        );
+    }
+
+    private static int restoreChunks(final CommandContext<CommandSourceStack> cc, final String dimension) {
+        try (final UserLogger ulog = UserLogger.ulog(cc)) {
+            gitOp(WRITE, ulog, repo -> {
+                final String snapshotName = cc.getArgument(SNAPSHOT_ARGUMENT, String.class);
+                repo.doRestoreChunks(snapshotName, dimension,
+                        cc.getArgument(FROM_X_ARGUMENT, Integer.class), cc.getArgument(FROM_Z_ARGUMENT, Integer.class),
+                        cc.getArgument(TO_X_ARGUMENT, Integer.class), cc.getArgument(TO_Z_ARGUMENT, Integer.class),
+                        ulog);
+            });
+        }
+        return SUCCESS;
+    }
+}
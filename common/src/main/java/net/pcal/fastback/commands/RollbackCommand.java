@@ -0,0 +1,93 @@
+/*
+ * FastBack - Fast, incremental Minecraft backups powered by Git.
+ * Copyright (C) 2022 pcal.net
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pcal.fastback.commands;
+
+import com.mojang.brigadier.arguments.StringArgumentType;
+import com.mojang.brigadier.builder.LiteralArgumentBuilder;
+import com.mojang.brigadier.context.CommandContext;
+import net.minecraft.commands.CommandSourceStack;
+import net.pcal.fastback.logging.UserLogger;
+import net.pcal.fastback.repo.SnapshotId;
+
+import static net.minecraft.commands.Commands.argument;
+import static net.minecraft.commands.Commands.literal;
+import static net.pcal.fastback.commands.Commands.SUCCESS;
+import static net.pcal.fastback.commands.Commands.gitOp;
+import static net.pcal.fastback.commands.Commands.subcommandPermission;
+import static net.pcal.fastback.logging.UserMessage.UserMessageStyle.ERROR;
+import static net.pcal.fastback.logging.UserMessage.localized;
+import static net.pcal.fastback.logging.UserMessage.styledLocalized;
+import static net.pcal.fastback.mod.Mod.mod;
+import static net.pcal.fastback.utils.Executor.ExecutionLock.NONE;
+
+/**
+ * Schedules an in-place rollback of the world to a local snapshot.  The world files can't be touched while the
+ * world is loaded, so the rollback itself happens after the world stops (and after any shutdown action).
+ *
+ * @author pcal
+ * @since 0.16.0
+ */
+enum RollbackCommand implements Command {
+
+    INSTANCE;
+
+    private static final String COMMAND_NAME = "rollback";
+    private static final String ARGUMENT = "snapshot";
+
+    @Override
+    public void register(LiteralArgumentBuilder<CommandSourceStack> argb, PermissionsFactory<CommandSourceStack> pf) {
+        argb.then(
+                literal(COMMAND_NAME).
+                        requires(subcommandPermission(COMMAND_NAME, pf)).
+                        then(literal("cancel").executes(RollbackCommand::cancel)).
+                        then(argument(ARGUMENT, StringArgumentType.string()).
+                                suggests(SnapshotNameSuggestions.local()).
+                                executes(RollbackCommand::rollback)
+                        )
+        );
+    }
+
+    private static int rollback(final CommandContext<CommandSourceStack> cc) {
+        try (final UserLogger ulog = UserLogger.ulog(cc)) {
+            gitOp(NONE, ulog, repo -> {
+                final String snapshotName = cc.getLastChild().getArgument(ARGUMENT, String.class);
+                final SnapshotId sid = repo.createSnapshotId(snapshotName);
+                if (!repo.getLocalSnapshots().contains(sid)) {
+                    ulog.message(styledLocalized("fastback.chat.restore-nosuch", ERROR, snapshotName));
+                    return;
+                }
+                mod().setPendingRollback(sid.getShortName());
+                ulog.message(localized("fastback.chat.rollback-scheduled", sid.getShortName()));
+            });
+        }
+        return SUCCESS;
+    }
+
+    private static int cancel(final CommandContext<CommandSourceStack> cc) {
+        try (final UserLogger ulog = UserLogger.ulog(cc)) {
+            if (mod().getPendingRollback() == null) {
+                ulog.message(localized("fastback.chat.rollback-none-pending"));
+            } else {
+                mod().setPendingRollback(null);
+                ulog.message(localized("fastback.chat.rollback-cancelled"));
+            }
+        }
+        return SUCCESS;
+    }
+}
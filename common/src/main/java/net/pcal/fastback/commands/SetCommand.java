@@ -50,14 +50,20 @@ import static net.pcal.fastback.commands.Commands.missingArgument;
 import static net.pcal.fastback.commands.Commands.subcommandPermission;
 import static net.pcal.fastback.config.FastbackConfigKey.AUTOBACK_ACTION;
 import static net.pcal.fastback.config.FastbackConfigKey.AUTOBACK_WAIT_MINUTES;
+import static net.pcal.fastback.config.FastbackConfigKey.OPERATION_TIMEOUT_MINUTES;
 import static net.pcal.fastback.config.FastbackConfigKey.BROADCAST_ENABLED;
 import static net.pcal.fastback.config.FastbackConfigKey.BROADCAST_MESSAGE;
 import static net.pcal.fastback.config.FastbackConfigKey.IS_BACKUP_ENABLED;
+import static net.pcal.fastback.config.FastbackConfigKey.IS_INCREMENTAL_GC_ENABLED;
 import static net.pcal.fastback.config.FastbackConfigKey.IS_LOCK_CLEANUP_ENABLED;
 import static net.pcal.fastback.config.FastbackConfigKey.IS_MODS_BACKUP_ENABLED;
+import static net.pcal.fastback.config.FastbackConfigKey.IS_REACHABILITY_INDEX_ENABLED;
+import static net.pcal.fastback.config.FastbackConfigKey.IS_REMOTE_CATALOG_ENABLED;
 import static net.pcal.fastback.config.FastbackConfigKey.LOCAL_RETENTION_POLICY;
+import static net.pcal.fastback.config.FastbackConfigKey.METRICS_FILE;
 import static net.pcal.fastback.config.FastbackConfigKey.REMOTE_RETENTION_POLICY;
 import static net.pcal.fastback.config.FastbackConfigKey.RESTORE_DIRECTORY;
+import static net.pcal.fastback.config.FastbackConfigKey.RESTORE_LFS_CONCURRENCY;
 import static net.pcal.fastback.config.FastbackConfigKey.SHUTDOWN_ACTION;
 import static net.pcal.fastback.config.OtherConfigKey.REMOTE_PUSH_URL;
 import static net.pcal.fastback.logging.SystemLogger.syslog;
@@ -90,11 +96,17 @@ enum SetCommand implements Command {
         registerBooleanConfigValue(IS_LOCK_CLEANUP_ENABLED, sc);
         registerBooleanConfigValue(IS_BACKUP_ENABLED, sc);
         registerBooleanConfigValue(IS_MODS_BACKUP_ENABLED, sc);
+        registerBooleanConfigValue(IS_INCREMENTAL_GC_ENABLED, sc);
+        registerBooleanConfigValue(IS_REACHABILITY_INDEX_ENABLED, sc);
+        registerBooleanConfigValue(IS_REMOTE_CATALOG_ENABLED, sc);
         registerBooleanConfigValue(BROADCAST_ENABLED, sc);
         registerStringConfigValue(BROADCAST_MESSAGE, "message", sc);
         registerStringConfigValue(RESTORE_DIRECTORY, "full-directory-path", sc);
         registerStringConfigValue(REMOTE_PUSH_URL, "url", sc);
+        registerStringConfigValue(METRICS_FILE, "full-file-path", sc);
         registerIntegerConfigValue(AUTOBACK_WAIT_MINUTES, "minutes", sc);
+        registerIntegerConfigValue(RESTORE_LFS_CONCURRENCY, "transfers", sc);
+        registerIntegerConfigValue(OPERATION_TIMEOUT_MINUTES, "minutes", sc);
 
         {
             final List<String> schedulableActions = new ArrayList<>();
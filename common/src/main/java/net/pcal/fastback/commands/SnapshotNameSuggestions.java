@@ -61,8 +61,11 @@ abstract class SnapshotNameSuggestions implements SuggestionProvider<CommandSour
                 final Iterator<SnapshotId> i = getSnapshotIds(repo, ulog);
                 // Note to self: there's no point sorting here because the mc code (Suggestion.java) is
                 // going to resort it anyway.
-                while (i.hasNext()) builder.suggest(i.next().getShortName());
-                completableFuture.complete(builder.buildFuture().get());
+                // for arguments that take several names, suggest for the last one
+                final int lastSpace = builder.getRemaining().lastIndexOf(' ');
+                final SuggestionsBuilder b = lastSpace < 0 ? builder : builder.createOffset(builder.getStart() + lastSpace + 1);
+                while (i.hasNext()) b.suggest(i.next().getShortName());
+                completableFuture.complete(b.buildFuture().get());
             });
         }
         return completableFuture;
@@ -32,19 +32,25 @@ public enum FastbackConfigKey implements GitConfigKey {
     IS_BACKUP_ENABLED("backup-enabled", true),
     IS_BRANCH_CLEANUP_ENABLED(true),
     IS_FILE_REMOTE_BARE(true),
+    IS_INCREMENTAL_GC_ENABLED("incremental-gc-enabled", true),
     IS_LOCK_CLEANUP_ENABLED("lock-cleanup-enabled", true),
     IS_NATIVE_GIT_ENABLED("native-git-enabled", true),
     IS_MODS_BACKUP_ENABLED("mods-backup-enabled", false),
+    IS_REACHABILITY_INDEX_ENABLED("reachability-index-enabled", true),
     IS_REFLOG_DELETION_ENABLED(true),
+    IS_REMOTE_CATALOG_ENABLED("remote-catalog-enabled", true),
     IS_REMOTE_TEMP_BRANCH_CLEANUP_ENABLED(true),
     IS_SMART_PUSH_ENABLED("smart-push-enabled", false),
     IS_TEMP_BRANCH_CLEANUP_ENABLED(true),
     IS_TRACKING_BRANCH_CLEANUP_ENABLED(true),
     IS_UUID_CHECK_ENABLED(true),
     LOCAL_RETENTION_POLICY("retention-policy", null),
+    METRICS_FILE("metrics-file", null),
+    OPERATION_TIMEOUT_MINUTES("operation-timeout", 360),
     REMOTE_NAME("remote-name", "origin"),
     REMOTE_RETENTION_POLICY("remote-retention-policy", null),
     RESTORE_DIRECTORY("restore-directory", null),
+    RESTORE_LFS_CONCURRENCY("restore-lfs-concurrency", 8),
     SHUTDOWN_ACTION("shutdown-action", "local"),
     UPDATE_GITATTRIBUTES_ENABLED("update-gitattributes-enabled", true),
     UPDATE_GITIGNORE_ENABLED("update-gitignore-enabled", true);
@@ -18,8 +18,6 @@
 
 package net.pcal.fastback.logging;
 
-import static net.pcal.fastback.mod.Mod.mod;
-
 /**
  * Handles messages in the context of an autosave operation.
  *
@@ -33,10 +31,4 @@ enum AutosaveLogger implements UserLogger {
     @Override
     public void message(final UserMessage message) {
     }
-
-    @Override
-    public void update(final UserMessage message) {
-        mod().setHudText(message);
-    }
-
 }
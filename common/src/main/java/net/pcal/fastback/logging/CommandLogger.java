@@ -41,9 +41,4 @@ class CommandLogger implements UserLogger {
     public void message(final UserMessage message) {
         mod().sendChat(message, this.scs);
     }
-
-    @Override
-    public void update(final UserMessage message) {
-        mod().setHudText(message);
-    }
 }
@@ -0,0 +1,52 @@
+/*
+ * FastBack - Fast, incremental Minecraft backups powered by Git.
+ * Copyright (C) 2022 pcal.net
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pcal.fastback.logging;
+
+import java.util.Objects;
+
+import static net.pcal.fastback.logging.SystemLogger.syslog;
+
+/**
+ * Writes a debug line whenever the phase or task changes, so the server log shows where a slow backup spent its
+ * time without logging every file.
+ *
+ * @author pcal
+ * @since 0.16.0
+ */
+class LogProgressListener implements ProgressListener {
+
+    private ProgressEvent.Phase lastPhase = null;
+    private String lastTask = null;
+
+    @Override
+    public void progress(final ProgressEvent event) {
+        if (event.phase() == ProgressEvent.Phase.OTHER) return;
+        if (event.phase() == this.lastPhase && Objects.equals(event.task(), this.lastTask)) return;
+        this.lastPhase = event.phase();
+        this.lastTask = event.task();
+        syslog().debug("Progress: " + event.phase() + (event.task() != null ? " " + event.task() : "") +
+                (event.hasCount() ? " " + event.completed() + "/" + event.total() : ""));
+    }
+
+    @Override
+    public void progressCleared() {
+        this.lastPhase = null;
+        this.lastTask = null;
+    }
+}
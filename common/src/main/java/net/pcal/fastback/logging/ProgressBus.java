@@ -0,0 +1,51 @@
+/*
+ * FastBack - Fast, incremental Minecraft backups powered by Git.
+ * Copyright (C) 2022 pcal.net
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pcal.fastback.logging;
+
+/**
+ * Coalesces progress events from backup operations and delivers them to subscribers at a fixed rate on a
+ * dedicated thread.  Publishing is cheap and never blocks, so it's fine to do it once per file.
+ *
+ * @author pcal
+ * @since 0.16.0
+ */
+public interface ProgressBus {
+
+    static ProgressBus progressBus() {
+        return Singleton.INSTANCE;
+    }
+
+    /**
+     * Replace any pending event with the given one.
+     */
+    void publish(ProgressEvent event);
+
+    /**
+     * Discard any pending event and tell subscribers that progress is no longer being reported.
+     */
+    void clear();
+
+    void subscribe(ProgressListener listener);
+
+    void unsubscribe(ProgressListener listener);
+
+    class Singleton {
+        private static final ProgressBus INSTANCE = new ProgressBusImpl();
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * FastBack - Fast, incremental Minecraft backups powered by Git.
+ * Copyright (C) 2022 pcal.net
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pcal.fastback.logging;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static net.pcal.fastback.logging.SystemLogger.syslog;
+
+/**
+ * Keeps only the latest event.  The delivery thread sleeps until something is pending, hands it to the listeners
+ * and then waits out the rest of the interval, so listeners see at most one event per interval no matter how fast
+ * they're published.
+ *
+ * @author pcal
+ * @since 0.16.0
+ */
+class ProgressBusImpl implements ProgressBus {
+
+    // ======================================================================
+    // Constants
+
+    private static final long DELIVERY_INTERVAL_MILLIS = 250;
+
+    // ======================================================================
+    // Fields
+
+    private final List<ProgressListener> listeners = new CopyOnWriteArrayList<>();
+    private ProgressEvent pending = null;
+    private boolean clearPending = false;
+
+    // ======================================================================
+    // Constructor
+
+    ProgressBusImpl() {
+        this.listeners.add(new LogProgressListener());
+        final Thread thread = new Thread(this::deliveryLoop, "fastback-progress");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // ======================================================================
+    // ProgressBus implementation
+
+    @Override
+    public synchronized void publish(final ProgressEvent event) {
+        this.pending = event;
+        this.notifyAll();
+    }
+
+    @Override
+    public synchronized void clear() {
+        this.pending = null;
+        this.clearPending = true;
+        this.notifyAll();
+    }
+
+    @Override
+    public void subscribe(final ProgressListener listener) {
+        this.listeners.add(listener);
+    }
+
+    @Override
+    public void unsubscribe(final ProgressListener listener) {
+        this.listeners.remove(listener);
+    }
+
+    // ======================================================================
+    // Private
+
+    private void deliveryLoop() {
+        while (true) {
+            final ProgressEvent event;
+            final boolean cleared;
+            synchronized (this) {
+                while (this.pending == null && !this.clearPending) {
+                    try {
+                        this.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                event = this.pending;
+                cleared = this.clearPending;
+                this.pending = null;
+                this.clearPending = false;
+            }
+            for (final ProgressListener listener : this.listeners) {
+                try {
+                    // clear() discards the pending event, so an event seen alongside a clear was published after it
+                    if (cleared) listener.progressCleared();
+                    if (event != null) listener.progress(event);
+                } catch (RuntimeException e) {
+                    syslog().error("Progress listener failed", e);
+                }
+            }
+            try {
+                Thread.sleep(DELIVERY_INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * FastBack - Fast, incremental Minecraft backups powered by Git.
+ * Copyright (C) 2022 pcal.net
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pcal.fastback.logging;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Typed progress report for a long-running operation.  Producers publish these as fast as they like; subscribers
+ * only ever see the latest one, delivered at a fixed rate by the {@link ProgressBus}.
+ *
+ * @param phase       what kind of work is being done.
+ * @param task        optional name of the current step within the phase, e.g. a jgit task name.
+ * @param completed   units of work done so far, or -1 if not known.
+ * @param total       total units of work, or -1 if not known.
+ * @param bytes       bytes processed so far, or -1 if not tracked.
+ * @param startMillis when the phase (or task) started, used to estimate time remaining.
+ * @param message     optional message to display when there are no counts to show.
+ * @author pcal
+ * @since 0.16.0
+ */
+public record ProgressEvent(Phase phase, String task, long completed, long total, long bytes, long startMillis,
+                            UserMessage message) {
+
+    public enum Phase {
+        COMMIT("fastback.hud.progress-commit"),
+        PUSH("fastback.hud.progress-push"),
+        RESTORE("fastback.hud.progress-restore"),
+        EXPORT("fastback.hud.progress-export"),
+        GC("fastback.hud.progress-gc"),
+        OTHER("fastback.hud.progress-other");
+
+        private final String hudKey;
+
+        Phase(String hudKey) {
+            this.hudKey = hudKey;
+        }
+
+        public String getHudKey() {
+            return this.hudKey;
+        }
+    }
+
+    public ProgressEvent {
+        requireNonNull(phase);
+    }
+
+    public static ProgressEvent message(UserMessage message) {
+        return new ProgressEvent(Phase.OTHER, null, -1, -1, -1, System.currentTimeMillis(), requireNonNull(message));
+    }
+
+    public static ProgressEvent count(Phase phase, String task, long completed, long total, long startMillis) {
+        return new ProgressEvent(phase, task, completed, total, -1, startMillis, null);
+    }
+
+    /**
+     * @return true if completed and total are both known, i.e., a percentage can be shown.
+     */
+    public boolean hasCount() {
+        return this.total > 0 && this.completed >= 0;
+    }
+
+    public int percentage() {
+        return hasCount() ? (int) Math.min(100, this.completed * 100 / this.total) : -1;
+    }
+
+    /**
+     * @return estimated milliseconds until the phase completes, assuming a constant rate, or -1 if there isn't
+     * enough information to say.
+     */
+    public long etaMillis(long nowMillis) {
+        if (!hasCount() || this.completed == 0) return -1;
+        final long elapsed = nowMillis - this.startMillis;
+        if (elapsed <= 0) return -1;
+        return Math.max(0, (this.total - this.completed) * elapsed / this.completed);
+    }
+}
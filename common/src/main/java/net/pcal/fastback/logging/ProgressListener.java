@@ -0,0 +1,39 @@
+/*
+ * FastBack - Fast, incremental Minecraft backups powered by Git.
+ * Copyright (C) 2022 pcal.net
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pcal.fastback.logging;
+
+/**
+ * Subscriber to the {@link ProgressBus}.  Called on the bus's delivery thread, never on the server thread.
+ *
+ * @author pcal
+ * @since 0.16.0
+ */
+public interface ProgressListener {
+
+    /**
+     * Called with the most recent event, at most once per delivery interval.  Intermediate events are dropped.
+     */
+    void progress(ProgressEvent event);
+
+    /**
+     * Called when the operation that was reporting progress has finished.
+     */
+    default void progressCleared() {
+    }
+}
@@ -34,9 +34,4 @@ enum ShutdownLogger implements UserLogger {
     public void message(final UserMessage message) {
         mod().setMessageScreenText(message);
     }
-
-    @Override
-    public void update(final UserMessage message) {
-        mod().setHudText(message);
-    }
 }
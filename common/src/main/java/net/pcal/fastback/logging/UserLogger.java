@@ -21,10 +21,10 @@ package net.pcal.fastback.logging;
 import com.mojang.brigadier.context.CommandContext;
 import net.minecraft.commands.CommandSourceStack;
 
+import static net.pcal.fastback.logging.ProgressBus.progressBus;
 import static net.pcal.fastback.logging.SystemLogger.syslog;
 import static net.pcal.fastback.logging.UserMessage.UserMessageStyle.ERROR;
 import static net.pcal.fastback.logging.UserMessage.styledLocalized;
-import static net.pcal.fastback.mod.Mod.mod;
 
 /**
  * Logging interface for messages which *might* be displayed in the UI.
@@ -44,11 +44,21 @@ public interface UserLogger extends AutoCloseable {
      * Send a bit of low-level detail that is useful for indicating progress or activity but isn't of critical
      * importance.  This will typically be displayed in the HUD area.
      */
-    void update(UserMessage message);
+    default void update(UserMessage message) {
+        this.progress(ProgressEvent.message(message));
+    }
+
+    /**
+     * Report structured progress.  Events are coalesced by the {@link ProgressBus}, so it's fine to call this
+     * for every file.
+     */
+    default void progress(ProgressEvent event) {
+        progressBus().publish(event);
+    }
 
     @Override
     default void close() {
-        mod().clearHudText();
+        progressBus().clear();
     }
 
     default void internalError() {
@@ -23,7 +23,7 @@ import net.pcal.fastback.config.GitConfig;
 import net.pcal.fastback.logging.UserLogger;
 import net.pcal.fastback.repo.Repo;
 import net.pcal.fastback.repo.RepoFactory;
-import net.pcal.fastback.utils.Executor;
+import net.pcal.fastback.utils.Cancellation;
 
 import java.nio.file.Path;
 import java.time.Duration;
@@ -33,8 +33,12 @@ import static net.pcal.fastback.commands.SchedulableAction.forConfigValue;
 import static net.pcal.fastback.config.FastbackConfigKey.AUTOBACK_ACTION;
 import static net.pcal.fastback.config.FastbackConfigKey.AUTOBACK_WAIT_MINUTES;
 import static net.pcal.fastback.config.FastbackConfigKey.IS_BACKUP_ENABLED;
+import static net.pcal.fastback.config.FastbackConfigKey.OPERATION_TIMEOUT_MINUTES;
 import static net.pcal.fastback.logging.SystemLogger.syslog;
 import static net.pcal.fastback.mod.Mod.mod;
+import static net.pcal.fastback.utils.Executor.BACKUP;
+import static net.pcal.fastback.utils.Executor.ExecutionLock.WRITE;
+import static net.pcal.fastback.utils.Executor.Priority.AUTOSAVE;
 import static net.pcal.fastback.utils.Executor.executor;
 
 /**
@@ -50,7 +54,7 @@ class AutosaveListener implements Runnable {
     @Override
     public void run() {
         try (final UserLogger ulog = UserLogger.forAutosave()) {
-            executor().execute(Executor.ExecutionLock.WRITE, ulog, () -> {
+            executor().execute(WRITE, AUTOSAVE, BACKUP, ulog, () -> {
                 try {
                     final RepoFactory rf = RepoFactory.rf();
                     final Path worldSaveDir = mod().getWorldDirectory();
@@ -58,6 +62,7 @@ class AutosaveListener implements Runnable {
                     try (final Repo repo = rf.load(worldSaveDir)) {
                         final GitConfig config = repo.getConfig();
                         if (!config.getBoolean(IS_BACKUP_ENABLED)) return;
+                        Cancellation.current().setTimeout(Duration.ofMinutes(config.getInt(OPERATION_TIMEOUT_MINUTES)));
                         final SchedulableAction autobackAction = forConfigValue(config, AUTOBACK_ACTION);
                         if (autobackAction == null || autobackAction == NONE) return;
                         final Duration waitTime = Duration.ofMinutes(config.getInt(AUTOBACK_WAIT_MINUTES));
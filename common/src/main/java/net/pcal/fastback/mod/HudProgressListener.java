@@ -0,0 +1,72 @@
+/*
+ * FastBack - Fast, incremental Minecraft backups powered by Git.
+ * Copyright (C) 2022 pcal.net
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pcal.fastback.mod;
+
+import net.pcal.fastback.logging.ProgressEvent;
+import net.pcal.fastback.logging.ProgressListener;
+import net.pcal.fastback.logging.UserMessage;
+
+import static net.pcal.fastback.logging.UserMessage.UserMessageStyle.JGIT;
+import static net.pcal.fastback.logging.UserMessage.styledLocalized;
+import static net.pcal.fastback.mod.Mod.mod;
+
+/**
+ * Renders progress events as HUD text.  The bus already limits how often we get called, so every event we see
+ * turns into exactly one HUD update.
+ *
+ * @author pcal
+ * @since 0.16.0
+ */
+class HudProgressListener implements ProgressListener {
+
+    @Override
+    public void progress(final ProgressEvent event) {
+        final UserMessage text = toHudText(event);
+        if (text != null) mod().setHudText(text);
+    }
+
+    @Override
+    public void progressCleared() {
+        mod().clearHudText();
+    }
+
+    // ======================================================================
+    // Package private
+
+    static UserMessage toHudText(final ProgressEvent event) {
+        if (event.hasCount()) {
+            return styledLocalized(event.phase().getHudKey(), JGIT,
+                    event.percentage(), event.completed(), event.total(),
+                    formatEta(event.etaMillis(System.currentTimeMillis())),
+                    event.task() != null ? event.task() : "");
+        }
+        if (event.message() != null) return event.message();
+        if (event.task() != null) return UserMessage.styledRaw(event.task(), JGIT);
+        return null;
+    }
+
+    /**
+     * Locale-neutral m:ss, so we don't need a lang key per unit.
+     */
+    static String formatEta(final long etaMillis) {
+        if (etaMillis < 0) return "";
+        final long seconds = (etaMillis + 999) / 1000;
+        return String.format("~%d:%02d", seconds / 60, seconds % 60);
+    }
+}
@@ -80,6 +80,11 @@ public interface MinecraftProvider {
      */
     boolean isClient();
 
+    /**
+     * @return true if we can hydrate region files of a lazily-restored world just before minecraft opens them.
+     */
+    boolean isOnDemandHydrationSupported();
+
     /**
      * If on a server, broadcasts a message to all connected users.
      */
@@ -105,6 +105,21 @@ public interface Mod {
      */
     void addBackupProperties(Map<String, String> props);
 
+    /**
+     * @return true if lazily-restored worlds can be safely opened on this platform.
+     */
+    boolean isOnDemandHydrationSupported();
+
+    /**
+     * Schedule the world to be rolled back to the given snapshot after it stops.  Pass null to cancel.
+     */
+    void setPendingRollback(String snapshotName);
+
+    /**
+     * @return name of the snapshot the world will be rolled back to when it stops, or null.
+     */
+    String getPendingRollback();
+
     class Singleton {
         private static Mod INSTANCE = null;
 
@@ -24,21 +24,29 @@ import net.pcal.fastback.logging.UserLogger;
 import net.pcal.fastback.logging.UserMessage;
 import net.pcal.fastback.repo.Repo;
 import net.pcal.fastback.repo.RepoFactory;
+import net.pcal.fastback.utils.Cancellation;
 import org.eclipse.jgit.transport.SshSessionFactory;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.Collection;
 import java.util.Map;
 
 import static java.nio.file.Files.createTempDirectory;
 import static java.util.Objects.requireNonNull;
 import static net.pcal.fastback.config.FastbackConfigKey.IS_BACKUP_ENABLED;
+import static net.pcal.fastback.config.FastbackConfigKey.OPERATION_TIMEOUT_MINUTES;
 import static net.pcal.fastback.config.FastbackConfigKey.SHUTDOWN_ACTION;
+import static net.pcal.fastback.logging.ProgressBus.progressBus;
 import static net.pcal.fastback.logging.SystemLogger.syslog;
 import static net.pcal.fastback.logging.UserMessage.localized;
+import static net.pcal.fastback.repo.Hydrator.hydrator;
 import static net.pcal.fastback.utils.EnvironmentUtils.getGitLfsVersion;
 import static net.pcal.fastback.utils.EnvironmentUtils.getGitVersion;
+import static net.pcal.fastback.utils.Executor.BACKUP;
+import static net.pcal.fastback.utils.Executor.ExecutionLock.WRITE;
+import static net.pcal.fastback.utils.Executor.Priority.SHUTDOWN;
 import static net.pcal.fastback.utils.Executor.executor;
 
 class ModImpl implements LifecycleListener, Mod {
@@ -48,6 +56,7 @@ class ModImpl implements LifecycleListener, Mod {
 
     private final MinecraftProvider fsp;
     private Path tempRestoresDirectory = null;
+    private volatile String pendingRollback = null;
 
     // ======================================================================
     // Construction
@@ -55,6 +64,7 @@ class ModImpl implements LifecycleListener, Mod {
     ModImpl(final MinecraftProvider spi) {
         this.fsp = requireNonNull(spi);
         spi.setAutoSaveListener(new AutosaveListener());
+        progressBus().subscribe(new HudProgressListener());
     }
 
     // ======================================================================
@@ -70,6 +80,16 @@ class ModImpl implements LifecycleListener, Mod {
         return tempRestoresDirectory;
     }
 
+    @Override
+    public void setPendingRollback(String snapshotName) {
+        this.pendingRollback = snapshotName;
+    }
+
+    @Override
+    public String getPendingRollback() {
+        return this.pendingRollback;
+    }
+
     @Override
     public void sendChat(UserMessage message, CommandSourceStack scs) {
         fsp.sendChat(message, scs);
@@ -102,7 +122,7 @@ class ModImpl implements LifecycleListener, Mod {
     public void setHudText(UserMessage message) {
         if (message == null) {
             syslog().debug("null unexpectedly passed to setHudText, ignoring");
-            this.clearHudText();
+            progressBus().clear();
         } else {
             this.fsp.setHudText(message);
         }
@@ -138,6 +158,11 @@ class ModImpl implements LifecycleListener, Mod {
         return fsp.getModsBackupPaths();
     }
 
+    @Override
+    public boolean isOnDemandHydrationSupported() {
+        return fsp.isOnDemandHydrationSupported();
+    }
+
     // ======================================================================
     // LifecycleListener implementation
 
@@ -176,6 +201,11 @@ class ModImpl implements LifecycleListener, Mod {
     @Override
     public void onWorldStart() {
         executor().start();
+        final Path worldSaveDir = this.getWorldDirectory();
+        if (worldSaveDir != null) {
+            RepoFactory.rf().openWorld(worldSaveDir);
+            hydrator().start(worldSaveDir);
+        }
         syslog().debug("onWorldStart complete");
     }
 
@@ -185,29 +215,57 @@ class ModImpl implements LifecycleListener, Mod {
     @Override
     public void onWorldStop() {
         try (final UserLogger ulog = UserLogger.forShutdown()) {
+            hydrator().stop();
             final Path worldSaveDir = this.getWorldDirectory();
+            final RepoFactory rf = RepoFactory.rf();
+            final boolean isGitRepo = rf.isGitRepo(worldSaveDir);
+            if (isGitRepo) {
+                // Goes ahead of anything else that's queued, but after whatever is running now.
+                executor().execute(WRITE, SHUTDOWN, BACKUP, ulog, () -> doShutdownAction(rf, worldSaveDir, ulog));
+            }
             if (executor().getActiveCount() > 0) {
                 this.setMessageScreenText(localized("fastback.chat.thread-waiting"));
             }
             executor().stop();
-            this.clearHudText();
-            final RepoFactory rf = RepoFactory.rf();
-            if (rf.isGitRepo(worldSaveDir)) {
-                try (final Repo repo = rf.load(worldSaveDir)) {
-                    final GitConfig config = repo.getConfig();
-                    if (config.getBoolean(IS_BACKUP_ENABLED)) {
-                        final SchedulableAction action = SchedulableAction.forConfigValue(config, SHUTDOWN_ACTION);
-                        if (action != null) {
-                            this.setMessageScreenText(localized("fastback.message.backing-up"));
-                            action.getTask(repo, ulog).call();
-                            this.setMessageScreenText(localized("fastback.chat.backup-complete"));
-                        }
-                    }
-                } catch (Exception e) {
-                    syslog().error("Shutdown action failed.", e);
+            progressBus().clear();
+            if (isGitRepo) doPendingRollback(rf, worldSaveDir, ulog);
+            rf.closeWorld();
+            syslog().debug("onWorldStop complete");
+        }
+    }
+
+    // ======================================================================
+    // Private
+
+    private void doShutdownAction(final RepoFactory rf, final Path worldSaveDir, final UserLogger ulog) {
+        try (final Repo repo = rf.load(worldSaveDir)) {
+            final GitConfig config = repo.getConfig();
+            Cancellation.current().setTimeout(Duration.ofMinutes(config.getInt(OPERATION_TIMEOUT_MINUTES)));
+            if (config.getBoolean(IS_BACKUP_ENABLED)) {
+                final SchedulableAction action = SchedulableAction.forConfigValue(config, SHUTDOWN_ACTION);
+                if (action != null) {
+                    this.setMessageScreenText(localized("fastback.message.backing-up"));
+                    action.getTask(repo, ulog).call();
+                    this.setMessageScreenText(localized("fastback.chat.backup-complete"));
                 }
             }
-            syslog().debug("onWorldStop complete");
+        } catch (Exception e) {
+            syslog().error("Shutdown action failed.", e);
+        }
+    }
+
+    /**
+     * If a rollback was requested, do it now that the world has been saved and unloaded.
+     */
+    private void doPendingRollback(final RepoFactory rf, final Path worldSaveDir, final UserLogger ulog) {
+        final String snapshotName = this.pendingRollback;
+        if (snapshotName == null) return;
+        this.pendingRollback = null;
+        try (final Repo repo = rf.load(worldSaveDir)) {
+            this.setMessageScreenText(localized("fastback.chat.rollback-start", snapshotName));
+            repo.doRollback(snapshotName, ulog);
+        } catch (Exception e) {
+            syslog().error("Rollback failed.", e);
         }
     }
 
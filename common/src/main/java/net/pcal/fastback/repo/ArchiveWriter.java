@@ -0,0 +1,358 @@
+/*
+ * FastBack - Fast, incremental Minecraft backups powered by Git.
+ * Copyright (C) 2022 pcal.net
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pcal.fastback.repo;
+
+import net.pcal.fastback.repo.BlockCompressor.Framing;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Writes a stream of files into a compressed archive.  The archive formats are written by hand rather than with
+ * java.util.zip's streams so that compression can be spread across threads (see BlockCompressor).
+ *
+ * @author pcal
+ * @since 0.16.0
+ */
+abstract class ArchiveWriter implements Closeable {
+
+    static ArchiveWriter create(final ExportFormat format, final OutputStream out, final int threads) {
+        return switch (format) {
+            case ZIP -> new ZipWriter(out, threads, ZipWriter.ZIP64_ENTRY_THRESHOLD);
+            case TAR_GZ -> new TarGzWriter(out, threads);
+        };
+    }
+
+    /**
+     * Create a zip writer that writes zip64 headers for every entry of at least the given size.
+     */
+    static ArchiveWriter createZip(final OutputStream out, final int threads, final long zip64EntryThreshold) {
+        return new ZipWriter(out, threads, zip64EntryThreshold);
+    }
+
+    /**
+     * Add a file to the archive.  The content stream must contain exactly size bytes.
+     */
+    abstract void addFile(String path, long size, boolean executable, long mtimeMillis, InputStream content) throws IOException;
+
+    // ======================================================================
+    // Zip
+
+    /**
+     * Each entry is written as local header, deflated data, then a data descriptor with the crc and sizes, so
+     * nothing needs to be buffered or rewound.  Zip64 extensions are used only where sizes or offsets may require
+     * them.
+     */
+    private static class ZipWriter extends ArchiveWriter {
+
+        private static final long ZIP64_THRESHOLD = 0xFFFFFFFFL;
+
+        /**
+         * Entries at least this big get a zip64 local header and data descriptor.  The descriptor format has to be
+         * chosen before the entry is compressed, and deflate makes incompressible data slightly bigger (about 0.03%,
+         * plus a few bytes per block), so this leaves a margin below the limit.  Smaller entries stay plain zip,
+         * since some readers (e.g. java 17's ZipInputStream) choke on zip64 descriptors holding small sizes.
+         */
+        private static final long ZIP64_ENTRY_THRESHOLD = ZIP64_THRESHOLD - ZIP64_THRESHOLD / 256;
+        private static final int FLAG_DATA_DESCRIPTOR = 0x0008;
+        private static final int FLAG_UTF8 = 0x0800;
+        private static final int METHOD_DEFLATED = 8;
+        private static final int VERSION_DEFAULT = 20;
+        private static final int VERSION_ZIP64 = 45;
+        private static final int MADE_BY_UNIX = 3 << 8;
+
+        private final BlockCompressor compressor;
+        private final long zip64EntryThreshold;
+        private final List<ZipEntryInfo> entries = new ArrayList<>();
+
+        private static class ZipEntryInfo {
+            byte[] name;
+            boolean executable;
+            boolean zip64;
+            int dosTime;
+            long crc;
+            long size;
+            long compressedSize;
+            long headerOffset;
+            long dataOffset;
+        }
+
+        ZipWriter(final OutputStream out, final int threads, final long zip64EntryThreshold) {
+            this.compressor = new BlockCompressor(out, Framing.RAW_DEFLATE, threads);
+            this.zip64EntryThreshold = zip64EntryThreshold;
+        }
+
+        @Override
+        void addFile(String path, long size, boolean executable, long mtimeMillis, InputStream content) throws IOException {
+            final ZipEntryInfo e = new ZipEntryInfo();
+            e.name = path.getBytes(StandardCharsets.UTF_8);
+            e.executable = executable;
+            e.zip64 = size >= this.zip64EntryThreshold;
+            e.dosTime = toDosTime(mtimeMillis);
+            e.size = size;
+            this.entries.add(e);
+            final byte[] localHeader = localHeader(e);
+            this.compressor.writeUncompressed(position -> {
+                e.headerOffset = position;
+                e.dataOffset = position + localHeader.length;
+                return localHeader;
+            });
+            final CRC32 crc = new CRC32();
+            final long actualSize = this.compressor.write(content, crc);
+            if (actualSize != size) throw new IOException("Expected " + size + " bytes for " + path + ", got " + actualSize);
+            this.compressor.endStream();
+            this.compressor.writeUncompressed(position -> {
+                e.crc = crc.getValue();
+                e.compressedSize = position - e.dataOffset;
+                if (!e.zip64 && e.compressedSize >= ZIP64_THRESHOLD) {
+                    throw new IOException("Compressed size of " + path + " doesn't fit in a zip32 entry");
+                }
+                return dataDescriptor(e);
+            });
+        }
+
+        @Override
+        public void close() throws IOException {
+            try (this.compressor) {
+                final long cdOffset = this.compressor.flush();
+                final ByteArrayOutputStream cd = new ByteArrayOutputStream();
+                for (final ZipEntryInfo e : this.entries) cd.writeBytes(centralHeader(e));
+                final long cdSize = cd.size();
+                final long zip64EndOffset = cdOffset + cdSize;
+                final boolean zip64 = this.entries.size() >= 0xFFFF || cdOffset >= ZIP64_THRESHOLD || cdSize >= ZIP64_THRESHOLD;
+                if (zip64) {
+                    final ByteBuffer end64 = le(56 + 20);
+                    end64.putInt(0x06064b50).putLong(44).putShort((short) (MADE_BY_UNIX | VERSION_ZIP64)).
+                            putShort((short) VERSION_ZIP64).putInt(0).putInt(0).
+                            putLong(this.entries.size()).putLong(this.entries.size()).putLong(cdSize).putLong(cdOffset);
+                    end64.putInt(0x07064b50).putInt(0).putLong(zip64EndOffset).putInt(1);
+                    cd.writeBytes(end64.array());
+                }
+                final ByteBuffer end = le(22);
+                end.putInt(0x06054b50).putShort((short) 0).putShort((short) 0).
+                        putShort((short) Math.min(this.entries.size(), 0xFFFF)).
+                        putShort((short) Math.min(this.entries.size(), 0xFFFF)).
+                        putInt((int) Math.min(cdSize, ZIP64_THRESHOLD)).
+                        putInt((int) Math.min(cdOffset, ZIP64_THRESHOLD)).
+                        putShort((short) 0);
+                cd.writeBytes(end.array());
+                final byte[] trailer = cd.toByteArray();
+                this.compressor.writeUncompressed(position -> trailer);
+            }
+        }
+
+        private static byte[] localHeader(final ZipEntryInfo e) {
+            final int extraLength = e.zip64 ? 20 : 0;
+            final ByteBuffer b = le(30 + e.name.length + extraLength);
+            b.putInt(0x04034b50).putShort((short) (e.zip64 ? VERSION_ZIP64 : VERSION_DEFAULT)).
+                    putShort((short) (FLAG_DATA_DESCRIPTOR | FLAG_UTF8)).putShort((short) METHOD_DEFLATED).
+                    putInt(e.dosTime).putInt(0);
+            if (e.zip64) {
+                b.putInt(0xFFFFFFFF).putInt(0xFFFFFFFF);
+            } else {
+                b.putInt(0).putInt(0);
+            }
+            b.putShort((short) e.name.length).putShort((short) extraLength).put(e.name);
+            if (e.zip64) b.putShort((short) 0x0001).putShort((short) 16).putLong(0).putLong(0);
+            return b.array();
+        }
+
+        private static byte[] dataDescriptor(final ZipEntryInfo e) {
+            final ByteBuffer b = le(e.zip64 ? 24 : 16);
+            b.putInt(0x08074b50).putInt((int) e.crc);
+            if (e.zip64) {
+                b.putLong(e.compressedSize).putLong(e.size);
+            } else {
+                b.putInt((int) e.compressedSize).putInt((int) e.size);
+            }
+            return b.array();
+        }
+
+        private static byte[] centralHeader(final ZipEntryInfo e) {
+            final boolean bigSize = e.size >= ZIP64_THRESHOLD;
+            final boolean bigCompressed = e.compressedSize >= ZIP64_THRESHOLD;
+            final boolean bigOffset = e.headerOffset >= ZIP64_THRESHOLD;
+            final int extraData = (bigSize ? 8 : 0) + (bigCompressed ? 8 : 0) + (bigOffset ? 8 : 0);
+            final int extraLength = extraData > 0 ? extraData + 4 : 0;
+            final int version = e.zip64 || extraLength > 0 ? VERSION_ZIP64 : VERSION_DEFAULT;
+            final int unixMode = e.executable ? 0100755 : 0100644;
+            final ByteBuffer b = le(46 + e.name.length + extraLength);
+            b.putInt(0x02014b50).putShort((short) (MADE_BY_UNIX | version)).putShort((short) version).
+                    putShort((short) (FLAG_DATA_DESCRIPTOR | FLAG_UTF8)).putShort((short) METHOD_DEFLATED).
+                    putInt(e.dosTime).putInt((int) e.crc).
+                    putInt(bigCompressed ? 0xFFFFFFFF : (int) e.compressedSize).
+                    putInt(bigSize ? 0xFFFFFFFF : (int) e.size).
+                    putShort((short) e.name.length).putShort((short) extraLength).
+                    putShort((short) 0).putShort((short) 0).putShort((short) 0).
+                    putInt(unixMode << 16).
+                    putInt(bigOffset ? 0xFFFFFFFF : (int) e.headerOffset).
+                    put(e.name);
+            if (extraLength > 0) {
+                b.putShort((short) 0x0001).putShort((short) extraData);
+                if (bigSize) b.putLong(e.size);
+                if (bigCompressed) b.putLong(e.compressedSize);
+                if (bigOffset) b.putLong(e.headerOffset);
+            }
+            return b.array();
+        }
+
+        private static int toDosTime(final long millis) {
+            LocalDateTime t = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+            if (t.getYear() < 1980) t = LocalDateTime.of(1980, 1, 1, 0, 0);
+            return (t.getYear() - 1980) << 25 | t.getMonthValue() << 21 | t.getDayOfMonth() << 16 |
+                    t.getHour() << 11 | t.getMinute() << 5 | t.getSecond() >> 1;
+        }
+
+        private static ByteBuffer le(int size) {
+            return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    // ======================================================================
+    // Tar
+
+    /**
+     * POSIX tar, with pax headers for names and sizes that don't fit in a ustar header.  The whole tar stream
+     * is compressed as a series of gzip members.
+     */
+    private static class TarGzWriter extends ArchiveWriter {
+
+        private static final int RECORD_SIZE = 512;
+        private static final long MAX_USTAR_SIZE = 077777777777L;
+
+        private final BlockCompressor compressor;
+
+        TarGzWriter(final OutputStream out, final int threads) {
+            this.compressor = new BlockCompressor(out, Framing.GZIP_MEMBERS, threads);
+        }
+
+        @Override
+        void addFile(String path, long size, boolean executable, long mtimeMillis, InputStream content) throws IOException {
+            final long mtime = mtimeMillis / 1000;
+            final byte[] name = path.getBytes(StandardCharsets.UTF_8);
+            final int split = findPrefixSplit(name);
+            final boolean needsPax = (name.length > 100 && split < 0) || size > MAX_USTAR_SIZE;
+            if (needsPax) {
+                final ByteArrayOutputStream pax = new ByteArrayOutputStream();
+                if (name.length > 100 && split < 0) pax.writeBytes(paxRecord("path", path));
+                if (size > MAX_USTAR_SIZE) pax.writeBytes(paxRecord("size", String.valueOf(size)));
+                final byte[] paxBytes = pax.toByteArray();
+                this.compressor.write(header(truncate("PaxHeaders/" + path), new byte[0], paxBytes.length, 0644, mtime, 'x'));
+                this.compressor.write(paxBytes);
+                pad(paxBytes.length);
+            }
+            final byte[] headerName, headerPrefix;
+            if (name.length <= 100) {
+                headerName = name;
+                headerPrefix = new byte[0];
+            } else if (split >= 0) {
+                headerPrefix = Arrays.copyOfRange(name, 0, split);
+                headerName = Arrays.copyOfRange(name, split + 1, name.length);
+            } else {
+                headerName = truncate(path);
+                headerPrefix = new byte[0];
+            }
+            this.compressor.write(header(headerName, headerPrefix, Math.min(size, MAX_USTAR_SIZE), executable ? 0755 : 0644, mtime, '0'));
+            final long actualSize = this.compressor.write(content, null);
+            if (actualSize != size) throw new IOException("Expected " + size + " bytes for " + path + ", got " + actualSize);
+            pad(size);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try (this.compressor) {
+                this.compressor.write(new byte[RECORD_SIZE * 2]);
+            }
+        }
+
+        private void pad(long length) throws IOException {
+            final int remainder = (int) (length % RECORD_SIZE);
+            if (remainder != 0) this.compressor.write(new byte[RECORD_SIZE - remainder]);
+        }
+
+        private static byte[] header(byte[] name, byte[] prefix, long size, int mode, long mtime, char type) {
+            final byte[] h = new byte[RECORD_SIZE];
+            System.arraycopy(name, 0, h, 0, name.length);
+            putOctal(h, 100, 8, mode);
+            putOctal(h, 108, 8, 0);
+            putOctal(h, 116, 8, 0);
+            putOctal(h, 124, 12, size);
+            putOctal(h, 136, 12, mtime);
+            h[156] = (byte) type;
+            System.arraycopy(("ustar\0" + "00").getBytes(StandardCharsets.US_ASCII), 0, h, 257, 8);
+            System.arraycopy(prefix, 0, h, 345, prefix.length);
+            for (int i = 148; i < 156; i++) h[i] = ' ';
+            long checksum = 0;
+            for (byte b : h) checksum += b & 0xFF;
+            putOctal(h, 148, 7, checksum);
+            return h;
+        }
+
+        /**
+         * Writes a zero-padded, nul-terminated octal number.
+         */
+        private static void putOctal(byte[] h, int offset, int length, long value) {
+            final String s = Long.toOctalString(value);
+            final int digits = length - 1;
+            for (int i = 0; i < digits; i++) {
+                final int si = s.length() - digits + i;
+                h[offset + i] = (byte) (si >= 0 ? s.charAt(si) : '0');
+            }
+            h[offset + digits] = 0;
+        }
+
+        /**
+         * @return index of a slash that splits the name into a ustar prefix and name, or -1 if there is none.
+         */
+        private static int findPrefixSplit(byte[] name) {
+            for (int i = Math.min(name.length - 1, 155); i > 0; i--) {
+                if (name[i] == '/' && name.length - i - 1 <= 100 && name.length - i - 1 > 0) return i;
+            }
+            return -1;
+        }
+
+        private static byte[] truncate(String path) {
+            final byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+            return bytes.length <= 100 ? bytes : Arrays.copyOf(bytes, 100);
+        }
+
+        /**
+         * A pax record is '[length] [key]=[value]\n', where the length includes its own digits.
+         */
+        private static byte[] paxRecord(String key, String value) {
+            final int baseLength = (" " + key + "=" + value + "\n").getBytes(StandardCharsets.UTF_8).length;
+            int length = baseLength + String.valueOf(baseLength).length();
+            if (String.valueOf(length).length() != String.valueOf(baseLength).length()) length++;
+            return (length + " " + key + "=" + value + "\n").getBytes(StandardCharsets.UTF_8);
+        }
+    }
+}
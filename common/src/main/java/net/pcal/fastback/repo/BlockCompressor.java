@@ -0,0 +1,244 @@
+/*
+ * FastBack - Fast, incremental Minecraft backups powered by Git.
+ * Copyright (C) 2022 pcal.net
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pcal.fastback.repo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses a stream of bytes on a pool of threads, pigz-style.  Input is cut into fixed-size blocks which are
+ * deflated independently and written to the underlying stream in order.  Uncompressed bytes (e.g., zip headers)
+ * can be interleaved between compressed streams.
+ * <p>
+ * At most a fixed number of blocks are pending at any time; if the workers fall behind, the caller blocks.  So
+ * memory use depends on the number of threads, not on how much data goes through.
+ *
+ * @author pcal
+ * @since 0.16.0
+ */
+class BlockCompressor implements Closeable {
+
+    // ======================================================================
+    // Constants
+
+    static final int BLOCK_SIZE = 1024 * 1024;
+
+    enum Framing {
+        /**
+         * Every block is a complete gzip member.  Concatenated members are a valid gzip file.
+         */
+        GZIP_MEMBERS,
+
+        /**
+         * Blocks are raw deflate data, sync-flushed so they can be concatenated; the last block of each stream
+         * is finished.  The result is what zip expects for a deflated entry.
+         */
+        RAW_DEFLATE
+    }
+
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    // ======================================================================
+    // Fields
+
+    private final OutputStream out;
+    private final Framing framing;
+    private final ExecutorService pool;
+    private final int maxPending;
+    private final Deque<PendingOutput> pending = new ArrayDeque<>();
+    private byte[] block = new byte[BLOCK_SIZE];
+    private int blockLength = 0;
+    private long position = 0;
+
+    /**
+     * Something to be written to the output once everything before it has been written.
+     */
+    interface PendingOutput {
+        /**
+         * @param position the number of bytes written to the output so far.
+         */
+        byte[] get(long position) throws IOException;
+    }
+
+    BlockCompressor(final OutputStream out, final Framing framing, final int threads) {
+        this.out = out;
+        this.framing = framing;
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.pool = Executors.newFixedThreadPool(threads, r -> {
+            final Thread t = new Thread(r, "fastback-compress-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.maxPending = threads * 2;
+    }
+
+    // ======================================================================
+    // Package private
+
+    void write(final byte[] b) throws IOException {
+        write(b, 0, b.length);
+    }
+
+    void write(final byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            final int n = Math.min(len, BLOCK_SIZE - this.blockLength);
+            System.arraycopy(b, off, this.block, this.blockLength, n);
+            this.blockLength += n;
+            off += n;
+            len -= n;
+            if (this.blockLength == BLOCK_SIZE) submitBlock(false);
+        }
+    }
+
+    /**
+     * Compress everything remaining in the given stream.  If crc is non-null, it is updated with the bytes read.
+     *
+     * @return the number of bytes read.
+     */
+    long write(final InputStream in, final CRC32 crc) throws IOException {
+        long total = 0;
+        while (true) {
+            final int read = in.read(this.block, this.blockLength, BLOCK_SIZE - this.blockLength);
+            if (read < 0) return total;
+            if (crc != null) crc.update(this.block, this.blockLength, read);
+            this.blockLength += read;
+            total += read;
+            if (this.blockLength == BLOCK_SIZE) submitBlock(false);
+        }
+    }
+
+    /**
+     * End the current compressed stream.  With RAW_DEFLATE, this must be called before writeUncompressed.
+     */
+    void endStream() throws IOException {
+        if (this.framing == Framing.RAW_DEFLATE || this.blockLength > 0) submitBlock(true);
+    }
+
+    /**
+     * Write bytes that are computed once everything queued before them has been written.
+     */
+    void writeUncompressed(final PendingOutput output) throws IOException {
+        if (this.blockLength > 0) throw new IllegalStateException("compressed stream was not ended");
+        this.pending.add(output);
+        drain(this.maxPending);
+    }
+
+    /**
+     * Wait for all pending blocks to be written.
+     *
+     * @return the number of bytes written to the output so far.
+     */
+    long flush() throws IOException {
+        drain(0);
+        this.out.flush();
+        return this.position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (this.blockLength > 0) endStream();
+            flush();
+        } finally {
+            this.pool.shutdownNow();
+        }
+    }
+
+    // ======================================================================
+    // Private
+
+    private void submitBlock(final boolean finish) throws IOException {
+        final byte[] input = this.block;
+        final int length = this.blockLength;
+        final Framing framing = this.framing;
+        final Future<byte[]> future = this.pool.submit(() -> compress(input, length, framing, finish));
+        this.pending.add(ignored -> {
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            }
+        });
+        this.block = new byte[BLOCK_SIZE];
+        this.blockLength = 0;
+        drain(this.maxPending);
+    }
+
+    private void drain(final int maxRemaining) throws IOException {
+        while (this.pending.size() > maxRemaining) {
+            final byte[] bytes = this.pending.removeFirst().get(this.position);
+            this.out.write(bytes);
+            this.position += bytes.length;
+        }
+    }
+
+    private static byte[] compress(final byte[] input, final int length, final Framing framing, final boolean finish) {
+        final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(length / 2 + 64);
+            if (framing == Framing.GZIP_MEMBERS) out.writeBytes(GZIP_HEADER);
+            deflater.setInput(input, 0, length);
+            final byte[] buf = new byte[64 * 1024];
+            if (framing == Framing.GZIP_MEMBERS || finish) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    out.write(buf, 0, deflater.deflate(buf));
+                }
+            } else {
+                int n;
+                do {
+                    n = deflater.deflate(buf, 0, buf.length, Deflater.SYNC_FLUSH);
+                    out.write(buf, 0, n);
+                } while (n == buf.length);
+            }
+            if (framing == Framing.GZIP_MEMBERS) {
+                final CRC32 crc = new CRC32();
+                crc.update(input, 0, length);
+                writeIntLE(out, (int) crc.getValue());
+                writeIntLE(out, length);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void writeIntLE(final ByteArrayOutputStream out, final int value) {
+        out.write(value);
+        out.write(value >>> 8);
+        out.write(value >>> 16);
+        out.write(value >>> 24);
+    }
+}
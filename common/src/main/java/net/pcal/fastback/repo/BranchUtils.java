@@ -18,18 +18,16 @@
 
 package net.pcal.fastback.repo;
 
-import net.pcal.fastback.repo.SnapshotIdUtils.SnapshotIdCodec;
-import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.internal.storage.file.RefDirectory;
 import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
 
 import java.io.IOException;
-import java.text.ParseException;
-import java.util.Collection;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.List;
 
-import static java.util.Objects.requireNonNull;
 import static net.pcal.fastback.logging.SystemLogger.syslog;
+import static org.eclipse.jgit.lib.Constants.R_REFS;
 
 
 /**
@@ -38,32 +36,19 @@ import static net.pcal.fastback.logging.SystemLogger.syslog;
 abstract class BranchUtils {
 
     /**
-     * Get the snapshots for this repo.  Snapshot branches for worlds other than the Repo's are ignored.
+     * Move all loose refs into packed-refs.  Every snapshot commit leaves a loose ref behind, and listing thousands
+     * of them means reading thousands of files; packed-refs is a single sorted file.
      */
-    static Set<SnapshotId> listSnapshots(RepoImpl repo, JGitSupplier<Collection<Ref>> refProvider) throws GitAPIException, IOException {
-        final Collection<Ref> refs = refProvider.get();
-        final SnapshotIdCodec codec = repo.getSidCodec();
-        final Set<SnapshotId> out = new HashSet<>();
-        for (final Ref ref : refs) {
-            String branchName = getBranchName(ref);
-            if (repo.getSidCodec().isSnapshotBranchName(repo.getWorldId(), branchName)) {
-                final SnapshotId sid;
-                try {
-                    sid = requireNonNull(codec.fromBranch(branchName));
-                } catch (ParseException pe) {
-                    syslog().error("Unexpected parse error, ignoring branch " + branchName, pe);
-                    continue;
-                }
-                if (sid.getWorldId().equals(repo.getWorldId())) {
-                    out.add(sid);
-                } else {
-                    syslog().debug("Ignoring branch from other world " + branchName);
-                }
-            } else {
-                syslog().debug("Ignoring unrecognized branch " + branchName);
-            }
+    static void packRefs(RepoImpl repo) throws IOException {
+        final Repository jrepo = repo.getJGit().getRepository();
+        if (!(jrepo.getRefDatabase() instanceof RefDirectory refDir)) return; // e.g., reftable, which doesn't need it
+        final List<String> loose = new ArrayList<>();
+        for (final Ref ref : refDir.getRefsByPrefix(R_REFS)) {
+            if (!ref.isSymbolic() && ref.getStorage().isLoose()) loose.add(ref.getName());
         }
-        return out;
+        if (loose.isEmpty()) return;
+        syslog().debug("Packing " + loose.size() + " loose refs");
+        refDir.pack(loose);
     }
 
     static String getBranchName(Ref fromBranchRef) {
@@ -0,0 +1,307 @@
+/*
+ * FastBack - Fast, incremental Minecraft backups powered by Git.
+ * Copyright (C) 2022 pcal.net
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pcal.fastback.repo;
+
+import net.pcal.fastback.config.GitConfig;
+import net.pcal.fastback.logging.UserLogger;
+import net.pcal.fastback.repo.RegionFileUtils.Region;
+import net.pcal.fastback.utils.ProcessException;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+import static net.pcal.fastback.config.FastbackConfigKey.IS_NATIVE_GIT_ENABLED;
+import static net.pcal.fastback.config.FastbackConfigKey.REMOTE_NAME;
+import static net.pcal.fastback.config.FastbackConfigKey.RESTORE_DIRECTORY;
+import static net.pcal.fastback.config.OtherConfigKey.REMOTE_PUSH_URL;
+import static net.pcal.fastback.logging.SystemLogger.syslog;
+import static net.pcal.fastback.logging.UserMessage.UserMessageStyle.ERROR;
+import static net.pcal.fastback.logging.UserMessage.UserMessageStyle.NATIVE_GIT;
+import static net.pcal.fastback.logging.UserMessage.localized;
+import static net.pcal.fastback.logging.UserMessage.styledLocalized;
+import static net.pcal.fastback.mod.Mod.mod;
+import static net.pcal.fastback.repo.RegionFileUtils.getChunkIndex;
+import static net.pcal.fastback.repo.RegionFileUtils.getExternalChunkFileName;
+import static net.pcal.fastback.repo.RegionFileUtils.getRegionFileName;
+import static net.pcal.fastback.utils.ProcessUtils.doExec;
+import static net.pcal.fastback.utils.ProcessUtils.hudOutput;
+
+/**
+ * Utilities for restoring a rectangular area of chunks from a snapshot.  Only the region blobs which
+ * cover the area are read out of the snapshot.  The snapshot's chunks are spliced into copies of the
+ * world's current region files, which are written to the restore directory; the live world is never touched.
+ *
+ * @author pcal
+ * @since 0.16.0
+ */
+abstract class ChunkRestoreUtils {
+
+    // ======================================================================
+    // Constants
+
+    /**
+     * Subdirectories of a dimension that contain region-format files keyed by chunk position.
+     */
+    private static final List<String> REGION_DIRS = List.of("region", "entities", "poi");
+
+    private static final String TEMP_BRANCH_PREFIX = "temp/restore-chunks/";
+
+    private static final Pattern DIMENSION_ID = Pattern.compile("[a-z0-9_.-]+:[a-z0-9_./-]+");
+
+    // ======================================================================
+    // Package private
+
+    static void doRestoreChunks(final RepoImpl repo,
+                                final String snapshotName,
+                                final String dimension,
+                                final int fromBlockX, final int fromBlockZ,
+                                final int toBlockX, final int toBlockZ,
+                                final UserLogger ulog) {
+        final String dimensionPath = getDimensionPath(dimension);
+        if (dimensionPath == null) {
+            ulog.message(styledLocalized("fastback.chat.restore-chunks-invalid-dimension", ERROR, dimension));
+            return;
+        }
+        final int minX = Math.min(fromBlockX, toBlockX) >> 4, maxX = Math.max(fromBlockX, toBlockX) >> 4;
+        final int minZ = Math.min(fromBlockZ, toBlockZ) >> 4, maxZ = Math.max(fromBlockZ, toBlockZ) >> 4;
+        String tempBranch = null;
+        try {
+            final GitConfig conf = repo.getConfig();
+            final SnapshotId sid = repo.createSnapshotId(snapshotName);
+            final Git jgit = repo.getJGit();
+            final String branchToRead;
+            if (jgit.getRepository().exactRef("refs/heads/" + sid.getBranchName()) != null) {
+                branchToRead = sid.getBranchName();
+            } else if (conf.isSet(REMOTE_PUSH_URL)) {
+                tempBranch = TEMP_BRANCH_PREFIX + sid.getBranchName();
+                fetchRemoteBranch(repo, sid.getBranchName(), tempBranch, ulog);
+                branchToRead = tempBranch;
+            } else {
+                ulog.message(styledLocalized("fastback.chat.restore-nosuch", ERROR, snapshotName));
+                return;
+            }
+            final Map<String, List<Integer>> chunksPerRegionPath = getChunksPerRegionPath(dimensionPath, minX, minZ, maxX, maxZ);
+            final Map<String, ObjectId> blobs = findBlobs(jgit, branchToRead, chunksPerRegionPath.keySet());
+            if (blobs.isEmpty()) {
+                ulog.message(styledLocalized("fastback.chat.restore-chunks-none", ERROR, snapshotName));
+                return;
+            }
+            if (tempBranch != null && conf.getBoolean(IS_NATIVE_GIT_ENABLED)) {
+                native_fetchLfsObjects(repo, tempBranch, blobs.keySet(), ulog);
+            }
+            final Path allRestoresDir = conf.isSet(RESTORE_DIRECTORY) ?
+                    Paths.get(conf.getString(RESTORE_DIRECTORY)) : mod().getDefaultRestoresDir();
+            final Path targetDir = RestoreUtils.getTargetDir(allRestoresDir, mod().getWorldName(), sid.getShortName() + "-chunks");
+            final int restoredCount = spliceRegions(repo, branchToRead, blobs, chunksPerRegionPath, targetDir, ulog);
+            ulog.message(localized("fastback.chat.restore-chunks-done", restoredCount, targetDir));
+        } catch (Exception e) {
+            syslog().error(e);
+            ulog.message(styledLocalized("fastback.chat.restore-chunks-failed", ERROR));
+        } finally {
+            if (tempBranch != null) {
+                try {
+                    repo.deleteLocalBranches(List.of(tempBranch));
+                } catch (Exception e) {
+                    syslog().error("Failed to delete temp branch " + tempBranch, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the path of the given dimension's directory relative to the world directory, with a trailing
+     * slash (or the empty string for the overworld).  Returns null if the dimension id is not valid.
+     */
+    static String getDimensionPath(String dimension) {
+        dimension = dimension.trim().toLowerCase();
+        if (!dimension.contains(":")) dimension = "minecraft:" + dimension;
+        switch (dimension) {
+            case "minecraft:overworld":
+                return "";
+            case "minecraft:the_nether":
+            case "minecraft:nether":
+                return "DIM-1/";
+            case "minecraft:the_end":
+            case "minecraft:end":
+                return "DIM1/";
+        }
+        if (!DIMENSION_ID.matcher(dimension).matches() || dimension.contains("..")) return null;
+        final int colon = dimension.indexOf(':');
+        return "dimensions/" + dimension.substring(0, colon) + "/" + dimension.substring(colon + 1) + "/";
+    }
+
+    // ======================================================================
+    // Private
+
+    /**
+     * @return map of worktree-relative region file paths to the indexes of the chunks in that file that
+     * fall within the area.
+     */
+    private static Map<String, List<Integer>> getChunksPerRegionPath(String dimensionPath, int minX, int minZ, int maxX, int maxZ) {
+        final Map<String, List<Integer>> out = new LinkedHashMap<>();
+        for (int x = minX; x <= maxX; x++) {
+            for (int z = minZ; z <= maxZ; z++) {
+                for (final String dir : REGION_DIRS) {
+                    final String path = dimensionPath + dir + "/" + getRegionFileName(x, z);
+                    out.computeIfAbsent(path, k -> new ArrayList<>()).add(getChunkIndex(x, z));
+                }
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Walks just the parts of the snapshot tree needed to locate the given paths.
+     */
+    private static Map<String, ObjectId> findBlobs(Git jgit, String branchName, Collection<String> paths) throws IOException {
+        final Map<String, ObjectId> out = new HashMap<>();
+        final Ref ref = jgit.getRepository().exactRef("refs/heads/" + branchName);
+        if (ref == null) throw new IOException("Branch not found " + branchName);
+        try (final RevWalk rw = new RevWalk(jgit.getRepository()); final TreeWalk tw = new TreeWalk(jgit.getRepository())) {
+            final RevCommit commit = rw.parseCommit(ref.getObjectId());
+            tw.addTree(commit.getTree());
+            tw.setRecursive(true);
+            tw.setFilter(PathFilterGroup.createFromStrings(paths));
+            while (tw.next()) {
+                out.put(tw.getPathString(), tw.getObjectId(0));
+            }
+        }
+        return out;
+    }
+
+    private static int spliceRegions(final RepoImpl repo,
+                                     final String branchName,
+                                     final Map<String, ObjectId> blobs,
+                                     final Map<String, List<Integer>> chunksPerRegionPath,
+                                     final Path targetDir,
+                                     final UserLogger ulog) throws IOException {
+        final Path worldDir = repo.getWorkTree().toPath();
+        int restoredCount = 0;
+        try (final ObjectReader reader = repo.getJGit().getRepository().newObjectReader()) {
+            for (final Map.Entry<String, ObjectId> blob : blobs.entrySet()) {
+                final String path = blob.getKey();
+                ulog.update(localized("fastback.hud.restore-chunks", path));
+                final Region snapshotRegion;
+                try (final InputStream in = LfsUtils.openSmudged(repo, reader, blob.getValue())) {
+                    snapshotRegion = Region.parse(in.readAllBytes());
+                }
+                final Region liveRegion = readLiveRegion(worldDir.resolve(path));
+                final String dir = path.substring(0, path.lastIndexOf('/') + 1);
+                final List<String> externalFiles = new ArrayList<>();
+                for (final int index : chunksPerRegionPath.get(path)) {
+                    final byte[] payload = snapshotRegion.getPayload(index);
+                    liveRegion.setChunk(index, payload, snapshotRegion.getTimestamp(index));
+                    if (payload == null) continue;
+                    if (snapshotRegion.isExternal(index)) {
+                        externalFiles.add(dir + getExternalChunkFileName(getChunkX(path, index), getChunkZ(path, index)));
+                    }
+                    if (dir.endsWith("region/")) restoredCount++;
+                }
+                final Path targetFile = targetDir.resolve(path);
+                Files.createDirectories(targetFile.getParent());
+                try (final OutputStream out = Files.newOutputStream(targetFile)) {
+                    liveRegion.write(out);
+                }
+                if (!externalFiles.isEmpty()) {
+                    copyExternalChunks(repo, reader, branchName, externalFiles, targetDir);
+                }
+            }
+        }
+        return restoredCount;
+    }
+
+    /**
+     * Read the world's copy of a region file.  World saving is disabled while we read so we don't get a torn copy.
+     */
+    private static Region readLiveRegion(Path liveFile) throws IOException {
+        if (!Files.exists(liveFile)) return Region.empty();
+        mod().setWorldSaveEnabled(false);
+        try {
+            return Region.parse(Files.readAllBytes(liveFile));
+        } finally {
+            mod().setWorldSaveEnabled(true);
+        }
+    }
+
+    private static void copyExternalChunks(RepoImpl repo, ObjectReader reader, String branchName, List<String> paths, Path targetDir) throws IOException {
+        for (final Map.Entry<String, ObjectId> e : findBlobs(repo.getJGit(), branchName, paths).entrySet()) {
+            final Path targetFile = targetDir.resolve(e.getKey());
+            try (final InputStream in = LfsUtils.openSmudged(repo, reader, e.getValue())) {
+                Files.copy(in, targetFile);
+            }
+        }
+    }
+
+    private static int getChunkX(String regionPath, int index) {
+        return (parseRegionCoord(regionPath, 1) << 5) + (index & 31);
+    }
+
+    private static int getChunkZ(String regionPath, int index) {
+        return (parseRegionCoord(regionPath, 2) << 5) + (index >> 5);
+    }
+
+    private static int parseRegionCoord(String regionPath, int field) {
+        final String fileName = regionPath.substring(regionPath.lastIndexOf('/') + 1);
+        return Integer.parseInt(fileName.split("\\.")[field]);
+    }
+
+    private static void fetchRemoteBranch(RepoImpl repo, String remoteBranch, String localBranch, UserLogger ulog) throws IOException, GitAPIException, ProcessException {
+        final String remoteName = repo.getConfig().getString(REMOTE_NAME);
+        final String refSpec = "+refs/heads/" + remoteBranch + ":refs/heads/" + localBranch;
+        syslog().debug("Fetching " + refSpec + " from " + remoteName);
+        if (repo.getConfig().getBoolean(IS_NATIVE_GIT_ENABLED)) {
+            final Consumer<String> outputConsumer = hudOutput(ulog);
+            // lfs objects are fetched separately once we know which ones we need
+            final String[] fetch = {"git", "-C", repo.getWorkTree().getAbsolutePath(), "fetch", "--no-tags", remoteName, refSpec};
+            doExec(fetch, Map.of("GIT_LFS_SKIP_SMUDGE", "1"), outputConsumer, outputConsumer);
+        } else {
+            repo.getJGit().fetch().setRemote(remoteName).setRefSpecs(new RefSpec(refSpec)).call();
+        }
+    }
+
+    private static void native_fetchLfsObjects(RepoImpl repo, String branchName, Collection<String> paths, UserLogger ulog) throws ProcessException {
+        final String remoteName = repo.getConfig().getString(REMOTE_NAME);
+        final Consumer<String> outputConsumer = hudOutput(ulog);
+        final String[] fetch = {"git", "-C", repo.getWorkTree().getAbsolutePath(), "lfs", "fetch", remoteName, branchName,
+                "--include=" + String.join(",", paths)};
+        doExec(fetch, Map.of("GIT_LFS_FORCE_PROGRESS", "1"), outputConsumer, outputConsumer);
+    }
+}
@@ -19,7 +19,11 @@
 package net.pcal.fastback.repo;
 
 import net.pcal.fastback.config.GitConfig;
+import net.pcal.fastback.logging.ProgressEvent;
 import net.pcal.fastback.logging.UserLogger;
+import net.pcal.fastback.repo.RunMetrics.Phase;
+import net.pcal.fastback.repo.RunMetrics.PhaseTimer;
+import net.pcal.fastback.utils.Cancellation;
 import net.pcal.fastback.utils.EnvironmentUtils;
 import net.pcal.fastback.utils.ProcessException;
 import org.apache.commons.io.FileUtils;
@@ -34,6 +38,7 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -44,6 +49,7 @@ import java.util.function.Consumer;
 
 import static net.pcal.fastback.config.FastbackConfigKey.IS_MODS_BACKUP_ENABLED;
 import static net.pcal.fastback.config.FastbackConfigKey.IS_NATIVE_GIT_ENABLED;
+import static net.pcal.fastback.logging.ProgressEvent.Phase.COMMIT;
 import static net.pcal.fastback.logging.SystemLogger.syslog;
 import static net.pcal.fastback.logging.UserMessage.UserMessageStyle.ERROR;
 import static net.pcal.fastback.logging.UserMessage.UserMessageStyle.JGIT;
@@ -54,6 +60,7 @@ import static net.pcal.fastback.logging.UserMessage.styledRaw;
 import static net.pcal.fastback.mod.Mod.mod;
 import static net.pcal.fastback.repo.RepoImpl.FASTBACK_DIR;
 import static net.pcal.fastback.utils.ProcessUtils.doExec;
+import static net.pcal.fastback.utils.ProcessUtils.hudOutput;
 
 /**
  * Utilities for adding and committing snapshots.
@@ -64,7 +71,13 @@ import static net.pcal.fastback.utils.ProcessUtils.doExec;
 abstract class CommitUtils {
 
     static SnapshotId doCommitSnapshot(final RepoImpl repo, final UserLogger ulog) throws IOException, ProcessException, GitAPIException {
-        PreflightUtils.doPreflight(repo);
+        final long start = System.currentTimeMillis();
+        final PhaseTimer preflight = RunMetrics.time(Phase.PREFLIGHT);
+        try {
+            PreflightUtils.doPreflight(repo);
+        } finally {
+            preflight.close();
+        }
         final WorldId uuid = repo.getWorldId();
         final GitConfig conf = repo.getConfig();
         final SnapshotId newSid = repo.getSidCodec().create(uuid);
@@ -87,6 +100,7 @@ abstract class CommitUtils {
         } catch (GitAPIException | InterruptedException e) {
             throw new IOException(e);
         }
+        RunMetrics.recordSnapshot(SnapshotCatalog.recordCommit(repo, newSid, System.currentTimeMillis() - start));
         syslog().debug("Local backup complete.");
         return newSid;
     }
@@ -123,23 +137,34 @@ abstract class CommitUtils {
         ulog.update(styledLocalized("fastback.hud.local-saving", NATIVE_GIT));
         final File worktree = repo.getWorkTree();
         final Map<String, String> env = Map.of("GIT_LFS_FORCE_PROGRESS", "1");
-        final Consumer<String> outputConsumer = line -> ulog.update(styledRaw(line, NATIVE_GIT));
+        final Consumer<String> outputConsumer = hudOutput(ulog);
         String[] checkout = {"git", "-C", worktree.getAbsolutePath(), "checkout", "--orphan", newBranchName};
         try {
             doExec(checkout, env, outputConsumer, outputConsumer);
+            final PhaseTimer stage = RunMetrics.time(Phase.STAGE);
             mod().setWorldSaveEnabled(false);
             try {
                 String[] add = {"git", "-C", worktree.getAbsolutePath(), "add", "-v", "."};
                 doExec(add, env, outputConsumer, outputConsumer);
             } finally {
                 mod().setWorldSaveEnabled(true);
+                stage.close();
                 syslog().debug("World save re-enabled.");
             }
-            {
+            final PhaseTimer commitTimer = RunMetrics.time(Phase.COMMIT);
+            try {
                 String[] commit = {"git", "-C", worktree.getAbsolutePath(), "commit", "-m", newBranchName};
                 doExec(commit, env, outputConsumer, outputConsumer);
+            } finally {
+                commitTimer.close();
             }
         } catch (ProcessException e) {
+            if (Cancellation.current().isCancelled()) {
+                // git was killed, so nothing else can be holding the lock.  The orphan branch never got a commit,
+                // so there's nothing else to clean up; the next snapshot starts a new one.
+                Files.deleteIfExists(worktree.toPath().resolve(".git").resolve("index.lock"));
+                Cancellation.current().check();
+            }
             syslog().error(e);
             ulog.message(styledRaw("fastback.chat.commit-failed", ERROR));
             return;
@@ -153,8 +178,18 @@ abstract class CommitUtils {
         jgit.checkout().setOrphan(true).setName(newBranchName).call();
         jgit.reset().setMode(ResetCommand.ResetType.SOFT).call();
         syslog().debug("status");
-        final Status status = jgit.status().call();
-
+        final Status status;
+        final PhaseTimer scan = RunMetrics.time(Phase.SCAN);
+        try {
+            status = jgit.status().call();
+        } finally {
+            scan.close();
+        }
+        final long startMillis = System.currentTimeMillis();
+        final long total = status.getModified().size() + status.getUntracked().size() + 1 +
+                status.getRemoved().size() + status.getMissing().size();
+        long completed = 0;
+        final PhaseTimer stage = RunMetrics.time(Phase.STAGE);
         try {
 
             syslog().debug("Disabling world save for 'git add'");
@@ -175,9 +210,10 @@ abstract class CommitUtils {
                     syslog().debug("Adding " + toAdd.size() + " new or modified files to index");
 
                     for (final String file : toAdd) {
+                        Cancellation.current().check();
                         final AddCommand gitAdd = jgit.add();
                         syslog().debug("add  " + file);
-                        ulog.update(styledRaw("Backing up " + file, JGIT)); //FIXME i18n
+                        ulog.progress(ProgressEvent.count(COMMIT, null, completed++, total, startMillis));
                         gitAdd.addFilepattern(file);
                         gitAdd.call();
                     }
@@ -191,9 +227,10 @@ abstract class CommitUtils {
                 if (!toDelete.isEmpty()) {
                     syslog().debug("Removing " + toDelete.size() + " deleted files from index");
                     for (final String file : toDelete) {
+                        Cancellation.current().check();
                         final RmCommand gitRm = jgit.rm();
                         syslog().debug("rm  " + file);
-                        ulog.update(styledRaw("Removing " + file, JGIT)); //FIXME i18n
+                        ulog.progress(ProgressEvent.count(COMMIT, null, completed++, total, startMillis));
                         gitRm.addFilepattern(file);
                         gitRm.call();
                     }
@@ -201,11 +238,18 @@ abstract class CommitUtils {
             }
         } finally {
             mod().setWorldSaveEnabled(true);
+            stage.close();
             syslog().debug("World save re-enabled.");
         }
+        Cancellation.current().check();
         syslog().debug("commit");
         ulog.update(styledRaw("Commit complete", JGIT)); //FIXME i18n
-        jgit.commit().setMessage(newBranchName).call();
+        final PhaseTimer commitTimer = RunMetrics.time(Phase.COMMIT);
+        try {
+            jgit.commit().setMessage(newBranchName).call();
+        } finally {
+            commitTimer.close();
+        }
     }
 
     private static void writeBackupProperties(Repo repo) throws IOException {
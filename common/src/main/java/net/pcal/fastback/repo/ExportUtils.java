@@ -0,0 +1,141 @@
+/*
+ * FastBack - Fast, incremental Minecraft backups powered by Git.
+ * Copyright (C) 2022 pcal.net
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pcal.fastback.repo;
+
+import net.pcal.fastback.config.GitConfig;
+import net.pcal.fastback.logging.ProgressEvent;
+import net.pcal.fastback.logging.UserLogger;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static net.pcal.fastback.config.FastbackConfigKey.RESTORE_DIRECTORY;
+import static net.pcal.fastback.logging.ProgressEvent.Phase.EXPORT;
+import static net.pcal.fastback.logging.SystemLogger.syslog;
+import static net.pcal.fastback.logging.UserMessage.localized;
+import static net.pcal.fastback.mod.Mod.mod;
+import static org.apache.commons.io.FileUtils.byteCountToDisplaySize;
+
+/**
+ * Utilities for exporting a snapshot to an archive file.  The snapshot tree is walked straight out of the object
+ * database and each blob is streamed into the archive, so no working copy is ever written out.  Lfs-tracked files
+ * are read from the local lfs cache.
+ * <p>
+ * Blobs are read on the calling thread while compression runs on a pool (see BlockCompressor), so reading and
+ * compressing overlap.  Memory use doesn't depend on the size of the world.
+ *
+ * @author pcal
+ * @since 0.16.0
+ */
+abstract class ExportUtils {
+
+    // ======================================================================
+    // Constants
+
+    private static final int PROGRESS_INTERVAL = 100;
+
+    // ======================================================================
+    // Package private
+
+    /**
+     * @return the path to the archive.
+     */
+    static Path doExport(final RepoImpl repo, final SnapshotId sid, final ExportFormat format, final UserLogger ulog) throws IOException {
+        final Ref ref = repo.getJGit().getRepository().exactRef("refs/heads/" + sid.getBranchName());
+        if (ref == null) throw new IOException("No local snapshot branch " + sid.getBranchName());
+        final GitConfig conf = repo.getConfig();
+        final Path allRestoresDir = conf.isSet(RESTORE_DIRECTORY) ?
+                Paths.get(conf.getString(RESTORE_DIRECTORY)) : mod().getDefaultRestoresDir();
+        Files.createDirectories(allRestoresDir);
+        final Path targetFile = RestoreUtils.getTargetPath(allRestoresDir, mod().getWorldName(), sid.getShortName(), "." + format.getExtension());
+        final Path tempFile = targetFile.resolveSibling(targetFile.getFileName() + ".partial");
+        try {
+            final long[] countAndSize;
+            try (final OutputStream out = new BufferedOutputStream(Files.newOutputStream(tempFile));
+                 final ArchiveWriter archive = ArchiveWriter.create(format, out, getCompressionThreads())) {
+                countAndSize = writeSnapshot(repo, ref.getObjectId(), archive, ulog);
+            }
+            Files.move(tempFile, targetFile, ATOMIC_MOVE);
+            syslog().info("Exported " + countAndSize[0] + " files (" + byteCountToDisplaySize(countAndSize[1]) + ") to " + targetFile);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+        return targetFile;
+    }
+
+    // ======================================================================
+    // Private
+
+    /**
+     * @return the number of files written and their total size.
+     */
+    private static long[] writeSnapshot(final RepoImpl repo, final ObjectId commitId, final ArchiveWriter archive, final UserLogger ulog) throws IOException {
+        final long[] out = {0, 0};
+        final long startMillis = System.currentTimeMillis();
+        final Repository jgitRepo = repo.getJGit().getRepository();
+        try (final ObjectReader reader = jgitRepo.newObjectReader();
+             final RevWalk rw = new RevWalk(reader);
+             final TreeWalk tw = new TreeWalk(reader)) {
+            final RevCommit commit = rw.parseCommit(commitId);
+            final long mtime = commit.getCommitTime() * 1000L;
+            tw.addTree(commit.getTree());
+            tw.setRecursive(true);
+            while (tw.next()) {
+                final FileMode mode = tw.getFileMode(0);
+                if (mode != FileMode.REGULAR_FILE && mode != FileMode.EXECUTABLE_FILE) {
+                    syslog().debug("Skipping " + tw.getPathString() + " with mode " + mode);
+                    continue;
+                }
+                final ObjectId blobId = tw.getObjectId(0);
+                final long size = LfsUtils.getSmudgedSize(reader, blobId);
+                try (final InputStream in = LfsUtils.openSmudged(repo, reader, blobId)) {
+                    archive.addFile(tw.getPathString(), size, mode == FileMode.EXECUTABLE_FILE, mtime, in);
+                }
+                out[0]++;
+                out[1] += size;
+                if (out[0] % PROGRESS_INTERVAL == 0) {
+                    ulog.progress(new ProgressEvent(EXPORT, null, out[0], -1, out[1], startMillis,
+                            localized("fastback.hud.export-progress", out[0], byteCountToDisplaySize(out[1]))));
+                }
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Leave a core for the server thread.
+     */
+    private static int getCompressionThreads() {
+        return Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    }
+}
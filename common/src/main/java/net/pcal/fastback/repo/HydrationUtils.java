@@ -0,0 +1,220 @@
+/*
+ * FastBack - Fast, incremental Minecraft backups powered by Git.
+ * Copyright (C) 2022 pcal.net
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pcal.fastback.repo;
+
+import net.pcal.fastback.utils.ProcessException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import static net.pcal.fastback.logging.SystemLogger.syslog;
+import static net.pcal.fastback.repo.RegionFileUtils.getRegionFileName;
+import static net.pcal.fastback.utils.ProcessUtils.doExec;
+
+/**
+ * Utilities for lazily-restored worlds.  A lazy restore checks out a snapshot with lfs smudging disabled, so every
+ * lfs-tracked file in the world starts out as a small pointer file.  'Hydrating' a file means replacing the
+ * pointer with the real content.
+ *
+ * @author pcal
+ * @since 0.16.0
+ */
+abstract class HydrationUtils {
+
+    // ======================================================================
+    // Constants
+
+    /**
+     * Marker file in the .git directory of a world that still has unhydrated files.
+     */
+    static final String HYDRATION_MARKER = "fastback-hydration-pending";
+
+    /**
+     * Directories whose .mca files the server reads through RegionFile, which hydrates them on demand.  Everything
+     * else (level.dat, playerdata, datapack zips...) is read directly at startup and so has to be hydrated first.
+     */
+    private static final List<String> REGION_DIRS = List.of("region", "entities", "poi");
+
+    /**
+     * How many regions around spawn and each player to hydrate before the world is started.
+     */
+    private static final int PRIORITY_REGION_RADIUS = 1;
+
+    private static final int MAX_POINTER_SIZE = 1024;
+
+    /**
+     * Most paths to pass to one 'git lfs pull', so we stay well under command line limits (32K on Windows).
+     */
+    private static final int MAX_PATHS_PER_PULL = 200;
+
+    // ======================================================================
+    // Package private
+
+    static Path getMarkerFile(Path worktree) {
+        return worktree.resolve(".git").resolve(HYDRATION_MARKER);
+    }
+
+    /**
+     * @return true if the given file looks like an lfs pointer rather than real content.  Cheap for large files.
+     */
+    static boolean isPointerFile(Path file) {
+        try {
+            if (Files.size(file) >= MAX_POINTER_SIZE) return false;
+            try (final InputStream in = Files.newInputStream(file)) {
+                return LfsUtils.parsePointer(in.readAllBytes()) != null;
+            }
+        } catch (NoSuchFileException e) {
+            return false;
+        } catch (IOException e) {
+            syslog().debug(e);
+            return false;
+        }
+    }
+
+    /**
+     * @return the worktree of the lazily-restored world that contains the given file, or null if there is none.
+     */
+    static Path findHydratingWorktree(Path file) {
+        for (Path dir = file.toAbsolutePath().getParent(); dir != null; dir = dir.getParent()) {
+            if (Files.exists(getMarkerFile(dir))) return dir;
+        }
+        return null;
+    }
+
+    /**
+     * @return worktree-relative paths of all the files that are still lfs pointers.
+     */
+    static List<String> listPointerFiles(Path worktree) throws IOException {
+        final Path gitDir = worktree.resolve(".git");
+        try (final Stream<Path> files = Files.walk(worktree)) {
+            return files.filter(p -> !p.startsWith(gitDir)).
+                    filter(Files::isRegularFile).
+                    filter(HydrationUtils::isPointerFile).
+                    map(p -> toGitPath(worktree, p)).
+                    toList();
+        }
+    }
+
+    /**
+     * @return worktree-relative paths of the pointer files that have to be hydrated before the world is started:
+     * all of them except the region files.
+     */
+    static List<String> listStartupPointerFiles(Path worktree) throws IOException {
+        return listPointerFiles(worktree).stream().filter(path -> !isRegionPath(path)).toList();
+    }
+
+    /**
+     * @return the worktree-relative path of the file, in git's format.
+     */
+    static String toGitPath(Path worktree, Path file) {
+        final List<String> parts = new ArrayList<>();
+        for (final Path part : worktree.toAbsolutePath().relativize(file.toAbsolutePath())) parts.add(part.toString());
+        return String.join("/", parts);
+    }
+
+    /**
+     * Replace the pointers at the given paths (or lfs include patterns) with their content.
+     */
+    static void hydrate(Path worktree, Collection<String> pathsOrPatterns, int concurrency, Consumer<String> outputConsumer) throws ProcessException {
+        final List<String> all = List.copyOf(pathsOrPatterns);
+        for (int i = 0; i < all.size(); i += MAX_PATHS_PER_PULL) {
+            doExec(new String[]{
+                    "git", "-C", worktree.toString(), "-c", "lfs.concurrenttransfers=" + concurrency,
+                    "lfs", "pull", "--include=" + String.join(",", all.subList(i, Math.min(i + MAX_PATHS_PER_PULL, all.size())))
+            }, Map.of("GIT_LFS_FORCE_PROGRESS", "1"), outputConsumer, outputConsumer);
+        }
+    }
+
+    /**
+     * Figure out which region files need to be available before the world can start: the ones around the world
+     * spawn and around each player.  The startup files (level.dat, playerdata) need to be hydrated before calling
+     * this.
+     */
+    static Set<String> getPriorityRegionPaths(Path worktree) {
+        final Set<String> out = new LinkedHashSet<>();
+        try {
+            final Map<String, Object> level = NbtUtils.readCompressed(worktree.resolve("level.dat"));
+            if (NbtUtils.get(level, "Data", "SpawnX") instanceof Integer x && NbtUtils.get(level, "Data", "SpawnZ") instanceof Integer z) {
+                addRegionsAround(out, "minecraft:overworld", x, z);
+            }
+            if (NbtUtils.get(level, "Data", "Player") instanceof Map<?, ?> player) { // singleplayer
+                addPlayerRegions(out, player);
+            }
+        } catch (IOException e) {
+            syslog().warn("Could not read spawn position from level.dat: " + e.getMessage());
+        }
+        final Path playerDataDir = worktree.resolve("playerdata");
+        if (Files.isDirectory(playerDataDir)) {
+            try (final Stream<Path> players = Files.list(playerDataDir)) {
+                for (final Path playerFile : players.filter(p -> p.toString().endsWith(".dat")).toList()) {
+                    try {
+                        addPlayerRegions(out, NbtUtils.readCompressed(playerFile));
+                    } catch (IOException e) {
+                        syslog().warn("Could not read player position from " + playerFile + ": " + e.getMessage());
+                    }
+                }
+            } catch (IOException e) {
+                syslog().error("Could not list playerdata", e);
+            }
+        }
+        return out;
+    }
+
+    // ======================================================================
+    // Private
+
+    private static boolean isRegionPath(String gitPath) {
+        if (!gitPath.endsWith(".mca")) return false;
+        final String[] parts = gitPath.split("/");
+        return parts.length >= 2 && REGION_DIRS.contains(parts[parts.length - 2]);
+    }
+
+    private static void addPlayerRegions(Set<String> out, Map<?, ?> player) {
+        if (player.get("Pos") instanceof List<?> pos && pos.size() == 3 &&
+                pos.get(0) instanceof Double x && pos.get(2) instanceof Double z) {
+            final String dimension = player.get("Dimension") instanceof String d ? d : "minecraft:overworld";
+            addRegionsAround(out, dimension, (int) Math.floor(x), (int) Math.floor(z));
+        }
+    }
+
+    private static void addRegionsAround(Set<String> out, String dimension, int blockX, int blockZ) {
+        final String dimensionPath = ChunkRestoreUtils.getDimensionPath(dimension);
+        if (dimensionPath == null) return;
+        final int chunkX = blockX >> 4, chunkZ = blockZ >> 4;
+        for (int dx = -PRIORITY_REGION_RADIUS; dx <= PRIORITY_REGION_RADIUS; dx++) {
+            for (int dz = -PRIORITY_REGION_RADIUS; dz <= PRIORITY_REGION_RADIUS; dz++) {
+                final String regionFile = getRegionFileName(chunkX + dx * 32, chunkZ + dz * 32);
+                for (final String dir : REGION_DIRS) {
+                    out.add(dimensionPath + dir + "/" + regionFile);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * FastBack - Fast, incremental Minecraft backups powered by Git.
+ * Copyright (C) 2022 pcal.net
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pcal.fastback.repo;
+
+import java.nio.file.Path;
+
+/**
+ * Fills in the content of a lazily-restored world.  Files are hydrated in the background once the world starts;
+ * any region file that minecraft tries to open before then is hydrated on demand.
+ *
+ * @author pcal
+ * @since 0.16.0
+ */
+public interface Hydrator {
+
+    static Hydrator hydrator() {
+        return HydratorImpl.INSTANCE;
+    }
+
+    /**
+     * Start hydrating the given world in the background.  Does nothing if the world isn't a lazy restore.
+     */
+    void start(Path worldSaveDir);
+
+    /**
+     * Blocks until the given file has been hydrated.  Returns immediately if the file isn't part of a lazily-restored
+     * world or has already been hydrated.  Must be called before minecraft opens a region file.
+     */
+    void ensureHydrated(Path file);
+
+    /**
+     * Stop background hydration.  It will resume the next time the world is started.
+     */
+    void stop();
+}
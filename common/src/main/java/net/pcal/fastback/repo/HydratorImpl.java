@@ -0,0 +1,141 @@
+/*
+ * FastBack - Fast, incremental Minecraft backups powered by Git.
+ * Copyright (C) 2022 pcal.net
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pcal.fastback.repo;
+
+import net.pcal.fastback.utils.ProcessException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import static net.pcal.fastback.logging.SystemLogger.syslog;
+import static net.pcal.fastback.repo.HydrationUtils.findHydratingWorktree;
+import static net.pcal.fastback.repo.HydrationUtils.getMarkerFile;
+import static net.pcal.fastback.repo.HydrationUtils.hydrate;
+import static net.pcal.fastback.repo.HydrationUtils.isPointerFile;
+import static net.pcal.fastback.repo.HydrationUtils.listPointerFiles;
+import static net.pcal.fastback.repo.HydrationUtils.toGitPath;
+
+/**
+ * There's only ever one world loaded, so there's only ever one hydration in progress.  Background hydration and
+ * on-demand requests both shell out to git-lfs in the same worktree, so they take turns through a lock; batches
+ * are kept small so an on-demand request never waits long behind the background thread.
+ *
+ * @author pcal
+ * @since 0.16.0
+ */
+class HydratorImpl implements Hydrator {
+
+    // ======================================================================
+    // Constants
+
+    static final HydratorImpl INSTANCE = new HydratorImpl();
+
+    private static final int BATCH_SIZE = 16;
+    private static final int BACKGROUND_CONCURRENCY = 4;
+    private static final int ON_DEMAND_CONCURRENCY = 8;
+
+    // ======================================================================
+    // Fields
+
+    private final ReentrantLock lfsLock = new ReentrantLock(true);
+    private Thread backgroundThread = null;
+
+    // ======================================================================
+    // Hydrator implementation
+
+    @Override
+    public synchronized void start(final Path worldSaveDir) {
+        if (!Files.exists(getMarkerFile(worldSaveDir))) return;
+        if (this.backgroundThread != null) this.stop();
+        syslog().info("World was lazily restored, starting background hydration of " + worldSaveDir);
+        this.backgroundThread = new Thread(() -> hydrateAll(worldSaveDir), "fastback-hydrator");
+        this.backgroundThread.setDaemon(true);
+        this.backgroundThread.setPriority(Thread.MIN_PRIORITY);
+        this.backgroundThread.start();
+    }
+
+    @Override
+    public void ensureHydrated(final Path file) {
+        if (!isPointerFile(file)) return;
+        final Path worktree = findHydratingWorktree(file);
+        if (worktree == null) return;
+        final long start = System.currentTimeMillis();
+        this.lfsLock.lock();
+        try {
+            if (!isPointerFile(file)) return; // the background thread got to it first
+            hydrate(worktree, List.of(toGitPath(worktree, file)), ON_DEMAND_CONCURRENCY, line -> syslog().debug(line));
+            syslog().debug("Hydrated " + file + " on demand in " + (System.currentTimeMillis() - start) + "ms");
+        } catch (ProcessException e) {
+            syslog().error("Failed to hydrate " + file, e);
+        } finally {
+            this.lfsLock.unlock();
+        }
+    }
+
+    @Override
+    public synchronized void stop() {
+        final Thread thread = this.backgroundThread;
+        if (thread == null) return;
+        this.backgroundThread = null;
+        thread.interrupt();
+        try {
+            thread.join(60 * 1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ======================================================================
+    // Private
+
+    private void hydrateAll(final Path worktree) {
+        final long start = System.currentTimeMillis();
+        final Consumer<String> outputConsumer = line -> syslog().debug(line);
+        try {
+            final List<String> pending = listPointerFiles(worktree);
+            syslog().info(pending.size() + " files to hydrate");
+            for (int i = 0; i < pending.size(); i += BATCH_SIZE) {
+                if (Thread.currentThread().isInterrupted()) {
+                    syslog().info("Background hydration stopped; it will resume when the world is next started.");
+                    return;
+                }
+                final List<String> batch = pending.subList(i, Math.min(i + BATCH_SIZE, pending.size())).stream().
+                        filter(path -> isPointerFile(worktree.resolve(path))).toList();
+                this.lfsLock.lock();
+                try {
+                    hydrate(worktree, batch, BACKGROUND_CONCURRENCY, outputConsumer);
+                } finally {
+                    this.lfsLock.unlock();
+                }
+            }
+            if (listPointerFiles(worktree).isEmpty()) {
+                Files.delete(getMarkerFile(worktree));
+                syslog().info("Hydration complete in " + (System.currentTimeMillis() - start) / 1000 + "s");
+            } else {
+                syslog().warn("Some files could not be hydrated; will retry when the world is next started.");
+            }
+        } catch (IOException | ProcessException e) {
+            syslog().error("Background hydration failed; will retry when the world is next started.", e);
+        }
+    }
+}
@@ -70,7 +70,7 @@ class JGitIncrementalProgressMonitor implements ProgressMonitor {
 
     @Override
     public boolean isCancelled() {
-        return false;
+        return this.delegate.isCancelled();
     }
 
     @Override
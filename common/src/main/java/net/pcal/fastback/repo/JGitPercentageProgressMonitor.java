@@ -18,13 +18,17 @@
 
 package net.pcal.fastback.repo;
 
+import net.pcal.fastback.logging.ProgressEvent;
+import net.pcal.fastback.utils.Cancellation;
 import org.eclipse.jgit.lib.ProgressMonitor;
 
 abstract class JGitPercentageProgressMonitor implements ProgressMonitor {
 
+    private final Cancellation cancellation = Cancellation.current();
     private String currentTask;
     private int currentTotalWork;
     private int totalCompleted;
+    private long taskStartMillis;
 
     protected JGitPercentageProgressMonitor() {
     }
@@ -38,6 +42,7 @@ abstract class JGitPercentageProgressMonitor implements ProgressMonitor {
         this.currentTask = taskName;
         this.currentTotalWork = totalWork;
         this.totalCompleted = 0;
+        this.taskStartMillis = System.currentTimeMillis();
         this.progressStart(currentTask);
     }
 
@@ -56,7 +61,14 @@ abstract class JGitPercentageProgressMonitor implements ProgressMonitor {
 
     @Override
     final public boolean isCancelled() {
-        return false;
+        return this.cancellation.isCancelled();
+    }
+
+    /**
+     * @return a progress event describing the current task, with counts if jgit told us the total.
+     */
+    protected ProgressEvent progressEvent(ProgressEvent.Phase phase) {
+        return ProgressEvent.count(phase, this.currentTask, this.totalCompleted, this.currentTotalWork, this.taskStartMillis);
     }
 
     protected abstract void progressStart(String taskName);
@@ -0,0 +1,133 @@
+/*
+ * FastBack - Fast, incremental Minecraft backups powered by Git.
+ * Copyright (C) 2022 pcal.net
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pcal.fastback.repo;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.eclipse.jgit.lib.Constants.OBJ_BLOB;
+
+/**
+ * Utilities for dealing with git-lfs pointer files without shelling out to git-lfs.  In native mode, most
+ * of the blobs in a snapshot are small pointer files; the real content lives under .git/lfs/objects.
+ *
+ * @author pcal
+ * @since 0.16.0
+ */
+abstract class LfsUtils {
+
+    // ======================================================================
+    // Constants
+
+    /**
+     * Pointer files are specified to be less than 1024 bytes.  Anything bigger is real content.
+     */
+    private static final int MAX_POINTER_SIZE = 1024;
+
+    private static final String POINTER_VERSION_LINE = "version https://git-lfs.github.com/spec/v1";
+    private static final String OID_PREFIX = "oid sha256:";
+    private static final String SIZE_PREFIX = "size ";
+
+    // ======================================================================
+    // Package private
+
+    /**
+     * Oid and size of an lfs object, as recorded in a pointer file.
+     */
+    record LfsPointer(String oid, long size) {
+    }
+
+    /**
+     * @return the parsed pointer, or null if the given content is not an lfs pointer file.
+     */
+    static LfsPointer parsePointer(final byte[] content) {
+        if (content.length >= MAX_POINTER_SIZE) return null;
+        final String text = new String(content, StandardCharsets.UTF_8);
+        if (!text.startsWith(POINTER_VERSION_LINE)) return null;
+        String oid = null;
+        long size = -1;
+        for (final String line : text.split("\n")) {
+            if (line.startsWith(OID_PREFIX)) {
+                oid = line.substring(OID_PREFIX.length()).trim();
+            } else if (line.startsWith(SIZE_PREFIX)) {
+                try {
+                    size = Long.parseLong(line.substring(SIZE_PREFIX.length()).trim());
+                } catch (NumberFormatException nfe) {
+                    return null;
+                }
+            }
+        }
+        return oid != null && oid.length() == 64 && size >= 0 ? new LfsPointer(oid, size) : null;
+    }
+
+    /**
+     * @return path to where the given object is (or would be) stored in the repo's local lfs cache.
+     */
+    static Path getLocalObjectPath(final RepoImpl repo, final String oid) {
+        return repo.getDirectory().toPath().resolve("lfs").resolve("objects").
+                resolve(oid.substring(0, 2)).resolve(oid.substring(2, 4)).resolve(oid);
+    }
+
+    /**
+     * @return the pointer stored in the given blob, or null if the blob is not a pointer.
+     */
+    static LfsPointer readPointer(final ObjectReader reader, final ObjectId blobId) throws IOException {
+        final ObjectLoader loader = reader.open(blobId, OBJ_BLOB);
+        if (loader.getSize() >= MAX_POINTER_SIZE) return null;
+        return parsePointer(loader.getCachedBytes());
+    }
+
+    /**
+     * @return the size of the 'smudged' content of a blob, i.e., the size of the lfs object if it's a pointer.
+     */
+    static long getSmudgedSize(final ObjectReader reader, final ObjectId blobId) throws IOException {
+        final long size = reader.getObjectSize(blobId, OBJ_BLOB);
+        if (size >= MAX_POINTER_SIZE) return size;
+        final LfsPointer pointer = readPointer(reader, blobId);
+        return pointer != null ? pointer.size() : size;
+    }
+
+    /**
+     * Opens the 'smudged' content of a blob.  If the blob is an lfs pointer, the content is read from the local
+     * lfs cache; otherwise the blob content is streamed straight out of the object database.
+     *
+     * @throws FileNotFoundException if the blob is a pointer to an lfs object that isn't available locally.
+     */
+    static InputStream openSmudged(final RepoImpl repo, final ObjectReader reader, final ObjectId blobId) throws IOException {
+        final ObjectLoader loader = reader.open(blobId, OBJ_BLOB);
+        if (loader.getSize() >= MAX_POINTER_SIZE) return loader.openStream();
+        final byte[] content = loader.getCachedBytes();
+        final LfsPointer pointer = parsePointer(content);
+        if (pointer == null) return new ByteArrayInputStream(content);
+        final Path objectPath = getLocalObjectPath(repo, pointer.oid());
+        if (!Files.exists(objectPath)) {
+            throw new FileNotFoundException("lfs object " + pointer.oid() + " is not available locally");
+        }
+        return Files.newInputStream(objectPath);
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * FastBack - Fast, incremental Minecraft backups powered by Git.
+ * Copyright (C) 2022 pcal.net
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pcal.fastback.repo;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Minimal reader for the NBT files in a world save (level.dat, playerdata).  We can't use minecraft's own
+ * classes here because we need to read worlds that aren't loaded, possibly before the server has started.
+ * <p>
+ * Compounds are returned as Maps, lists as Lists and everything else as the corresponding boxed java type
+ * (arrays as primitive arrays).
+ *
+ * @author pcal
+ * @since 0.16.0
+ */
+abstract class NbtUtils {
+
+    // ======================================================================
+    // Constants
+
+    private static final int TAG_END = 0;
+    private static final int TAG_BYTE = 1;
+    private static final int TAG_SHORT = 2;
+    private static final int TAG_INT = 3;
+    private static final int TAG_LONG = 4;
+    private static final int TAG_FLOAT = 5;
+    private static final int TAG_DOUBLE = 6;
+    private static final int TAG_BYTE_ARRAY = 7;
+    private static final int TAG_STRING = 8;
+    private static final int TAG_LIST = 9;
+    private static final int TAG_COMPOUND = 10;
+    private static final int TAG_INT_ARRAY = 11;
+    private static final int TAG_LONG_ARRAY = 12;
+
+    private static final int MAX_DEPTH = 512;
+
+    // ======================================================================
+    // Package private
+
+    /**
+     * Reads the root compound of a gzipped nbt file.
+     */
+    static Map<String, Object> readCompressed(final Path file) throws IOException {
+        try (final InputStream in = new GZIPInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            return read(in);
+        }
+    }
+
+    /**
+     * Reads the root compound from an uncompressed nbt stream.
+     */
+    static Map<String, Object> read(final InputStream in) throws IOException {
+        final DataInputStream data = new DataInputStream(in);
+        final int type = data.readUnsignedByte();
+        if (type != TAG_COMPOUND) throw new IOException("Root tag is not a compound: " + type);
+        data.readUTF(); // root name, usually empty
+        return readCompound(data, 0);
+    }
+
+    /**
+     * Navigates a path of compound keys.
+     *
+     * @return the value at the given path, or null if any part of the path is missing or of the wrong type.
+     */
+    static Object get(final Map<String, Object> compound, final String... path) {
+        Object current = compound;
+        for (final String key : path) {
+            if (!(current instanceof Map<?, ?> map)) return null;
+            current = map.get(key);
+        }
+        return current;
+    }
+
+    // ======================================================================
+    // Private
+
+    private static Map<String, Object> readCompound(final DataInputStream in, final int depth) throws IOException {
+        final Map<String, Object> out = new HashMap<>();
+        while (true) {
+            final int type = in.readUnsignedByte();
+            if (type == TAG_END) return out;
+            final String name = in.readUTF();
+            out.put(name, readPayload(type, in, depth + 1));
+        }
+    }
+
+    private static Object readPayload(final int type, final DataInputStream in, final int depth) throws IOException {
+        if (depth > MAX_DEPTH) throw new IOException("NBT nested too deeply");
+        switch (type) {
+            case TAG_BYTE:
+                return in.readByte();
+            case TAG_SHORT:
+                return in.readShort();
+            case TAG_INT:
+                return in.readInt();
+            case TAG_LONG:
+                return in.readLong();
+            case TAG_FLOAT:
+                return in.readFloat();
+            case TAG_DOUBLE:
+                return in.readDouble();
+            case TAG_BYTE_ARRAY: {
+                final byte[] out = new byte[checkLength(in.readInt())];
+                in.readFully(out);
+                return out;
+            }
+            case TAG_STRING:
+                return in.readUTF();
+            case TAG_LIST: {
+                final int elementType = in.readUnsignedByte();
+                final int length = checkLength(in.readInt());
+                final List<Object> out = new ArrayList<>(Math.min(length, 1024));
+                for (int i = 0; i < length; i++) out.add(readPayload(elementType, in, depth + 1));
+                return out;
+            }
+            case TAG_COMPOUND:
+                return readCompound(in, depth);
+            case TAG_INT_ARRAY: {
+                final int[] out = new int[checkLength(in.readInt())];
+                for (int i = 0; i < out.length; i++) out[i] = in.readInt();
+                return out;
+            }
+            case TAG_LONG_ARRAY: {
+                final long[] out = new long[checkLength(in.readInt())];
+                for (int i = 0; i < out.length; i++) out[i] = in.readLong();
+                return out;
+            }
+            default:
+                throw new IOException("Unknown NBT tag type " + type);
+        }
+    }
+
+    private static int checkLength(int length) throws IOException {
+        if (length < 0) throw new IOException("Negative NBT length " + length);
+        return length;
+    }
+}
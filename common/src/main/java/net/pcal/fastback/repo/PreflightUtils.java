@@ -30,11 +30,18 @@ import java.nio.file.Path;
 import java.util.Collections;
 
 import static net.pcal.fastback.config.FastbackConfigKey.IS_NATIVE_GIT_ENABLED;
+import static net.pcal.fastback.config.FastbackConfigKey.IS_REACHABILITY_INDEX_ENABLED;
 import static net.pcal.fastback.config.FastbackConfigKey.UPDATE_GITATTRIBUTES_ENABLED;
 import static net.pcal.fastback.config.FastbackConfigKey.UPDATE_GITIGNORE_ENABLED;
 import static net.pcal.fastback.logging.SystemLogger.syslog;
 import static net.pcal.fastback.utils.FileUtils.writeResourceToFile;
 import static net.pcal.fastback.utils.ProcessUtils.doExec;
+import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_COMMIT_GRAPH;
+import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_CORE_SECTION;
+import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_GC_SECTION;
+import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_VERSION;
+import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_WRITE_COMMIT_GRAPH;
+import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_PROTOCOL_SECTION;
 
 /**
  * Utilities for keeping the repo configuration up-to-date.
@@ -57,7 +64,7 @@ abstract class PreflightUtils {
         final Git jgit = repo.getJGit();
         final Path worldSaveDir = jgit.getRepository().getWorkTree().toPath();
         WorldIdUtils.ensureWorldHasId(worldSaveDir);
-        final GitConfig config = GitConfig.load(jgit);
+        final GitConfig config = repo.getConfig();
         if (config.getBoolean(UPDATE_GITIGNORE_ENABLED)) {
             final Path targetPath = worldSaveDir.resolve(".gitignore");
             writeResourceToFile("world/gitignore", targetPath);
@@ -71,11 +78,41 @@ abstract class PreflightUtils {
             }
         }
         updateNativeLfsInstallation(repo);
+        updateReachabilityIndexConfig(repo);
+        updateProtocolVersionConfig(repo);
     }
 
     // ======================================================================
     // Private
 
+    /**
+     * Tells git (native and jgit) to read the commit-graph, and to write it when gc runs.  Bitmaps are used by
+     * default whenever they exist, so there's nothing to configure for them.
+     */
+    private static void updateReachabilityIndexConfig(final RepoImpl repo) throws IOException {
+        final boolean enabled = repo.getConfig().getBoolean(IS_REACHABILITY_INDEX_ENABLED);
+        final StoredConfig jgitConfig = repo.getJGit().getRepository().getConfig();
+        if (jgitConfig.getBoolean(CONFIG_CORE_SECTION, CONFIG_COMMIT_GRAPH, false) == enabled &&
+                jgitConfig.getBoolean(CONFIG_GC_SECTION, CONFIG_KEY_WRITE_COMMIT_GRAPH, false) == enabled) {
+            return;
+        }
+        jgitConfig.setBoolean(CONFIG_CORE_SECTION, null, CONFIG_COMMIT_GRAPH, enabled);
+        jgitConfig.setBoolean(CONFIG_GC_SECTION, null, CONFIG_KEY_WRITE_COMMIT_GRAPH, enabled);
+        jgitConfig.save();
+    }
+
+    /**
+     * Protocol v2 lets us ask the remote for just the refs we're interested in (see RemoteCatalogUtils) rather than
+     * getting every ref it has.  Native git uses it by default; make sure jgit does too, unless the user has
+     * said otherwise.
+     */
+    private static void updateProtocolVersionConfig(final RepoImpl repo) throws IOException {
+        final StoredConfig jgitConfig = repo.getJGit().getRepository().getConfig();
+        if (jgitConfig.getString(CONFIG_PROTOCOL_SECTION, null, CONFIG_KEY_VERSION) != null) return;
+        jgitConfig.setInt(CONFIG_PROTOCOL_SECTION, null, CONFIG_KEY_VERSION, 2);
+        jgitConfig.save();
+    }
+
     /**
      * Ensures that git-lfs is installed or uninstalled in the worktree as appropriate.
      */
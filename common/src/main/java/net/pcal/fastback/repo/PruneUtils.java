@@ -25,14 +25,30 @@ import net.pcal.fastback.logging.UserMessage;
 import net.pcal.fastback.retention.RetentionPolicy;
 import net.pcal.fastback.retention.RetentionPolicyCodec;
 import net.pcal.fastback.retention.RetentionPolicyType;
+import net.pcal.fastback.retention.SnapshotSizeEstimator;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.api.errors.TransportException;
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.BatchRefUpdate;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefDatabase;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.PushResult;
+import org.eclipse.jgit.transport.ReceiveCommand;
 import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.RemoteRefUpdate;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import static net.pcal.fastback.config.FastbackConfigKey.LOCAL_RETENTION_POLICY;
@@ -40,6 +56,8 @@ import static net.pcal.fastback.config.FastbackConfigKey.REMOTE_NAME;
 import static net.pcal.fastback.logging.SystemLogger.syslog;
 import static net.pcal.fastback.logging.UserMessage.UserMessageStyle.ERROR;
 import static net.pcal.fastback.logging.UserMessage.styledLocalized;
+import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_BRANCH_SECTION;
+import static org.eclipse.jgit.lib.Constants.R_HEADS;
 
 /**
  * Utils for pruning and deleting snapshot branches.
@@ -49,32 +67,103 @@ import static net.pcal.fastback.logging.UserMessage.styledLocalized;
  */
 abstract class PruneUtils {
 
-    static void deleteRemoteBranch(final RepoImpl repo, String remoteBranchName) throws IOException {
-        RefSpec refSpec = new RefSpec()
-                .setSource(null)
-                .setDestination("refs/heads/" + remoteBranchName);
+    /**
+     * Delete all the given branches from the remote in a single push.  If the remote supports atomic pushes, either
+     * they all get deleted or none do.
+     *
+     * @return the branches that could not be deleted, mapped to the reason why.
+     */
+    static Map<String, String> deleteRemoteBranches(final RepoImpl repo, final List<String> remoteBranchNames) throws IOException {
+        if (remoteBranchNames.isEmpty()) return Map.of();
+        final List<RefSpec> refSpecs = new ArrayList<>();
+        for (final String branchName : remoteBranchNames) {
+            refSpecs.add(new RefSpec().setSource(null).setDestination(R_HEADS + branchName));
+        }
+        Iterable<PushResult> results;
         try {
-            repo.getJGit().push().setRefSpecs(refSpec).setRemote(repo.getConfig().getString(REMOTE_NAME)).call();
+            try {
+                results = pushDeletes(repo, refSpecs, true);
+            } catch (TransportException e) {
+                if (e.getMessage() == null || !e.getMessage().contains(JGitText.get().atomicPushNotSupported)) throw e;
+                syslog().info("Remote does not support atomic push, deleting " + refSpecs.size() + " branches non-atomically");
+                results = pushDeletes(repo, refSpecs, false);
+            }
         } catch (GitAPIException e) {
             throw new IOException(e);
         }
+        final Map<String, String> failures = new LinkedHashMap<>();
+        for (final PushResult result : results) {
+            for (final RemoteRefUpdate update : result.getRemoteUpdates()) {
+                final RemoteRefUpdate.Status status = update.getStatus();
+                if (status == RemoteRefUpdate.Status.OK || status == RemoteRefUpdate.Status.NON_EXISTING) continue;
+                final String reason = update.getMessage() != null ? status + " " + update.getMessage() : status.toString();
+                syslog().warn("Failed to delete remote branch " + update.getRemoteName() + ": " + reason);
+                failures.put(Repository.shortenRefName(update.getRemoteName()), reason);
+            }
+        }
+        final List<String> deleted = new ArrayList<>(remoteBranchNames);
+        deleted.removeAll(failures.keySet());
+        RemoteCatalogUtils.recordDeletes(repo, deleted);
+        return failures;
     }
 
+    /**
+     * Delete the given local branches with a single atomic ref update.  Deleting them one at a time rewrites
+     * packed-refs once per branch, which gets very slow once there are thousands of snapshots.
+     *
+     * The branch HEAD points to is skipped, since deleting it would leave HEAD dangling.  Native commits leave HEAD
+     * on the latest snapshot branch.
+     */
     static void deleteLocalBranches(final RepoImpl repo, List<String> branchNames) throws IOException {
-        try {
-            repo.getJGit().branchDelete().setForce(true).setBranchNames(branchNames.toArray(new String[0])).call();
-        } catch (GitAPIException e) {
-            throw new IOException(e);
+        if (branchNames.isEmpty()) return;
+        final Repository jrepo = repo.getJGit().getRepository();
+        final String currentBranch = jrepo.getFullBranch();
+        if (currentBranch != null && branchNames.contains(Repository.shortenRefName(currentBranch))) {
+            syslog().warn("Not deleting " + currentBranch + " because it is the current branch");
+            branchNames = new ArrayList<>(branchNames);
+            branchNames.remove(Repository.shortenRefName(currentBranch));
+            if (branchNames.isEmpty()) return;
+        }
+        final RefDatabase refDb = jrepo.getRefDatabase();
+        final Map<String, Ref> refs = refDb.exactRef(branchNames.stream().map(b -> R_HEADS + b).toArray(String[]::new));
+        final BatchRefUpdate batch = refDb.newBatchUpdate();
+        batch.setAtomic(true);
+        batch.setAllowNonFastForwards(true);
+        batch.setRefLogMessage("fastback: delete branches", false);
+        for (final Ref ref : refs.values()) {
+            batch.addCommand(new ReceiveCommand(ref.getObjectId(), ObjectId.zeroId(), ref.getName(), ReceiveCommand.Type.DELETE));
         }
+        if (batch.getCommands().isEmpty()) return;
+        try (final RevWalk rw = new RevWalk(jrepo)) {
+            batch.execute(rw, NullProgressMonitor.INSTANCE);
+        }
+        for (final ReceiveCommand cmd : batch.getCommands()) {
+            if (cmd.getResult() != ReceiveCommand.Result.OK) {
+                throw new IOException("Failed to delete " + cmd.getRefName() + ": " + cmd.getResult() +
+                        (cmd.getMessage() != null ? " " + cmd.getMessage() : ""));
+            }
+        }
+        SnapshotCatalog.recordDeletes(repo, branchNames);
+        // branchDelete used to do this for us.  Snapshot branches normally don't have any config.
+        final StoredConfig config = jrepo.getConfig();
+        boolean configChanged = false;
+        for (final String branchName : branchNames) {
+            if (config.getNames(CONFIG_BRANCH_SECTION, branchName).isEmpty()) continue;
+            config.unsetSection(CONFIG_BRANCH_SECTION, branchName);
+            configChanged = true;
+        }
+        if (configChanged) config.save();
     }
 
     static Collection<SnapshotId> doLocalPrune(final RepoImpl repo, final UserLogger log) throws IOException {
         return doPrune(repo, log,
                 LOCAL_RETENTION_POLICY,
                 repo::getLocalSnapshots,
-                sid -> {
-                    syslog().info("Pruning local snapshot " + sid.getBranchName());
-                    deleteLocalBranches(repo, List.of(sid.getBranchName()));
+                order -> ReclaimEstimator.projectSizes(repo, order),
+                sids -> {
+                    syslog().info("Pruning local snapshots " + sids);
+                    deleteLocalBranches(repo, getBranchNames(sids));
+                    return sids;
                 },
                 "fastback.chat.retention-policy-not-set"
         );
@@ -83,21 +172,74 @@ abstract class PruneUtils {
     static Collection<SnapshotId> doRemotePrune(RepoImpl repo, UserLogger ulog) throws IOException {
         return doPrune(repo, ulog,
                 FastbackConfigKey.REMOTE_RETENTION_POLICY,
-                repo::getRemoteSnapshots,
-                sid -> {
-                    syslog().info("Pruning remote snapshot " + sid.getBranchName());
-                    repo.deleteRemoteBranch(sid.getBranchName());
+                () -> RemoteCatalogUtils.listRemote(repo, false).snapshots(),
+                null,
+                sids -> {
+                    syslog().info("Pruning remote snapshots " + sids);
+                    final Map<String, String> failures = repo.deleteRemoteBranches(getBranchNames(sids));
+                    final List<SnapshotId> deleted = new ArrayList<>();
+                    for (final SnapshotId sid : sids) {
+                        final String reason = failures.get(sid.getBranchName());
+                        if (reason == null) {
+                            deleted.add(sid);
+                        } else {
+                            ulog.message(styledLocalized("fastback.chat.remote-delete-failed", ERROR, sid.getShortName(), reason));
+                        }
+                    }
+                    return deleted;
                 },
                 "fastback.chat.remote-retention-policy-not-set"
         );
     }
 
+    /**
+     * Work out what a local prune would delete and how much space that would free, without deleting anything.
+     *
+     * @return null if no retention policy is set.
+     */
+    static ReclaimEstimator.Estimate doLocalPruneDryRun(final RepoImpl repo, final UserLogger log) throws IOException {
+        final List<SnapshotId> toPrune = getSnapshotsToPrune(repo, log, LOCAL_RETENTION_POLICY,
+                repo::getLocalSnapshots, order -> ReclaimEstimator.projectSizes(repo, order),
+                "fastback.chat.retention-policy-not-set");
+        if (toPrune == null) return null;
+        return ReclaimEstimator.estimate(repo, toPrune);
+    }
+
     private static Collection<SnapshotId> doPrune(Repo repo,
                                                   UserLogger log,
                                                   FastbackConfigKey policyConfigKey,
                                                   JGitSupplier<Set<SnapshotId>> listSnapshotsFn,
-                                                  JGitConsumer<SnapshotId> deleteSnapshotsFn,
+                                                  SnapshotSizeEstimator sizeEstimator,
+                                                  JGitFunction<List<SnapshotId>, Collection<SnapshotId>> deleteSnapshotsFn,
                                                   String notSetKey) throws IOException {
+        final List<SnapshotId> toPrune = getSnapshotsToPrune(repo, log, policyConfigKey, listSnapshotsFn, sizeEstimator, notSetKey);
+        if (toPrune == null) return null;
+        if (toPrune.isEmpty()) return toPrune;
+        log.update(UserMessage.localized("fastback.hud.prune-started"));
+        try {
+            return deleteSnapshotsFn.apply(toPrune);
+        } catch (GitAPIException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static Iterable<PushResult> pushDeletes(final RepoImpl repo, final List<RefSpec> refSpecs, final boolean atomic) throws GitAPIException {
+        return repo.getJGit().push().setRefSpecs(refSpecs).setAtomic(atomic).
+                setRemote(repo.getConfig().getString(REMOTE_NAME)).call();
+    }
+
+    private static List<String> getBranchNames(final Collection<SnapshotId> sids) {
+        final List<String> out = new ArrayList<>(sids.size());
+        for (final SnapshotId sid : sids) out.add(sid.getBranchName());
+        return out;
+    }
+
+    private static List<SnapshotId> getSnapshotsToPrune(Repo repo,
+                                                        UserLogger log,
+                                                        FastbackConfigKey policyConfigKey,
+                                                        JGitSupplier<Set<SnapshotId>> listSnapshotsFn,
+                                                        SnapshotSizeEstimator sizeEstimator,
+                                                        String notSetKey) throws IOException {
         final GitConfig conf = repo.getConfig();
         RetentionPolicy policy = null;
         final String policyConfig = conf.getString(policyConfigKey);
@@ -108,13 +250,9 @@ abstract class PruneUtils {
             log.message(styledLocalized(notSetKey, ERROR));
             return null;
         }
-        final Collection<SnapshotId> toPruneUnsorted = policy.getSnapshotsToPrune(listSnapshotsFn.get());
+        final Collection<SnapshotId> toPruneUnsorted = policy.getSnapshotsToPrune(listSnapshotsFn.get(), sizeEstimator);
         final List<SnapshotId> toPrune = new ArrayList<>(toPruneUnsorted);
         Collections.sort(toPrune);
-        log.update(UserMessage.localized("fastback.hud.prune-started"));
-        for (final SnapshotId sid : toPrune) {
-            deleteSnapshotsFn.accept(sid);
-        }
         return toPrune;
     }
 }
@@ -21,6 +21,8 @@ package net.pcal.fastback.repo;
 import com.google.common.collect.ListMultimap;
 import net.pcal.fastback.config.GitConfig;
 import net.pcal.fastback.logging.UserLogger;
+import net.pcal.fastback.repo.RunMetrics.Phase;
+import net.pcal.fastback.repo.RunMetrics.PhaseTimer;
 import net.pcal.fastback.utils.ProcessException;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
@@ -36,8 +38,10 @@ import org.eclipse.jgit.transport.URIish;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -52,6 +56,7 @@ import static net.pcal.fastback.config.FastbackConfigKey.IS_TRACKING_BRANCH_CLEA
 import static net.pcal.fastback.config.FastbackConfigKey.IS_UUID_CHECK_ENABLED;
 import static net.pcal.fastback.config.FastbackConfigKey.REMOTE_NAME;
 import static net.pcal.fastback.config.OtherConfigKey.REMOTE_PUSH_URL;
+import static net.pcal.fastback.logging.ProgressEvent.Phase.PUSH;
 import static net.pcal.fastback.logging.SystemLogger.syslog;
 import static net.pcal.fastback.logging.UserMessage.UserMessageStyle.ERROR;
 import static net.pcal.fastback.logging.UserMessage.UserMessageStyle.JGIT;
@@ -60,6 +65,7 @@ import static net.pcal.fastback.logging.UserMessage.UserMessageStyle.NORMAL;
 import static net.pcal.fastback.logging.UserMessage.styledLocalized;
 import static net.pcal.fastback.logging.UserMessage.styledRaw;
 import static net.pcal.fastback.utils.ProcessUtils.doExec;
+import static net.pcal.fastback.utils.ProcessUtils.hudOutput;
 
 /**
  * Utils for pushing changes to a remote.
@@ -83,14 +89,17 @@ abstract class PushUtils {
                 return;
             }
             final Git jgit = repo.getJGit();
-            final Collection<Ref> remoteBranchRefs = jgit.lsRemote().setHeads(true).setTags(false).
-                    setRemote(conf.getString(REMOTE_NAME)).call();
-            final ListMultimap<WorldId, SnapshotId> snapshotsPerWorld =
-                    SnapshotIdUtils.getSnapshotsPerWorld(remoteBranchRefs, repo.getSidCodec());
+            final RemoteCatalogUtils.RemoteListing remoteListing;
+            final PhaseTimer lsRemote = RunMetrics.time(Phase.LS_REMOTE);
+            try {
+                remoteListing = RemoteCatalogUtils.listRemote(repo, false);
+            } finally {
+                lsRemote.close();
+            }
             if (conf.getBoolean(IS_UUID_CHECK_ENABLED)) {
                 boolean uuidCheckResult;
                 try {
-                    uuidCheckResult = doWorldIdCheck(repo, snapshotsPerWorld.keySet());
+                    uuidCheckResult = doWorldIdCheck(repo, remoteListing.worldIds());
                 } catch (final IOException e) {
                     syslog().error("Unexpected exception thrown during id check", e);
                     uuidCheckResult = false;
@@ -103,18 +112,28 @@ abstract class PushUtils {
                 }
             }
             syslog().debug("Pushing to " + pushUrl);
-            PreflightUtils.doPreflight(repo);
-            if (conf.getBoolean(IS_NATIVE_GIT_ENABLED)) {
-                ulog.message(styledLocalized("fastback.chat.push-started", NATIVE_GIT, pushUrl));
-                native_doPush(repo, sid.getBranchName(), ulog);
-            } else if (conf.getBoolean(IS_SMART_PUSH_ENABLED)) {
-                ulog.message(styledLocalized("fastback.chat.push-started", NORMAL, pushUrl));
-                final WorldId uuid = repo.getWorldId();
-                jgit_doSmartPush(repo, snapshotsPerWorld.get(uuid), sid.getBranchName(), conf, ulog);
-            } else {
-                ulog.message(styledLocalized("fastback.chat.push-started", NORMAL, pushUrl));
-                jgit_doPush(jgit, sid.getBranchName(), conf, ulog);
+            final PhaseTimer preflight = RunMetrics.time(Phase.PREFLIGHT);
+            try {
+                PreflightUtils.doPreflight(repo);
+            } finally {
+                preflight.close();
             }
+            final PhaseTimer push = RunMetrics.time(Phase.PUSH);
+            try {
+                if (conf.getBoolean(IS_NATIVE_GIT_ENABLED)) {
+                    ulog.message(styledLocalized("fastback.chat.push-started", NATIVE_GIT, pushUrl));
+                    native_doPush(repo, sid.getBranchName(), ulog);
+                } else if (conf.getBoolean(IS_SMART_PUSH_ENABLED)) {
+                    ulog.message(styledLocalized("fastback.chat.push-started", NORMAL, pushUrl));
+                    jgit_doSmartPush(repo, new ArrayList<>(remoteListing.snapshots()), sid.getBranchName(), conf, ulog);
+                } else {
+                    ulog.message(styledLocalized("fastback.chat.push-started", NORMAL, pushUrl));
+                    jgit_doPush(jgit, sid.getBranchName(), conf, ulog);
+                }
+            } finally {
+                push.close();
+            }
+            RemoteCatalogUtils.recordPush(repo, remoteListing, sid);
             syslog().info("Remote backup complete.");
         } catch (GitAPIException e) {
             throw new IOException(e);
@@ -128,7 +147,7 @@ abstract class PushUtils {
         String remoteName = conf.getString(REMOTE_NAME);
         final String[] push = {"git", "-C", worktree.getAbsolutePath(), "-c", "push.autosetupremote=false", "push", "--progress", "--set-upstream", remoteName, branchNameToPush};
         final Map<String, String> env = Map.of("GIT_LFS_FORCE_PROGRESS", "1");
-        final Consumer<String> outputConsumer = line -> log.update(styledRaw(line, NATIVE_GIT));
+        final Consumer<String> outputConsumer = hudOutput(log);
         doExec(push, env, outputConsumer, outputConsumer);
         syslog().debug("End native_push");
     }
@@ -176,7 +195,7 @@ abstract class PushUtils {
                 final ListMultimap<WorldId, SnapshotId> localSnapshotsPerWorld =
                         SnapshotIdUtils.getSnapshotsPerWorld(localBranchRefs, repo.getSidCodec());
                 final List<SnapshotId> localSnapshots = localSnapshotsPerWorld.get(worldUuid);
-                remoteSnapshots.retainAll(localSnapshots);
+                remoteSnapshots.retainAll(new HashSet<>(localSnapshots));
                 if (remoteSnapshots.isEmpty()) {
                     syslog().warn("No common snapshots found between local and remote.");
                     syslog().warn("Doing a full push.  This may take some time.");
@@ -284,9 +303,7 @@ abstract class PushUtils {
 
         @Override
         public void progressUpdate(String task, int percentage) {
-            final String msg = task + " " + percentage + "%";
-            syslog().debug(msg);
-            ulog.update(styledRaw(msg, JGIT));
+            this.ulog.progress(progressEvent(PUSH));
         }
 
         @Override
@@ -0,0 +1,453 @@
+/*
+ * FastBack - Fast, incremental Minecraft backups powered by Git.
+ * Copyright (C) 2022 pcal.net
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pcal.fastback.repo;
+
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.Pack;
+import org.eclipse.jgit.internal.storage.file.PackIndex;
+import org.eclipse.jgit.lib.BitmapIndex;
+import org.eclipse.jgit.lib.BitmapIndex.Bitmap;
+import org.eclipse.jgit.lib.BitmapIndex.BitmapBuilder;
+import org.eclipse.jgit.lib.BitmapObject;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.BitmapWalker;
+import org.eclipse.jgit.revwalk.ObjectWalk;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static net.pcal.fastback.config.FastbackConfigKey.IS_NATIVE_GIT_ENABLED;
+import static net.pcal.fastback.logging.SystemLogger.syslog;
+import static org.apache.commons.io.FileUtils.sizeOfDirectory;
+import static org.eclipse.jgit.lib.Constants.OBJ_BLOB;
+import static org.eclipse.jgit.lib.Constants.OBJ_COMMIT;
+import static org.eclipse.jgit.lib.Constants.OBJ_TREE;
+
+/**
+ * Estimates how much disk space would be freed by deleting some snapshots, without deleting anything.
+ * <p>
+ * Every ref is walked on a thread pool.  All the walks share a single map of the objects seen so far, which
+ * doubles as a tree cache: a walk that reaches an object someone else already reached just records that the
+ * object is shared and doesn't descend any further, so each tree is only read once no matter how many snapshots
+ * contain it.  Sharing is pushed down to the descendants of shared trees in one pass at the end.  If gc has written
+ * a bitmap index, none of that is needed; see estimateWithBitmaps().
+ * <p>
+ * Sizes are what gc would actually free: packed object sizes in JGit mode, lfs object sizes in native mode (where
+ * reclamation is done by 'git lfs prune' and the git objects themselves aren't touched).
+ *
+ * @author pcal
+ * @since 0.16.0
+ */
+class ReclaimEstimator {
+
+    // ======================================================================
+    // Constants
+
+    private static final int KEPT = -1;
+
+    private static final int MAX_POINTER_SIZE = 1024;
+
+    private static final int PACK_TRAILER_SIZE = 20;
+
+    // ======================================================================
+    // Fields
+
+    private final Repository repo;
+    private final boolean isLfsMode;
+    private final Path lfsObjectsDir;
+    private final Map<ObjectId, Long> packedSizes;
+    private final Map<ObjectId, Node> nodes = new ConcurrentHashMap<>();
+    private final Set<String> referencedLfsOids = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param uniqueBytes      for each of the snapshots to be deleted, the bytes that are reachable from it and
+     *                         nothing else.
+     * @param reclaimableBytes bytes that are reachable only from the snapshots to be deleted.  Can be more than the
+     *                         sum of uniqueBytes, since objects shared only by deleted snapshots count here too.
+     * @param garbageBytes     bytes that are already unreachable and would be freed by a gc right now.
+     * @param freedAtStep      if the snapshots are deleted one at a time in the order given, the bytes freed by each
+     *                         deletion.  Sums to reclaimableBytes.
+     */
+    record Estimate(Map<SnapshotId, Long> uniqueBytes, long reclaimableBytes, long garbageBytes, long[] freedAtStep) {
+    }
+
+    private static final class Node {
+        final int owner;
+        final long size;
+        final ObjectId[] children;
+        volatile boolean shared;
+        volatile boolean kept;
+        volatile int latest;
+
+        Node(int owner, long size, ObjectId[] children) {
+            this.owner = owner;
+            this.size = size;
+            this.children = children;
+            this.kept = owner == KEPT;
+            this.latest = owner;
+        }
+
+        synchronized boolean raiseLatest(int owner) {
+            if (owner <= this.latest) return false;
+            this.latest = owner;
+            return true;
+        }
+    }
+
+    // ======================================================================
+    // Package private
+
+    /**
+     * Estimate how many bytes would be freed by deleting the given local snapshots and then running gc.
+     */
+    static Estimate estimate(final RepoImpl repo, final Collection<SnapshotId> toDelete) throws IOException {
+        final ReclaimEstimator e = new ReclaimEstimator(repo);
+        return e.run(toDelete);
+    }
+
+    /**
+     * Project how big the repo would be if the given snapshots were deleted in order and gc was run.
+     *
+     * @return the projected size in bytes after deleting the first k snapshots, for k from 0 to the number of
+     * snapshots.
+     */
+    static long[] projectSizes(final RepoImpl repo, final List<SnapshotId> deletionOrder) throws IOException {
+        final long currentSize = sizeOfDirectory(repo.getJGit().getRepository().getDirectory());
+        final Estimate estimate = estimate(repo, deletionOrder);
+        final long[] out = new long[deletionOrder.size() + 1];
+        out[0] = currentSize - estimate.garbageBytes();
+        for (int i = 0; i < deletionOrder.size(); i++) out[i + 1] = out[i] - estimate.freedAtStep()[i];
+        return out;
+    }
+
+    // ======================================================================
+    // Private
+
+    private ReclaimEstimator(final RepoImpl repo) throws IOException {
+        this.repo = repo.getJGit().getRepository();
+        this.isLfsMode = repo.getConfig().getBoolean(IS_NATIVE_GIT_ENABLED);
+        this.lfsObjectsDir = this.repo.getDirectory().toPath().resolve("lfs").resolve("objects");
+        this.packedSizes = this.isLfsMode ? Map.of() : getPackedSizes((FileRepository) this.repo);
+    }
+
+    private Estimate run(final Collection<SnapshotId> toDelete) throws IOException {
+        final long start = System.currentTimeMillis();
+        final List<SnapshotId> deleting = new ArrayList<>(toDelete);
+        final Map<String, Integer> deletingBranches = new HashMap<>();
+        for (int i = 0; i < deleting.size(); i++) deletingBranches.put(Constants.R_HEADS + deleting.get(i).getBranchName(), i);
+        final Map<ObjectId, Integer> tips = new LinkedHashMap<>();
+        for (final Ref ref : this.repo.getRefDatabase().getRefs()) {
+            if (ref.getObjectId() == null) continue;
+            final int owner = deletingBranches.getOrDefault(ref.getName(), KEPT);
+            // if a deleted snapshot has the same tip as something we're keeping, it frees nothing
+            tips.merge(ref.getObjectId(), owner, (a, b) -> a == KEPT || b == KEPT ? KEPT : a);
+        }
+        final ObjectId head = this.repo.resolve(Constants.HEAD);
+        if (head != null) tips.put(head, KEPT);
+        try (final ObjectReader reader = this.repo.newObjectReader()) {
+            final BitmapIndex bitmapIndex = reader.getBitmapIndex();
+            if (bitmapIndex != null) {
+                final Estimate out = estimateWithBitmaps(reader, bitmapIndex, deleting, tips);
+                syslog().debug("Estimated reclaimable space for " + deleting.size() + " snapshots using bitmaps in " +
+                        (System.currentTimeMillis() - start) + "ms");
+                return out;
+            }
+        }
+        walkAll(tips);
+        propagate();
+        final long[] unique = new long[deleting.size()];
+        final long[] freedAtStep = new long[deleting.size()];
+        long reclaimable = 0;
+        for (final Node node : this.nodes.values()) {
+            if (node.kept) continue;
+            reclaimable += node.size;
+            freedAtStep[node.latest] += node.size;
+            if (!node.shared) unique[node.owner] += node.size;
+        }
+        final Map<SnapshotId, Long> uniqueBytes = new LinkedHashMap<>();
+        for (int i = 0; i < deleting.size(); i++) uniqueBytes.put(deleting.get(i), unique[i]);
+        final long garbage = getGarbageBytes();
+        syslog().debug("Estimated reclaimable space for " + deleting.size() + " snapshots in " +
+                (System.currentTimeMillis() - start) + "ms, " + this.nodes.size() + " objects");
+        return new Estimate(uniqueBytes, reclaimable, garbage, freedAtStep);
+    }
+
+    /**
+     * If gc has left us a bitmap index, the set of objects reachable from each snapshot can be had without parsing
+     * any trees, and all of the set arithmetic is done on compressed bitmaps.  Only commits newer than the last
+     * full repack actually get walked.
+     */
+    private Estimate estimateWithBitmaps(final ObjectReader reader,
+                                         final BitmapIndex bitmapIndex,
+                                         final List<SnapshotId> deleting,
+                                         final Map<ObjectId, Integer> tips) throws IOException {
+        final List<ObjectId> keptTips = new ArrayList<>();
+        final List<List<ObjectId>> deletingTips = new ArrayList<>();
+        for (int i = 0; i < deleting.size(); i++) deletingTips.add(new ArrayList<>());
+        for (final Map.Entry<ObjectId, Integer> tip : tips.entrySet()) {
+            if (tip.getValue() == KEPT) {
+                keptTips.add(tip.getKey());
+            } else {
+                deletingTips.get(tip.getValue()).add(tip.getKey());
+            }
+        }
+        try (final ObjectWalk ow = new ObjectWalk(reader)) {
+            final BitmapWalker walker = new BitmapWalker(ow, bitmapIndex, NullProgressMonitor.INSTANCE);
+            final BitmapBuilder kept = walker.findObjects(keptTips, null, true);
+            final int count = deleting.size();
+            final BitmapBuilder[] reclaimable = new BitmapBuilder[count];
+            for (int i = 0; i < count; i++) {
+                reclaimable[i] = walker.findObjects(deletingTips.get(i), null, true).andNot(kept);
+            }
+            // unique[i] is reclaimable[i] minus everything reclaimable from any of the others.  Keep suffix unions
+            // so that's linear in the number of snapshots instead of quadratic.
+            final BitmapBuilder[] suffix = new BitmapBuilder[count + 1];
+            suffix[count] = bitmapIndex.newBitmapBuilder();
+            for (int i = count - 1; i >= 0; i--) suffix[i] = bitmapIndex.newBitmapBuilder().or(suffix[i + 1]).or(reclaimable[i]);
+            final BitmapBuilder prefix = bitmapIndex.newBitmapBuilder();
+            final Map<SnapshotId, Long> uniqueBytes = new LinkedHashMap<>();
+            final long[] freedAtStep = new long[count];
+            for (int i = 0; i < count; i++) {
+                final BitmapBuilder others = bitmapIndex.newBitmapBuilder().or(prefix).or(suffix[i + 1]);
+                uniqueBytes.put(deleting.get(i), sumSizes(reader, bitmapIndex.newBitmapBuilder().or(reclaimable[i]).andNot(others)));
+                // an object is freed by the last deletion that references it
+                freedAtStep[i] = sumSizes(reader, bitmapIndex.newBitmapBuilder().or(reclaimable[i]).andNot(suffix[i + 1]));
+                prefix.or(reclaimable[i]);
+            }
+            final BitmapBuilder all = suffix[0];
+            final long reclaimableBytes = sumSizes(reader, all);
+            all.or(kept);
+            long garbage = 0;
+            if (this.isLfsMode) {
+                sumSizes(reader, kept); // just to collect the referenced oids
+                garbage = getGarbageBytes();
+            } else {
+                for (final Map.Entry<ObjectId, Long> e : this.packedSizes.entrySet()) {
+                    if (!all.contains(e.getKey())) garbage += e.getValue();
+                }
+            }
+            return new Estimate(uniqueBytes, reclaimableBytes, garbage, freedAtStep);
+        }
+    }
+
+    private long sumSizes(final ObjectReader reader, final Bitmap bitmap) throws IOException {
+        long out = 0;
+        for (final BitmapObject obj : bitmap) out += getSize(reader, obj.getObjectId(), obj.getType());
+        return out;
+    }
+
+    private void walkAll(final Map<ObjectId, Integer> tips) throws IOException {
+        final int threads = Math.max(1, Math.min(tips.size(), Runtime.getRuntime().availableProcessors()));
+        final ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            final Thread t = new Thread(r, "fastback-estimator");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (final Map.Entry<ObjectId, Integer> tip : tips.entrySet()) {
+                futures.add(pool.submit(() -> {
+                    walkCommits(tip.getKey(), tip.getValue());
+                    return null;
+                }));
+            }
+            for (final Future<?> f : futures) f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ioe ? ioe : new IOException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private void walkCommits(final ObjectId tip, final int owner) throws IOException {
+        try (final ObjectReader reader = this.repo.newObjectReader(); final RevWalk rw = new RevWalk(reader)) {
+            if (rw.parseAny(tip).getType() != OBJ_COMMIT) return;
+            rw.markStart(rw.parseCommit(tip));
+            for (final RevCommit commit : rw) {
+                visit(reader, commit.getId(), OBJ_COMMIT, owner, new ObjectId[]{commit.getTree().getId()});
+            }
+        }
+    }
+
+    private void visit(final ObjectReader reader, final ObjectId id, final int type, final int owner, ObjectId[] children) throws IOException {
+        final Node existing = this.nodes.get(id);
+        if (existing != null) {
+            touch(existing, owner);
+            return;
+        }
+        final int[] childTypes;
+        if (type == OBJ_TREE) {
+            final List<ObjectId> ids = new ArrayList<>();
+            final List<Integer> types = new ArrayList<>();
+            final CanonicalTreeParser parser = new CanonicalTreeParser(null, reader, id);
+            for (; !parser.eof(); parser.next()) {
+                final FileMode mode = parser.getEntryFileMode();
+                if (mode == FileMode.GITLINK) continue;
+                ids.add(parser.getEntryObjectId());
+                types.add(mode == FileMode.TREE ? OBJ_TREE : OBJ_BLOB);
+            }
+            children = ids.toArray(new ObjectId[0]);
+            childTypes = types.stream().mapToInt(Integer::intValue).toArray();
+        } else if (type == OBJ_COMMIT) {
+            childTypes = new int[]{OBJ_TREE};
+        } else {
+            childTypes = null;
+        }
+        final Node node = new Node(owner, getSize(reader, id, type), children);
+        final Node prev = this.nodes.putIfAbsent(id, node);
+        if (prev != null) {
+            touch(prev, owner);
+            return;
+        }
+        if (children != null) {
+            for (int i = 0; i < children.length; i++) {
+                visit(reader, children[i], childTypes[i], owner, null);
+            }
+        }
+    }
+
+    private static void touch(final Node node, final int owner) {
+        if (owner == KEPT) {
+            node.kept = true;
+        } else if (node.owner != owner) {
+            node.shared = true;
+            node.raiseLatest(owner);
+        }
+    }
+
+    /**
+     * Walks only stop at objects that were already reached, so the descendants of a kept or shared tree haven't
+     * necessarily been marked.  Fix that up.
+     */
+    private void propagate() {
+        final Deque<Node> stack = new ArrayDeque<>();
+        for (final Node node : this.nodes.values()) {
+            if ((node.kept || node.shared) && node.children != null) stack.push(node);
+        }
+        while (!stack.isEmpty()) {
+            final Node parent = stack.pop();
+            for (final ObjectId childId : parent.children) {
+                final Node child = this.nodes.get(childId);
+                if (child == null) continue;
+                boolean changed = false;
+                if (parent.kept && !child.kept) {
+                    child.kept = true;
+                    changed = true;
+                }
+                if (parent.shared && !child.shared) {
+                    child.shared = true;
+                    changed = true;
+                }
+                if (child.raiseLatest(parent.latest)) changed = true;
+                if (changed && child.children != null) stack.push(child);
+            }
+        }
+    }
+
+    private long getSize(final ObjectReader reader, final ObjectId id, final int type) throws IOException {
+        if (!this.isLfsMode) return this.packedSizes.getOrDefault(id, 0L);
+        if (type != OBJ_BLOB || reader.getObjectSize(id, OBJ_BLOB) >= MAX_POINTER_SIZE) return 0;
+        final LfsUtils.LfsPointer pointer = LfsUtils.readPointer(reader, id);
+        if (pointer == null) return 0;
+        this.referencedLfsOids.add(pointer.oid());
+        return pointer.size();
+    }
+
+    /**
+     * @return bytes used by objects that nothing references.
+     */
+    private long getGarbageBytes() throws IOException {
+        long out = 0;
+        if (this.isLfsMode) {
+            if (!Files.isDirectory(this.lfsObjectsDir)) return 0;
+            try (final Stream<Path> files = Files.walk(this.lfsObjectsDir)) {
+                for (final Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                    if (!this.referencedLfsOids.contains(file.getFileName().toString())) out += Files.size(file);
+                }
+            }
+        } else {
+            for (final Map.Entry<ObjectId, Long> e : this.packedSizes.entrySet()) {
+                if (!this.nodes.containsKey(e.getKey())) out += e.getValue();
+            }
+        }
+        return out;
+    }
+
+    /**
+     * @return the on-disk size of every object in the repo.  For packed objects, that's the distance to the next
+     * object in the pack, which we can get from the pack index without reading the pack.
+     */
+    private static Map<ObjectId, Long> getPackedSizes(final FileRepository repo) throws IOException {
+        final Map<ObjectId, Long> out = new HashMap<>();
+        for (final Pack pack : repo.getObjectDatabase().getPacks()) {
+            final List<PackIndex.MutableEntry> entries = new ArrayList<>();
+            for (final PackIndex.MutableEntry e : pack) entries.add(e.cloneEntry());
+            entries.sort((a, b) -> Long.compare(a.getOffset(), b.getOffset()));
+            final long end = pack.getPackFile().length() - PACK_TRAILER_SIZE;
+            for (int i = 0; i < entries.size(); i++) {
+                final long next = i + 1 < entries.size() ? entries.get(i + 1).getOffset() : end;
+                out.putIfAbsent(entries.get(i).toObjectId(), next - entries.get(i).getOffset());
+            }
+        }
+        final File[] dirs = repo.getObjectDatabase().getDirectory().listFiles((dir, name) -> name.length() == 2);
+        if (dirs != null) {
+            for (final File dir : dirs) {
+                final File[] files = dir.listFiles();
+                if (files == null) continue;
+                for (final File f : files) {
+                    if (ObjectId.isId(dir.getName() + f.getName())) {
+                        out.putIfAbsent(ObjectId.fromString(dir.getName() + f.getName()), f.length());
+                    }
+                }
+            }
+        }
+        return out;
+    }
+}
@@ -20,6 +20,7 @@ package net.pcal.fastback.repo;
 
 import net.pcal.fastback.config.GitConfig;
 import net.pcal.fastback.logging.UserLogger;
+import net.pcal.fastback.utils.Cancellation;
 import net.pcal.fastback.utils.FileUtils;
 import net.pcal.fastback.utils.ProcessException;
 import org.eclipse.jgit.api.errors.GitAPIException;
@@ -40,16 +41,18 @@ import java.util.function.Consumer;
 
 import static java.util.Objects.requireNonNull;
 import static net.pcal.fastback.config.FastbackConfigKey.IS_BRANCH_CLEANUP_ENABLED;
+import static net.pcal.fastback.config.FastbackConfigKey.IS_INCREMENTAL_GC_ENABLED;
 import static net.pcal.fastback.config.FastbackConfigKey.IS_NATIVE_GIT_ENABLED;
+import static net.pcal.fastback.config.FastbackConfigKey.IS_REACHABILITY_INDEX_ENABLED;
 import static net.pcal.fastback.config.FastbackConfigKey.IS_REFLOG_DELETION_ENABLED;
+import static net.pcal.fastback.logging.ProgressEvent.Phase.GC;
 import static net.pcal.fastback.logging.SystemLogger.syslog;
 import static net.pcal.fastback.logging.UserMessage.UserMessageStyle.JGIT;
 import static net.pcal.fastback.logging.UserMessage.UserMessageStyle.NATIVE_GIT;
-import static net.pcal.fastback.logging.UserMessage.raw;
 import static net.pcal.fastback.logging.UserMessage.styledLocalized;
-import static net.pcal.fastback.logging.UserMessage.styledRaw;
 import static net.pcal.fastback.repo.PushUtils.isTempBranch;
 import static net.pcal.fastback.utils.ProcessUtils.doExec;
+import static net.pcal.fastback.utils.ProcessUtils.hudOutput;
 import static org.apache.commons.io.FileUtils.byteCountToDisplaySize;
 import static org.apache.commons.io.FileUtils.sizeOfDirectory;
 import static org.eclipse.jgit.api.ListBranchCommand.ListMode.ALL;
@@ -62,13 +65,15 @@ import static org.eclipse.jgit.api.ListBranchCommand.ListMode.ALL;
  */
 abstract class ReclamationUtils {
 
-    static void doReclamation(RepoImpl repo, UserLogger ulog) throws GitAPIException, ProcessException {
+    static void doReclamation(RepoImpl repo, UserLogger ulog) throws GitAPIException, ProcessException, IOException {
         if (repo.getConfig().getBoolean(IS_NATIVE_GIT_ENABLED)) {
             native_doLfsPrune(repo, ulog);
+            BranchUtils.packRefs(repo);
+            native_doRepack(repo, ulog);
         } else {
             try {
                 jgit_doGc(repo, ulog);
-            } catch (ParseException | IOException e) {
+            } catch (ParseException e) {
                 throw new RuntimeException(e);
             }
         }
@@ -77,14 +82,50 @@ abstract class ReclamationUtils {
     private static void native_doLfsPrune(RepoImpl repo, UserLogger ulog) throws ProcessException {
         final File worktree = repo.getWorkTree();
         final String[] push = {"git", "-C", worktree.getAbsolutePath(), "-c", "lfs.pruneoffsetdays=999999", "lfs", "prune", "--verbose", "--no-verify-remote",};
-        final Consumer<String> outputConsumer = line -> ulog.update(styledRaw(line, NATIVE_GIT));
+        final Consumer<String> outputConsumer = hudOutput(ulog);
         doExec(push, Collections.emptyMap(), outputConsumer, outputConsumer);
         syslog().debug("native_doLfsPrune");
     }
 
+    /**
+     * In native mode the git objects are just trees and lfs pointers; the space goes to lfs, which lfs prune
+     * reclaims.  So the repack is about keeping the pack count down and writing the bitmaps that make object
+     * counting fast on push.  Incremental gc does a geometric repack, which only rewrites the small packs, with the
+     * bitmaps in a multi-pack index.  That needs git 2.34, so older gits get a full repack instead.
+     */
+    private static void native_doRepack(RepoImpl repo, UserLogger ulog) throws ProcessException, IOException {
+        final GitConfig config = repo.getConfig();
+        final boolean reachabilityIndex = config.getBoolean(IS_REACHABILITY_INDEX_ENABLED);
+        final String worktree = repo.getWorkTree().getAbsolutePath();
+        final Consumer<String> outputConsumer = hudOutput(ulog);
+        boolean repacked = false;
+        if (config.getBoolean(IS_INCREMENTAL_GC_ENABLED)) {
+            final List<String> geometric = new ArrayList<>(List.of("git", "-C", worktree, "repack", "-d", "-q", "--geometric=2"));
+            if (reachabilityIndex) geometric.addAll(List.of("--write-midx", "--write-bitmap-index"));
+            try {
+                doExec(geometric.toArray(new String[0]), Collections.emptyMap(), outputConsumer, outputConsumer);
+                repacked = true;
+            } catch (ProcessException e) {
+                Cancellation.current().check();
+                syslog().warn("Geometric repack failed, falling back to a full repack.  Git may be older than 2.34.");
+                syslog().debug(e);
+            }
+        }
+        if (!repacked && reachabilityIndex) {
+            final String[] repack = {"git", "-C", worktree, "repack", "-a", "-d", "-q", "--write-bitmap-index"};
+            doExec(repack, Collections.emptyMap(), outputConsumer, outputConsumer);
+        }
+        if (reachabilityIndex) {
+            final String[] commitGraph = {"git", "-C", worktree, "commit-graph", "write", "--reachable"};
+            doExec(commitGraph, Collections.emptyMap(), outputConsumer, outputConsumer);
+        }
+        syslog().debug("native_doRepack");
+    }
+
     /**
      * Runs git garbage collection.  Aggressively deletes reflogs, tracking branches and stray temporary branches
-     * in an attempt to free up objects and reclaim disk space.
+     * in an attempt to free up objects and reclaim disk space.  Unless incremental gc has been disabled, only the
+     * packs affected by recent changes are rewritten; otherwise, every reachable object is repacked.
      */
     private static void jgit_doGc(RepoImpl repo, UserLogger ulog) throws GitAPIException, ParseException, IOException {
         final File gitDir = repo.getJGit().getRepository().getDirectory();
@@ -123,18 +164,27 @@ abstract class ReclamationUtils {
                 syslog().debug("Branches deleted.");
             }
         }
-        final GC gc = new GC(((FileRepository) repo.getJGit().getRepository()));
-        gc.setExpireAgeMillis(0);
-        gc.setPackExpireAgeMillis(0);
-        gc.setAuto(false);
-        final PackConfig pc = new PackConfig();
-        pc.setDeltaCompress(false);
-        gc.setPackConfig(pc);
         final ProgressMonitor pm = new JGitIncrementalProgressMonitor(new GcProgressMonitor(ulog), 100);
-        gc.setProgressMonitor(pm);
-        syslog().debug("Starting garbage collection");
-        gc.gc(); // TODO progress monitor
-        syslog().debug("Garbage collection complete.");
+        if (config.getBoolean(IS_INCREMENTAL_GC_ENABLED)) {
+            BranchUtils.packRefs(repo);
+            syslog().debug("Starting incremental repack");
+            RepackUtils.jgit_incrementalRepack((FileRepository) repo.getJGit().getRepository(),
+                    config.getBoolean(IS_REACHABILITY_INDEX_ENABLED), 0, pm);
+            syslog().debug("Incremental repack complete.");
+        } else {
+            final GC gc = new GC(((FileRepository) repo.getJGit().getRepository()));
+            gc.setExpireAgeMillis(0);
+            gc.setPackExpireAgeMillis(0);
+            gc.setAuto(false);
+            final PackConfig pc = new PackConfig();
+            pc.setDeltaCompress(false);
+            RepackUtils.configureBitmaps(pc, config.getBoolean(IS_REACHABILITY_INDEX_ENABLED));
+            gc.setPackConfig(pc);
+            gc.setProgressMonitor(pm);
+            syslog().debug("Starting garbage collection");
+            gc.gc(); // TODO progress monitor
+            syslog().debug("Garbage collection complete.");
+        }
         syslog().debug("Stats after gc:");
         syslog().debug("" + repo.getJGit().gc().getStatistics());
         final long sizeAfterBytes = sizeOfDirectory(gitDir);
@@ -151,14 +201,12 @@ abstract class ReclamationUtils {
 
         @Override
         public void progressStart(String task) {
-            this.ulog.update(raw(task));
+            this.ulog.progress(progressEvent(GC));
         }
 
         @Override
         public void progressUpdate(String task, int percentage) {
-            final String message = task + " " + percentage + "%";
-            syslog().debug(message);
-            this.ulog.update(styledLocalized(message, JGIT));
+            this.ulog.progress(progressEvent(GC));
         }
 
         @Override
@@ -0,0 +1,187 @@
+/*
+ * FastBack - Fast, incremental Minecraft backups powered by Git.
+ * Copyright (C) 2022 pcal.net
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pcal.fastback.repo;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import static net.pcal.fastback.logging.SystemLogger.syslog;
+
+/**
+ * Utilities for reading and writing minecraft region (.mca) files.  We only care about moving raw chunk
+ * payloads around, so chunk data is never decompressed.
+ * <p>
+ * A region file starts with a 4KiB table of 1024 chunk locations (3-byte sector offset, 1-byte sector count)
+ * followed by a 4KiB table of 1024 timestamps.  Each chunk payload starts on a sector boundary and is a 4-byte
+ * length, a 1-byte compression type and then the compressed data.
+ *
+ * @author pcal
+ * @since 0.16.0
+ */
+abstract class RegionFileUtils {
+
+    // ======================================================================
+    // Constants
+
+    static final int CHUNKS_PER_REGION = 1024;
+    static final int SECTOR_SIZE = 4096;
+    private static final int HEADER_SECTORS = 2;
+    private static final int MAX_SECTORS_PER_CHUNK = 255;
+
+    /**
+     * Set on the compression type byte when the chunk data lives in a separate .mcc file.
+     */
+    static final int EXTERNAL_CHUNK_FLAG = 128;
+
+    // ======================================================================
+    // Package private
+
+    /**
+     * @return name of the region file that contains the given chunk.
+     */
+    static String getRegionFileName(int chunkX, int chunkZ) {
+        return "r." + (chunkX >> 5) + "." + (chunkZ >> 5) + ".mca";
+    }
+
+    /**
+     * @return name of the file in which minecraft stores the given chunk if it's too big for the region file.
+     */
+    static String getExternalChunkFileName(int chunkX, int chunkZ) {
+        return "c." + chunkX + "." + chunkZ + ".mcc";
+    }
+
+    /**
+     * @return index of the chunk within its region file.
+     */
+    static int getChunkIndex(int chunkX, int chunkZ) {
+        return (chunkX & 31) + (chunkZ & 31) * 32;
+    }
+
+    /**
+     * In-memory representation of a region file.  Chunk payloads are kept as opaque byte arrays
+     * (length prefix and compression type included).
+     */
+    static final class Region {
+
+        private final byte[][] payloads = new byte[CHUNKS_PER_REGION][];
+        private final int[] timestamps = new int[CHUNKS_PER_REGION];
+
+        /**
+         * @return an empty region.
+         */
+        static Region empty() {
+            return new Region();
+        }
+
+        /**
+         * Parses the given region file content.  Corrupt chunk entries are logged and skipped.
+         */
+        static Region parse(final byte[] data) throws IOException {
+            final Region out = new Region();
+            if (data.length == 0) return out; // minecraft sometimes leaves empty region files around
+            if (data.length < HEADER_SECTORS * SECTOR_SIZE) {
+                throw new IOException("Truncated region file header: " + data.length + " bytes");
+            }
+            final ByteBuffer buf = ByteBuffer.wrap(data);
+            for (int i = 0; i < CHUNKS_PER_REGION; i++) {
+                final int location = buf.getInt(i * 4);
+                out.timestamps[i] = buf.getInt(SECTOR_SIZE + i * 4);
+                if (location == 0) continue;
+                final long offset = (long) (location >>> 8) * SECTOR_SIZE;
+                if (offset < HEADER_SECTORS * SECTOR_SIZE || offset + 5 > data.length) {
+                    syslog().warn("Ignoring chunk " + i + " with bad offset " + offset);
+                    continue;
+                }
+                final int length = buf.getInt((int) offset);
+                if (length <= 0 || offset + 4 + length > data.length) {
+                    syslog().warn("Ignoring chunk " + i + " with bad length " + length);
+                    continue;
+                }
+                final byte[] payload = new byte[4 + length];
+                System.arraycopy(data, (int) offset, payload, 0, payload.length);
+                out.payloads[i] = payload;
+            }
+            return out;
+        }
+
+        byte[] getPayload(int index) {
+            return this.payloads[index];
+        }
+
+        int getTimestamp(int index) {
+            return this.timestamps[index];
+        }
+
+        /**
+         * @param payload the raw chunk payload, or null to remove the chunk.
+         */
+        void setChunk(int index, byte[] payload, int timestamp) {
+            this.payloads[index] = payload;
+            this.timestamps[index] = payload == null ? 0 : timestamp;
+        }
+
+        /**
+         * @return true if the chunk's data is stored in an external .mcc file.
+         */
+        boolean isExternal(int index) {
+            final byte[] payload = this.payloads[index];
+            return payload != null && (payload[4] & EXTERNAL_CHUNK_FLAG) != 0;
+        }
+
+        boolean isEmpty() {
+            for (final byte[] payload : this.payloads) {
+                if (payload != null) return false;
+            }
+            return true;
+        }
+
+        /**
+         * Writes the region out with chunks packed contiguously in index order.
+         */
+        void write(final OutputStream out) throws IOException {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SECTORS * SECTOR_SIZE);
+            int nextSector = HEADER_SECTORS;
+            for (int i = 0; i < CHUNKS_PER_REGION; i++) {
+                final byte[] payload = this.payloads[i];
+                if (payload == null) continue;
+                final int sectors = sectorsFor(payload.length);
+                if (sectors > MAX_SECTORS_PER_CHUNK) {
+                    throw new IOException("Chunk " + i + " is too large for a region file: " + payload.length);
+                }
+                header.putInt(i * 4, (nextSector << 8) | sectors);
+                header.putInt(SECTOR_SIZE + i * 4, this.timestamps[i]);
+                nextSector += sectors;
+            }
+            out.write(header.array());
+            final byte[] padding = new byte[SECTOR_SIZE];
+            for (int i = 0; i < CHUNKS_PER_REGION; i++) {
+                final byte[] payload = this.payloads[i];
+                if (payload == null) continue;
+                out.write(payload);
+                final int remainder = payload.length % SECTOR_SIZE;
+                if (remainder != 0) out.write(padding, 0, SECTOR_SIZE - remainder);
+            }
+        }
+
+        private static int sectorsFor(int length) {
+            return (length + SECTOR_SIZE - 1) / SECTOR_SIZE;
+        }
+    }
+}
@@ -0,0 +1,346 @@
+/*
+ * FastBack - Fast, incremental Minecraft backups powered by Git.
+ * Copyright (C) 2022 pcal.net
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pcal.fastback.repo;
+
+import com.google.common.collect.ListMultimap;
+import net.pcal.fastback.config.GitConfig;
+import net.pcal.fastback.repo.SnapshotIdUtils.SnapshotIdCodec;
+import net.pcal.fastback.repo.WorldIdUtils.WorldIdImpl;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.internal.storage.file.LockFile;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.FetchConnection;
+import org.eclipse.jgit.transport.PushResult;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.RemoteRefUpdate;
+import org.eclipse.jgit.transport.Transport;
+import org.eclipse.jgit.treewalk.TreeWalk;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static net.pcal.fastback.config.FastbackConfigKey.IS_REMOTE_CATALOG_ENABLED;
+import static net.pcal.fastback.config.FastbackConfigKey.REMOTE_NAME;
+import static net.pcal.fastback.config.OtherConfigKey.REMOTE_PUSH_URL;
+import static net.pcal.fastback.logging.SystemLogger.syslog;
+import static org.eclipse.jgit.lib.Constants.OBJ_BLOB;
+import static org.eclipse.jgit.lib.Constants.R_HEADS;
+
+/**
+ * Utilities for maintaining a catalog of snapshots on the remote.
+ * <p>
+ * Finding out what snapshots a remote has used to mean asking for every branch on it, which on a remote shared by
+ * many worlds can be many thousands of refs.  Instead, each world publishes a tiny commit at
+ * refs/fastback/catalog/[world-id] that lists the world's snapshot branches, and updates it on every push and
+ * remote delete.  Reading it means asking for refs under refs/fastback/catalog/ (which protocol v2 lets us do
+ * without hearing about any others) and fetching one small commit.
+ * <p>
+ * What we read is cached in the git directory for a few minutes, so tab completion and repeated listing don't go
+ * to the network at all.  Remotes that don't have any catalogs yet are listed the old way.  On a shared remote
+ * where other worlds have catalogs but ours doesn't have one yet, we ask for just our own branches.  Either way,
+ * the catalog gets published the first time we change something on the remote.
+ *
+ * @author pcal
+ * @since 0.16.0
+ */
+abstract class RemoteCatalogUtils {
+
+    // ======================================================================
+    // Constants
+
+    private static final String CATALOG_REF_PREFIX = "refs/fastback/catalog/";
+    private static final String CATALOG_FILE = "snapshots";
+    private static final String CACHE_PATH = "fastback/remote-catalog-cache";
+    private static final String CACHE_HEADER = "# fastback remote catalog cache v1";
+    private static final long CACHE_TTL_MILLIS = 5 * 60 * 1000L;
+
+    /**
+     * @param worldIds  the ids of all of the worlds that have snapshots on the remote.
+     * @param snapshots the snapshots on the remote for this repo's world.
+     */
+    record RemoteListing(Set<WorldId> worldIds, Set<SnapshotId> snapshots) {
+    }
+
+    // ======================================================================
+    // Package private
+
+    /**
+     * @param allowCached whether a recently-cached listing is ok.  Should be false whenever the listing is going
+     *                    to be used to change something on the remote.
+     */
+    static RemoteListing listRemote(final RepoImpl repo, final boolean allowCached) throws IOException {
+        final GitConfig conf = repo.getConfig();
+        if (!conf.getBoolean(IS_REMOTE_CATALOG_ENABLED)) return listAllBranches(repo);
+        final String url = conf.getString(REMOTE_PUSH_URL);
+        if (allowCached) {
+            final RemoteListing cached = readCache(repo, url);
+            if (cached != null) return cached;
+        }
+        final RemoteListing out = fetchCatalog(repo);
+        writeCache(repo, url, out);
+        return out;
+    }
+
+    /**
+     * Replace the remote's catalog for this world with the given snapshots.  Never throws; if this fails, listing
+     * will be wrong until the next successful publish, which isn't worth failing a backup over.
+     */
+    static void publish(final RepoImpl repo, final RemoteListing listing) {
+        try {
+            final GitConfig conf = repo.getConfig();
+            if (!conf.getBoolean(IS_REMOTE_CATALOG_ENABLED)) return;
+            final WorldId wid = repo.getWorldId();
+            final String refName = CATALOG_REF_PREFIX + wid;
+            final Repository jrepo = repo.getJGit().getRepository();
+            final ObjectId commitId = writeCatalogCommit(jrepo, listing.snapshots());
+            final RefUpdate ru = jrepo.updateRef(refName);
+            ru.setNewObjectId(commitId);
+            ru.setForceUpdate(true);
+            ru.disableRefLog();
+            ru.update();
+            final Iterable<PushResult> results = repo.getJGit().push().setRemote(conf.getString(REMOTE_NAME)).
+                    setRefSpecs(new RefSpec("+" + refName + ":" + refName)).call();
+            for (final PushResult result : results) {
+                for (final RemoteRefUpdate update : result.getRemoteUpdates()) {
+                    if (update.getStatus() != RemoteRefUpdate.Status.OK && update.getStatus() != RemoteRefUpdate.Status.UP_TO_DATE) {
+                        throw new IOException("Catalog push rejected: " + update.getStatus() + " " + update.getMessage());
+                    }
+                }
+            }
+            final Set<WorldId> worldIds = new HashSet<>(listing.worldIds());
+            worldIds.add(wid);
+            writeCache(repo, conf.getString(REMOTE_PUSH_URL), new RemoteListing(worldIds, listing.snapshots()));
+            syslog().debug("Published remote catalog with " + listing.snapshots().size() + " snapshots");
+        } catch (Exception e) {
+            syslog().error("Failed to publish remote snapshot catalog", e);
+        }
+    }
+
+    /**
+     * Update the catalog after a snapshot has been pushed.
+     */
+    static void recordPush(final RepoImpl repo, final RemoteListing before, final SnapshotId pushed) {
+        final Set<SnapshotId> snapshots = new LinkedHashSet<>(before.snapshots());
+        snapshots.add(pushed);
+        publish(repo, new RemoteListing(before.worldIds(), snapshots));
+    }
+
+    /**
+     * Update the catalog after some snapshot branches have been deleted from the remote.
+     */
+    static void recordDeletes(final RepoImpl repo, final Collection<String> deletedBranchNames) {
+        try {
+            if (deletedBranchNames.isEmpty() || !repo.getConfig().getBoolean(IS_REMOTE_CATALOG_ENABLED)) return;
+            final RemoteListing before = listRemote(repo, false);
+            final Set<String> deleted = new HashSet<>(deletedBranchNames);
+            final Set<SnapshotId> snapshots = new LinkedHashSet<>(before.snapshots());
+            snapshots.removeIf(sid -> deleted.contains(sid.getBranchName()));
+            publish(repo, new RemoteListing(before.worldIds(), snapshots));
+        } catch (Exception e) {
+            syslog().error("Failed to update remote snapshot catalog", e);
+        }
+    }
+
+    // ======================================================================
+    // Private
+
+    private static RemoteListing fetchCatalog(final RepoImpl repo) throws IOException {
+        final Repository jrepo = repo.getJGit().getRepository();
+        final WorldId wid = repo.getWorldId();
+        final List<RefSpec> specs = List.of(new RefSpec(CATALOG_REF_PREFIX + "*:" + CATALOG_REF_PREFIX + "*"));
+        final Set<WorldId> worldIds = new HashSet<>();
+        Ref ours = null;
+        try (final Transport transport = Transport.open(jrepo, repo.getConfig().getString(REMOTE_NAME));
+             final FetchConnection fc = transport.openFetch(specs)) {
+            for (final Ref ref : fc.getRefs()) {
+                if (!ref.getName().startsWith(CATALOG_REF_PREFIX)) continue;
+                final WorldId refWid = new WorldIdImpl(ref.getName().substring(CATALOG_REF_PREFIX.length()));
+                worldIds.add(refWid);
+                if (refWid.equals(wid)) ours = ref;
+            }
+            if (ours != null && !jrepo.getObjectDatabase().has(ours.getObjectId())) {
+                fc.fetch(NullProgressMonitor.INSTANCE, List.of(ours), Set.of());
+            }
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
+        if (worldIds.isEmpty()) {
+            syslog().debug("No catalogs on remote, listing all branches");
+            return listAllBranches(repo);
+        }
+        if (ours == null) {
+            syslog().debug("No catalog for this world on remote, listing its branches");
+            final Set<SnapshotId> snapshots = listWorldBranches(repo);
+            // we've pushed here before, we just haven't published a catalog yet.  don't fail the world id check.
+            if (!snapshots.isEmpty()) worldIds.add(wid);
+            return new RemoteListing(worldIds, snapshots);
+        }
+        return new RemoteListing(worldIds, readCatalogCommit(repo, ours.getObjectId()));
+    }
+
+    /**
+     * List just this world's snapshot branches.  Protocol v2 only sends us refs with the prefix we ask for; older
+     * protocols send everything and we filter it here.
+     */
+    private static Set<SnapshotId> listWorldBranches(final RepoImpl repo) throws IOException {
+        final Repository jrepo = repo.getJGit().getRepository();
+        final String prefix = R_HEADS + repo.getSidCodec().getBranchPrefix(repo.getWorldId());
+        final List<RefSpec> specs = List.of(new RefSpec(prefix + "*:" + prefix + "*"));
+        final List<String> branchNames = new ArrayList<>();
+        try (final Transport transport = Transport.open(jrepo, repo.getConfig().getString(REMOTE_NAME));
+             final FetchConnection fc = transport.openFetch(specs)) {
+            for (final Ref ref : fc.getRefs()) {
+                if (ref.getName().startsWith(prefix)) branchNames.add(ref.getName().substring(R_HEADS.length()));
+            }
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
+        final List<SnapshotId> snapshots = new ArrayList<>(parseBranchNames(repo, branchNames));
+        snapshots.sort(null);
+        return new LinkedHashSet<>(snapshots);
+    }
+
+    private static RemoteListing listAllBranches(final RepoImpl repo) throws IOException {
+        final Collection<Ref> refs;
+        try {
+            refs = repo.getJGit().lsRemote().setHeads(true).setTags(false).
+                    setRemote(repo.getConfig().getString(REMOTE_NAME)).call();
+        } catch (GitAPIException e) {
+            throw new IOException(e);
+        }
+        final ListMultimap<WorldId, SnapshotId> perWorld = SnapshotIdUtils.getSnapshotsPerWorld(refs, repo.getSidCodec());
+        return new RemoteListing(new HashSet<>(perWorld.keySet()), new LinkedHashSet<>(perWorld.get(repo.getWorldId())));
+    }
+
+    private static ObjectId writeCatalogCommit(final Repository jrepo, final Set<SnapshotId> snapshots) throws IOException {
+        final StringBuilder sb = new StringBuilder();
+        for (final SnapshotId sid : new TreeSet<>(snapshots)) sb.append(sid.getBranchName()).append('\n');
+        try (final ObjectInserter inserter = jrepo.newObjectInserter()) {
+            final ObjectId blobId = inserter.insert(OBJ_BLOB, sb.toString().getBytes(StandardCharsets.UTF_8));
+            final TreeFormatter tree = new TreeFormatter();
+            tree.append(CATALOG_FILE, FileMode.REGULAR_FILE, blobId);
+            final ObjectId treeId = inserter.insert(tree);
+            // no parent: the catalog's history isn't interesting, and this way old catalogs become garbage
+            final CommitBuilder commit = new CommitBuilder();
+            final PersonIdent ident = new PersonIdent("fastback", "fastback@localhost");
+            commit.setAuthor(ident);
+            commit.setCommitter(ident);
+            commit.setTreeId(treeId);
+            commit.setMessage("fastback snapshot catalog");
+            final ObjectId commitId = inserter.insert(commit);
+            inserter.flush();
+            return commitId;
+        }
+    }
+
+    private static Set<SnapshotId> readCatalogCommit(final RepoImpl repo, final ObjectId commitId) throws IOException {
+        final Repository jrepo = repo.getJGit().getRepository();
+        try (final ObjectReader reader = jrepo.newObjectReader(); final RevWalk rw = new RevWalk(reader)) {
+            final RevCommit commit = rw.parseCommit(commitId);
+            try (final TreeWalk tw = TreeWalk.forPath(reader, CATALOG_FILE, commit.getTree())) {
+                if (tw == null) throw new IOException("Remote catalog " + commitId.name() + " has no " + CATALOG_FILE);
+                final String content = new String(reader.open(tw.getObjectId(0), OBJ_BLOB).getBytes(), StandardCharsets.UTF_8);
+                return parseBranchNames(repo, content.lines().toList());
+            }
+        }
+    }
+
+    private static Set<SnapshotId> parseBranchNames(final RepoImpl repo, final List<String> branchNames) throws IOException {
+        final SnapshotIdCodec codec = repo.getSidCodec();
+        final WorldId wid = repo.getWorldId();
+        final Set<SnapshotId> out = new LinkedHashSet<>();
+        for (final String branchName : branchNames) {
+            if (branchName.isBlank()) continue;
+            try {
+                final SnapshotId sid = codec.fromBranch(branchName);
+                if (sid != null && sid.getWorldId().equals(wid)) out.add(sid);
+            } catch (ParseException e) {
+                syslog().warn("Ignoring unexpected branch name in remote catalog " + branchName);
+            }
+        }
+        return out;
+    }
+
+    private static RemoteListing readCache(final RepoImpl repo, final String url) {
+        final File file = new File(repo.getDirectory(), CACHE_PATH);
+        try {
+            if (!file.exists()) return null;
+            final List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+            if (lines.size() < 4 || !CACHE_HEADER.equals(lines.get(0))) return null;
+            if (System.currentTimeMillis() - Long.parseLong(lines.get(1)) > CACHE_TTL_MILLIS) return null;
+            if (!lines.get(2).equals(String.valueOf(url))) return null;
+            final Set<WorldId> worldIds = new HashSet<>();
+            for (final String id : lines.get(3).split(" ")) {
+                if (!id.isEmpty()) worldIds.add(new WorldIdImpl(id));
+            }
+            syslog().debug("Using cached remote catalog");
+            return new RemoteListing(worldIds, parseBranchNames(repo, lines.subList(4, lines.size())));
+        } catch (IOException | RuntimeException e) {
+            syslog().debug("Ignoring unreadable remote catalog cache", e);
+            return null;
+        }
+    }
+
+    private static void writeCache(final RepoImpl repo, final String url, final RemoteListing listing) {
+        final File file = new File(repo.getDirectory(), CACHE_PATH);
+        final StringBuilder sb = new StringBuilder(CACHE_HEADER).append('\n');
+        sb.append(System.currentTimeMillis()).append('\n');
+        sb.append(url).append('\n');
+        final List<String> ids = new ArrayList<>();
+        for (final WorldId id : listing.worldIds()) ids.add(id.toString());
+        sb.append(String.join(" ", ids)).append('\n');
+        for (final SnapshotId sid : new TreeSet<>(listing.snapshots())) sb.append(sid.getBranchName()).append('\n');
+        try {
+            file.getParentFile().mkdirs();
+            final LockFile lock = new LockFile(file);
+            if (!lock.lock()) return;
+            try {
+                lock.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+                lock.commit();
+            } finally {
+                lock.unlock();
+            }
+        } catch (IOException e) {
+            syslog().debug("Failed to write remote catalog cache", e);
+        }
+    }
+}
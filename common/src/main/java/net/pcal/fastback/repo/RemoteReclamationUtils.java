@@ -0,0 +1,253 @@
+/*
+ * FastBack - Fast, incremental Minecraft backups powered by Git.
+ * Copyright (C) 2022 pcal.net
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pcal.fastback.repo;
+
+import net.pcal.fastback.logging.UserLogger;
+import net.pcal.fastback.utils.ProcessException;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.GC;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.revwalk.ObjectWalk;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.storage.pack.PackConfig;
+import org.eclipse.jgit.transport.URIish;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import static net.pcal.fastback.config.FastbackConfigKey.IS_INCREMENTAL_GC_ENABLED;
+import static net.pcal.fastback.config.FastbackConfigKey.IS_REACHABILITY_INDEX_ENABLED;
+import static net.pcal.fastback.config.OtherConfigKey.REMOTE_PUSH_URL;
+import static net.pcal.fastback.logging.ProgressEvent.Phase.GC;
+import static net.pcal.fastback.logging.SystemLogger.syslog;
+import static net.pcal.fastback.logging.UserMessage.UserMessageStyle.JGIT;
+import static net.pcal.fastback.logging.UserMessage.UserMessageStyle.NATIVE_GIT;
+import static net.pcal.fastback.logging.UserMessage.styledLocalized;
+import static net.pcal.fastback.logging.UserMessage.styledRaw;
+import static net.pcal.fastback.utils.ProcessUtils.doExec;
+import static net.pcal.fastback.utils.ProcessUtils.hudOutput;
+import static org.apache.commons.io.FileUtils.byteCountToDisplaySize;
+import static org.apache.commons.io.FileUtils.sizeOfDirectory;
+import static org.eclipse.jgit.lib.Constants.OBJ_BLOB;
+
+/**
+ * Utilities for reclaiming disk space on the remote after remote snapshots have been pruned.
+ * <p>
+ * File remotes are repacked in-process with the same incremental repack we use locally, and lfs objects that are no
+ * longer referenced by any remote snapshot are deleted.  Ssh remotes get the equivalent git commands run on the
+ * remote host, so nothing but the command output crosses the network.  Either way the work runs at low priority
+ * so it doesn't starve the server or whatever else is using the remote's disk.
+ *
+ * @author pcal
+ * @since 0.16.0
+ */
+abstract class RemoteReclamationUtils {
+
+    // ======================================================================
+    // Constants
+
+    /**
+     * Objects are uploaded before the refs that point to them get pushed.  Don't delete recent unreferenced ones in
+     * case a push is in flight.
+     */
+    private static final long GRACE_MILLIS = 24 * 60 * 60 * 1000L;
+
+    private static final int MAX_POINTER_SIZE = 1024;
+
+    private static final String SSH_RESULT_PREFIX = "fastback-reclaimed ";
+
+    // ======================================================================
+    // Package private
+
+    /**
+     * @return the number of bytes freed on the remote.
+     */
+    static long doRemoteReclamation(final RepoImpl repo, final UserLogger ulog) throws IOException, ProcessException {
+        final URIish uri;
+        try {
+            uri = new URIish(repo.getConfig().getString(REMOTE_PUSH_URL));
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
+        final boolean incremental = repo.getConfig().getBoolean(IS_INCREMENTAL_GC_ENABLED);
+        if (uri.getScheme() == null && uri.getHost() == null || "file".equals(uri.getScheme())) {
+            final boolean reachabilityIndex = repo.getConfig().getBoolean(IS_REACHABILITY_INDEX_ENABLED);
+            return file_doReclamation(new File(uri.getPath()), incremental, reachabilityIndex, ulog);
+        } else if ("ssh".equals(uri.getScheme()) || uri.getScheme() == null) {
+            return ssh_doReclamation(uri, incremental, ulog);
+        } else {
+            throw new IOException("Remote reclamation is only supported on file and ssh remotes: " + uri);
+        }
+    }
+
+    // ======================================================================
+    // Private
+
+    private static long file_doReclamation(final File remoteDir, final boolean incremental, final boolean reachabilityIndex, final UserLogger ulog) throws IOException {
+        final File gitDir = new File(remoteDir, ".git").isDirectory() ? new File(remoteDir, ".git") : remoteDir;
+        final long sizeBefore = sizeOfDirectory(gitDir);
+        syslog().info("Remote size before reclamation: " + byteCountToDisplaySize(sizeBefore));
+        final Thread thread = Thread.currentThread();
+        final int originalPriority = thread.getPriority();
+        thread.setPriority(Thread.MIN_PRIORITY);
+        try (final FileRepository remote = (FileRepository) new FileRepositoryBuilder().setGitDir(gitDir).setMustExist(true).build()) {
+            ulog.update(styledLocalized("fastback.hud.remote-gc", JGIT));
+            final ProgressMonitor pm = new JGitIncrementalProgressMonitor(new RemoteGcProgressMonitor(ulog), 100);
+            if (incremental) {
+                RepackUtils.jgit_incrementalRepack(remote, reachabilityIndex, GRACE_MILLIS, pm);
+            } else {
+                final GC gc = new GC(remote);
+                gc.setExpireAgeMillis(GRACE_MILLIS);
+                final PackConfig pc = new PackConfig(remote);
+                RepackUtils.configureBitmaps(pc, reachabilityIndex);
+                gc.setPackConfig(pc);
+                gc.setAuto(false);
+                gc.setProgressMonitor(pm);
+                try {
+                    gc.gc();
+                } catch (ParseException e) {
+                    throw new IOException(e);
+                }
+            }
+            deleteOrphanedLfsObjects(remote, gitDir.toPath().resolve("lfs").resolve("objects"));
+        } finally {
+            thread.setPriority(originalPriority);
+        }
+        final long sizeAfter = sizeOfDirectory(gitDir);
+        syslog().info("Remote size after reclamation: " + byteCountToDisplaySize(sizeAfter));
+        return Math.max(0, sizeBefore - sizeAfter);
+    }
+
+    /**
+     * Delete lfs objects in the remote's store that no ref points to.  The remote's lfs store is only ever written by
+     * git-lfs's standalone file transfer, so this is the only place they'd get cleaned up.
+     */
+    private static void deleteOrphanedLfsObjects(final FileRepository remote, final Path lfsObjectsDir) throws IOException {
+        if (!Files.isDirectory(lfsObjectsDir)) return;
+        final Set<String> referencedOids = new HashSet<>();
+        try (final ObjectReader reader = remote.newObjectReader(); final ObjectWalk walk = new ObjectWalk(reader)) {
+            for (final Ref ref : remote.getRefDatabase().getRefs()) {
+                if (ref.getObjectId() != null) walk.markStart(walk.parseAny(ref.getObjectId()));
+            }
+            while (walk.next() != null) ;
+            RevObject obj;
+            while ((obj = walk.nextObject()) != null) {
+                if (obj.getType() != OBJ_BLOB || reader.getObjectSize(obj, OBJ_BLOB) >= MAX_POINTER_SIZE) continue;
+                final LfsUtils.LfsPointer pointer = LfsUtils.readPointer(reader, obj);
+                if (pointer != null) referencedOids.add(pointer.oid());
+            }
+        }
+        final long cutoff = System.currentTimeMillis() - GRACE_MILLIS;
+        final List<Path> orphans = new ArrayList<>();
+        try (final Stream<Path> files = Files.walk(lfsObjectsDir)) {
+            for (final Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                if (referencedOids.contains(file.getFileName().toString())) continue;
+                if (Files.getLastModifiedTime(file).toMillis() > cutoff) continue;
+                orphans.add(file);
+            }
+        }
+        syslog().debug("Deleting " + orphans.size() + " orphaned lfs objects from remote");
+        for (final Path orphan : orphans) Files.deleteIfExists(orphan);
+    }
+
+    /**
+     * Run git on the remote host, niced and with idle io priority where the host supports it.
+     * <p>
+     * The snapshots we just pruned are already packed, so a geometric repack alone would reclaim next to nothing;
+     * only a repack that drops unreachable objects from existing packs gets the space back.  Incremental mode does a
+     * cruft repack, which moves recently-unreachable objects into a cruft pack instead of exploding them into loose
+     * objects the way gc does.  That needs git 2.37 on the remote, so older gits get a full gc instead.
+     */
+    private static long ssh_doReclamation(final URIish uri, final boolean incremental, final UserLogger ulog) throws IOException, ProcessException {
+        final String gitCommand = incremental ?
+                "{ $LOW git repack -d -q --cruft --cruft-expiration=1.day.ago || $LOW git gc -q --prune=1.day.ago; }" :
+                "$LOW git gc -q --prune=1.day.ago";
+        final String script = "cd " + shellQuote(uri.getPath()) + " && " +
+                "LOW='nice -n 19' && if command -v ionice >/dev/null 2>&1; then LOW='nice -n 19 ionice -c 3'; fi && " +
+                "BEFORE=$(du -sk . | cut -f1) && " + gitCommand + " && " +
+                "AFTER=$(du -sk . | cut -f1) && echo \"" + SSH_RESULT_PREFIX + "$BEFORE $AFTER\"";
+        final List<String> args = new ArrayList<>(List.of("ssh", "-o", "BatchMode=yes"));
+        if (uri.getPort() > 0) {
+            args.add("-p");
+            args.add(String.valueOf(uri.getPort()));
+        }
+        args.add(uri.getUser() != null ? uri.getUser() + "@" + uri.getHost() : uri.getHost());
+        args.add(script);
+        final long[] result = {-1};
+        final Consumer<String> stdout = line -> {
+            if (line.startsWith(SSH_RESULT_PREFIX)) {
+                final String[] kb = line.substring(SSH_RESULT_PREFIX.length()).trim().split(" ");
+                result[0] = (Long.parseLong(kb[0]) - Long.parseLong(kb[1])) * 1024;
+            } else {
+                ulog.update(styledRaw(line, NATIVE_GIT));
+            }
+        };
+        ulog.update(styledLocalized("fastback.hud.remote-gc", NATIVE_GIT));
+        doExec(args.toArray(new String[0]), Collections.emptyMap(), stdout, hudOutput(ulog));
+        if (result[0] < 0) throw new IOException("Could not determine space reclaimed on " + uri.getHost());
+        return Math.max(0, result[0]);
+    }
+
+    private static String shellQuote(final String s) {
+        // scp-style urls are relative to the home directory, which is where ssh puts us anyway
+        final String path = s.startsWith("/~/") ? s.substring(3) : s;
+        return "'" + path.replace("'", "'\\''") + "'";
+    }
+
+    private static class RemoteGcProgressMonitor extends JGitPercentageProgressMonitor {
+
+        private final UserLogger ulog;
+
+        RemoteGcProgressMonitor(UserLogger ulog) {
+            this.ulog = ulog;
+        }
+
+        @Override
+        public void progressStart(String task) {
+            this.ulog.progress(progressEvent(GC));
+        }
+
+        @Override
+        public void progressUpdate(String task, int percentage) {
+            this.ulog.progress(progressEvent(GC));
+        }
+
+        @Override
+        public void progressDone(String task) {
+        }
+
+        @Override
+        public void showDuration(boolean enabled) {
+        }
+    }
+}
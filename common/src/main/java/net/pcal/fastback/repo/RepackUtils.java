@@ -0,0 +1,450 @@
+/*
+ * FastBack - Fast, incremental Minecraft backups powered by Git.
+ * Copyright (C) 2022 pcal.net
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pcal.fastback.repo;
+
+import net.pcal.fastback.utils.Cancellation;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.internal.storage.commitgraph.CommitGraphWriter;
+import org.eclipse.jgit.internal.storage.commitgraph.GraphCommits;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.ObjectDirectory;
+import org.eclipse.jgit.internal.storage.file.Pack;
+import org.eclipse.jgit.internal.storage.file.PackFile;
+import org.eclipse.jgit.internal.storage.file.PackIndex;
+import org.eclipse.jgit.internal.storage.pack.PackExt;
+import org.eclipse.jgit.internal.storage.pack.PackWriter;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.ReflogEntry;
+import org.eclipse.jgit.lib.ReflogReader;
+import org.eclipse.jgit.revwalk.ObjectWalk;
+import org.eclipse.jgit.revwalk.RevFlag;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.pack.PackConfig;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static net.pcal.fastback.logging.SystemLogger.syslog;
+import static org.apache.commons.io.FileUtils.byteCountToDisplaySize;
+
+/**
+ * Incremental alternative to a full gc.  A full gc rewrites every reachable object each time it runs, which for
+ * a backup repo means copying the whole history even if only one snapshot was pruned.  Here, we instead:
+ * <ul>
+ *     <li>delete packs that contain no reachable objects at all,</li>
+ *     <li>rewrite packs that are mostly garbage,</li>
+ *     <li>roll small packs and loose objects up together so that the remaining packs form a geometric
+ *     progression by size (like 'git repack --geometric').</li>
+ * </ul>
+ * Big, old packs with little garbage are left alone, so the I/O of each run is proportional to recent churn.
+ * The cost is that a pack with less than MAX_GARBAGE_RATIO garbage keeps that garbage until a full gc.
+ * <p>
+ * When run on a remote, a grace period protects whatever a push in flight has uploaded but not yet referenced:
+ * packs newer than that are left alone, and unreachable loose objects newer than that are kept.
+ *
+ * @author pcal
+ * @since 0.16.0
+ */
+abstract class RepackUtils {
+
+    // ======================================================================
+    // Constants
+
+    private static final int GEOMETRIC_FACTOR = 2;
+
+    private static final double MAX_GARBAGE_RATIO = 0.5;
+
+    // ======================================================================
+    // Package private
+
+    /**
+     * @param reachabilityIndex if true, a bitmap index is written whenever the rollup ends up containing every
+     *                          reachable object, and the commit-graph is rewritten at the end.
+     * @param graceMillis       packs and unreachable loose objects modified more recently than this are not deleted.
+     *                          Zero if nothing else writes to the repo while we're running.
+     */
+    static void jgit_incrementalRepack(final FileRepository repo,
+                                       final boolean reachabilityIndex,
+                                       final long graceMillis,
+                                       final ProgressMonitor pm) throws IOException {
+        final ObjectDirectory odb = repo.getObjectDatabase();
+        final long cutoff = graceMillis > 0 ? System.currentTimeMillis() - graceMillis : Long.MAX_VALUE;
+        try (final ObjectReader reader = repo.newObjectReader(); final ObjectWalk walk = new ObjectWalk(reader)) {
+            final int indexOnlyObjects = markReachable(repo, walk, pm);
+            final List<Pack> unreachablePacks = new ArrayList<>();
+            final List<Pack> garbagePacks = new ArrayList<>();
+            final List<Pack> candidatePacks = new ArrayList<>();
+            int recentPacks = 0, keptPacks = 0;
+            boolean hasBitmaps = false;
+            for (final Pack pack : odb.getPacks()) {
+                if (hasBitmapIndex(pack)) hasBitmaps = true;
+                if (pack.shouldBeKept()) {
+                    keptPacks++;
+                    continue;
+                }
+                if (pack.getPackFile().lastModified() >= cutoff) {
+                    recentPacks++;
+                    continue;
+                }
+                long total = 0, reachable = 0;
+                for (final PackIndex.MutableEntry e : pack) {
+                    total++;
+                    if (walk.lookupOrNull(e.toObjectId()) != null) reachable++;
+                }
+                if (reachable == 0) {
+                    unreachablePacks.add(pack);
+                } else if (total - reachable > total * MAX_GARBAGE_RATIO) {
+                    garbagePacks.add(pack);
+                } else {
+                    candidatePacks.add(pack);
+                }
+            }
+            final List<File> looseFiles = new ArrayList<>();
+            for (final File f : listLooseObjectFiles(odb.getDirectory())) {
+                if (f.lastModified() < cutoff || walk.lookupOrNull(toObjectId(f)) != null) looseFiles.add(f);
+            }
+            candidatePacks.sort(Comparator.comparingLong(RepackUtils::getPackSize));
+            final long[] candidateSizes = candidatePacks.stream().mapToLong(RepackUtils::getPackSize).toArray();
+            long forcedSize = 0;
+            for (final Pack p : garbagePacks) forcedSize += getPackSize(p);
+            for (final File f : looseFiles) forcedSize += f.length();
+            // A pack can only get bitmaps if it holds everything reachable, which we can't write if some of it is in
+            // packs we're not allowed to touch or is only reachable from the index.
+            final boolean canWriteBitmaps = keptPacks == 0 && recentPacks == 0 && indexOnlyObjects == 0;
+            // if there are no bitmaps anywhere (e.g., the repo predates them), roll everything up once to get some
+            final boolean missingBitmaps = reachabilityIndex && !hasBitmaps && canWriteBitmaps;
+            final int split = missingBitmaps ? candidatePacks.size() : findGeometricSplit(candidateSizes, forcedSize, GEOMETRIC_FACTOR);
+            final List<Pack> rollupPacks = new ArrayList<>(garbagePacks);
+            rollupPacks.addAll(candidatePacks.subList(0, split));
+            syslog().debug("Incremental repack: " + unreachablePacks.size() + " unreachable packs, " +
+                    garbagePacks.size() + " mostly-garbage packs, " + split + " of " + candidatePacks.size() +
+                    " packs and " + looseFiles.size() + " loose objects to roll up, " + recentPacks + " recent packs skipped");
+            final boolean needsRollup = !garbagePacks.isEmpty() || !looseFiles.isEmpty() || split > 1 ||
+                    (missingBitmaps && split > 0);
+            String newPackName = null;
+            if (needsRollup) {
+                final boolean isComplete = split == candidatePacks.size() && canWriteBitmaps;
+                newPackName = writeRollupPack(repo, reader, walk, rollupPacks, looseFiles, reachabilityIndex && isComplete, pm);
+            }
+            final List<Pack> packsToDelete = new ArrayList<>(unreachablePacks);
+            if (needsRollup) packsToDelete.addAll(rollupPacks);
+            long reclaimed = 0;
+            for (final Pack pack : packsToDelete) {
+                if (pack.getPackFile().getId().equals(newPackName)) continue; // rollup produced an identical pack
+                reclaimed += getPackSize(pack);
+                deletePack(pack);
+            }
+            if (needsRollup) {
+                for (final File f : looseFiles) {
+                    reclaimed += f.length();
+                    Files.deleteIfExists(f.toPath());
+                }
+            }
+            syslog().info("Incremental repack removed " + byteCountToDisplaySize(reclaimed) + " of old packs and loose objects");
+        }
+        if (reachabilityIndex) writeCommitGraph(repo, pm);
+    }
+
+    /**
+     * Configure bitmap selection for a repo full of orphan branches.  JGit's defaults assume a few long-lived
+     * branches with deep histories and only put bitmaps on some of the commits; we want one on every snapshot.
+     */
+    static void configureBitmaps(final PackConfig pc, final boolean enabled) {
+        pc.setBuildBitmaps(enabled);
+        pc.setBitmapContiguousCommitCount(Integer.MAX_VALUE);
+        pc.setBitmapExcessiveBranchCount(Integer.MAX_VALUE);
+        pc.setBitmapInactiveBranchAgeInDays(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Rewrite objects/info/commit-graph to cover every ref.  This is what 'git commit-graph write --reachable' does.
+     */
+    static void writeCommitGraph(final FileRepository repo, final ProgressMonitor pm) throws IOException {
+        final Set<ObjectId> tips = new HashSet<>();
+        for (final Ref ref : repo.getRefDatabase().getRefs()) {
+            if (ref.getObjectId() != null) tips.add(ref.getObjectId());
+        }
+        final File graphFile = new File(repo.getObjectDatabase().getDirectory(), Constants.INFO_COMMIT_GRAPH);
+        final File infoDir = graphFile.getParentFile();
+        if (tips.isEmpty()) {
+            Files.deleteIfExists(graphFile.toPath());
+            return;
+        }
+        Files.createDirectories(infoDir.toPath());
+        final File tmpFile = File.createTempFile("commit-graph_", ".tmp", infoDir);
+        try (final RevWalk rw = new RevWalk(repo)) {
+            final GraphCommits commits = GraphCommits.fromWalk(pm, tips, rw);
+            try (final FileOutputStream out = new FileOutputStream(tmpFile)) {
+                new CommitGraphWriter(commits).write(pm, out);
+                out.getFD().sync();
+            }
+            Files.move(tmpFile.toPath(), graphFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            syslog().debug("Wrote commit-graph for " + tips.size() + " refs");
+        } finally {
+            Files.deleteIfExists(tmpFile.toPath());
+        }
+    }
+
+    /**
+     * Find how many of the smallest packs need to be rolled up so that the remaining packs, plus the new rollup
+     * pack, form a geometric progression.  This is the same algorithm as 'git repack --geometric'.
+     *
+     * @param sortedSizes sizes of the candidate packs, smallest first
+     * @param forcedSize  size of other things that are going to be rolled up regardless
+     * @return the number of candidate packs to roll up
+     */
+    static int findGeometricSplit(final long[] sortedSizes, final long forcedSize, final int factor) {
+        final int count = sortedSizes.length;
+        if (count == 0) return 0;
+        int split = count - 1;
+        while (split > 0 && sortedSizes[split] >= factor * sortedSizes[split - 1]) split--;
+        if (split > 0) split++;
+        long total = forcedSize;
+        for (int i = 0; i < split; i++) total += sortedSizes[i];
+        while (split < count && sortedSizes[split] < factor * total) {
+            total += sortedSizes[split];
+            split++;
+        }
+        return split;
+    }
+
+    // ======================================================================
+    // Private
+
+    /**
+     * Walk everything reachable from refs, reflogs and the index, if there is one.  Afterward, walk.lookupOrNull() returns non-null for
+     * exactly the reachable objects.
+     *
+     * @return the number of objects that are only reachable from the index.
+     */
+    private static int markReachable(final FileRepository repo, final ObjectWalk walk, final ProgressMonitor pm) throws IOException {
+        pm.beginTask("Finding reachable objects", ProgressMonitor.UNKNOWN);
+        final Set<String> refNames = new HashSet<>();
+        refNames.add(Constants.HEAD);
+        for (final Ref ref : repo.getRefDatabase().getRefs()) {
+            refNames.add(ref.getName());
+            if (ref.getObjectId() != null) walk.markStart(walk.parseAny(ref.getObjectId()));
+        }
+        final ObjectId head = repo.resolve(Constants.HEAD);
+        if (head != null) walk.markStart(walk.parseAny(head));
+        for (final String refName : refNames) {
+            final ReflogReader reflog = repo.getReflogReader(refName);
+            if (reflog == null) continue;
+            for (final ReflogEntry entry : reflog.getReverseEntries()) {
+                if (ObjectId.zeroId().equals(entry.getNewId())) continue;
+                try {
+                    walk.markStart(walk.parseAny(entry.getNewId()));
+                } catch (MissingObjectException e) {
+                    syslog().debug("Ignoring missing reflog entry " + entry.getNewId().name() + " in " + refName);
+                }
+            }
+        }
+        while (walk.next() != null) pm.update(1);
+        Cancellation.current().check();
+        while (walk.nextObject() != null) pm.update(1);
+        Cancellation.current().check();
+        int indexOnly = 0;
+        if (!repo.isBare()) { // remotes are usually bare
+            final DirCache index = repo.readDirCache();
+            for (int i = 0; i < index.getEntryCount(); i++) {
+                final ObjectId id = index.getEntry(i).getObjectId();
+                if (walk.lookupOrNull(id) == null) {
+                    walk.lookupBlob(id);
+                    indexOnly++;
+                }
+            }
+        }
+        pm.endTask();
+        return indexOnly;
+    }
+
+    /**
+     * Write the reachable objects from the given packs and loose objects into a single new pack.
+     *
+     * @param withBitmaps if true, the caller is rolling up every pack, so the new pack will contain everything
+     *                    reachable and can have a bitmap index.
+     * @return the name of the new pack, or null if there was nothing to write.
+     */
+    private static String writeRollupPack(final FileRepository repo,
+                                          final ObjectReader reader,
+                                          final ObjectWalk walk,
+                                          final List<Pack> packs,
+                                          final List<File> looseFiles,
+                                          final boolean withBitmaps,
+                                          final ProgressMonitor pm) throws IOException {
+        final RevFlag added = walk.newFlag("added");
+        final List<RevObject> objects = new ArrayList<>();
+        for (final Pack pack : packs) {
+            for (final PackIndex.MutableEntry e : pack) addIfReachable(walk, e.toObjectId(), added, objects);
+        }
+        for (final File f : looseFiles) {
+            addIfReachable(walk, toObjectId(f), added, objects);
+        }
+        if (objects.isEmpty()) return null;
+        final File packDir = repo.getObjectDatabase().getPackDirectory();
+        final PackConfig pc = new PackConfig(repo);
+        pc.setDeltaCompress(false);
+        configureBitmaps(pc, withBitmaps);
+        try (final PackWriter pw = new PackWriter(pc, reader)) {
+            if (withBitmaps) {
+                // bitmaps can only be built for a pack that's written by walking from the tips
+                pw.preparePack(pm, getReachabilityTips(repo), PackWriter.NONE);
+                if (pw.getObjectCount() != objects.size()) {
+                    // something is only reachable from the index; fall back to a plain pack
+                    syslog().debug("Not all reachable objects are reachable from refs, skipping bitmaps");
+                    return writeRollupPack(repo, reader, walk, packs, looseFiles, false, pm);
+                }
+            } else {
+                pw.preparePack(objects.iterator());
+            }
+            final File tmpPack = File.createTempFile("incremental_", ".pack_tmp", packDir);
+            final File tmpIdx = new File(packDir, tmpPack.getName().replace(".pack_tmp", ".idx_tmp"));
+            final File tmpBitmap = new File(packDir, tmpPack.getName().replace(".pack_tmp", ".bitmap_tmp"));
+            try {
+                try (final FileOutputStream out = new FileOutputStream(tmpPack)) {
+                    pw.writePack(pm, pm, out);
+                    out.getFD().sync();
+                }
+                try (final FileOutputStream out = new FileOutputStream(tmpIdx)) {
+                    pw.writeIndex(out);
+                    out.getFD().sync();
+                }
+                final String name = pw.computeName().name();
+                // this has to come after everything else, since it throws away the object lists
+                final boolean hasBitmaps = withBitmaps && pw.prepareBitmapIndex(pm);
+                if (hasBitmaps) {
+                    try (final FileOutputStream out = new FileOutputStream(tmpBitmap)) {
+                        pw.writeBitmapIndex(out);
+                        out.getFD().sync();
+                    }
+                }
+                final PackFile packFile = new PackFile(packDir, name, PackExt.PACK);
+                if (packFile.exists() && hasBitmaps) {
+                    // same objects as an existing pack that has no bitmaps.  The bitmaps are only valid for our
+                    // copy's object order, so ours has to replace it.
+                    for (final Pack pack : packs) {
+                        if (pack.getPackFile().getId().equals(name)) deletePack(pack);
+                    }
+                }
+                if (!packFile.exists()) {
+                    // pack first, then bitmaps, then index; the index is what makes the pack visible
+                    Files.move(tmpPack.toPath(), packFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                    if (hasBitmaps) {
+                        Files.move(tmpBitmap.toPath(), packFile.create(PackExt.BITMAP_INDEX).toPath(), StandardCopyOption.ATOMIC_MOVE);
+                    }
+                    Files.move(tmpIdx.toPath(), packFile.create(PackExt.INDEX).toPath(), StandardCopyOption.ATOMIC_MOVE);
+                }
+                syslog().debug("Wrote rollup pack " + name + " with " + objects.size() + " objects, " +
+                        byteCountToDisplaySize(packFile.length()));
+                return name;
+            } finally {
+                Files.deleteIfExists(tmpPack.toPath());
+                Files.deleteIfExists(tmpIdx.toPath());
+                Files.deleteIfExists(tmpBitmap.toPath());
+            }
+        }
+    }
+
+    /**
+     * @return the same starting points markReachable() walks from, minus the index.
+     */
+    private static Set<ObjectId> getReachabilityTips(final FileRepository repo) throws IOException {
+        final Set<ObjectId> out = new HashSet<>();
+        final Set<String> refNames = new HashSet<>();
+        refNames.add(Constants.HEAD);
+        for (final Ref ref : repo.getRefDatabase().getRefs()) {
+            refNames.add(ref.getName());
+            if (ref.getObjectId() != null) out.add(ref.getObjectId());
+        }
+        final ObjectId head = repo.resolve(Constants.HEAD);
+        if (head != null) out.add(head);
+        for (final String refName : refNames) {
+            final ReflogReader reflog = repo.getReflogReader(refName);
+            if (reflog == null) continue;
+            for (final ReflogEntry entry : reflog.getReverseEntries()) {
+                if (!ObjectId.zeroId().equals(entry.getNewId()) && repo.getObjectDatabase().has(entry.getNewId())) {
+                    out.add(entry.getNewId());
+                }
+            }
+        }
+        return out;
+    }
+
+    private static void addIfReachable(ObjectWalk walk, ObjectId id, RevFlag added, List<RevObject> out) {
+        final RevObject o = walk.lookupOrNull(id);
+        if (o != null && !o.has(added)) {
+            o.add(added);
+            out.add(o);
+        }
+    }
+
+    private static List<File> listLooseObjectFiles(final File objectsDir) {
+        final List<File> out = new ArrayList<>();
+        final File[] dirs = objectsDir.listFiles((dir, name) -> name.length() == 2 && isHex(name));
+        if (dirs == null) return out;
+        for (final File dir : dirs) {
+            final File[] files = dir.listFiles((d, name) -> name.length() == Constants.OBJECT_ID_STRING_LENGTH - 2 && isHex(name));
+            if (files != null) out.addAll(List.of(files));
+        }
+        return out;
+    }
+
+    private static ObjectId toObjectId(File looseFile) {
+        return ObjectId.fromString(looseFile.getParentFile().getName() + looseFile.getName());
+    }
+
+    private static boolean isHex(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (Character.digit(s.charAt(i), 16) < 0) return false;
+        }
+        return true;
+    }
+
+    private static boolean hasBitmapIndex(Pack pack) {
+        return pack.getPackFile().create(PackExt.BITMAP_INDEX).exists();
+    }
+
+    private static long getPackSize(Pack pack) {
+        return pack.getPackFile().length();
+    }
+
+    private static void deletePack(Pack pack) throws IOException {
+        pack.close();
+        final PackFile packFile = pack.getPackFile();
+        // pack first; an index without its pack is ignored
+        Files.deleteIfExists(packFile.create(PackExt.PACK).toPath());
+        for (final PackExt ext : PackExt.values()) {
+            if (ext != PackExt.KEEP) Files.deleteIfExists(packFile.create(ext).toPath());
+        }
+    }
+}
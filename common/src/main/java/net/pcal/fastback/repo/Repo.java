@@ -28,6 +28,7 @@ import java.io.IOException;
 import java.text.ParseException;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -41,6 +42,12 @@ public interface Repo extends AutoCloseable {
 
     Set<SnapshotId> getLocalSnapshots() throws IOException;
 
+    /**
+     * @return every local snapshot, mapped to the stats recorded when it was committed.  The stats are null for
+     * snapshots that were made before we started recording them, or by something other than fastback.
+     */
+    Map<SnapshotId, SnapshotStats> getLocalSnapshotStats() throws IOException;
+
     Set<SnapshotId> getRemoteSnapshots() throws IOException;
 
     // ======================================================================
@@ -63,15 +70,56 @@ public interface Repo extends AutoCloseable {
 
     Collection<SnapshotId> doRemotePrune(UserLogger ulog) throws IOException;
 
+    /**
+     * Report which local snapshots a prune would delete and roughly how much space each would free.  Nothing
+     * is deleted.
+     */
+    void doLocalPruneDryRun(UserLogger ulog);
+
     void doRestoreLocalSnapshot(String snapshotName, UserLogger ulog);
 
     void doRestoreRemoteSnapshot(String snapshotName, UserLogger ulog);
 
+    void doLazyRestoreRemoteSnapshot(String snapshotName, UserLogger ulog);
+
+    /**
+     * Roll the world directory back to the given local snapshot in place.  Must only be called while the
+     * world is unloaded.
+     */
+    void doRollback(String snapshotName, UserLogger ulog);
+
+    void doRestoreChunks(String snapshotName, String dimension, int fromBlockX, int fromBlockZ, int toBlockX, int toBlockZ, UserLogger ulog);
+
+    /**
+     * Write a local snapshot to an archive file in the restores directory.
+     */
+    void doExport(String snapshotName, ExportFormat format, UserLogger ulog);
+
+    /**
+     * Report how long recent backups took, phase by phase.
+     */
+    void doShowStats(UserLogger ulog);
+
     void doGc(UserLogger ulog);
 
+    /**
+     * Report roughly how much space a gc would free right now.  Nothing is deleted.
+     */
+    void doGcDryRun(UserLogger ulog);
+
+    /**
+     * Reclaim disk space on the remote.  Only file and ssh remotes are supported.
+     */
+    void doRemoteGc(UserLogger ulog);
+
     void doPushSnapshot(SnapshotId sid, UserLogger ulog);
 
-    void deleteRemoteBranch(String remoteBranchName) throws IOException;
+    /**
+     * Delete the given branches from the remote in one push.
+     *
+     * @return the branches that could not be deleted, mapped to the reason why.
+     */
+    Map<String, String> deleteRemoteBranches(List<String> remoteBranchNames) throws IOException;
 
     void deleteLocalBranches(List<String> branchesToDelete) throws GitAPIException, IOException;
 
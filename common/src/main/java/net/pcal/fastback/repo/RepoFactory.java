@@ -33,7 +33,7 @@ public interface RepoFactory {
 
     // TODO this probably should move to ModContext
     static RepoFactory rf() {
-        return new RepoFactoryImpl();
+        return Singleton.INSTANCE;
     }
 
     void doInit(Path worldSaveDir, UserLogger ulog) throws IOException;
@@ -44,4 +44,19 @@ public interface RepoFactory {
 
     boolean isGitRepo(Path worldSaveDir);
 
+    /**
+     * Keep the given world's repository open until closeWorld is called, so that repos returned by load() can share
+     * its already-parsed config, refs and pack indexes.  Warming them up happens in the background.
+     */
+    void openWorld(Path worldSaveDir);
+
+    /**
+     * Release the repository opened by openWorld.  Any Repos still in use keep it open until they're closed.
+     */
+    void closeWorld();
+
+    class Singleton {
+        private static final RepoFactory INSTANCE = new RepoFactoryImpl();
+    }
+
 }
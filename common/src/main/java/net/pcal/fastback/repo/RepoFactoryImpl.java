@@ -22,6 +22,10 @@ import net.pcal.fastback.config.GitConfig.Updater;
 import net.pcal.fastback.logging.UserLogger;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.Pack;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
 
 import java.io.File;
 import java.io.IOException;
@@ -43,6 +47,20 @@ import static net.pcal.fastback.utils.EnvironmentUtils.isNativeOk;
  */
 class RepoFactoryImpl implements RepoFactory {
 
+    // ======================================================================
+    // Fields
+
+    /**
+     * The world's repository, opened lazily once openWorld has been called.  We hold one 'open' on it; each Repo
+     * handed out by load() holds another and releases it on close, so jgit only really closes it once we and all
+     * of them are done.
+     */
+    private Path worldSaveDir = null;
+    private Repository sharedRepository = null;
+
+    // ======================================================================
+    // RepoFactory implementation
+
     @Override
     public void doInit(final Path worldSaveDir, final UserLogger ulog) throws IOException {
         if (isGitRepo(worldSaveDir)) {
@@ -77,11 +95,12 @@ class RepoFactoryImpl implements RepoFactory {
 
     @Override
     public Repo load(final Path worldSaveDir) throws IOException {
-        final Git jgit = Git.open(worldSaveDir.toFile());
         // It should already be there.  But let's try to be extra sure this is there, because lots of stuff
         // will blow up if it's missing.
         ensureWorldHasId(worldSaveDir);
-        return new RepoImpl(jgit);
+        final Repository shared = acquireSharedRepository(worldSaveDir);
+        if (shared != null) return new RepoImpl(Git.wrap(shared), shared::close);
+        return new RepoImpl(Git.open(worldSaveDir.toFile()));
     }
 
     @Override
@@ -89,4 +108,64 @@ class RepoFactoryImpl implements RepoFactory {
         final File dotGit = worldSaveDir.resolve(".git").toFile();
         return dotGit.exists() && dotGit.isDirectory();
     }
+
+    @Override
+    public void openWorld(final Path worldSaveDir) {
+        synchronized (this) {
+            this.closeWorld();
+            this.worldSaveDir = worldSaveDir.toAbsolutePath().normalize();
+        }
+        if (!isGitRepo(worldSaveDir)) return;
+        final Thread thread = new Thread(() -> prewarm(worldSaveDir), "fastback-prewarm");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    @Override
+    public synchronized void closeWorld() {
+        if (this.sharedRepository != null) {
+            this.sharedRepository.close();
+            this.sharedRepository = null;
+        }
+        this.worldSaveDir = null;
+    }
+
+    // ======================================================================
+    // Private
+
+    /**
+     * @return the shared repository with an 'open' taken on behalf of the caller, or null if the given directory
+     * isn't the world we're holding open.
+     */
+    private synchronized Repository acquireSharedRepository(final Path worldSaveDir) throws IOException {
+        if (this.worldSaveDir == null || !this.worldSaveDir.equals(worldSaveDir.toAbsolutePath().normalize())) {
+            return null;
+        }
+        if (this.sharedRepository == null) {
+            if (!isGitRepo(worldSaveDir)) return null;
+            this.sharedRepository = new FileRepositoryBuilder().setWorkTree(worldSaveDir.toFile()).
+                    setMustExist(true).build();
+            syslog().debug("Opened shared repository for " + worldSaveDir);
+        }
+        this.sharedRepository.incrementOpen();
+        return this.sharedRepository;
+    }
+
+    /**
+     * Get the expensive stuff read in before the first backup or command needs it.
+     */
+    private void prewarm(final Path worldSaveDir) {
+        final long start = System.currentTimeMillis();
+        try (final RepoImpl repo = (RepoImpl) this.load(worldSaveDir)) {
+            repo.getConfig();
+            repo.getLocalSnapshots(); // refs, world id and the snapshot catalog
+            if (repo.getJGit().getRepository() instanceof FileRepository fileRepo) {
+                for (final Pack pack : fileRepo.getObjectDatabase().getPacks()) pack.getIndex();
+            }
+            syslog().debug("Repository warmed up in " + (System.currentTimeMillis() - start) + "ms");
+        } catch (Exception e) {
+            syslog().warn("Failed to warm up repository: " + e.getMessage());
+        }
+    }
 }
@@ -21,6 +21,8 @@ package net.pcal.fastback.repo;
 import net.pcal.fastback.config.GitConfig;
 import net.pcal.fastback.logging.UserLogger;
 import net.pcal.fastback.logging.UserMessage;
+import net.pcal.fastback.repo.RunMetrics.Phase;
+import net.pcal.fastback.repo.RunMetrics.PhaseTimer;
 import net.pcal.fastback.repo.SnapshotIdUtils.SnapshotIdCodec;
 import net.pcal.fastback.repo.WorldIdUtils.WorldIdInfo;
 import net.pcal.fastback.utils.EnvironmentUtils;
@@ -28,7 +30,6 @@ import net.pcal.fastback.utils.ProcessException;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.errors.NoWorkTreeException;
-import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.util.FileUtils;
 
 import java.io.File;
@@ -38,14 +39,15 @@ import java.text.ParseException;
 import java.time.Duration;
 import java.time.temporal.ChronoUnit;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import static java.util.Objects.requireNonNull;
 import static net.pcal.fastback.config.FastbackConfigKey.BROADCAST_ENABLED;
 import static net.pcal.fastback.config.FastbackConfigKey.BROADCAST_MESSAGE;
 import static net.pcal.fastback.config.FastbackConfigKey.IS_LOCK_CLEANUP_ENABLED;
-import static net.pcal.fastback.config.FastbackConfigKey.REMOTE_NAME;
 import static net.pcal.fastback.config.OtherConfigKey.REMOTE_PUSH_URL;
 import static net.pcal.fastback.logging.SystemLogger.syslog;
 import static net.pcal.fastback.logging.UserMessage.UserMessageStyle.BROADCAST;
@@ -56,6 +58,7 @@ import static net.pcal.fastback.logging.UserMessage.styledLocalized;
 import static net.pcal.fastback.logging.UserMessage.styledRaw;
 import static net.pcal.fastback.mod.Mod.mod;
 import static net.pcal.fastback.utils.EnvironmentUtils.isNativeOk;
+import static org.apache.commons.io.FileUtils.byteCountToDisplaySize;
 import static org.eclipse.jgit.util.FileUtils.RETRY;
 
 /**
@@ -73,6 +76,7 @@ class RepoImpl implements Repo {
     // Fields
 
     private final Git jgit;
+    private final Runnable onClose;
     private GitConfig config;
     private WorldIdInfo worldIdInfo;
 
@@ -80,7 +84,16 @@ class RepoImpl implements Repo {
     // Constructors
 
     RepoImpl(final Git jgit) {
+        this(jgit, jgit::close);
+    }
+
+    /**
+     * @param onClose what to do when this is closed.  For a handle on the world's shared repository, this just
+     *                releases our hold on it rather than closing it.
+     */
+    RepoImpl(final Git jgit, final Runnable onClose) {
         this.jgit = requireNonNull(jgit);
+        this.onClose = requireNonNull(onClose);
     }
 
     // ======================================================================
@@ -88,24 +101,27 @@ class RepoImpl implements Repo {
 
     @Override
     public void doCommitAndPush(final UserLogger ulog) {
-        if (isNativeOk(this.getConfig(), ulog, false)) return;
+        if (!isNativeOk(this.getConfig(), ulog, false)) return;
         checkIndexLock(ulog);
         broadcastBackupNotice();
         final long start = System.currentTimeMillis();
         final SnapshotId newSid;
-        try {
-            newSid = CommitUtils.doCommitSnapshot(this, ulog);
-        } catch (IOException | GitAPIException | ProcessException e) {
-            syslog().error(e);
-            ulog.message(styledLocalized("fastback.chat.commit-failed", ERROR));
-            return;
-        }
-        try {
-            PushUtils.doPush(newSid, this, ulog);
-        } catch (IOException | ProcessException e) {
-            ulog.message(styledLocalized("fastback.chat.push-failed", ERROR));
-            syslog().error(e);
-            return;
+        try (final RunMetrics run = RunMetrics.begin(this, "full")) {
+            try {
+                newSid = CommitUtils.doCommitSnapshot(this, ulog);
+            } catch (IOException | GitAPIException | ProcessException e) {
+                syslog().error(e);
+                ulog.message(styledLocalized("fastback.chat.commit-failed", ERROR));
+                return;
+            }
+            try {
+                PushUtils.doPush(newSid, this, ulog);
+            } catch (IOException | ProcessException e) {
+                ulog.message(styledLocalized("fastback.chat.push-failed", ERROR));
+                syslog().error(e);
+                return;
+            }
+            run.succeeded();
         }
         ulog.message(localized("fastback.chat.backup-complete-elapsed", getDuration(start)));
     }
@@ -116,9 +132,9 @@ class RepoImpl implements Repo {
         checkIndexLock(ulog);
         broadcastBackupNotice();
         final long start = System.currentTimeMillis();
-        final SnapshotId newSid;
-        try {
-            newSid = CommitUtils.doCommitSnapshot(this, ulog);
+        try (final RunMetrics run = RunMetrics.begin(this, "local")) {
+            CommitUtils.doCommitSnapshot(this, ulog);
+            run.succeeded();
         } catch (IOException | ProcessException | GitAPIException e) {
             ulog.message(styledLocalized("fastback.chat.commit-failed", ERROR));
             syslog().error(e);
@@ -133,10 +149,11 @@ class RepoImpl implements Repo {
             ulog.message(styledLocalized("No remote is configured.  Run set-remote <url>", ERROR)); //FIXME i18n
             return;
         }
-        if (isNativeOk(this.getConfig(), ulog, false)) return;
+        if (!isNativeOk(this.getConfig(), ulog, false)) return;
         final long start = System.currentTimeMillis();
-        try {
+        try (final RunMetrics run = RunMetrics.begin(this, "push")) {
             PushUtils.doPush(sid, this, ulog);
+            run.succeeded();
         } catch (IOException | ProcessException e) {
             ulog.message(styledLocalized("fastback.chat.commit-failed", ERROR));
             syslog().error(e);
@@ -148,25 +165,109 @@ class RepoImpl implements Repo {
 
     @Override
     public Collection<SnapshotId> doLocalPrune(final UserLogger ulog) throws IOException {
-        return PruneUtils.doLocalPrune(this, ulog);
+        try (final RunMetrics run = RunMetrics.begin(this, "prune")) {
+            final PhaseTimer prune = RunMetrics.time(Phase.PRUNE);
+            try {
+                final Collection<SnapshotId> out = PruneUtils.doLocalPrune(this, ulog);
+                run.succeeded();
+                return out;
+            } finally {
+                prune.close();
+            }
+        }
     }
 
     @Override
     public Collection<SnapshotId> doRemotePrune(final UserLogger ulog) throws IOException {
-        return PruneUtils.doRemotePrune(this, ulog);
+        try (final RunMetrics run = RunMetrics.begin(this, "remote-prune")) {
+            final PhaseTimer prune = RunMetrics.time(Phase.PRUNE);
+            try {
+                final Collection<SnapshotId> out = PruneUtils.doRemotePrune(this, ulog);
+                run.succeeded();
+                return out;
+            } finally {
+                prune.close();
+            }
+        }
     }
 
     @Override
-    public void doGc(final UserLogger ulog) {
-        if (isNativeOk(this.getConfig(), ulog, false)) return;
+    public void doLocalPruneDryRun(final UserLogger ulog) {
+        try {
+            final ReclaimEstimator.Estimate estimate = PruneUtils.doLocalPruneDryRun(this, ulog);
+            if (estimate == null) return;
+            for (final Map.Entry<SnapshotId, Long> e : estimate.uniqueBytes().entrySet()) {
+                ulog.message(localized("fastback.chat.prune-dry-run-snapshot", e.getKey().getShortName(), byteCountToDisplaySize(e.getValue())));
+            }
+            ulog.message(localized("fastback.chat.prune-dry-run-total", estimate.uniqueBytes().size(), byteCountToDisplaySize(estimate.reclaimableBytes())));
+        } catch (IOException e) {
+            syslog().error(e);
+            ulog.message(styledLocalized("fastback.chat.estimate-failed", ERROR));
+        }
+    }
+
+    @Override
+    public void doGcDryRun(final UserLogger ulog) {
+        try {
+            final ReclaimEstimator.Estimate estimate = ReclaimEstimator.estimate(this, List.of());
+            ulog.message(localized("fastback.chat.gc-dry-run", byteCountToDisplaySize(estimate.garbageBytes())));
+        } catch (IOException e) {
+            syslog().error(e);
+            ulog.message(styledLocalized("fastback.chat.estimate-failed", ERROR));
+        }
+    }
+
+    @Override
+    public void doShowStats(final UserLogger ulog) {
         try {
-            ReclamationUtils.doReclamation(this, ulog);
-        } catch (ProcessException | GitAPIException e) {
+            RunLedger.doShowStats(this, ulog);
+        } catch (IOException e) {
+            syslog().error(e);
+            ulog.internalError();
+        }
+    }
+
+    @Override
+    public void doGc(final UserLogger ulog) {
+        if (!isNativeOk(this.getConfig(), ulog, false)) return;
+        try (final RunMetrics run = RunMetrics.begin(this, "gc")) {
+            final PhaseTimer gc = RunMetrics.time(Phase.GC);
+            try {
+                ReclamationUtils.doReclamation(this, ulog);
+                run.succeeded();
+            } finally {
+                gc.close();
+            }
+        } catch (IOException | ProcessException | GitAPIException e) {
             ulog.message(styledLocalized("Command failed.  Check log for details.", ERROR)); // FIXME i18n
             syslog().error(e);
         }
     }
 
+    @Override
+    public void doRemoteGc(final UserLogger ulog) {
+        final long start = System.currentTimeMillis();
+        if (!this.getConfig().isSet(REMOTE_PUSH_URL)) {
+            ulog.message(styledLocalized("fastback.chat.remote-no-url", ERROR));
+            return;
+        }
+        final long reclaimed;
+        try (final RunMetrics run = RunMetrics.begin(this, "remote-gc")) {
+            final PhaseTimer gc = RunMetrics.time(Phase.GC);
+            try {
+                reclaimed = RemoteReclamationUtils.doRemoteReclamation(this, ulog);
+                run.succeeded();
+            } finally {
+                gc.close();
+            }
+        } catch (IOException | ProcessException e) {
+            syslog().error(e);
+            ulog.message(styledLocalized("fastback.chat.remote-gc-failed", ERROR));
+            return;
+        }
+        ulog.message(localized("fastback.chat.remote-gc-done", byteCountToDisplaySize(reclaimed), getDuration(start)));
+    }
+
     @Override
     public void doRestoreLocalSnapshot(String snapshotName, UserLogger ulog) {
         RestoreUtils.doRestoreLocalSnapshot(snapshotName, this, ulog);
@@ -177,46 +278,75 @@ class RepoImpl implements Repo {
         RestoreUtils.doRestoreRemoteSnapshot(snapshotName, this, ulog);
     }
 
+    @Override
+    public void doLazyRestoreRemoteSnapshot(String snapshotName, UserLogger ulog) {
+        RestoreUtils.doLazyRestoreRemoteSnapshot(snapshotName, this, ulog);
+    }
+
+    @Override
+    public void doRollback(String snapshotName, UserLogger ulog) {
+        final long start = System.currentTimeMillis();
+        try {
+            final SnapshotId sid = this.createSnapshotId(snapshotName);
+            ulog.message(localized("fastback.chat.rollback-start", sid.getShortName()));
+            RollbackUtils.doRollback(this, sid, ulog);
+        } catch (IOException | ParseException | GitAPIException | ProcessException e) {
+            syslog().error(e);
+            ulog.message(styledLocalized("fastback.chat.rollback-failed", ERROR));
+            return;
+        }
+        ulog.message(localized("fastback.chat.rollback-done", snapshotName, getDuration(start)));
+    }
+
+    @Override
+    public void doRestoreChunks(String snapshotName, String dimension, int fromBlockX, int fromBlockZ, int toBlockX, int toBlockZ, UserLogger ulog) {
+        ChunkRestoreUtils.doRestoreChunks(this, snapshotName, dimension, fromBlockX, fromBlockZ, toBlockX, toBlockZ, ulog);
+    }
+
+    @Override
+    public void doExport(String snapshotName, ExportFormat format, UserLogger ulog) {
+        final long start = System.currentTimeMillis();
+        final Path exportFile;
+        try {
+            final SnapshotId sid = this.createSnapshotId(snapshotName);
+            if (!this.getLocalSnapshots().contains(sid)) {
+                ulog.message(styledLocalized("fastback.chat.restore-nosuch", ERROR, snapshotName));
+                return;
+            }
+            ulog.message(localized("fastback.chat.export-start", sid.getShortName()));
+            exportFile = ExportUtils.doExport(this, sid, format, ulog);
+        } catch (IOException | ParseException e) {
+            syslog().error(e);
+            ulog.message(styledLocalized("fastback.chat.export-failed", ERROR));
+            return;
+        }
+        ulog.message(localized("fastback.chat.export-done", exportFile, getDuration(start)));
+    }
+
     // ======================================================================
     // Other repo implementation
 
     @Override
     public WorldId getWorldId() throws IOException {
-        return WorldIdUtils.getWorldIdInfo(this.getWorkTree().toPath()).wid();
+        return this.getWorldIdInfo().wid();
     }
 
     @Override
     public Set<SnapshotId> getLocalSnapshots() throws IOException {
-        final JGitSupplier<Collection<Ref>> refProvider = () -> {
-            try {
-                return jgit.branchList().call();
-            } catch (GitAPIException e) {
-                throw new IOException(e);
-            }
-        };
-        try {
-            return BranchUtils.listSnapshots(this, refProvider);
-        } catch (GitAPIException e) {
-            throw new IOException(e);
-        }
+        return SnapshotCatalog.load(this).getSnapshots();
+    }
+
+    @Override
+    public Map<SnapshotId, SnapshotStats> getLocalSnapshotStats() throws IOException {
+        final SnapshotCatalog catalog = SnapshotCatalog.load(this);
+        final Map<SnapshotId, SnapshotStats> out = new HashMap<>();
+        for (final SnapshotId sid : catalog.getSnapshots()) out.put(sid, catalog.getStats(sid));
+        return out;
     }
 
     @Override
     public Set<SnapshotId> getRemoteSnapshots() throws IOException {
-        final GitConfig conf = GitConfig.load(jgit);
-        final String remoteName = conf.getString(REMOTE_NAME);
-        final JGitSupplier<Collection<Ref>> refProvider = () -> {
-            try {
-                return jgit.lsRemote().setRemote(remoteName).setHeads(true).call();
-            } catch (GitAPIException e) {
-                throw new IOException(e);
-            }
-        };
-        try {
-            return BranchUtils.listSnapshots(this, refProvider);
-        } catch (GitAPIException e) {
-            throw new IOException(e);
-        }
+        return RemoteCatalogUtils.listRemote(this, true).snapshots();
     }
 
     @Override
@@ -238,8 +368,8 @@ class RepoImpl implements Repo {
     }
 
     @Override
-    public void deleteRemoteBranch(String remoteBranchName) throws IOException {
-        PruneUtils.deleteRemoteBranch(this, remoteBranchName);
+    public Map<String, String> deleteRemoteBranches(List<String> remoteBranchNames) throws IOException {
+        return PruneUtils.deleteRemoteBranches(this, remoteBranchNames);
     }
 
     @Override
@@ -249,7 +379,7 @@ class RepoImpl implements Repo {
 
     @Override
     public void close() {
-        this.getJGit().close();
+        this.onClose.run();
     }
 
     @Override
@@ -26,19 +26,26 @@ import net.pcal.fastback.utils.ProcessException;
 import net.pcal.fastback.utils.ProcessUtils;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
 
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.function.Consumer;
 
 import static java.util.Objects.requireNonNull;
 import static net.pcal.fastback.config.FastbackConfigKey.IS_NATIVE_GIT_ENABLED;
 import static net.pcal.fastback.config.FastbackConfigKey.RESTORE_DIRECTORY;
+import static net.pcal.fastback.config.FastbackConfigKey.RESTORE_LFS_CONCURRENCY;
 import static net.pcal.fastback.config.OtherConfigKey.REMOTE_PUSH_URL;
+import static net.pcal.fastback.logging.ProgressEvent.Phase.RESTORE;
 import static net.pcal.fastback.logging.SystemLogger.syslog;
 import static net.pcal.fastback.logging.UserMessage.UserMessageStyle.ERROR;
 import static net.pcal.fastback.logging.UserMessage.UserMessageStyle.NATIVE_GIT;
@@ -46,6 +53,9 @@ import static net.pcal.fastback.logging.UserMessage.localized;
 import static net.pcal.fastback.logging.UserMessage.styledLocalized;
 import static net.pcal.fastback.logging.UserMessage.styledRaw;
 import static net.pcal.fastback.mod.Mod.mod;
+import static net.pcal.fastback.utils.ProcessUtils.hudOutput;
+import static org.apache.commons.io.FileUtils.byteCountToDisplaySize;
+import static org.eclipse.jgit.lib.Constants.HEAD;
 
 /**
  * Utilities for restoring a snapshot
@@ -59,7 +69,7 @@ abstract class RestoreUtils {
     // Package private
 
     static void doRestoreLocalSnapshot(final String snapshotNameToRestore, final RepoImpl repo, final UserLogger ulog) {
-        doRestoreSnapshot(snapshotNameToRestore, "file://" + mod().getWorldDirectory().toAbsolutePath(), repo, ulog);
+        doRestoreSnapshot(snapshotNameToRestore, "file://" + mod().getWorldDirectory().toAbsolutePath(), false, repo, ulog);
     }
 
     static void doRestoreRemoteSnapshot(final String snapshotNameToRestore, final RepoImpl repo, final UserLogger ulog) {
@@ -67,14 +77,32 @@ abstract class RestoreUtils {
         if (!conf.isSet(REMOTE_PUSH_URL)) {
             ulog.message(styledLocalized("fastback.chat.remote-no-url", ERROR));
         } else {
-            doRestoreSnapshot(snapshotNameToRestore, conf.getString(REMOTE_PUSH_URL), repo, ulog);
+            doRestoreSnapshot(snapshotNameToRestore, conf.getString(REMOTE_PUSH_URL), false, repo, ulog);
+        }
+    }
+
+    /**
+     * Restores just enough of a remote snapshot for the world to start: metadata files plus the regions around
+     * spawn and the players.  Everything else is hydrated when the restored world is started.  Requires native
+     * git, since it's lfs that lets us check out a snapshot without downloading its content.
+     */
+    static void doLazyRestoreRemoteSnapshot(final String snapshotNameToRestore, final RepoImpl repo, final UserLogger ulog) {
+        final GitConfig conf = repo.getConfig();
+        if (!conf.isSet(REMOTE_PUSH_URL)) {
+            ulog.message(styledLocalized("fastback.chat.remote-no-url", ERROR));
+        } else if (!conf.getBoolean(IS_NATIVE_GIT_ENABLED)) {
+            ulog.message(styledLocalized("fastback.chat.restore-lazy-needs-native", ERROR));
+        } else if (!mod().isOnDemandHydrationSupported()) {
+            ulog.message(styledLocalized("fastback.chat.restore-lazy-unsupported", ERROR));
+        } else {
+            doRestoreSnapshot(snapshotNameToRestore, conf.getString(REMOTE_PUSH_URL), true, repo, ulog);
         }
     }
 
     // ======================================================================
     // Private
 
-    private static void doRestoreSnapshot(final String snapshotNameToRestore, final String repoUri, final RepoImpl repo, final UserLogger ulog) {
+    private static void doRestoreSnapshot(final String snapshotNameToRestore, final String repoUri, final boolean lazy, final RepoImpl repo, final UserLogger ulog) {
         try {
             PreflightUtils.doPreflight(repo);
             final GitConfig conf = repo.getConfig();
@@ -82,8 +110,13 @@ abstract class RestoreUtils {
             final Path allRestoresDir = conf.isSet(RESTORE_DIRECTORY) ?
                     Paths.get(conf.getString(RESTORE_DIRECTORY)) : mod().getDefaultRestoresDir();
             final Path restoreTargetDir = getTargetDir(allRestoresDir, mod().getWorldName(), sid.getShortName());
-            if (conf.getBoolean(IS_NATIVE_GIT_ENABLED)) {
-                native_restoreSnapshot(sid.getBranchName(), restoreTargetDir, repoUri, ulog);
+            final int lfsConcurrency = Math.max(1, conf.getInt(RESTORE_LFS_CONCURRENCY));
+            if (lazy) {
+                native_lazyRestoreSnapshot(sid.getBranchName(), restoreTargetDir, repoUri, lfsConcurrency, ulog);
+                ulog.message(localized("fastback.chat.restore-lazy-done", restoreTargetDir));
+                return;
+            } else if (conf.getBoolean(IS_NATIVE_GIT_ENABLED)) {
+                native_restoreSnapshot(sid.getBranchName(), restoreTargetDir, repoUri, lfsConcurrency, ulog);
             } else {
                 jgit_restoreSnapshot(sid.getBranchName(), restoreTargetDir, repoUri, ulog);
             }
@@ -94,22 +127,78 @@ abstract class RestoreUtils {
         }
     }
 
-    private static void native_restoreSnapshot(final String branchName, final Path restoreTargetDir, final String repoUri, final UserLogger ulog) throws ProcessException {
+    /**
+     * Letting 'git checkout' smudge the lfs files means they get downloaded one at a time.  So instead, we check
+     * out with smudging disabled (which writes out the pointer files), enumerate the pointers and then have
+     * 'git lfs pull' download them in batches with several concurrent transfers, writing each file out as soon
+     * as its object arrives.
+     */
+    private static void native_restoreSnapshot(final String branchName, final Path restoreTargetDir, final String repoUri, final int lfsConcurrency, final UserLogger ulog) throws ProcessException, IOException {
+        final Map<String, String> env = Map.of("GIT_LFS_FORCE_PROGRESS", "1");
+        final Consumer<String> outputConsumer = hudOutput(ulog);
+        native_checkoutPointers(branchName, restoreTargetDir, repoUri, outputConsumer);
+        final long[] countAndSize = countLfsPointers(restoreTargetDir);
+        syslog().info("Downloading " + countAndSize[0] + " lfs objects (" + byteCountToDisplaySize(countAndSize[1]) + ")" +
+                " with " + lfsConcurrency + " concurrent transfers");
+        ulog.update(styledLocalized("fastback.hud.restore-lfs-download", NATIVE_GIT, countAndSize[0], byteCountToDisplaySize(countAndSize[1])));
+        ProcessUtils.doExec(new String[]{
+                "git", "-C", restoreTargetDir.toString(), "-c", "lfs.concurrenttransfers=" + lfsConcurrency, "lfs", "pull"
+        }, env, outputConsumer, outputConsumer);
+    }
+
+    private static void native_lazyRestoreSnapshot(final String branchName, final Path restoreTargetDir, final String repoUri, final int lfsConcurrency, final UserLogger ulog) throws ProcessException, IOException {
+        final Consumer<String> outputConsumer = hudOutput(ulog);
+        native_checkoutPointers(branchName, restoreTargetDir, repoUri, outputConsumer);
+        final List<String> startupFiles = HydrationUtils.listStartupPointerFiles(restoreTargetDir);
+        syslog().debug("Hydrating startup files " + startupFiles);
+        HydrationUtils.hydrate(restoreTargetDir, startupFiles, lfsConcurrency, outputConsumer);
+        final Set<String> priorityRegions = HydrationUtils.getPriorityRegionPaths(restoreTargetDir);
+        syslog().debug("Hydrating priority regions " + priorityRegions);
+        HydrationUtils.hydrate(restoreTargetDir, priorityRegions, lfsConcurrency, outputConsumer);
+        Files.createFile(HydrationUtils.getMarkerFile(restoreTargetDir));
+    }
+
+    /**
+     * Clone just the snapshot branch and check it out with smudging disabled, so the lfs-tracked files are written
+     * out as pointers.
+     */
+    private static void native_checkoutPointers(final String branchName, final Path restoreTargetDir, final String repoUri, final Consumer<String> outputConsumer) throws ProcessException {
         final Map<String, String> env = Map.of("GIT_LFS_FORCE_PROGRESS", "1");
-        final Consumer<String> outputConsumer = line -> ulog.update(styledRaw(line, NATIVE_GIT));
         final String restoreTargetDirStr = restoreTargetDir.toString();
         syslog().debug("Cloning repo at " + repoUri);
         ProcessUtils.doExec(new String[]{
-                "git", "clone", repoUri, "--no-checkout", "--branch", branchName, "--single-branch", restoreTargetDirStr
+                "git", "clone", repoUri, "--no-checkout", "--no-tags", "--branch", branchName, "--single-branch", restoreTargetDirStr
         }, env, outputConsumer, outputConsumer);
         syslog().debug("Installing lfs locally in " + restoreTargetDirStr);
         ProcessUtils.doExec(new String[]{
                 "git", "-C", restoreTargetDirStr, "lfs", "install", "--local"
         }, env, outputConsumer, outputConsumer);
-        syslog().debug("Checking out " + branchName + ", downloading lfs blobs");
+        syslog().debug("Checking out " + branchName + " without lfs content");
         ProcessUtils.doExec(new String[]{
                 "git", "-C", restoreTargetDirStr, "checkout", branchName
-        }, env, outputConsumer, outputConsumer);
+        }, Map.of("GIT_LFS_SKIP_SMUDGE", "1"), outputConsumer, outputConsumer);
+    }
+
+    /**
+     * @return the number of lfs pointers in HEAD of the given repo and the total size of the objects they point to.
+     */
+    private static long[] countLfsPointers(final Path repoDir) throws IOException {
+        final long[] out = {0, 0};
+        try (final Git git = Git.open(repoDir.toFile());
+             final ObjectReader reader = git.getRepository().newObjectReader();
+             final RevWalk rw = new RevWalk(reader);
+             final TreeWalk tw = new TreeWalk(reader)) {
+            tw.addTree(rw.parseCommit(git.getRepository().resolve(HEAD)).getTree());
+            tw.setRecursive(true);
+            while (tw.next()) {
+                final LfsUtils.LfsPointer pointer = LfsUtils.readPointer(reader, tw.getObjectId(0));
+                if (pointer != null) {
+                    out[0]++;
+                    out[1] += pointer.size();
+                }
+            }
+        }
+        return out;
     }
 
     private static void jgit_restoreSnapshot(final String branchName, final Path restoreTargetDir, final String repoUri, final UserLogger ulog) throws IOException, GitAPIException {
@@ -127,14 +216,21 @@ abstract class RestoreUtils {
      * @param snapshotName   - name of the snapshot being restored
      * @return The absolute path to the directory where the snapshot should be restored
      */
-    private static Path getTargetDir(Path allRestoresDir, String worldName, String snapshotName) {
+    static Path getTargetDir(Path allRestoresDir, String worldName, String snapshotName) {
+        return getTargetPath(allRestoresDir, worldName, snapshotName, "");
+    }
+
+    /**
+     * Like getTargetDir, but for a file with the given extension (including the dot).
+     */
+    static Path getTargetPath(Path allRestoresDir, String worldName, String snapshotName, String extension) {
         worldName = worldName.replaceAll("\\W+", ""); // strip out all non-word characters for safety
         Path base = allRestoresDir.resolve(worldName + "-" + snapshotName);
-        Path candidate = base;
+        Path candidate = Path.of(base + extension);
         int i = 0;
         while (candidate.toFile().exists()) {
             i++;
-            candidate = Path.of(base + "_" + i);
+            candidate = Path.of(base + "_" + i + extension);
             if (i > 1000) {
                 throw new IllegalStateException("wat i = " + i);
             }
@@ -160,9 +256,7 @@ abstract class RestoreUtils {
 
         @Override
         public void progressUpdate(String task, int percentage) {
-            final String message = task + " " + percentage + "%";
-            syslog().debug(message);
-            this.ulog.update(styledRaw(message, UserMessageStyle.JGIT));
+            this.ulog.progress(progressEvent(RESTORE));
         }
 
         @Override
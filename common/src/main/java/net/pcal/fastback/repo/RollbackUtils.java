@@ -0,0 +1,106 @@
+/*
+ * FastBack - Fast, incremental Minecraft backups powered by Git.
+ * Copyright (C) 2022 pcal.net
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pcal.fastback.repo;
+
+import net.pcal.fastback.logging.UserLogger;
+import net.pcal.fastback.utils.ProcessException;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.ResetCommand.ResetType;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import static net.pcal.fastback.config.FastbackConfigKey.IS_NATIVE_GIT_ENABLED;
+import static net.pcal.fastback.logging.SystemLogger.syslog;
+import static net.pcal.fastback.logging.UserMessage.UserMessageStyle.JGIT;
+import static net.pcal.fastback.logging.UserMessage.UserMessageStyle.NATIVE_GIT;
+import static net.pcal.fastback.logging.UserMessage.styledLocalized;
+import static net.pcal.fastback.utils.ProcessUtils.doExec;
+import static net.pcal.fastback.utils.ProcessUtils.hudOutput;
+import static org.eclipse.jgit.lib.Constants.HEAD;
+
+/**
+ * Utilities for rolling the world directory back to a snapshot in place.
+ * <p>
+ * The index always reflects the tree of the last snapshot we committed, so a hard reset to the target
+ * snapshot only has to stat the worktree and rewrite the files that differ from the target; files that are
+ * unchanged are never touched.  A clean then removes files that didn't exist in the target snapshot.  So
+ * rollback time scales with how far the world has diverged from the snapshot rather than with the size of
+ * the world.
+ * <p>
+ * This must only be done while the world is unloaded.
+ *
+ * @author pcal
+ * @since 0.16.0
+ */
+abstract class RollbackUtils {
+
+    static void doRollback(final RepoImpl repo, final SnapshotId sid, final UserLogger ulog) throws IOException, GitAPIException, ProcessException {
+        final Git jgit = repo.getJGit();
+        final Ref targetRef = jgit.getRepository().exactRef("refs/heads/" + sid.getBranchName());
+        if (targetRef == null) throw new IOException("No local snapshot branch " + sid.getBranchName());
+        detachHead(repo);
+        if (repo.getConfig().getBoolean(IS_NATIVE_GIT_ENABLED)) {
+            native_rollback(repo, sid.getBranchName(), ulog);
+        } else {
+            jgit_rollback(repo, sid.getBranchName(), ulog);
+        }
+    }
+
+    /**
+     * Detach HEAD from the branch of the last snapshot.  Otherwise, the reset would move that branch
+     * and we'd lose the snapshot.  The next backup will create a new orphan branch as usual.
+     */
+    private static void detachHead(final RepoImpl repo) throws IOException {
+        final ObjectId headId = repo.getJGit().getRepository().resolve(HEAD);
+        if (headId == null) return; // nothing committed yet
+        final RefUpdate update = repo.getJGit().getRepository().updateRef(HEAD, true);
+        update.setNewObjectId(headId);
+        final RefUpdate.Result result = update.forceUpdate();
+        switch (result) {
+            case NEW, FORCED, NO_CHANGE -> syslog().debug("Detached HEAD at " + headId.name());
+            default -> throw new IOException("Failed to detach HEAD: " + result);
+        }
+    }
+
+    private static void native_rollback(final RepoImpl repo, final String branchName, final UserLogger ulog) throws ProcessException {
+        final String worktree = repo.getWorkTree().getAbsolutePath();
+        final Map<String, String> env = Map.of("GIT_LFS_FORCE_PROGRESS", "1");
+        final Consumer<String> outputConsumer = hudOutput(ulog);
+        ulog.update(styledLocalized("fastback.hud.rollback-reset", NATIVE_GIT));
+        doExec(new String[]{"git", "-C", worktree, "reset", "--hard", branchName}, env, outputConsumer, outputConsumer);
+        ulog.update(styledLocalized("fastback.hud.rollback-clean", NATIVE_GIT));
+        doExec(new String[]{"git", "-C", worktree, "clean", "-f", "-d"}, env, outputConsumer, outputConsumer);
+    }
+
+    private static void jgit_rollback(final RepoImpl repo, final String branchName, final UserLogger ulog) throws GitAPIException {
+        final Git jgit = repo.getJGit();
+        ulog.update(styledLocalized("fastback.hud.rollback-reset", JGIT));
+        jgit.reset().setMode(ResetType.HARD).setRef(branchName).call();
+        ulog.update(styledLocalized("fastback.hud.rollback-clean", JGIT));
+        final Set<String> removed = jgit.clean().setCleanDirectories(true).call();
+        syslog().debug("Rollback removed " + removed.size() + " files not in " + branchName);
+    }
+}
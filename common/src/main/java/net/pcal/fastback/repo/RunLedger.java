@@ -0,0 +1,327 @@
+/*
+ * FastBack - Fast, incremental Minecraft backups powered by Git.
+ * Copyright (C) 2022 pcal.net
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pcal.fastback.repo;
+
+import net.pcal.fastback.logging.UserLogger;
+import net.pcal.fastback.repo.RunMetrics.Phase;
+import org.eclipse.jgit.internal.storage.file.LockFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static net.pcal.fastback.config.FastbackConfigKey.METRICS_FILE;
+import static net.pcal.fastback.logging.SystemLogger.syslog;
+import static net.pcal.fastback.logging.UserMessage.localized;
+
+/**
+ * Append-only record of how long each backup run took, phase by phase.  One line per run.
+ * <p>
+ * Like the snapshot catalog, the ledger lives in the git directory rather than in .fastback, so it doesn't get
+ * committed into every snapshot.  It's trimmed to the most recent runs once it gets big.
+ *
+ * @author pcal
+ * @since 0.16.0
+ */
+abstract class RunLedger {
+
+    // ======================================================================
+    // Constants
+
+    static final String OK = "ok";
+    static final String FAILED = "failed";
+    static final String CANCELLED = "cancelled";
+
+    private static final String LEDGER_PATH = "fastback/run-ledger";
+    private static final String HEADER = "# fastback run ledger v1";
+    private static final String SEP = "\t";
+    private static final String UNKNOWN = "-";
+    private static final long MAX_LEDGER_BYTES = 1024 * 1024;
+    private static final int TRIMMED_RUNS = 5000;
+
+    /**
+     * How many of the most recent backups /backup stats looks at.
+     */
+    private static final int STATS_RUNS = 100;
+
+    /**
+     * Size of the two windows compared to show the trend.
+     */
+    private static final int TREND_RUNS = 10;
+
+    private static final List<String> BACKUP_ACTIONS = List.of("local", "full");
+
+    /**
+     * @param startMillis when the run started.
+     * @param action      what was run, e.g. 'local' or 'gc'.
+     * @param outcome     one of OK, FAILED or CANCELLED.
+     * @param totalMillis how long the whole run took.
+     * @param files       files added or changed by the snapshot the run committed, or -1.
+     * @param bytes       bytes added or changed by the snapshot the run committed, or -1.
+     * @param phaseMillis time spent in each phase the run went through.
+     */
+    record Entry(long startMillis, String action, String outcome, long totalMillis, long files, long bytes,
+                 Map<Phase, Long> phaseMillis) {
+
+        String toLine() {
+            final StringBuilder phases = new StringBuilder();
+            for (final Map.Entry<Phase, Long> e : this.phaseMillis.entrySet()) {
+                if (!phases.isEmpty()) phases.append(',');
+                phases.append(e.getKey().getLabel()).append('=').append(e.getValue());
+            }
+            return this.startMillis + SEP + this.action + SEP + this.outcome + SEP + this.totalMillis + SEP +
+                    (this.files < 0 ? UNKNOWN : this.files) + SEP + (this.bytes < 0 ? UNKNOWN : this.bytes) + SEP +
+                    (phases.isEmpty() ? UNKNOWN : phases);
+        }
+
+        /**
+         * @return the entry, or null if the line can't be parsed.  Phases we don't know about are skipped.
+         */
+        static Entry parse(final String line) {
+            final String[] f = line.split(SEP);
+            if (f.length != 7) return null;
+            try {
+                final Map<Phase, Long> phases = new EnumMap<>(Phase.class);
+                if (!UNKNOWN.equals(f[6])) {
+                    for (final String kv : f[6].split(",")) {
+                        final int eq = kv.indexOf('=');
+                        final Phase phase = eq < 0 ? null : Phase.forLabel(kv.substring(0, eq));
+                        if (phase != null) phases.put(phase, Long.parseLong(kv.substring(eq + 1)));
+                    }
+                }
+                return new Entry(Long.parseLong(f[0]), f[1], f[2], Long.parseLong(f[3]),
+                        UNKNOWN.equals(f[4]) ? -1 : Long.parseLong(f[4]),
+                        UNKNOWN.equals(f[5]) ? -1 : Long.parseLong(f[5]), phases);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    // ======================================================================
+    // Package private
+
+    static void append(final RepoImpl repo, final Entry entry) throws IOException {
+        final File file = getLedgerFile(repo);
+        append(file, entry);
+        syslog().debug("Recorded run " + entry.toLine());
+        final String metricsFile = repo.getConfig().getString(METRICS_FILE);
+        if (metricsFile != null) {
+            writePrometheusFile(Path.of(metricsFile), repo.getWorldId().toString(), read(file));
+        }
+    }
+
+    static void append(final File file, final Entry entry) throws IOException {
+        file.getParentFile().mkdirs();
+        final String line = entry.toLine() + '\n';
+        if (!file.exists()) {
+            Files.writeString(file.toPath(), HEADER + '\n' + line, StandardCharsets.UTF_8);
+        } else {
+            Files.writeString(file.toPath(), line, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+            if (file.length() > MAX_LEDGER_BYTES) trim(file);
+        }
+    }
+
+    /**
+     * @return every run in the ledger, oldest first.
+     */
+    static List<Entry> read(final File file) throws IOException {
+        final List<Entry> out = new ArrayList<>();
+        if (!file.exists()) return out;
+        final List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        if (lines.isEmpty() || !HEADER.equals(lines.get(0))) {
+            syslog().warn("Ignoring unrecognized run ledger " + file);
+            return out;
+        }
+        for (final String line : lines.subList(1, lines.size())) {
+            final Entry e = Entry.parse(line);
+            if (e == null) {
+                syslog().warn("Ignoring bad run ledger line: " + line);
+            } else {
+                out.add(e);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Tell the user where the time has been going in recent backups.
+     */
+    static void doShowStats(final RepoImpl repo, final UserLogger ulog) throws IOException {
+        final List<Entry> backups = new ArrayList<>();
+        for (final Entry e : read(getLedgerFile(repo))) {
+            if (BACKUP_ACTIONS.contains(e.action())) backups.add(e);
+        }
+        if (backups.isEmpty()) {
+            ulog.message(localized("fastback.chat.stats-none"));
+            return;
+        }
+        final List<Entry> recent = backups.subList(Math.max(0, backups.size() - STATS_RUNS), backups.size());
+        final List<Entry> succeeded = new ArrayList<>();
+        for (final Entry e : recent) if (OK.equals(e.outcome())) succeeded.add(e);
+        ulog.message(localized("fastback.chat.stats-summary", recent.size(), recent.size() - succeeded.size()));
+        if (succeeded.isEmpty()) return;
+        final Map<String, List<Long>> timings = new LinkedHashMap<>();
+        for (final Phase phase : Phase.values()) {
+            final List<Long> times = new ArrayList<>();
+            for (final Entry e : succeeded) {
+                final Long t = e.phaseMillis().get(phase);
+                if (t != null) times.add(t);
+            }
+            if (!times.isEmpty()) timings.put(phase.getLabel(), times);
+        }
+        final List<Long> totals = new ArrayList<>();
+        for (final Entry e : succeeded) totals.add(e.totalMillis());
+        timings.put("total", totals);
+        for (final Map.Entry<String, List<Long>> t : timings.entrySet()) {
+            final long[] sorted = sorted(t.getValue());
+            ulog.message(localized("fastback.chat.stats-phase", t.getKey(),
+                    formatMillis(percentile(sorted, 50)), formatMillis(percentile(sorted, 90)),
+                    formatMillis(sorted[sorted.length - 1])));
+        }
+        if (totals.size() >= TREND_RUNS * 2) {
+            final int n = totals.size();
+            ulog.message(localized("fastback.chat.stats-trend", TREND_RUNS,
+                    formatMillis(percentile(sorted(totals.subList(n - TREND_RUNS, n)), 50)),
+                    formatMillis(percentile(sorted(totals.subList(n - TREND_RUNS * 2, n - TREND_RUNS)), 50))));
+        }
+    }
+
+    /**
+     * Nearest-rank percentile.
+     */
+    static long percentile(final long[] sorted, final int pct) {
+        if (sorted.length == 0) throw new IllegalArgumentException("no values");
+        final int rank = (int) Math.ceil(pct / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    /**
+     * Write the most recent run of each action in the Prometheus text format, for the node exporter's textfile
+     * collector.  Written to a temp file and moved into place so the collector never sees half a file.
+     */
+    static void writePrometheusFile(final Path path, final String worldId, final List<Entry> entries) throws IOException {
+        final Map<String, Entry> lastByAction = new LinkedHashMap<>();
+        final Map<String, Integer> runCounts = new LinkedHashMap<>();
+        final Map<Phase, Long> lastPhaseMillis = new EnumMap<>(Phase.class);
+        Entry lastBackup = null;
+        for (final Entry e : entries) {
+            lastByAction.put(e.action(), e);
+            runCounts.merge(e.action() + SEP + e.outcome(), 1, Integer::sum);
+            lastPhaseMillis.putAll(e.phaseMillis());
+            if (BACKUP_ACTIONS.contains(e.action()) && e.files() >= 0) lastBackup = e;
+        }
+        final String world = "world=\"" + escapeLabel(worldId) + "\"";
+        final StringBuilder sb = new StringBuilder();
+        header(sb, "fastback_run_timestamp_seconds", "When the most recent run of each action started.");
+        for (final Entry e : lastByAction.values()) {
+            sb.append("fastback_run_timestamp_seconds{").append(world).append(",action=\"").append(e.action()).
+                    append("\"} ").append(e.startMillis() / 1000).append('\n');
+        }
+        header(sb, "fastback_run_duration_seconds", "How long the most recent run of each action took.");
+        for (final Entry e : lastByAction.values()) {
+            sb.append("fastback_run_duration_seconds{").append(world).append(",action=\"").append(e.action()).
+                    append("\"} ").append(seconds(e.totalMillis())).append('\n');
+        }
+        header(sb, "fastback_run_success", "1 if the most recent run of each action succeeded.");
+        for (final Entry e : lastByAction.values()) {
+            sb.append("fastback_run_success{").append(world).append(",action=\"").append(e.action()).
+                    append("\"} ").append(OK.equals(e.outcome()) ? 1 : 0).append('\n');
+        }
+        header(sb, "fastback_phase_duration_seconds", "How long each phase took the last time it ran.");
+        for (final Map.Entry<Phase, Long> e : lastPhaseMillis.entrySet()) {
+            sb.append("fastback_phase_duration_seconds{").append(world).append(",phase=\"").append(e.getKey().getLabel()).
+                    append("\"} ").append(seconds(e.getValue())).append('\n');
+        }
+        header(sb, "fastback_ledger_runs", "Runs currently recorded in the ledger, by action and outcome.");
+        for (final Map.Entry<String, Integer> e : runCounts.entrySet()) {
+            final String[] key = e.getKey().split(SEP);
+            sb.append("fastback_ledger_runs{").append(world).append(",action=\"").append(key[0]).
+                    append("\",outcome=\"").append(key[1]).append("\"} ").append(e.getValue()).append('\n');
+        }
+        if (lastBackup != null) {
+            header(sb, "fastback_snapshot_changed_files", "Files added or changed by the most recent snapshot.");
+            sb.append("fastback_snapshot_changed_files{").append(world).append("} ").append(lastBackup.files()).append('\n');
+            header(sb, "fastback_snapshot_changed_bytes", "Bytes added or changed by the most recent snapshot.");
+            sb.append("fastback_snapshot_changed_bytes{").append(world).append("} ").append(lastBackup.bytes()).append('\n');
+        }
+        final Path absolute = path.toAbsolutePath();
+        Files.createDirectories(absolute.getParent());
+        final Path temp = absolute.resolveSibling(absolute.getFileName() + ".tmp");
+        Files.writeString(temp, sb.toString(), StandardCharsets.UTF_8);
+        Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // ======================================================================
+    // Private
+
+    private static File getLedgerFile(final RepoImpl repo) {
+        return new File(repo.getDirectory(), LEDGER_PATH);
+    }
+
+    private static void trim(final File file) throws IOException {
+        final List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        final List<String> kept = lines.subList(Math.max(1, lines.size() - TRIMMED_RUNS), lines.size());
+        final LockFile lock = new LockFile(file);
+        if (!lock.lock()) throw new IOException("Could not lock " + file);
+        try {
+            lock.write((HEADER + '\n' + String.join("\n", kept) + '\n').getBytes(StandardCharsets.UTF_8));
+            if (!lock.commit()) throw new IOException("Could not write " + file);
+        } finally {
+            lock.unlock();
+        }
+        syslog().debug("Trimmed run ledger to " + kept.size() + " runs");
+    }
+
+    private static long[] sorted(final List<Long> values) {
+        final long[] out = new long[values.size()];
+        for (int i = 0; i < out.length; i++) out[i] = values.get(i);
+        Arrays.sort(out);
+        return out;
+    }
+
+    private static String formatMillis(final long millis) {
+        if (millis < 60_000) return String.format("%.1fs", millis / 1000.0);
+        final long seconds = millis / 1000;
+        return String.format("%dm %ds", seconds / 60, seconds % 60);
+    }
+
+    private static String seconds(final long millis) {
+        return String.valueOf(millis / 1000.0);
+    }
+
+    private static void header(final StringBuilder sb, final String name, final String help) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" gauge\n");
+    }
+
+    private static String escapeLabel(final String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * FastBack - Fast, incremental Minecraft backups powered by Git.
+ * Copyright (C) 2022 pcal.net
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pcal.fastback.repo;
+
+import net.pcal.fastback.utils.Cancellation;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import static net.pcal.fastback.logging.SystemLogger.syslog;
+
+/**
+ * Collects per-phase timings and counts for one run of a 'do' method, and appends them to the {@link RunLedger}
+ * when closed.
+ * <p>
+ * The run in progress is attached to the executing thread, so the utils classes can time their phases with
+ * {@link #time} without having it passed down to them.  Timing a phase when no run is in progress is a no-op.
+ *
+ * @author pcal
+ * @since 0.16.0
+ */
+class RunMetrics implements AutoCloseable {
+
+    // ======================================================================
+    // Constants
+
+    enum Phase {
+        PREFLIGHT,
+        SCAN,
+        STAGE,
+        COMMIT,
+        LS_REMOTE,
+        PUSH,
+        PRUNE,
+        GC;
+
+        /**
+         * @return the name used in the ledger and in metric labels.
+         */
+        String getLabel() {
+            return name().toLowerCase().replace('_', '-');
+        }
+
+        static Phase forLabel(String label) {
+            for (final Phase p : values()) if (p.getLabel().equals(label)) return p;
+            return null;
+        }
+    }
+
+    interface PhaseTimer extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private static final ThreadLocal<RunMetrics> CURRENT = new ThreadLocal<>();
+    private static final PhaseTimer NOOP_TIMER = () -> {
+    };
+
+    // ======================================================================
+    // Fields
+
+    private final RepoImpl repo;
+    private final String action;
+    private final long startMillis = System.currentTimeMillis();
+    private final Map<Phase, Long> phaseMillis = new EnumMap<>(Phase.class);
+    private long files = -1;
+    private long bytes = -1;
+    private boolean succeeded = false;
+
+    // ======================================================================
+    // Package private
+
+    /**
+     * Start recording a run on the current thread.
+     */
+    static RunMetrics begin(final RepoImpl repo, final String action) {
+        final RunMetrics out = new RunMetrics(repo, action);
+        CURRENT.set(out);
+        return out;
+    }
+
+    /**
+     * Start timing a phase of the current run.  Close the returned timer when the phase is done; if a phase runs
+     * more than once, the times are added up.
+     */
+    static PhaseTimer time(final Phase phase) {
+        final RunMetrics run = CURRENT.get();
+        if (run == null) return NOOP_TIMER;
+        final long start = System.nanoTime();
+        return () -> run.phaseMillis.merge(phase, (System.nanoTime() - start) / 1_000_000, Long::sum);
+    }
+
+    /**
+     * Record the size of the snapshot that the current run committed.
+     */
+    static void recordSnapshot(final SnapshotStats stats) {
+        final RunMetrics run = CURRENT.get();
+        if (run == null || stats == null) return;
+        run.files = stats.changedFileCount();
+        run.bytes = stats.bytesAdded();
+    }
+
+    /**
+     * Mark the run as successful.  Runs that are closed without calling this are recorded as failed (or
+     * cancelled).
+     */
+    void succeeded() {
+        this.succeeded = true;
+    }
+
+    /**
+     * Write the run to the ledger.  Never throws; metrics aren't worth failing a backup over.
+     */
+    @Override
+    public void close() {
+        if (CURRENT.get() == this) CURRENT.remove();
+        final String outcome = this.succeeded ? RunLedger.OK :
+                Cancellation.current().isCancelled() ? RunLedger.CANCELLED : RunLedger.FAILED;
+        final RunLedger.Entry entry = new RunLedger.Entry(this.startMillis, this.action, outcome,
+                System.currentTimeMillis() - this.startMillis, this.files, this.bytes, this.phaseMillis);
+        try {
+            RunLedger.append(this.repo, entry);
+        } catch (Exception e) {
+            syslog().error("Failed to update run ledger", e);
+        }
+    }
+
+    // ======================================================================
+    // Private
+
+    private RunMetrics(final RepoImpl repo, final String action) {
+        this.repo = repo;
+        this.action = action;
+    }
+}
@@ -0,0 +1,378 @@
+/*
+ * FastBack - Fast, incremental Minecraft backups powered by Git.
+ * Copyright (C) 2022 pcal.net
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pcal.fastback.repo;
+
+import net.pcal.fastback.repo.SnapshotIdUtils.SnapshotIdCodec;
+import net.pcal.fastback.repo.SnapshotIdUtils.SnapshotIdImpl;
+import org.eclipse.jgit.internal.storage.file.FileSnapshot;
+import org.eclipse.jgit.internal.storage.file.LockFile;
+import org.eclipse.jgit.internal.storage.file.RefDirectory;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.util.Objects.requireNonNull;
+import static net.pcal.fastback.logging.SystemLogger.syslog;
+import static org.eclipse.jgit.lib.Constants.PACKED_REFS;
+import static org.eclipse.jgit.lib.Constants.R_HEADS;
+
+/**
+ * Persistent index of the repo's local snapshots, keyed by branch name, along with whatever stats were recorded
+ * when each snapshot was committed.
+ * <p>
+ * Snapshots are still defined by their branches; the catalog just saves us from re-parsing every branch name and
+ * walking trees to find out about them.  It gets updated at commit and prune time, and is reconciled with the
+ * branches whenever they might have changed, so it doesn't matter if someone has been deleting branches with the
+ * git command line.
+ * <p>
+ * Only commit and prune write the catalog, and they hold its lock from reading it to writing it back.  Readers
+ * never write and never wait for the lock; they reconcile in memory.  What a reader loads is kept in memory until
+ * the catalog file, packed-refs or the world's directory of loose branch refs changes, so listing and tab
+ * completion don't touch the refs or re-read the file most of the time.
+ * <p>
+ * The catalog lives in the git directory rather than in .fastback, since everything in .fastback gets committed
+ * into the snapshots.
+ *
+ * @author pcal
+ * @since 0.16.0
+ */
+class SnapshotCatalog {
+
+    // ======================================================================
+    // Constants
+
+    private static final String CATALOG_PATH = "fastback/snapshot-catalog";
+    private static final String HEADER = "# fastback snapshot catalog v1";
+    private static final String SEP = "\t";
+    private static final String UNKNOWN = "-";
+    private static final int LOCK_ATTEMPTS = 50;
+    private static final long LOCK_RETRY_MILLIS = 100;
+
+    private static final Map<File, CachedCatalog> CACHE = new ConcurrentHashMap<>();
+
+    // ======================================================================
+    // Fields
+
+    private final RepoImpl repo;
+    private final Map<String, Entry> entries;
+
+    private record Entry(SnapshotId sid, ObjectId commitId, SnapshotStats stats) {
+    }
+
+    /**
+     * What a reader loaded, and the state of the files it was loaded from.
+     */
+    private record CachedCatalog(List<File> files, List<FileSnapshot> snapshots, Map<String, Entry> entries) {
+
+        boolean isModified() {
+            for (int i = 0; i < files.size(); i++) {
+                if (snapshots.get(i).isModified(files.get(i))) return true;
+            }
+            return false;
+        }
+    }
+
+    // ======================================================================
+    // Package private
+
+    /**
+     * Load the catalog, up to date with the repo's branches.  Doesn't write anything.
+     */
+    static SnapshotCatalog load(final RepoImpl repo) throws IOException {
+        final File file = getFile(repo);
+        final CachedCatalog cached = CACHE.get(file);
+        if (cached != null && !cached.isModified()) return new SnapshotCatalog(repo, cached.entries());
+        final List<File> watched = getWatchedFiles(repo, file);
+        final List<FileSnapshot> snapshots = new ArrayList<>();
+        for (final File f : watched) snapshots.add(FileSnapshot.save(f)); // before reading, so we can't miss a change
+        final SnapshotCatalog out = new SnapshotCatalog(repo, read(file, repo.getWorldId()));
+        out.reconcile();
+        if (!watched.isEmpty()) {
+            CACHE.put(file, new CachedCatalog(watched, snapshots, Collections.unmodifiableMap(new LinkedHashMap<>(out.entries))));
+        }
+        return out;
+    }
+
+    /**
+     * Record stats for a snapshot that was just committed.  Never throws; the catalog is nice to have, not
+     * worth failing a backup over.
+     *
+     * @return the recorded stats, or null if they couldn't be computed.
+     */
+    static SnapshotStats recordCommit(final RepoImpl repo, final SnapshotId sid, final long durationMillis) {
+        try {
+            return update(repo, catalog -> {
+                final Repository jrepo = repo.getJGit().getRepository();
+                final Ref ref = jrepo.exactRef(R_HEADS + sid.getBranchName());
+                if (ref == null) {
+                    syslog().warn("Snapshot branch not found, not cataloging " + sid);
+                    return null;
+                }
+                Entry previous = null;
+                for (final Entry e : catalog.entries.values()) {
+                    if (e.sid().compareTo(sid) < 0 && (previous == null || e.sid().compareTo(previous.sid()) > 0)) previous = e;
+                }
+                final SnapshotStats stats = computeStats(jrepo, ref.getObjectId(), previous, durationMillis);
+                catalog.entries.put(sid.getBranchName(), new Entry(sid, ref.getObjectId(), stats));
+                syslog().debug("Cataloged " + sid + " " + stats);
+                return stats;
+            });
+        } catch (Exception e) {
+            syslog().error("Failed to update snapshot catalog", e);
+            return null;
+        }
+    }
+
+    /**
+     * Drop the given branches from the catalog.  Never throws.
+     */
+    static void recordDeletes(final RepoImpl repo, final List<String> branchNames) {
+        try {
+            update(repo, catalog -> {
+                for (final String branchName : branchNames) catalog.entries.remove(branchName);
+                return null;
+            });
+        } catch (Exception e) {
+            syslog().error("Failed to update snapshot catalog", e);
+        }
+    }
+
+    Set<SnapshotId> getSnapshots() {
+        final Set<SnapshotId> out = new LinkedHashSet<>();
+        for (final Entry e : this.entries.values()) out.add(e.sid());
+        return out;
+    }
+
+    /**
+     * @return the stats for the given snapshot, or null if none were recorded.
+     */
+    SnapshotStats getStats(final SnapshotId sid) {
+        final Entry e = this.entries.get(sid.getBranchName());
+        return e == null ? null : e.stats();
+    }
+
+    // ======================================================================
+    // Private
+
+    private SnapshotCatalog(final RepoImpl repo, final Map<String, Entry> entries) {
+        this.repo = requireNonNull(repo);
+        this.entries = new LinkedHashMap<>(entries);
+    }
+
+    private interface CatalogUpdate<T> {
+        T apply(SnapshotCatalog catalog) throws IOException;
+    }
+
+    /**
+     * Read, reconcile, change and write back the catalog, holding the lock the whole time so that concurrent
+     * writers can't lose each other's changes.
+     */
+    private static <T> T update(final RepoImpl repo, final CatalogUpdate<T> change) throws IOException {
+        final File file = getFile(repo);
+        file.getParentFile().mkdirs();
+        final LockFile lock = new LockFile(file);
+        lock(lock, file);
+        try {
+            final SnapshotCatalog catalog = new SnapshotCatalog(repo, read(file, repo.getWorldId()));
+            catalog.reconcile();
+            final T out = change.apply(catalog);
+            lock.write(catalog.format().getBytes(StandardCharsets.UTF_8));
+            if (!lock.commit()) throw new IOException("Could not write " + file);
+            return out;
+        } finally {
+            lock.unlock();
+            CACHE.remove(file);
+        }
+    }
+
+    /**
+     * Only commit and prune take the lock, and those don't run at the same time, so it should never be held for
+     * long.  Wait a little anyway in case someone is running a command line tool on the repo.
+     */
+    private static void lock(final LockFile lock, final File file) throws IOException {
+        for (int i = 0; i < LOCK_ATTEMPTS; i++) {
+            if (lock.lock()) return;
+            try {
+                Thread.sleep(LOCK_RETRY_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        throw new IOException("Could not lock " + file);
+    }
+
+    /**
+     * Make the catalog agree with the branches: add any snapshot branches it doesn't know about, and drop any
+     * entries whose branches are gone or have been moved.
+     */
+    private void reconcile() throws IOException {
+        final WorldId wid = this.repo.getWorldId();
+        final SnapshotIdCodec codec = this.repo.getSidCodec();
+        final Set<String> seen = new HashSet<>();
+        for (final Ref ref : this.repo.getJGit().getRepository().getRefDatabase().getRefsByPrefix(R_HEADS)) {
+            final String branchName = BranchUtils.getBranchName(ref);
+            if (branchName == null || ref.getObjectId() == null) continue;
+            final Entry existing = this.entries.get(branchName);
+            if (existing != null && existing.commitId().equals(ref.getObjectId())) {
+                seen.add(branchName);
+                continue;
+            }
+            if (!codec.isSnapshotBranchName(wid, branchName)) continue;
+            final SnapshotId sid;
+            try {
+                sid = requireNonNull(codec.fromBranch(branchName));
+            } catch (ParseException pe) {
+                syslog().error("Unexpected parse error, ignoring branch " + branchName, pe);
+                continue;
+            }
+            if (!sid.getWorldId().equals(wid)) continue;
+            this.entries.put(branchName, new Entry(sid, ref.getObjectId(), null));
+            seen.add(branchName);
+        }
+        this.entries.keySet().retainAll(seen);
+    }
+
+    private String format() {
+        final StringBuilder sb = new StringBuilder(HEADER).append('\n');
+        for (final Entry e : this.entries.values()) {
+            final SnapshotId sid = e.sid();
+            sb.append(sid.getBranchName()).append(SEP).
+                    append(sid.getShortName()).append(SEP).
+                    append(sid.getDate().getTime()).append(SEP).
+                    append(e.commitId().name());
+            final SnapshotStats s = e.stats();
+            if (s == null) {
+                sb.append((SEP + UNKNOWN).repeat(5));
+            } else {
+                sb.append(SEP).append(s.treeId()).
+                        append(SEP).append(s.durationMillis()).
+                        append(SEP).append(s.fileCount()).
+                        append(SEP).append(s.changedFileCount()).
+                        append(SEP).append(s.bytesAdded());
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static File getFile(final RepoImpl repo) {
+        return new File(repo.getDirectory(), CATALOG_PATH);
+    }
+
+    /**
+     * @return the files that change whenever the catalog or this world's branches do, or an empty list if the refs
+     * aren't stored in files we know how to watch.  A loose ref being created, moved or deleted renames or
+     * deletes a file in its directory, which updates the directory's modification time.
+     */
+    private static List<File> getWatchedFiles(final RepoImpl repo, final File catalogFile) throws IOException {
+        final Repository jrepo = repo.getJGit().getRepository();
+        if (!(jrepo.getRefDatabase() instanceof RefDirectory)) return List.of();
+        final String prefix = repo.getSidCodec().getBranchPrefix(repo.getWorldId());
+        return List.of(catalogFile,
+                new File(jrepo.getDirectory(), PACKED_REFS),
+                new File(jrepo.getDirectory(), R_HEADS + prefix));
+    }
+
+    private static Map<String, Entry> read(final File file, final WorldId wid) throws IOException {
+        final Map<String, Entry> out = new LinkedHashMap<>();
+        if (!file.exists()) return out;
+        final List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        if (lines.isEmpty() || !HEADER.equals(lines.get(0))) {
+            syslog().warn("Ignoring unrecognized snapshot catalog " + file);
+            return out;
+        }
+        for (final String line : lines.subList(1, lines.size())) {
+            final String[] f = line.split(SEP);
+            if (f.length != 9) {
+                syslog().warn("Ignoring bad snapshot catalog line: " + line);
+                continue;
+            }
+            try {
+                final SnapshotId sid = new SnapshotIdImpl(wid, new Date(Long.parseLong(f[2])), f[1], f[0]);
+                final SnapshotStats stats = UNKNOWN.equals(f[4]) ? null : new SnapshotStats(f[4],
+                        Long.parseLong(f[5]), Integer.parseInt(f[6]), Integer.parseInt(f[7]), Long.parseLong(f[8]));
+                out.put(f[0], new Entry(sid, ObjectId.fromString(f[3]), stats));
+            } catch (IllegalArgumentException e) {
+                syslog().warn("Ignoring bad snapshot catalog line: " + line);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Diff the new snapshot against the previous one.  Identical subtrees are skipped without being read, so this
+     * only costs as much as the change.
+     */
+    private static SnapshotStats computeStats(final Repository jrepo,
+                                              final ObjectId commitId,
+                                              final Entry previous,
+                                              final long durationMillis) throws IOException {
+        try (final ObjectReader reader = jrepo.newObjectReader(); final RevWalk rw = new RevWalk(reader)) {
+            final RevCommit commit = rw.parseCommit(commitId);
+            RevCommit previousCommit = null;
+            if (previous != null) {
+                try {
+                    previousCommit = rw.parseCommit(previous.commitId());
+                } catch (IOException e) {
+                    syslog().debug("Could not read previous snapshot " + previous.sid(), e);
+                }
+            }
+            int changed = 0;
+            long bytesAdded = 0;
+            try (final TreeWalk tw = new TreeWalk(reader)) {
+                tw.setRecursive(true);
+                tw.addTree(commit.getTree());
+                if (previousCommit != null) {
+                    tw.addTree(previousCommit.getTree());
+                    tw.setFilter(TreeFilter.ANY_DIFF);
+                }
+                while (tw.next()) {
+                    if ((tw.getRawMode(0) & FileMode.TYPE_MASK) != FileMode.TYPE_FILE) continue; // deleted, or a link
+                    changed++;
+                    bytesAdded += LfsUtils.getSmudgedSize(reader, tw.getObjectId(0));
+                }
+            }
+            final int fileCount = jrepo.readDirCache().getEntryCount();
+            return new SnapshotStats(commit.getTree().name(), durationMillis, fileCount, changed, bytesAdded);
+        }
+    }
+}
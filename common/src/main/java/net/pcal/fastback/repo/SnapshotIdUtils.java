@@ -23,9 +23,14 @@ import com.google.common.collect.ListMultimap;
 import net.pcal.fastback.repo.WorldIdUtils.WorldIdImpl;
 import org.eclipse.jgit.lib.Ref;
 
-import java.text.DateFormat;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.text.ParsePosition;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.ResolverStyle;
+import java.time.temporal.TemporalAccessor;
 import java.util.Date;
 
 import static net.pcal.fastback.logging.SystemLogger.syslog;
@@ -55,13 +60,13 @@ abstract class SnapshotIdUtils {
             @Override
             SnapshotId create(final WorldId wid) {
                 final Date date = new Date();
-                final String shortName = DATE_FORMAT.format(date);
+                final String shortName = DATE_FORMAT.format(date.toInstant());
                 return new SnapshotIdImpl(wid, date, shortName, getBranchName(wid, shortName));
             }
 
             @Override
             SnapshotId create(final WorldId wid, String shortName) throws ParseException {
-                return new SnapshotIdImpl(wid, DATE_FORMAT.parse(shortName), shortName, getBranchName(wid, shortName));
+                return new SnapshotIdImpl(wid, parseDate(shortName, 0, shortName.length()), shortName, getBranchName(wid, shortName));
             }
 
             @Override
@@ -69,16 +74,19 @@ abstract class SnapshotIdUtils {
                 return branchName.startsWith(wid + SEP);
             }
 
+            @Override
+            String getBranchPrefix(WorldId wid) {
+                return wid + SEP;
+            }
+
             @Override
             SnapshotId fromBranch(final String rawBranchName) throws ParseException {
-                final String[] segments = rawBranchName.split(SEP);
-                if (segments.length != 2) {
-                    throw new ParseException("Wrong number of segments" + rawBranchName, segments.length);
+                final int sep = rawBranchName.indexOf(SEP_CHAR);
+                if (sep < 0 || rawBranchName.indexOf(SEP_CHAR, sep + 1) >= 0) {
+                    throw new ParseException("Wrong number of segments" + rawBranchName, sep);
                 }
-                final WorldId worldId = new WorldIdImpl(segments[0]);
-                final Date date = DATE_FORMAT.parse(segments[1]);
-                final String shortName = DATE_FORMAT.format(date);
-                return new SnapshotIdImpl(worldId, date, shortName, rawBranchName);
+                final WorldId worldId = new WorldIdImpl(rawBranchName.substring(0, sep));
+                return fromDateSegment(worldId, rawBranchName, sep + 1, rawBranchName.length());
             }
 
             private static String getBranchName(WorldId wid, String shortName) {
@@ -95,14 +103,14 @@ abstract class SnapshotIdUtils {
             @Override
             SnapshotId create(WorldId wid) {
                 final Date date = new Date();
-                final String shortName = DATE_FORMAT.format(date);
+                final String shortName = DATE_FORMAT.format(date.toInstant());
                 return new SnapshotIdImpl(wid, date, shortName, getBranchName(wid, shortName));
             }
 
 
             @Override
             SnapshotId create(WorldId wid, String shortName) throws ParseException {
-                return new SnapshotIdImpl(wid, DATE_FORMAT.parse(shortName), shortName, getBranchName(wid, shortName));
+                return new SnapshotIdImpl(wid, parseDate(shortName, 0, shortName.length()), shortName, getBranchName(wid, shortName));
             }
 
             @Override
@@ -110,20 +118,25 @@ abstract class SnapshotIdUtils {
                 return branchName.startsWith(PREFIX + SEP + bid);
             }
 
+            @Override
+            String getBranchPrefix(WorldId wid) {
+                return PREFIX + SEP + wid + SEP;
+            }
+
             //Committing snapshots/06628b24-118c-42ae-8cce-5d131a94c7ee/2022-09-12_23-24-50
             @Override
             SnapshotId fromBranch(String rawBranchName) throws ParseException {
                 if (!rawBranchName.startsWith(PREFIX + SEP)) {
                     throw new ParseException("Not a snapshot branch " + rawBranchName, 0);
                 }
-                final String[] segments = rawBranchName.split(SEP);
-                if (segments.length < 3) {
-                    throw new ParseException("too few segments " + rawBranchName, segments.length);
+                final int widStart = PREFIX.length() + 1;
+                final int widEnd = rawBranchName.indexOf(SEP_CHAR, widStart);
+                if (widEnd < 0) {
+                    throw new ParseException("too few segments " + rawBranchName, 2);
                 }
-                final WorldId worldUuid = new WorldIdImpl(segments[1]);
-                final Date date = DATE_FORMAT.parse(segments[2]);
-                final String shortName = DATE_FORMAT.format(date);
-                return new SnapshotIdImpl(worldUuid, date, shortName, rawBranchName);
+                final int dateEnd = rawBranchName.indexOf(SEP_CHAR, widEnd + 1);
+                final WorldId worldUuid = new WorldIdImpl(rawBranchName.substring(widStart, widEnd));
+                return fromDateSegment(worldUuid, rawBranchName, widEnd + 1, dateEnd < 0 ? rawBranchName.length() : dateEnd);
             }
 
             private static String getBranchName(WorldId wid, String shortName) {
@@ -132,7 +145,86 @@ abstract class SnapshotIdUtils {
         };
 
 
-        static final DateFormat DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss");
+        private static final char SEP_CHAR = '/';
+        private static final ZoneId ZONE = ZoneId.systemDefault();
+
+        /**
+         * Snapshot names are local time, in the zone the jvm started in.  Thread-safe, unlike the SimpleDateFormat
+         * this replaces.
+         */
+        static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm-ss").withZone(ZONE);
+
+        /**
+         * SimpleDateFormat parsing was lenient, so keep accepting whatever it did when a name isn't in the usual form.
+         */
+        private static final DateTimeFormatter LENIENT_DATE_FORMAT =
+                DateTimeFormatter.ofPattern("y-M-d_H-m-s").withResolverStyle(ResolverStyle.LENIENT);
+
+        private static final int DATE_LENGTH = "yyyy-MM-dd_HH-mm-ss".length();
+
+        /**
+         * Parse the date from the given part of the branch name.  Names we wrote ourselves are already normalized,
+         * so they're used as-is rather than formatted again.
+         */
+        private static SnapshotId fromDateSegment(WorldId wid, String branchName, int start, int end) throws ParseException {
+            final LocalDateTime canonical = end - start == DATE_LENGTH ? parseCanonical(branchName, start) : null;
+            if (canonical != null) {
+                return new SnapshotIdImpl(wid, toDate(canonical), branchName.substring(start, end), branchName);
+            }
+            final Date date = parseLenient(branchName, start, end);
+            return new SnapshotIdImpl(wid, date, DATE_FORMAT.format(date.toInstant()), branchName);
+        }
+
+        static Date parseDate(final String s, final int start, final int end) throws ParseException {
+            final LocalDateTime canonical = end - start == DATE_LENGTH ? parseCanonical(s, start) : null;
+            return canonical != null ? toDate(canonical) : parseLenient(s, start, end);
+        }
+
+        private static Date parseLenient(final String s, final int start, final int end) throws ParseException {
+            try {
+                final TemporalAccessor parsed = LENIENT_DATE_FORMAT.parse(s.substring(start, end), new ParsePosition(0));
+                return toDate(LocalDateTime.from(parsed));
+            } catch (DateTimeException e) {
+                throw new ParseException("Unparseable date: " + s.substring(start, end), start);
+            }
+        }
+
+        private static Date toDate(final LocalDateTime ldt) {
+            return Date.from(ldt.atZone(ZONE).toInstant());
+        }
+
+        /**
+         * Parse yyyy-MM-dd_HH-mm-ss without allocating anything but the result.
+         *
+         * @return null if it isn't in exactly that form or isn't a real date.
+         */
+        private static LocalDateTime parseCanonical(final String s, final int i) {
+            if (s.charAt(i + 4) != '-' || s.charAt(i + 7) != '-' || s.charAt(i + 10) != '_' ||
+                    s.charAt(i + 13) != '-' || s.charAt(i + 16) != '-') {
+                return null;
+            }
+            final int year = digits(s, i, 4), month = digits(s, i + 5, 2), day = digits(s, i + 8, 2);
+            final int hour = digits(s, i + 11, 2), minute = digits(s, i + 14, 2), second = digits(s, i + 17, 2);
+            if ((year | month | day | hour | minute | second) < 0) return null;
+            try {
+                return LocalDateTime.of(year, month, day, hour, minute, second);
+            } catch (DateTimeException e) {
+                return null;
+            }
+        }
+
+        /**
+         * @return the value of the given number of decimal digits, or -1 if any of them isn't a digit.
+         */
+        private static int digits(final String s, final int start, final int count) {
+            int out = 0;
+            for (int i = start; i < start + count; i++) {
+                final int d = s.charAt(i) - '0';
+                if (d < 0 || d > 9) return -1;
+                out = out * 10 + d;
+            }
+            return out;
+        }
 
         abstract SnapshotId create(WorldId wid);
 
@@ -142,6 +234,11 @@ abstract class SnapshotIdUtils {
 
         abstract boolean isSnapshotBranchName(WorldId bid, String branchName);
 
+        /**
+         * @return what the names of all of the given world's snapshot branches start with.
+         */
+        abstract String getBranchPrefix(WorldId wid);
+
     }
 
     public record SnapshotIdImpl(WorldId worldUuid, Date date, String shortName,
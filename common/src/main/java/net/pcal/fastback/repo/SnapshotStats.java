@@ -0,0 +1,34 @@
+/*
+ * FastBack - Fast, incremental Minecraft backups powered by Git.
+ * Copyright (C) 2022 pcal.net
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pcal.fastback.repo;
+
+/**
+ * What we know about a local snapshot beyond its name.  Recorded in the snapshot catalog when the snapshot is
+ * committed.
+ *
+ * @param treeId           id of the snapshot's root tree.
+ * @param durationMillis   how long the snapshot took to commit.
+ * @param fileCount        number of files in the snapshot.
+ * @param changedFileCount number of files added or changed since the previous snapshot.
+ * @param bytesAdded       total size of the files added or changed since the previous snapshot.
+ * @author pcal
+ * @since 0.16.0
+ */
+public record SnapshotStats(String treeId, long durationMillis, int fileCount, int changedFileCount, long bytesAdded) {
+}
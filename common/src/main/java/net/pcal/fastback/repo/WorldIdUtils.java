@@ -9,7 +9,11 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static java.util.Objects.requireNonNull;
 import static net.pcal.fastback.logging.SystemLogger.syslog;
@@ -45,6 +49,12 @@ abstract class WorldIdUtils {
     @Deprecated
     private static final Path OLD_WORLD_UUID_PATH = Path.of(".fastback/world.uuid");
 
+    /**
+     * What we last read from each world's id file.  An entry is only used if the file still has the same mtime and
+     * size, so hand-edits are picked up; writes we make ourselves invalidate it explicitly.
+     */
+    private static final Map<Path, CachedWorldIdInfo> CACHE = new ConcurrentHashMap<>();
+
     // ======================================================================
     // Utils
 
@@ -55,19 +65,24 @@ abstract class WorldIdUtils {
      * @return the WorldId and the SnapshotIdCodec to use.  Never returns null (though the worldId might be null).
      */
     static WorldIdInfo getWorldIdInfo(final Path worldSaveDir) throws IOException {
+        final Path key = worldSaveDir.toAbsolutePath().normalize();
+        final CachedWorldIdInfo cached = CACHE.get(key);
+        if (cached != null && cached.isCurrent()) return cached.info();
         migrateFastbackDir(worldSaveDir);
         {
             final Path idPath = worldSaveDir.resolve(WORLD_ID_PATH);
             if (idPath.toFile().exists()) {
+                final BasicFileAttributes attrs = Files.readAttributes(idPath, BasicFileAttributes.class);
                 final WorldId wid = new WorldIdImpl(requireNonNull(Files.readString(idPath).trim()));
-                return new WorldIdInfo(wid, SnapshotIdCodec.V2);
+                return cache(key, idPath, attrs, new WorldIdInfo(wid, SnapshotIdCodec.V2));
             }
         }
         {
             final Path uuidPath = worldSaveDir.resolve(OLD_WORLD_UUID_PATH);
             if (uuidPath.toFile().exists()) {
+                final BasicFileAttributes attrs = Files.readAttributes(uuidPath, BasicFileAttributes.class);
                 final WorldId wid = new WorldIdImpl(requireNonNull(Files.readString(uuidPath).trim()));
-                return new WorldIdInfo(wid, SnapshotIdCodec.V1);
+                return cache(key, uuidPath, attrs, new WorldIdInfo(wid, SnapshotIdCodec.V1));
             }
 
         }
@@ -82,6 +97,7 @@ abstract class WorldIdUtils {
             return;
         }
         FileUtils.mkdirs(worldIdPath.getParent());
+        CACHE.remove(worldSaveDir.toAbsolutePath().normalize());
         final String worldId = generateRandomWorldId(WORLD_ID_LENGTH);
         try (final FileWriter fw = new FileWriter(worldIdPath.toFile())) {
             fw.append(worldId);
@@ -122,6 +138,26 @@ abstract class WorldIdUtils {
     // ======================================================================
     // Private
 
+    private record CachedWorldIdInfo(Path idPath, FileTime mtime, long size, WorldIdInfo info) {
+
+        /**
+         * @return true if the id file hasn't changed since we read it.  This is a single stat.
+         */
+        boolean isCurrent() {
+            try {
+                final BasicFileAttributes attrs = Files.readAttributes(idPath, BasicFileAttributes.class);
+                return attrs.lastModifiedTime().equals(mtime) && attrs.size() == size;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+    }
+
+    private static WorldIdInfo cache(Path key, Path idPath, BasicFileAttributes attrs, WorldIdInfo info) {
+        CACHE.put(key, new CachedWorldIdInfo(idPath, attrs.lastModifiedTime(), attrs.size(), info));
+        return info;
+    }
+
     private static final char[] BASE58_CHARS =
             "123456789ABCDEFGHJKLMNPQRSTUVWXYZabcdefghijkmnopqrstuvwxyz".toCharArray();
 
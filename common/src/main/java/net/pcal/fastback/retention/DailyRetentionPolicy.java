@@ -24,13 +24,13 @@ import net.pcal.fastback.repo.SnapshotId;
 
 import java.time.LocalDate;
 import java.time.Period;
+import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TimeZone;
 
 import static net.pcal.fastback.logging.SystemLogger.syslog;
 
@@ -58,30 +58,36 @@ class DailyRetentionPolicy implements RetentionPolicy {
         return UserMessage.localized(L10N_KEY, gracePeriod);
     }
 
+    /**
+     * Single pass over the snapshots, newest first.  Listings are usually already in date order, in which case the
+     * sort is linear, too.  With many thousands of snapshots, logging each decision costs more than making it, so
+     * only the totals are logged.
+     */
     @Override
     public Collection<SnapshotId> getSnapshotsToPrune(Set<SnapshotId> snapshots) {
-        final LocalDate today = LocalDate.now(TimeZone.getDefault().toZoneId());
+        final ZoneId zone = ZoneId.systemDefault();
+        final LocalDate today = LocalDate.now(zone);
         final LocalDate gracePeriodStart = today.minus(Period.ofDays(gracePeriod));
         final List<SnapshotId> toPrune = new ArrayList<>();
+        int inGracePeriod = 0;
         LocalDate previousDate = null;
         List<SnapshotId> sortedDesending = new ArrayList<>(snapshots);
         Collections.sort(sortedDesending, Collections.reverseOrder());
         for (final SnapshotId sid : sortedDesending) {
-            final LocalDate currentDate = sid.getDate().toInstant().atZone(TimeZone.getDefault().toZoneId()).toLocalDate();
+            final LocalDate currentDate = LocalDate.ofInstant(sid.getDate().toInstant(), zone);
             if (previousDate != null) {
                 if (currentDate.isAfter(gracePeriodStart)) {
-                    syslog().debug("Will retain " + sid + " because still in the grace period");
+                    inGracePeriod++;
                     continue;
                 }
                 if (currentDate.equals(previousDate)) {
-                    syslog().debug("Will prune " + sid + " same day as " + currentDate);
                     toPrune.add(sid);
-                } else {
-                    syslog().debug("Will retain " + sid + " NOT same day as " + currentDate);
                 }
             }
             previousDate = currentDate;
         }
+        syslog().debug("Will prune " + toPrune.size() + " of " + snapshots.size() + " snapshots; " +
+                inGracePeriod + " retained because still in the grace period");
         return toPrune;
     }
 
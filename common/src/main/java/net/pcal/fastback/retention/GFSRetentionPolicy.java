@@ -23,6 +23,7 @@ import net.pcal.fastback.repo.SnapshotId;
 
 import java.time.LocalDate;
 import java.time.Period;
+import java.time.ZoneId;
 import java.time.temporal.ChronoField;
 import java.time.temporal.IsoFields;
 import java.util.ArrayList;
@@ -31,7 +32,6 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TimeZone;
 import java.util.function.Supplier;
 
 import static net.pcal.fastback.logging.SystemLogger.syslog;
@@ -50,7 +50,7 @@ class GFSRetentionPolicy implements RetentionPolicy {
 
     private static final String L10N_KEY = "fastback.retain.gfs.description";
     Supplier<LocalDate> nowSupplier = () ->
-            LocalDate.now(TimeZone.getDefault().toZoneId());
+            LocalDate.now(ZoneId.systemDefault());
 
     public GFSRetentionPolicy() {
     }
@@ -68,13 +68,13 @@ class GFSRetentionPolicy implements RetentionPolicy {
         final LocalDate oneWeekAgo = now.minus(Period.ofDays(7));
         final LocalDate oneMonthAgo = now.minus(Period.ofDays(30));
         Integer currentDay = null, currentWeek = null, currentMonth = null;
+        final ZoneId zone = ZoneId.systemDefault();
         List<SnapshotId> sortedDesending = new ArrayList<>(snapshots);
         Collections.sort(sortedDesending, Collections.reverseOrder());
         for (final SnapshotId sid : sortedDesending) {
-            final LocalDate snapshotDate = sid.getDate().toInstant().atZone(TimeZone.getDefault().toZoneId()).toLocalDate();
-            if (snapshotDate.isAfter(gracePeriodStart)) {
-                syslog().debug("Will retain " + sid + " because still in the grace period");
-            } else if (snapshotDate.isAfter(oneWeekAgo)) {
+            final LocalDate snapshotDate = LocalDate.ofInstant(sid.getDate().toInstant(), zone);
+            if (snapshotDate.isAfter(gracePeriodStart)) continue; // still in the grace period
+            if (snapshotDate.isAfter(oneWeekAgo)) {
                 final int snapshotDay = snapshotDate.get(ChronoField.DAY_OF_MONTH);
                 if (currentDay == null || currentDay != snapshotDay) {
                     currentDay = snapshotDay;
@@ -97,6 +97,7 @@ class GFSRetentionPolicy implements RetentionPolicy {
                 }
             }
         }
+        syslog().debug("Will prune " + toPrune.size() + " of " + snapshots.size() + " snapshots");
         return toPrune;
     }
 
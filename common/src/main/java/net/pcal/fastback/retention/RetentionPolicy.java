@@ -21,6 +21,7 @@ package net.pcal.fastback.retention;
 import net.pcal.fastback.logging.UserMessage;
 import net.pcal.fastback.repo.SnapshotId;
 
+import java.io.IOException;
 import java.util.Collection;
 import java.util.Set;
 
@@ -36,4 +37,14 @@ public interface RetentionPolicy {
     UserMessage getDescription();
 
     Collection<SnapshotId> getSnapshotsToPrune(final Set<SnapshotId> fromSnapshots);
+
+    /**
+     * Policies that care about disk usage should override this.
+     *
+     * @param sizeEstimator may be null if sizes aren't available, e.g., for remote snapshots.
+     */
+    default Collection<SnapshotId> getSnapshotsToPrune(final Set<SnapshotId> fromSnapshots,
+                                                       final SnapshotSizeEstimator sizeEstimator) throws IOException {
+        return getSnapshotsToPrune(fromSnapshots);
+    }
 }
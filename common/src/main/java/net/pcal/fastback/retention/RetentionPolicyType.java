@@ -39,6 +39,7 @@ public interface RetentionPolicyType {
                 DailyRetentionPolicy.DailyRetentionPolicyType.INSTANCE,
                 FixedCountRetentionPolicy.Type.INSTANCE,
                 GFSRetentionPolicyType.INSTANCE,
+                SizeRetentionPolicy.Type.INSTANCE,
                 AllRetentionPolicy.Type.INSTANCE);
     }
 
@@ -0,0 +1,127 @@
+/*
+ * FastBack - Fast, incremental Minecraft backups powered by Git.
+ * Copyright (C) 2022 pcal.net
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pcal.fastback.retention;
+
+import com.mojang.brigadier.arguments.IntegerArgumentType;
+import net.pcal.fastback.logging.UserMessage;
+import net.pcal.fastback.repo.SnapshotId;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static net.pcal.fastback.logging.SystemLogger.syslog;
+import static org.apache.commons.io.FileUtils.byteCountToDisplaySize;
+
+/**
+ * Retention policy that deletes the oldest snapshots until the backup fits within a size budget.  The most
+ * recent snapshot is always kept.
+ * <p>
+ * Sizes are projected by the SnapshotSizeEstimator, which accounts for the space each snapshot shares with the
+ * others, so we don't have to find out by deleting and gc-ing.
+ *
+ * @author pcal
+ * @since 0.16.0
+ */
+class SizeRetentionPolicy implements RetentionPolicy {
+
+    private static final String POLICY_NAME = "size";
+    private static final String L10N_KEY = "fastback.retain.size.description";
+    private static final String MEGABYTES_PARAM = "megabytes";
+    private static final int MEGABYTES_DEFAULT = 10 * 1024;
+    private static final long BYTES_PER_MEGABYTE = 1024 * 1024;
+
+    private final int megabytes;
+
+    static SizeRetentionPolicy create(Map<String, String> config) {
+        int megabytes = MEGABYTES_DEFAULT;
+        if (config != null && config.containsKey(MEGABYTES_PARAM)) {
+            try {
+                megabytes = Integer.parseInt(config.get(MEGABYTES_PARAM));
+            } catch (NumberFormatException nfe) {
+                syslog().debug("Ignoring invalid size budget " + config.get(MEGABYTES_PARAM), nfe);
+            }
+        }
+        return new SizeRetentionPolicy(megabytes);
+    }
+
+    private SizeRetentionPolicy(int megabytes) {
+        this.megabytes = megabytes;
+    }
+
+    @Override
+    public UserMessage getDescription() {
+        return UserMessage.localized(L10N_KEY, this.megabytes);
+    }
+
+    @Override
+    public Collection<SnapshotId> getSnapshotsToPrune(Set<SnapshotId> fromSnapshots) {
+        syslog().warn("Snapshot sizes are not available, not pruning anything");
+        return Collections.emptySet();
+    }
+
+    @Override
+    public Collection<SnapshotId> getSnapshotsToPrune(Set<SnapshotId> fromSnapshots,
+                                                      SnapshotSizeEstimator sizeEstimator) throws IOException {
+        if (sizeEstimator == null || fromSnapshots.size() < 2) return getSnapshotsToPrune(fromSnapshots);
+        final List<SnapshotId> oldestFirst = new ArrayList<>(fromSnapshots);
+        Collections.sort(oldestFirst);
+        oldestFirst.remove(oldestFirst.size() - 1);
+        final long budget = this.megabytes * BYTES_PER_MEGABYTE;
+        final long[] projected = sizeEstimator.projectSizes(oldestFirst);
+        int count = 0;
+        while (count < oldestFirst.size() && projected[count] > budget) count++;
+        if (projected[count] > budget) {
+            syslog().warn("Backup will still be " + byteCountToDisplaySize(projected[count]) +
+                    " with only the latest snapshot, which exceeds the budget of " + byteCountToDisplaySize(budget));
+        } else {
+            syslog().debug("Deleting " + count + " snapshots brings backup to " + byteCountToDisplaySize(projected[count]));
+        }
+        return oldestFirst.subList(0, count);
+    }
+
+    enum Type implements RetentionPolicyType {
+
+        INSTANCE;
+
+        @Override
+        public String getName() {
+            return POLICY_NAME;
+        }
+
+        @Override
+        public List<Parameter<?>> getParameters() {
+            return List.of(new Parameter<>(MEGABYTES_PARAM, IntegerArgumentType.integer(1), Integer.class));
+        }
+
+        @Override
+        public RetentionPolicy createPolicy(final Map<String, String> config) {
+            return create(config);
+        }
+
+        @Override
+        public UserMessage getDescription() {
+            return UserMessage.localized(L10N_KEY, "<" + MEGABYTES_PARAM + ">");
+        }
+    }
+}
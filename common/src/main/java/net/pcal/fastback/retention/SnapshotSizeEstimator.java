@@ -0,0 +1,42 @@
+/*
+ * FastBack - Fast, incremental Minecraft backups powered by Git.
+ * Copyright (C) 2022 pcal.net
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pcal.fastback.retention;
+
+import net.pcal.fastback.repo.SnapshotId;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Lets a retention policy find out how much disk space its choices would free.
+ *
+ * @author pcal
+ * @since 0.16.0
+ */
+public interface SnapshotSizeEstimator {
+
+    /**
+     * Project the size of the backup if the given snapshots were deleted one at a time in the given order and
+     * gc was then run.
+     *
+     * @return the projected size in bytes after deleting the first k snapshots, for k from 0 to the number of
+     * snapshots.  So the first element is the size after gc with nothing deleted.
+     */
+    long[] projectSizes(List<SnapshotId> deletionOrder) throws IOException;
+}
@@ -0,0 +1,93 @@
+/*
+ * FastBack - Fast, incremental Minecraft backups powered by Git.
+ * Copyright (C) 2022 pcal.net
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pcal.fastback.utils;
+
+import java.time.Duration;
+
+/**
+ * Lets a long-running operation be cancelled, either by '/backup cancel' or because it ran past its deadline.
+ * Each task run by the Executor gets its own; code doing the actual work checks it via current().  Nothing is
+ * interrupted: native git processes get killed and jgit sees it through its ProgressMonitor, so each of them
+ * gets a chance to clean up after itself.
+ *
+ * @author pcal
+ * @since 0.16.0
+ */
+public class Cancellation {
+
+    // ======================================================================
+    // Fields
+
+    private static final ThreadLocal<Cancellation> CURRENT = new ThreadLocal<>();
+
+    private volatile boolean isCancelled = false;
+    private volatile long deadline = Long.MAX_VALUE;
+
+    // ======================================================================
+    // Public methods
+
+    /**
+     * @return the Cancellation for the task running on this thread.  Never returns null, though if there's no task
+     * the returned one isn't attached to anything and so will never be cancelled.
+     */
+    public static Cancellation current() {
+        final Cancellation out = CURRENT.get();
+        return out != null ? out : new Cancellation();
+    }
+
+    public void cancel() {
+        this.isCancelled = true;
+    }
+
+    /**
+     * Cancel the operation once the given amount of time has passed.  Zero means no deadline.
+     */
+    public void setTimeout(final Duration timeout) {
+        this.deadline = timeout.isZero() ? Long.MAX_VALUE : System.currentTimeMillis() + timeout.toMillis();
+    }
+
+    public boolean isCancelled() {
+        return this.isCancelled || this.isTimedOut();
+    }
+
+    public boolean isTimedOut() {
+        return System.currentTimeMillis() > this.deadline;
+    }
+
+    /**
+     * @throws CancelledException if the operation has been cancelled.
+     */
+    public void check() throws CancelledException {
+        if (this.isCancelled()) throw new CancelledException(this.isTimedOut());
+    }
+
+    // ======================================================================
+    // Package private
+
+    /**
+     * Attach the given Cancellation to the current thread.  Pass null to detach it.
+     */
+    static void setCurrent(final Cancellation cancellation) {
+        if (cancellation == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(cancellation);
+        }
+    }
+}
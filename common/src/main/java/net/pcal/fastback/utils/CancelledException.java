@@ -0,0 +1,43 @@
+/*
+ * FastBack - Fast, incremental Minecraft backups powered by Git.
+ * Copyright (C) 2022 pcal.net
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pcal.fastback.utils;
+
+import java.io.IOException;
+
+/**
+ * Thrown when an operation stops because it was cancelled or ran past its deadline.
+ *
+ * @author pcal
+ * @since 0.16.0
+ */
+public class CancelledException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final boolean isTimedOut;
+
+    public CancelledException(final boolean isTimedOut) {
+        super(isTimedOut ? "Operation timed out" : "Operation cancelled");
+        this.isTimedOut = isTimedOut;
+    }
+
+    public boolean isTimedOut() {
+        return this.isTimedOut;
+    }
+}
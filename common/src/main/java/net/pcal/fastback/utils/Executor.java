@@ -32,11 +32,34 @@ public interface Executor {
         return Singleton.INSTANCE;
     }
 
+    /**
+     * Coalescing key for tasks that make a snapshot.
+     */
+    String BACKUP = "backup";
+
     // TODO kill UserLogger param and throw Blocking exception instead
-    void execute(final ExecutionLock lock, final UserLogger ulog, final Runnable runnable);
+    default void execute(final ExecutionLock lock, final UserLogger ulog, final Runnable runnable) {
+        execute(lock, Priority.MANUAL, null, ulog, runnable);
+    }
+
+    /**
+     * Run something in the background.  Tasks that need a lock run one at a time, highest priority first; the
+     * others run in their own lane and so never wait behind them.
+     *
+     * @param coalesceKey if not null, an AUTOSAVE task isn't queued when a task with the same key already is, and
+     *                    queuing a task replaces any AUTOSAVE task with the same key that hasn't started yet.
+     */
+    void execute(ExecutionLock lock, Priority priority, String coalesceKey, UserLogger ulog, Runnable runnable);
 
     int getActiveCount();
 
+    /**
+     * Cancel whatever tasks are running now.  They stop as soon as they safely can.
+     *
+     * @return false if nothing was running.
+     */
+    boolean cancel();
+
     void start();
 
     void stop();
@@ -47,6 +70,16 @@ public interface Executor {
         WRITE,
     }
 
+    /**
+     * Order in which queued tasks that need a lock are run.
+     */
+    enum Priority {
+        SHUTDOWN,
+        MANUAL,
+        AUTOSAVE,
+        MAINTENANCE,
+    }
+
     class Singleton {
         private static final Executor INSTANCE = new ExecutorImpl();
     }
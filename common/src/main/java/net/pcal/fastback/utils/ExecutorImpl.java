@@ -20,44 +20,75 @@ package net.pcal.fastback.utils;
 
 import net.pcal.fastback.logging.UserLogger;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static java.util.Objects.requireNonNull;
 import static net.pcal.fastback.logging.SystemLogger.syslog;
 import static net.pcal.fastback.logging.UserMessage.UserMessageStyle.ERROR;
+import static net.pcal.fastback.logging.UserMessage.localized;
 import static net.pcal.fastback.logging.UserMessage.styledLocalized;
 
 /**
+ * Runs tasks in two lanes.  Tasks that need a lock go into the write lane, a single thread that takes them in
+ * priority order.  Everything else goes into the read lane, a small pool of its own, so listing snapshots never
+ * waits behind a long push.  Both lanes are bounded; when one is full, new tasks are turned away, except for the
+ * shutdown task.
+ * <p>
+ * Each task gets its own Cancellation, which is how '/backup cancel' and shutdown stop it.
+ *
  * @author pcal
  * @since 0.2.0
  */
 class ExecutorImpl implements Executor {
 
-    private ThreadPoolExecutor executor = null;
+    // ======================================================================
+    // Constants
+
+    private static final int READ_THREADS = 2;
+
+    private static final int MAX_QUEUED_READS = 32;
+
+    private static final int MAX_QUEUED_WRITES = 16;
 
-    private Future<?> exclusiveFuture = null;
+    // ======================================================================
+    // Fields
+
+    private final AtomicLong sequence = new AtomicLong();
+    private Lane readLane = null;
+    private Lane writeLane = null;
+    private PriorityBlockingQueue<Runnable> writeQueue = null;
+    private volatile boolean isShutdownTaskQueued = false;
+
+    // ======================================================================
+    // Executor implementation
 
     @Override
-    public void execute(ExecutionLock lock, UserLogger ulog, Runnable runnable) {
+    public void execute(ExecutionLock lock, Priority priority, String coalesceKey, UserLogger ulog, Runnable runnable) {
         requireNonNull(lock, "lock");
-        if (this.executor == null) throw new IllegalStateException("Executor not started");
+        requireNonNull(priority, "priority");
+        if (this.writeLane == null) throw new IllegalStateException("Executor not started");
         switch (lock) {
             case NONE:
-            case WRITE_CONFIG: // revisit this
-                this.executor.submit(runnable);
-                break;
-            case WRITE:
-                if (this.exclusiveFuture != null && !this.exclusiveFuture.isDone()) {
+                try {
+                    this.readLane.execute(new Task(priority, null, this.sequence.incrementAndGet(), runnable));
+                } catch (RejectedExecutionException e) {
                     ulog.message(styledLocalized("fastback.chat.thread-busy", ERROR));
-                } else {
-                    syslog().debug("executing " + runnable);
-                    this.exclusiveFuture = this.executor.submit(runnable);
                 }
                 break;
+            case WRITE_CONFIG:
+            case WRITE:
+                this.enqueueWrite(new Task(priority, coalesceKey, this.sequence.incrementAndGet(), runnable), ulog);
+                break;
             default:
                 throw new IllegalStateException();
         }
@@ -65,29 +96,170 @@ class ExecutorImpl implements Executor {
 
     @Override
     public int getActiveCount() {
-        return this.executor.getActiveCount();
+        return this.readLane.getActiveCount() + this.writeLane.getActiveCount();
+    }
+
+    @Override
+    public boolean cancel() {
+        if (this.writeLane == null) return false;
+        final boolean isAnyRunning = !this.writeLane.running.isEmpty() || !this.readLane.running.isEmpty();
+        this.writeLane.cancelRunning(null);
+        this.readLane.cancelRunning(null);
+        return isAnyRunning;
     }
 
     @Override
     public void start() {
-        this.executor = new ThreadPoolExecutor(0, 3, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+        this.readLane = new Lane(READ_THREADS, new ArrayBlockingQueue<>(MAX_QUEUED_READS));
+        this.writeQueue = new PriorityBlockingQueue<>();
+        this.writeLane = new Lane(1, this.writeQueue);
+        this.isShutdownTaskQueued = false;
     }
 
+    /**
+     * Queued autosave tasks are dropped since the shutdown action supersedes them; whatever else is queued gets run
+     * first.  If a shutdown task has been queued, maintenance that's running now is cancelled so it can start
+     * sooner, and then we wait for as long as it takes.
+     */
     @Override
     public void stop() {
-        shutdownExecutor(this.executor);
-        this.executor = null;
+        for (final Runnable r : this.writeQueue.toArray(new Runnable[0])) {
+            final Task task = (Task) r;
+            if (task.priority == Priority.AUTOSAVE && this.writeQueue.remove(task)) {
+                syslog().debug("Dropping queued autosave task at shutdown");
+            }
+        }
+        shutdownExecutor(this.readLane);
+        if (this.isShutdownTaskQueued) {
+            this.writeLane.cancelRunning(Priority.MAINTENANCE);
+            this.writeLane.shutdown();
+            awaitShutdownTask(this.writeLane);
+        } else {
+            shutdownExecutor(this.writeLane);
+        }
+        this.readLane = null;
+        this.writeLane = null;
+        this.writeQueue = null;
+    }
+
+    // ======================================================================
+    // Private
+
+    private synchronized void enqueueWrite(final Task task, final UserLogger ulog) {
+        if (task.coalesceKey != null) {
+            final List<Task> supersededAutosaves = new ArrayList<>();
+            for (final Runnable r : this.writeQueue) {
+                final Task queued = (Task) r;
+                if (!task.coalesceKey.equals(queued.coalesceKey)) continue;
+                if (task.priority == Priority.AUTOSAVE) {
+                    syslog().debug("Coalescing autosave " + task.coalesceKey + " with a task that's already queued");
+                    return;
+                }
+                if (queued.priority == Priority.AUTOSAVE) supersededAutosaves.add(queued);
+            }
+            for (final Task superseded : supersededAutosaves) {
+                if (this.writeQueue.remove(superseded)) {
+                    syslog().debug("Queued autosave " + superseded.coalesceKey + " superseded by " + task.priority + " task");
+                }
+            }
+        }
+        final boolean isWaiting = this.writeLane.getActiveCount() > 0 || !this.writeQueue.isEmpty();
+        if (this.writeQueue.size() >= MAX_QUEUED_WRITES) {
+            if (task.priority != Priority.SHUTDOWN) {
+                ulog.message(styledLocalized("fastback.chat.thread-busy", ERROR));
+                return;
+            }
+            // the server is going away; this is the last chance to back up, and it'll run ahead of everything else
+            syslog().debug("Write queue is full, queueing shutdown task anyway");
+        }
+        if (task.priority == Priority.SHUTDOWN) this.isShutdownTaskQueued = true;
+        syslog().debug("executing " + task.runnable);
+        this.writeLane.execute(task);
+        if (isWaiting && task.priority == Priority.MANUAL) ulog.message(localized("fastback.chat.thread-queued"));
+    }
+
+    /**
+     * A task in either lane.  The write lane runs them in priority order, then first-come-first-served.
+     */
+    private record Task(Priority priority, String coalesceKey, long sequence, Runnable runnable,
+                        Cancellation cancellation) implements Runnable, Comparable<Task> {
+
+        Task(Priority priority, String coalesceKey, long sequence, Runnable runnable) {
+            this(priority, coalesceKey, sequence, runnable, new Cancellation());
+        }
+
+        @Override
+        public void run() {
+            this.runnable.run();
+        }
+
+        @Override
+        public int compareTo(Task o) {
+            final int byPriority = this.priority.compareTo(o.priority);
+            return byPriority != 0 ? byPriority : Long.compare(this.sequence, o.sequence);
+        }
+    }
+
+    /**
+     * A pool that keeps track of what it's running and attaches each task's Cancellation to the thread running it.
+     */
+    private static class Lane extends ThreadPoolExecutor {
+
+        private final Set<Task> running = ConcurrentHashMap.newKeySet();
+
+        Lane(final int threads, final BlockingQueue<Runnable> queue) {
+            super(threads, threads, 60L, TimeUnit.SECONDS, queue);
+            this.allowCoreThreadTimeOut(true);
+        }
+
+        @Override
+        protected void beforeExecute(Thread thread, Runnable r) {
+            final Task task = (Task) r;
+            this.running.add(task);
+            Cancellation.setCurrent(task.cancellation);
+        }
+
+        @Override
+        protected void afterExecute(Runnable r, Throwable t) {
+            Cancellation.setCurrent(null);
+            this.running.remove((Task) r);
+        }
+
+        /**
+         * Cancel the running tasks with the given priority, or all of them if it's null.
+         */
+        void cancelRunning(final Priority priority) {
+            for (final Task task : this.running) {
+                if (priority == null || task.priority == priority) task.cancellation.cancel();
+            }
+        }
+    }
+
+    /**
+     * A shutdown backup may legitimately take a long time, and interrupting git partway through does more harm than
+     * waiting.  So we just keep waiting.
+     */
+    private static void awaitShutdownTask(final Lane pool) {
+        try {
+            while (!pool.awaitTermination(1, TimeUnit.MINUTES)) {
+                syslog().info("Still waiting for backup tasks to complete");
+            }
+        } catch (InterruptedException ie) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
     }
 
     /**
      * Lifted straight from the docs:
      * https://docs.oracle.com/javase/8/docs/api/java/util/concurrent/ExecutorService.html
      */
-    private static void shutdownExecutor(final ExecutorService pool) {
+    private static void shutdownExecutor(final Lane pool) {
         pool.shutdown(); // Disable new tasks from being submitted
         try {
             // Wait a while for existing tasks to terminate
             if (!pool.awaitTermination(5, TimeUnit.MINUTES)) {
+                pool.cancelRunning(null); // Ask them nicely
                 pool.shutdownNow(); // Cancel currently executing tasks
                 // Wait a while for tasks to respond to being cancelled
                 if (!pool.awaitTermination(5, TimeUnit.MINUTES))
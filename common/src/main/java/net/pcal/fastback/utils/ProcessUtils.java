@@ -18,18 +18,24 @@
 
 package net.pcal.fastback.utils;
 
+import net.pcal.fastback.logging.UserLogger;
+
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
-import java.io.Writer;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 
-import static java.util.Objects.requireNonNull;
 import static net.pcal.fastback.logging.SystemLogger.syslog;
+import static net.pcal.fastback.logging.UserMessage.UserMessageStyle.NATIVE_GIT;
+import static net.pcal.fastback.logging.UserMessage.styledRaw;
 
 
 /**
@@ -40,140 +46,190 @@ import static net.pcal.fastback.logging.SystemLogger.syslog;
  */
 public class ProcessUtils {
 
+    // ======================================================================
+    // Constants
+
+    /**
+     * How long a cancelled process gets to exit cleanly before we kill it outright.
+     */
+    private static final long DESTROY_GRACE_SECONDS = 10;
+
+    /**
+     * How often we check whether a running process has been cancelled.
+     */
+    private static final long CANCEL_CHECK_MILLIS = 500;
+
+    /**
+     * How long to wait for the output to finish draining once the process has exited.  Normally it's immediate, but
+     * something the process started might still be holding the pipe open.
+     */
+    private static final long DRAIN_WAIT_MILLIS = 5000;
+
+    /**
+     * How many lines of output to keep for the error message if the process fails.
+     */
+    private static final int ERROR_CONTEXT_LINES = 100;
+
+    /**
+     * Minimum time between process output lines shown on the hud.
+     */
+    private static final long HUD_UPDATE_MILLIS = 100;
+
+    // ======================================================================
+    // Public methods
+
     public static int doExec(String[] args, final Map<String, String> envOriginal, Consumer<String> stdoutSink, Consumer<String> stderrSink) throws ProcessException {
         return doExec(args, envOriginal, stdoutSink, stderrSink, true);
     }
 
+    /**
+     * Run the process and wait for it to finish.  Output is read on two threads that block until there's something
+     * to read, and the sinks are called a line at a time.  The sinks are never called concurrently.
+     */
     public static int doExec(final String[] args, final Map<String, String> envOriginal, final Consumer<String> stdoutSink, final Consumer<String> stderrSink, boolean throwOnNonZero) throws ProcessException {
         syslog().debug("Executing " + String.join(" ", args));
         final ProcessBuilder pb = new ProcessBuilder(args);
         final Map<String, String> env = pb.environment();
+        env.putAll(envOriginal);
         // Output a few values that are important for debugging; don't indiscriminately dump everything or someone's going
         // to end up uploading a bunch of passwords into pastebin.
         syslog().debug("PATH: " + env.get("PATH"));
         syslog().debug("USER: " + env.get("USER"));
         syslog().debug("HOME: " + env.get("HOME"));
-        final List<String> errorBuffer = new ArrayList<>();
+        final ArrayDeque<String> errorBuffer = new ArrayDeque<>(ERROR_CONTEXT_LINES);
         final Consumer<String> stdout = line -> {
-            syslog().debug("[STDOUT] " + line);
+            final String logLine = "[STDOUT] " + line;
+            syslog().debug(logLine);
             stdoutSink.accept(line);
-            errorBuffer.add("[STDOUT] " + line);
+            addErrorContext(errorBuffer, logLine);
         };
         final Consumer<String> stderr = line -> {
-            syslog().debug("[STDERR] " + line);
+            final String logLine = "[STDERR] " + line;
+            syslog().debug(logLine);
             stderrSink.accept(line);
-            errorBuffer.add("[STDERR] " + line);
+            addErrorContext(errorBuffer, logLine);
         };
         final int exit;
         try {
             final Process p = pb.start();
-            exit = drainAndWait(p, new LineWriter(stdout), new LineWriter(stderr));
+            exit = drainAndWait(p, stdout, stderr, errorBuffer);
         } catch (IOException | InterruptedException e) {
-            throw new ProcessException(args, 0, errorBuffer, e);
+            throw new ProcessException(args, 0, getErrorContext(errorBuffer), e);
         }
-        if (exit != 0) {
-            throw new ProcessException(args, exit, errorBuffer);
+        if (exit != 0 && throwOnNonZero) {
+            throw new ProcessException(args, exit, getErrorContext(errorBuffer));
         }
         return exit;
     }
 
+    /**
+     * @return a sink that shows process output on the hud.  Lines that arrive within HUD_UPDATE_MILLIS of the last
+     * one shown are skipped; the hud is just there to show that things are moving, and git can produce thousands of
+     * lines a second.
+     */
+    public static Consumer<String> hudOutput(final UserLogger ulog) {
+        final AtomicLong lastUpdate = new AtomicLong();
+        return line -> {
+            final long now = System.currentTimeMillis();
+            final long last = lastUpdate.get();
+            if (now - last >= HUD_UPDATE_MILLIS && lastUpdate.compareAndSet(last, now)) {
+                ulog.update(styledRaw(line, NATIVE_GIT));
+            }
+        };
+    }
+
     // ======================================================================
     // Private
 
-    private static class LineWriter extends Writer {
-
-        private final Consumer<String> sink;
-        private final StringBuilder buffer = new StringBuilder();
-
-        private LineWriter(final Consumer<String> sink) {
-            this.sink = requireNonNull(sink);
+    private static int drainAndWait(final Process process, final Consumer<String> stdoutSink, final Consumer<String> stderrSink, final Object sinkLock) throws IOException, InterruptedException {
+        final Cancellation cancellation = Cancellation.current();
+        final Thread stdoutReader = startReader(process.getInputStream(), stdoutSink, sinkLock, "fastback-stdout");
+        final Thread stderrReader = startReader(process.getErrorStream(), stderrSink, sinkLock, "fastback-stderr");
+        try {
+            while (!process.waitFor(CANCEL_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (cancellation.isCancelled()) {
+                    syslog().warn("Operation cancelled, stopping " + process.info().command().orElse("process"));
+                    destroyProcessTree(process);
+                    cancellation.check();
+                }
+            }
+        } catch (InterruptedException ie) {
+            destroyProcessTree(process);
+            throw ie;
         }
+        stdoutReader.join(DRAIN_WAIT_MILLIS);
+        stderrReader.join(DRAIN_WAIT_MILLIS);
+        return process.exitValue();
+    }
 
-        @Override
-        public void write(char[] cbuf, int off, int len) {
-            buffer.append(cbuf, off, len);
-            outputLines();
-        }
+    private static Thread startReader(final InputStream in, final Consumer<String> sink, final Object sinkLock, final String name) {
+        final Thread thread = new Thread(() -> readLines(in, sink, sinkLock), name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
 
-        private void outputLines() {
-            int lineStart = 0, lineEnd;
-            while ((lineEnd = findLineEnd(buffer, lineStart)) != -1) {
-                final String line = buffer.substring(lineStart, lineEnd).trim();
-                if (line.length() > 0) this.sink.accept(line);
-                lineStart = lineEnd + 1;
-            }
-            if (lineStart != 0) {
-                buffer.delete(0, lineStart);
+    /**
+     * Pass each line from the stream to the sink.  Git uses carriage returns to redraw progress lines, so those
+     * count as line ends too.
+     */
+    private static void readLines(final InputStream in, final Consumer<String> sink, final Object sinkLock) {
+        final char[] buffer = new char[8192];
+        final StringBuilder line = new StringBuilder();
+        try (final Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            int read;
+            while ((read = reader.read(buffer)) >= 0) {
+                int lineStart = 0;
+                for (int i = 0; i < read; i++) {
+                    if (buffer[i] == '\n' || buffer[i] == '\r') {
+                        line.append(buffer, lineStart, i - lineStart);
+                        emitLine(line, sink, sinkLock);
+                        lineStart = i + 1;
+                    }
+                }
+                line.append(buffer, lineStart, read - lineStart);
             }
+            emitLine(line, sink, sinkLock);
+        } catch (IOException e) {
+            syslog().debug("Stopped reading process output: " + e.getMessage()); // e.g., process was killed
         }
+    }
 
-        private static int findLineEnd(StringBuilder buffer, int lineStart) {
-            int newLine = buffer.indexOf("\n", lineStart);
-            int carriage = buffer.indexOf("\r", lineStart);
-            if (newLine == -1) return carriage;
-            if (carriage == -1) return newLine;
-            return Math.min(newLine, carriage);
+    private static void emitLine(final StringBuilder line, final Consumer<String> sink, final Object sinkLock) {
+        final String trimmed = line.toString().trim();
+        line.setLength(0);
+        if (trimmed.isEmpty()) return;
+        synchronized (sinkLock) {
+            sink.accept(trimmed);
         }
+    }
 
-        @Override
-        public void flush() {
-            outputLines();
-            if (buffer.length() > 0) {
-                this.sink.accept(buffer.toString());
-            }
-        }
+    /**
+     * Always called holding the sink lock, which is the buffer.
+     */
+    private static void addErrorContext(final ArrayDeque<String> errorBuffer, final String line) {
+        if (errorBuffer.size() == ERROR_CONTEXT_LINES) errorBuffer.removeFirst();
+        errorBuffer.addLast(line);
+    }
 
-        @Override
-        public void close() {
+    private static List<String> getErrorContext(final ArrayDeque<String> errorBuffer) {
+        synchronized (errorBuffer) {
+            return new ArrayList<>(errorBuffer);
         }
     }
 
-    private static int drainAndWait(Process process, Writer stdoutSink, Writer stderrSink) throws IOException, InterruptedException {
-
-        Reader stdoutReader = new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8);
-        Reader stderrReader = new InputStreamReader(process.getErrorStream(), StandardCharsets.UTF_8);
-
-        char[] buffer = new char[1024];
-
-        while (true) {
-            boolean readAny = false;
-            //
-            // process stdin
-            //
-            if (stdoutReader != null && stdoutReader.ready()) {
-                int read = stdoutReader.read(buffer, 0, buffer.length);
-                if (read < 0) {
-                    stdoutReader = null;
-                } else if (read > 0) {
-                    readAny = true;
-                    stdoutSink.write(buffer, 0, read);
-                }
-            }
-            //
-            // process stdout
-            //
-            if (stderrReader != null && stderrReader.ready()) {
-                int read = stderrReader.read(buffer, 0, buffer.length);
-                if (read < 0) {
-                    stderrReader = null;
-                } else if (read > 0) {
-                    readAny = true;
-                    stderrSink.write(buffer, 0, read);
-                }
-            }
-
-            if (readAny) {
-                continue;
-            } else if (!process.isAlive()) {
-                return process.exitValue();
-            } else {
-                try {
-                    Thread.sleep(10); // FIXME add timeout?
-                } catch (InterruptedException ie) {
-                    process.destroy();
-                    throw ie;
-                }
-            }
+    /**
+     * Stop the process and anything it started (git starts ssh, git-lfs and others).  They're asked nicely first,
+     * which gives git a chance to remove its lock files.
+     */
+    private static void destroyProcessTree(final Process process) throws InterruptedException {
+        // get these before the parent goes away and they get reparented
+        final List<ProcessHandle> descendants = process.descendants().toList();
+        descendants.forEach(ProcessHandle::destroy);
+        process.destroy();
+        if (!process.waitFor(DESTROY_GRACE_SECONDS, TimeUnit.SECONDS)) {
+            descendants.forEach(ProcessHandle::destroyForcibly);
+            process.destroyForcibly();
         }
     }
 }
@@ -0,0 +1,135 @@
+/*
+ * FastBack - Fast, incremental Minecraft backups powered by Git.
+ * Copyright (C) 2022 pcal.net
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pcal.fastback.mod;
+
+import net.pcal.fastback.logging.UserMessage;
+
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Objects.requireNonNull;
+import static net.pcal.fastback.logging.SystemLogger.syslog;
+
+/**
+ * MinecraftProvider for running fastback without minecraft, e.g. in benchmarks.  Messages go to the system log
+ * and world saving is just tracked.
+ *
+ * @author pcal
+ * @since 0.16.0
+ */
+public class HeadlessMinecraftProvider implements MinecraftProvider {
+
+    private static HeadlessMinecraftProvider INSTANCE = null;
+
+    private volatile Path worldDirectory;
+    private volatile boolean worldSaveEnabled = true;
+
+    /**
+     * Register a headless provider as the mod's provider, or return the one that was already registered.  The mod
+     * can only be registered once per jvm.
+     */
+    public static synchronized HeadlessMinecraftProvider register(final Path worldDirectory) {
+        if (INSTANCE == null) {
+            INSTANCE = new HeadlessMinecraftProvider();
+            MinecraftProvider.register(INSTANCE);
+        }
+        INSTANCE.setWorldDirectory(worldDirectory);
+        return INSTANCE;
+    }
+
+    public void setWorldDirectory(final Path worldDirectory) {
+        this.worldDirectory = requireNonNull(worldDirectory);
+    }
+
+    public boolean isWorldSaveEnabled() {
+        return this.worldSaveEnabled;
+    }
+
+    @Override
+    public String getModVersion() {
+        return "headless";
+    }
+
+    @Override
+    public Path getSavesDir() {
+        return null;
+    }
+
+    @Override
+    public Path getWorldDirectory() {
+        return this.worldDirectory;
+    }
+
+    @Override
+    public String getWorldName() {
+        return this.worldDirectory.getFileName().toString();
+    }
+
+    @Override
+    public boolean isClient() {
+        return false;
+    }
+
+    @Override
+    public boolean isOnDemandHydrationSupported() {
+        return false;
+    }
+
+    @Override
+    public void sendBroadcast(final UserMessage userMessage) {
+        syslog().debug("broadcast: " + userMessage);
+    }
+
+    @Override
+    public void setWorldSaveEnabled(final boolean enabled) {
+        this.worldSaveEnabled = enabled;
+    }
+
+    @Override
+    public void saveWorld() {
+    }
+
+    @Override
+    public void setHudText(final UserMessage userMessage) {
+    }
+
+    @Override
+    public void clearHudText() {
+    }
+
+    @Override
+    public void setMessageScreenText(final UserMessage userMessage) {
+        syslog().debug("message screen: " + userMessage);
+    }
+
+    @Override
+    public void setAutoSaveListener(final Runnable runnable) {
+    }
+
+    @Override
+    public void addBackupProperties(final Map<String, String> props) {
+    }
+
+    @Override
+    public Collection<Path> getModsBackupPaths() {
+        return List.of();
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * FastBack - Fast, incremental Minecraft backups powered by Git.
+ * Copyright (C) 2022 pcal.net
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pcal.fastback.repo;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * @author pcal
+ * @since 0.16.0
+ */
+public class ArchiveWriterTest {
+
+    private static final long MTIME = 1700000000000L;
+
+    @Test
+    public void testZipRoundTrip() throws IOException {
+        final Map<String, byte[]> files = testFiles();
+        final byte[] archive = write(ExportFormat.ZIP, files);
+        final Map<String, byte[]> read = new LinkedHashMap<>();
+        try (final ZipInputStream zin = new ZipInputStream(new ByteArrayInputStream(archive))) {
+            ZipEntry entry;
+            while ((entry = zin.getNextEntry()) != null) read.put(entry.getName(), zin.readAllBytes());
+        }
+        assertSameFiles(files, read);
+    }
+
+    /**
+     * Entries near the 4GB limit get zip64 local headers and data descriptors up front, since deflate can push their
+     * compressed size over the limit.  Forces that for every entry, then checks that the archive reads back and
+     * that the descriptors carry 64-bit sizes.
+     */
+    @Test
+    public void testZip64Entries(@TempDir Path tempDir) throws IOException {
+        final Map<String, byte[]> files = testFiles();
+        final Path zip = tempDir.resolve("export.zip");
+        try (final OutputStream out = Files.newOutputStream(zip); final ArchiveWriter writer = ArchiveWriter.createZip(out, 3, 0)) {
+            for (final Map.Entry<String, byte[]> e : files.entrySet()) {
+                writer.addFile(e.getKey(), e.getValue().length, false, MTIME, new ByteArrayInputStream(e.getValue()));
+            }
+        }
+        final byte[] archive = Files.readAllBytes(zip);
+        final Map<String, byte[]> read = new LinkedHashMap<>();
+        try (final ZipFile zf = new ZipFile(zip.toFile())) {
+            final Enumeration<? extends ZipEntry> entries = zf.entries();
+            while (entries.hasMoreElements()) {
+                final ZipEntry entry = entries.nextElement();
+                try (final InputStream in = zf.getInputStream(entry)) {
+                    read.put(entry.getName(), in.readAllBytes());
+                }
+            }
+            // the first entry starts at offset 0: local header, data, then the descriptor
+            final ZipEntry first = zf.getEntry(files.keySet().iterator().next());
+            final ByteBuffer local = ByteBuffer.wrap(archive).order(ByteOrder.LITTLE_ENDIAN);
+            assertEquals(0x04034b50, local.getInt(0));
+            assertEquals(45, local.getShort(4));
+            final int nameLength = local.getShort(26), extraLength = local.getShort(28);
+            assertEquals(20, extraLength);
+            assertEquals(0x0001, local.getShort(30 + nameLength));
+            final int descriptor = 30 + nameLength + extraLength + (int) first.getCompressedSize();
+            assertEquals(0x08074b50, local.getInt(descriptor));
+            assertEquals(first.getCompressedSize(), local.getLong(descriptor + 8));
+            assertEquals(first.getSize(), local.getLong(descriptor + 16));
+        }
+        assertSameFiles(files, read);
+    }
+
+    @Test
+    public void testTarGzRoundTrip() throws IOException {
+        final Map<String, byte[]> files = testFiles();
+        final byte[] archive = write(ExportFormat.TAR_GZ, files);
+        try (final InputStream in = new GZIPInputStream(new ByteArrayInputStream(archive))) {
+            assertSameFiles(files, readTar(in));
+        }
+    }
+
+    private static Map<String, byte[]> testFiles() {
+        final Random random = new Random(42);
+        final Map<String, byte[]> out = new LinkedHashMap<>();
+        out.put("level.dat", "hello".getBytes(StandardCharsets.UTF_8));
+        out.put("empty.txt", new byte[0]);
+        final byte[] big = new byte[BlockCompressor.BLOCK_SIZE * 2 + 12345];
+        for (int i = 0; i < big.length; i++) big[i] = (byte) (random.nextInt(16) + (i % 7));
+        out.put("region/r.0.0.mca", big);
+        out.put("dimensions/somemod/" + "a".repeat(120) + "/region/r.1.1.mca", "prefixed".getBytes(StandardCharsets.UTF_8));
+        out.put("b".repeat(150) + ".dat", "pax".getBytes(StandardCharsets.UTF_8));
+        return out;
+    }
+
+    private static byte[] write(ExportFormat format, Map<String, byte[]> files) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (final ArchiveWriter writer = ArchiveWriter.create(format, out, 3)) {
+            for (final Map.Entry<String, byte[]> e : files.entrySet()) {
+                writer.addFile(e.getKey(), e.getValue().length, false, MTIME, new ByteArrayInputStream(e.getValue()));
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static void assertSameFiles(Map<String, byte[]> expected, Map<String, byte[]> actual) {
+        assertEquals(expected.keySet(), actual.keySet());
+        for (final String path : expected.keySet()) assertArrayEquals(expected.get(path), actual.get(path), path);
+    }
+
+    /**
+     * Just enough of a tar reader to check what we write.
+     */
+    private static Map<String, byte[]> readTar(InputStream raw) throws IOException {
+        final DataInputStream in = new DataInputStream(raw);
+        final Map<String, byte[]> out = new LinkedHashMap<>();
+        String paxPath = null;
+        while (true) {
+            final byte[] header = new byte[512];
+            in.readFully(header);
+            if (header[0] == 0) return out;
+            final long size = Long.parseLong(field(header, 124, 12).trim(), 8);
+            final byte[] content = new byte[(int) size];
+            in.readFully(content);
+            in.readFully(new byte[(int) ((512 - size % 512) % 512)]);
+            if (header[156] == 'x') {
+                final String record = new String(content, StandardCharsets.UTF_8);
+                paxPath = record.substring(record.indexOf("path=") + 5, record.length() - 1);
+                assertEquals(content.length, Integer.parseInt(record.substring(0, record.indexOf(' '))));
+                continue;
+            }
+            final String prefix = field(header, 345, 155);
+            final String name = prefix.isEmpty() ? field(header, 0, 100) : prefix + "/" + field(header, 0, 100);
+            out.put(paxPath != null ? paxPath : name, content);
+            paxPath = null;
+        }
+    }
+
+    private static String field(byte[] header, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && header[end] != 0) end++;
+        return new String(header, offset, end - offset, StandardCharsets.UTF_8);
+    }
+}
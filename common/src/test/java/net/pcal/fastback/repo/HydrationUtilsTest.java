@@ -0,0 +1,74 @@
+/*
+ * FastBack - Fast, incremental Minecraft backups powered by Git.
+ * Copyright (C) 2022 pcal.net
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pcal.fastback.repo;
+
+import net.pcal.fastback.logging.Log4jLogger;
+import net.pcal.fastback.logging.SystemLogger;
+import org.apache.logging.log4j.LogManager;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * @author pcal
+ * @since 0.16.0
+ */
+public class HydrationUtilsTest {
+
+    @BeforeAll
+    public static void setup() {
+        SystemLogger.Singleton.register(new Log4jLogger(LogManager.getLogger("mocklogger")));
+    }
+
+    /**
+     * Everything the server reads at startup has to be hydrated before a lazily-restored world starts; only the
+     * region files can wait.
+     */
+    @Test
+    public void testListStartupPointerFiles(@TempDir Path worktree) throws Exception {
+        Files.createDirectories(worktree.resolve(".git"));
+        for (final String path : List.of(
+                "level.dat",
+                "playerdata/0000.dat",
+                "datapacks/terrain.zip",
+                "resources.zip",
+                "region/r.0.0.mca",
+                "entities/r.0.0.mca",
+                "DIM-1/poi/r.-1.0.mca")) {
+            writePointer(worktree.resolve(path));
+        }
+        Files.writeString(worktree.resolve("datapacks/hydrated.zip"), "real content");
+        assertEquals(Set.of("level.dat", "playerdata/0000.dat", "datapacks/terrain.zip", "resources.zip"),
+                Set.copyOf(HydrationUtils.listStartupPointerFiles(worktree)));
+    }
+
+    private static void writePointer(Path file) throws Exception {
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, "version https://git-lfs.github.com/spec/v1\n" +
+                "oid sha256:" + "0".repeat(64) + "\n" +
+                "size 1234\n");
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * FastBack - Fast, incremental Minecraft backups powered by Git.
+ * Copyright (C) 2022 pcal.net
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pcal.fastback.repo;
+
+import net.pcal.fastback.logging.Log4jLogger;
+import net.pcal.fastback.logging.SystemLogger;
+import org.apache.logging.log4j.LogManager;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.eclipse.jgit.lib.Constants.HEAD;
+import static org.eclipse.jgit.lib.Constants.R_HEADS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * @author pcal
+ * @since 0.16.0
+ */
+public class PruneUtilsTest {
+
+    @BeforeAll
+    public static void setup() {
+        SystemLogger.Singleton.register(new Log4jLogger(LogManager.getLogger("mocklogger")));
+    }
+
+    /**
+     * Native commits leave HEAD on the latest snapshot branch.  Deleting it along with others mustn't leave HEAD
+     * dangling.
+     */
+    @Test
+    public void testDeleteLocalBranchesSkipsCurrentBranch(@TempDir Path tempDir) throws Exception {
+        final Path worldDir = tempDir.resolve("world");
+        Git.init().setDirectory(worldDir.toFile()).call().close();
+        WorldIdUtils.createWorldId(worldDir);
+        try (final RepoImpl repo = new RepoImpl(Git.open(worldDir.toFile()))) {
+            final Repository jrepo = repo.getJGit().getRepository();
+            final ObjectId commit = emptyCommit(jrepo);
+            final String older = repo.createSnapshotId("2024-01-01_00-00-00").getBranchName();
+            final String newer = repo.createSnapshotId("2024-01-02_00-00-00").getBranchName();
+            for (final String branchName : List.of(older, newer)) {
+                final RefUpdate ru = jrepo.updateRef(R_HEADS + branchName);
+                ru.setNewObjectId(commit);
+                ru.forceUpdate();
+            }
+            jrepo.updateRef(HEAD).link(R_HEADS + newer);
+
+            PruneUtils.deleteLocalBranches(repo, List.of(older, newer));
+
+            assertNull(jrepo.exactRef(R_HEADS + older));
+            assertNotNull(jrepo.exactRef(R_HEADS + newer));
+            assertEquals(commit, jrepo.resolve(HEAD));
+        }
+    }
+
+    private static ObjectId emptyCommit(Repository repo) throws Exception {
+        try (final ObjectInserter ins = repo.newObjectInserter()) {
+            final CommitBuilder cb = new CommitBuilder();
+            cb.setTreeId(ins.insert(new TreeFormatter()));
+            cb.setAuthor(new PersonIdent("test", "test@example.com"));
+            cb.setCommitter(cb.getAuthor());
+            cb.setMessage("test");
+            final ObjectId id = ins.insert(cb);
+            ins.flush();
+            return id;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * FastBack - Fast, incremental Minecraft backups powered by Git.
+ * Copyright (C) 2022 pcal.net
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pcal.fastback.repo;
+
+import net.pcal.fastback.logging.Log4jLogger;
+import net.pcal.fastback.logging.SystemLogger;
+import net.pcal.fastback.repo.RegionFileUtils.Region;
+import org.apache.logging.log4j.LogManager;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static net.pcal.fastback.repo.ChunkRestoreUtils.getDimensionPath;
+import static net.pcal.fastback.repo.RegionFileUtils.SECTOR_SIZE;
+import static net.pcal.fastback.repo.RegionFileUtils.getChunkIndex;
+import static net.pcal.fastback.repo.RegionFileUtils.getRegionFileName;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author pcal
+ * @since 0.16.0
+ */
+public class RegionFileUtilsTest {
+
+    @BeforeAll
+    public static void setup() {
+        SystemLogger.Singleton.register(new Log4jLogger(LogManager.getLogger("mocklogger")));
+    }
+
+    @Test
+    public void testChunkCoordinates() {
+        assertEquals("r.0.0.mca", getRegionFileName(0, 31));
+        assertEquals("r.-1.1.mca", getRegionFileName(-1, 32));
+        assertEquals(0, getChunkIndex(32, -32));
+        assertEquals(31 + 31 * 32, getChunkIndex(-1, -1));
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        final Region region = Region.empty();
+        region.setChunk(0, payload(10, (byte) 1), 100);
+        region.setChunk(5, payload(SECTOR_SIZE * 3, (byte) 2), 200);
+        region.setChunk(1023, payload(SECTOR_SIZE - 4, (byte) 3), 300);
+        final byte[] written = write(region);
+        assertEquals(0, written.length % SECTOR_SIZE);
+        final Region parsed = Region.parse(written);
+        for (int i : new int[]{0, 5, 1023}) {
+            assertArrayEquals(region.getPayload(i), parsed.getPayload(i));
+            assertEquals(region.getTimestamp(i), parsed.getTimestamp(i));
+        }
+        assertNull(parsed.getPayload(1));
+        assertEquals(0, parsed.getTimestamp(1));
+    }
+
+    @Test
+    public void testSplice() throws IOException {
+        final Region live = Region.empty();
+        live.setChunk(0, payload(100, (byte) 1), 1);
+        live.setChunk(1, payload(100, (byte) 1), 1);
+        final Region snapshot = Region.empty();
+        snapshot.setChunk(1, payload(5000, (byte) 2), 2);
+        live.setChunk(1, snapshot.getPayload(1), snapshot.getTimestamp(1));
+        live.setChunk(2, snapshot.getPayload(2), snapshot.getTimestamp(2));
+        final Region parsed = Region.parse(write(live));
+        assertEquals(1, parsed.getPayload(0)[5]);
+        assertEquals(2, parsed.getPayload(1)[5]);
+        assertEquals(2, parsed.getTimestamp(1));
+        assertNull(parsed.getPayload(2));
+    }
+
+    @Test
+    public void testEmptyRegionFile() throws IOException {
+        assertTrue(Region.parse(new byte[0]).isEmpty());
+    }
+
+    @Test
+    public void testDimensionPaths() {
+        assertEquals("", getDimensionPath("overworld"));
+        assertEquals("DIM-1/", getDimensionPath("minecraft:the_nether"));
+        assertEquals("DIM1/", getDimensionPath("the_end"));
+        assertEquals("dimensions/mymod/deep/caves/", getDimensionPath("mymod:deep/caves"));
+        assertNull(getDimensionPath("mymod:../../etc"));
+        assertNull(getDimensionPath("has spaces"));
+    }
+
+    private static byte[] payload(int dataLength, byte fill) {
+        final ByteBuffer buf = ByteBuffer.allocate(4 + dataLength);
+        buf.putInt(dataLength);
+        buf.put((byte) 2); // zlib
+        while (buf.hasRemaining()) buf.put(fill);
+        return buf.array();
+    }
+
+    private static byte[] write(Region region) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        region.write(out);
+        return out.toByteArray();
+    }
+}
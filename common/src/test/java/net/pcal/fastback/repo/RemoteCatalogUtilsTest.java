@@ -0,0 +1,120 @@
+/*
+ * FastBack - Fast, incremental Minecraft backups powered by Git.
+ * Copyright (C) 2022 pcal.net
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pcal.fastback.repo;
+
+import net.pcal.fastback.logging.Log4jLogger;
+import net.pcal.fastback.logging.SystemLogger;
+import net.pcal.fastback.repo.RemoteCatalogUtils.RemoteListing;
+import org.apache.logging.log4j.LogManager;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+import static net.pcal.fastback.config.FastbackConfigKey.IS_NATIVE_GIT_ENABLED;
+import static net.pcal.fastback.config.OtherConfigKey.COMMIT_SIGNING_ENABLED;
+import static net.pcal.fastback.config.OtherConfigKey.REMOTE_PUSH_URL;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author pcal
+ * @since 0.16.0
+ */
+public class RemoteCatalogUtilsTest {
+
+    @BeforeAll
+    public static void setup() {
+        SystemLogger.Singleton.register(new Log4jLogger(LogManager.getLogger("mocklogger")));
+    }
+
+    /**
+     * Another world on the remote has already published a catalog, but ours hasn't yet.  Our existing branches
+     * still have to show up, the world id check still has to pass, and our branches have to make it into the
+     * catalog we publish.
+     */
+    @Test
+    public void testSharedRemoteWithoutOurCatalog(@TempDir Path tempDir) throws Exception {
+        final Path worldDir = tempDir.resolve("world");
+        final Git remote = Git.init().setBare(true).setDirectory(tempDir.resolve("remote").toFile()).call();
+        Git.init().setDirectory(worldDir.toFile()).call().close();
+        WorldIdUtils.createWorldId(worldDir);
+        try (final RepoImpl repo = new RepoImpl(Git.open(worldDir.toFile()))) {
+            repo.getConfig().updater().
+                    set(COMMIT_SIGNING_ENABLED, false).
+                    set(IS_NATIVE_GIT_ENABLED, false).
+                    set(REMOTE_PUSH_URL, tempDir.resolve("remote").toUri().toString()).
+                    save();
+            final SnapshotId older = repo.createSnapshotId("2024-01-01_00-00-00");
+            final SnapshotId newer = repo.createSnapshotId("2024-01-02_00-00-00");
+            final Repository r = remote.getRepository();
+            final ObjectId commit = emptyCommit(r);
+            createRef(r, "refs/heads/" + older.getBranchName(), commit);
+            createRef(r, "refs/heads/" + newer.getBranchName(), commit);
+            createRef(r, "refs/heads/zzzz/2024-01-01_00-00-00", commit);
+            createRef(r, "refs/fastback/catalog/zzzz", commit);
+
+            final RemoteListing before = RemoteCatalogUtils.listRemote(repo, false);
+            assertEquals(List.of(older, newer), List.copyOf(before.snapshots()));
+            assertTrue(before.worldIds().contains(new WorldIdUtils.WorldIdImpl("zzzz")));
+            assertTrue(before.worldIds().contains(repo.getWorldId()));
+
+            final SnapshotId pushed = repo.createSnapshotId("2024-01-03_00-00-00");
+            final Repository local = repo.getJGit().getRepository();
+            createRef(local, "refs/heads/" + pushed.getBranchName(), emptyCommit(local));
+            PushUtils.doPush(pushed, repo, message -> {});
+            assertTrue(r.getRefDatabase().findRef("refs/heads/" + pushed.getBranchName()) != null);
+            assertTrue(r.getRefDatabase().findRef("refs/fastback/catalog/" + repo.getWorldId()) != null);
+            final RemoteListing after = RemoteCatalogUtils.listRemote(repo, false);
+            assertEquals(Set.of(older, newer, pushed), after.snapshots());
+        } finally {
+            remote.close();
+        }
+    }
+
+    private static ObjectId emptyCommit(Repository repo) throws Exception {
+        try (final ObjectInserter ins = repo.newObjectInserter()) {
+            final CommitBuilder cb = new CommitBuilder();
+            cb.setTreeId(ins.insert(new TreeFormatter()));
+            cb.setAuthor(new PersonIdent("test", "test@example.com"));
+            cb.setCommitter(cb.getAuthor());
+            cb.setMessage("test");
+            final ObjectId id = ins.insert(cb);
+            ins.flush();
+            return id;
+        }
+    }
+
+    private static void createRef(Repository repo, String refName, ObjectId id) throws Exception {
+        final RefUpdate ru = repo.updateRef(refName);
+        ru.setNewObjectId(id);
+        ru.forceUpdate();
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * FastBack - Fast, incremental Minecraft backups powered by Git.
+ * Copyright (C) 2022 pcal.net
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pcal.fastback.repo;
+
+import net.pcal.fastback.logging.Log4jLogger;
+import net.pcal.fastback.logging.SystemLogger;
+import org.apache.logging.log4j.LogManager;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.Pack;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author pcal
+ * @since 0.16.0
+ */
+public class RepackUtilsTest {
+
+    private static final long GRACE_MILLIS = 24 * 60 * 60 * 1000L;
+
+    @BeforeAll
+    public static void setup() {
+        SystemLogger.Singleton.register(new Log4jLogger(LogManager.getLogger("mocklogger")));
+    }
+
+    @Test
+    public void testGracePeriodKeepsRecentObjects(@TempDir Path tempDir) throws IOException {
+        try (final FileRepository repo = (FileRepository) new FileRepositoryBuilder().setGitDir(tempDir.toFile()).setBare().build()) {
+            repo.create(true);
+            final ObjectId kept = commit(repo, "refs/heads/kept", 10000);
+            final ObjectId pruned = commit(repo, "refs/heads/pruned", 50000);
+            commit(repo, "refs/heads/pruned2", 60000);
+            RepackUtils.jgit_incrementalRepack(repo, false, 0, NullProgressMonitor.INSTANCE);
+            deleteBranch(repo, "refs/heads/pruned");
+            deleteBranch(repo, "refs/heads/pruned2");
+            final ObjectId looseGarbage = insertBlob(repo, 1000);
+
+            // everything is brand new, as if a push were still in flight
+            RepackUtils.jgit_incrementalRepack(repo, false, GRACE_MILLIS, NullProgressMonitor.INSTANCE);
+            assertTrue(exists(tempDir, pruned));
+            assertTrue(exists(tempDir, looseGarbage));
+
+            // once it's past the grace period, the garbage goes
+            backdate(repo, 2 * GRACE_MILLIS);
+            RepackUtils.jgit_incrementalRepack(repo, false, GRACE_MILLIS, NullProgressMonitor.INSTANCE);
+            assertFalse(exists(tempDir, pruned));
+            assertFalse(exists(tempDir, looseGarbage));
+            assertTrue(exists(tempDir, kept));
+        }
+    }
+
+    @Test
+    public void testNoGracePeriod(@TempDir Path tempDir) throws IOException {
+        try (final FileRepository repo = (FileRepository) new FileRepositoryBuilder().setGitDir(tempDir.toFile()).setBare().build()) {
+            repo.create(true);
+            final ObjectId kept = commit(repo, "refs/heads/kept", 10000);
+            final ObjectId looseGarbage = insertBlob(repo, 1000);
+            RepackUtils.jgit_incrementalRepack(repo, false, 0, NullProgressMonitor.INSTANCE);
+            assertFalse(exists(tempDir, looseGarbage));
+            assertTrue(exists(tempDir, kept));
+        }
+    }
+
+    /**
+     * With a .keep pack around, we can never write a pack with bitmaps.  That mustn't turn every run into a full
+     * rollup; big packs should be left alone like they are when there are bitmaps.
+     */
+    @Test
+    public void testKeptPackDoesNotForceRollup(@TempDir Path tempDir) throws IOException {
+        try (final FileRepository repo = (FileRepository) new FileRepositoryBuilder().setGitDir(tempDir.toFile()).setBare().build()) {
+            repo.create(true);
+            commit(repo, "refs/heads/kept", 1000);
+            RepackUtils.jgit_incrementalRepack(repo, true, 0, NullProgressMonitor.INSTANCE);
+            for (final Path pack : listPacks(tempDir)) {
+                Files.createFile(pack.resolveSibling(pack.getFileName().toString().replace(".pack", ".keep")));
+            }
+            commit(repo, "refs/heads/big", 200000);
+            RepackUtils.jgit_incrementalRepack(repo, true, 0, NullProgressMonitor.INSTANCE);
+            final Set<Path> before = listPacks(tempDir);
+            assertEquals(2, before.size());
+
+            commit(repo, "refs/heads/small", 100);
+            RepackUtils.jgit_incrementalRepack(repo, true, 0, NullProgressMonitor.INSTANCE);
+            final Set<Path> after = listPacks(tempDir);
+            assertEquals(3, after.size());
+            assertTrue(after.containsAll(before));
+        }
+    }
+
+    private static Set<Path> listPacks(Path gitDir) throws IOException {
+        try (final Stream<Path> files = Files.list(gitDir.resolve("objects/pack"))) {
+            return files.filter(f -> f.toString().endsWith(".pack")).collect(Collectors.toSet());
+        }
+    }
+
+    /**
+     * Checks with a fresh repo; the one we've been using caches what it has seen.
+     */
+    private static boolean exists(Path gitDir, ObjectId id) throws IOException {
+        try (final FileRepository repo = (FileRepository) new FileRepositoryBuilder().setGitDir(gitDir.toFile()).setMustExist(true).build()) {
+            return repo.getObjectDatabase().has(id);
+        }
+    }
+
+    private static ObjectId commit(FileRepository repo, String refName, int size) throws IOException {
+        final ObjectId blob = insertBlob(repo, size);
+        final ObjectId commit;
+        try (final ObjectInserter ins = repo.newObjectInserter()) {
+            final TreeFormatter tree = new TreeFormatter();
+            tree.append("data", FileMode.REGULAR_FILE, blob);
+            final CommitBuilder cb = new CommitBuilder();
+            cb.setTreeId(ins.insert(tree));
+            cb.setAuthor(new PersonIdent("test", "test@example.com"));
+            cb.setCommitter(cb.getAuthor());
+            cb.setMessage(refName);
+            commit = ins.insert(cb);
+            ins.flush();
+        }
+        final RefUpdate ru = repo.updateRef(refName);
+        ru.setNewObjectId(commit);
+        ru.forceUpdate();
+        return commit;
+    }
+
+    private static ObjectId insertBlob(FileRepository repo, int size) throws IOException {
+        final byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        try (final ObjectInserter ins = repo.newObjectInserter()) {
+            final ObjectId id = ins.insert(Constants.OBJ_BLOB, data);
+            ins.flush();
+            return id;
+        }
+    }
+
+    private static void deleteBranch(FileRepository repo, String refName) throws IOException {
+        final RefUpdate ru = repo.updateRef(refName);
+        ru.setForceUpdate(true);
+        ru.delete();
+    }
+
+    private static void backdate(FileRepository repo, long millis) {
+        final long time = System.currentTimeMillis() - millis;
+        for (final Pack pack : repo.getObjectDatabase().getPacks()) pack.getPackFile().setLastModified(time);
+        final File[] dirs = repo.getObjectDatabase().getDirectory().listFiles((dir, name) -> name.length() == 2);
+        if (dirs == null) return;
+        for (final File dir : dirs) {
+            final File[] files = dir.listFiles();
+            if (files != null) for (final File f : files) f.setLastModified(time);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * FastBack - Fast, incremental Minecraft backups powered by Git.
+ * Copyright (C) 2022 pcal.net
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pcal.fastback.repo;
+
+import net.pcal.fastback.logging.Log4jLogger;
+import net.pcal.fastback.logging.SystemLogger;
+import net.pcal.fastback.logging.UserLogger;
+import net.pcal.fastback.mod.HeadlessMinecraftProvider;
+import net.pcal.fastback.repo.RunMetrics.Phase;
+import org.apache.logging.log4j.LogManager;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.Pack;
+import org.eclipse.jgit.internal.storage.pack.PackExt;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static net.pcal.fastback.config.FastbackConfigKey.IS_NATIVE_GIT_ENABLED;
+import static net.pcal.fastback.config.OtherConfigKey.COMMIT_SIGNING_ENABLED;
+import static net.pcal.fastback.config.OtherConfigKey.REMOTE_PUSH_URL;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author pcal
+ * @since 0.16.0
+ */
+public class RepoImplTest {
+
+    @BeforeAll
+    public static void setup() {
+        SystemLogger.Singleton.register(new Log4jLogger(LogManager.getLogger("mocklogger")));
+    }
+
+    /**
+     * Runs gc the way /backup gc and the full-gc action do, on a jgit repo with the default settings: incremental
+     * gc with a reachability index.
+     */
+    @Test
+    public void testDoGc(@TempDir Path tempDir) throws Exception {
+        final Path worldDir = tempDir.resolve("world");
+        Git.init().setDirectory(worldDir.toFile()).call().close();
+        WorldIdUtils.createWorldId(worldDir);
+        final UserLogger ulog = message -> {};
+        final ObjectId snapshot, garbage;
+        try (final RepoImpl repo = new RepoImpl(Git.open(worldDir.toFile()))) {
+            repo.getConfig().updater().
+                    set(COMMIT_SIGNING_ENABLED, false).
+                    set(IS_NATIVE_GIT_ENABLED, false).
+                    save();
+            final Repository jrepo = repo.getJGit().getRepository();
+            try (final ObjectInserter ins = jrepo.newObjectInserter()) {
+                final TreeFormatter tree = new TreeFormatter();
+                tree.append("level.dat", FileMode.REGULAR_FILE, ins.insert(Constants.OBJ_BLOB, "level".getBytes(StandardCharsets.UTF_8)));
+                final CommitBuilder cb = new CommitBuilder();
+                cb.setTreeId(ins.insert(tree));
+                cb.setAuthor(new PersonIdent("test", "test@example.com"));
+                cb.setCommitter(cb.getAuthor());
+                cb.setMessage("snapshot");
+                snapshot = ins.insert(cb);
+                garbage = ins.insert(Constants.OBJ_BLOB, "garbage".getBytes(StandardCharsets.UTF_8));
+                ins.flush();
+            }
+            final RefUpdate ru = jrepo.updateRef(Constants.R_HEADS + repo.createSnapshotId("2024-01-01_00-00-00").getBranchName());
+            ru.setNewObjectId(snapshot);
+            ru.forceUpdate();
+
+            repo.doGc(ulog);
+        }
+        final Path gitDir = worldDir.resolve(".git");
+        try (final FileRepository jrepo = (FileRepository) new FileRepositoryBuilder().setGitDir(gitDir.toFile()).setMustExist(true).build()) {
+            assertTrue(jrepo.getObjectDatabase().has(snapshot));
+            assertFalse(jrepo.getObjectDatabase().has(garbage));
+            assertEquals(1, jrepo.getObjectDatabase().getPacks().size());
+            final Pack pack = jrepo.getObjectDatabase().getPacks().iterator().next();
+            assertTrue(pack.getPackFile().create(PackExt.BITMAP_INDEX).exists());
+        }
+        assertTrue(Files.exists(gitDir.resolve("objects/info/commit-graph")));
+        assertTrue(Files.exists(gitDir.resolve("packed-refs")));
+    }
+
+    /**
+     * A full backup has to get past the native git check and record its push phases in the run ledger.
+     */
+    @Test
+    public void testDoCommitAndPushRecordsRun(@TempDir Path tempDir) throws Exception {
+        final Path worldDir = tempDir.resolve("world");
+        Git.init().setDirectory(worldDir.toFile()).call().close();
+        Git.init().setBare(true).setDirectory(tempDir.resolve("remote").toFile()).call().close();
+        WorldIdUtils.createWorldId(worldDir);
+        Files.writeString(worldDir.resolve("level.dat"), "level");
+        HeadlessMinecraftProvider.register(worldDir);
+        try (final RepoImpl repo = new RepoImpl(Git.open(worldDir.toFile()))) {
+            repo.getConfig().updater().
+                    set(COMMIT_SIGNING_ENABLED, false).
+                    set(IS_NATIVE_GIT_ENABLED, false).
+                    set(REMOTE_PUSH_URL, tempDir.resolve("remote").toUri().toString()).
+                    save();
+            repo.doCommitAndPush(message -> {});
+        }
+        final List<RunLedger.Entry> runs = RunLedger.read(worldDir.resolve(".git/fastback/run-ledger").toFile());
+        assertEquals(1, runs.size());
+        assertEquals("full", runs.get(0).action());
+        assertEquals(RunLedger.OK, runs.get(0).outcome());
+        assertTrue(runs.get(0).phaseMillis().containsKey(Phase.LS_REMOTE));
+        assertTrue(runs.get(0).phaseMillis().containsKey(Phase.PUSH));
+    }
+}
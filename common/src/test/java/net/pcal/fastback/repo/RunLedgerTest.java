@@ -0,0 +1,101 @@
+/*
+ * FastBack - Fast, incremental Minecraft backups powered by Git.
+ * Copyright (C) 2022 pcal.net
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pcal.fastback.repo;
+
+import net.pcal.fastback.logging.Log4jLogger;
+import net.pcal.fastback.logging.SystemLogger;
+import net.pcal.fastback.repo.RunMetrics.Phase;
+import org.apache.logging.log4j.LogManager;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author pcal
+ * @since 0.16.0
+ */
+public class RunLedgerTest {
+
+    @BeforeAll
+    public static void setup() {
+        SystemLogger.Singleton.register(new Log4jLogger(LogManager.getLogger("mocklogger")));
+    }
+
+    @Test
+    public void testRoundTrip(@TempDir Path tempDir) throws IOException {
+        final File file = tempDir.resolve("fastback/run-ledger").toFile();
+        final Map<Phase, Long> phases = new EnumMap<>(Phase.class);
+        phases.put(Phase.SCAN, 120L);
+        phases.put(Phase.LS_REMOTE, 45L);
+        final RunLedger.Entry full = new RunLedger.Entry(1700000000000L, "full", RunLedger.OK, 9000, 12, 34567, phases);
+        final RunLedger.Entry gc = new RunLedger.Entry(1700000100000L, "gc", RunLedger.FAILED, 500, -1, -1, new EnumMap<>(Phase.class));
+        RunLedger.append(file, full);
+        RunLedger.append(file, gc);
+        Files.writeString(file.toPath(), "garbage\n", StandardOpenOption.APPEND);
+        assertEquals(List.of(full, gc), RunLedger.read(file));
+        assertTrue(Files.readString(file.toPath()).contains("ls-remote=45"));
+    }
+
+    @Test
+    public void testParseIgnoresUnknownPhases() {
+        final RunLedger.Entry e = RunLedger.Entry.parse("1\tlocal\tok\t10\t-\t-\tscan=3,warp-drive=7");
+        assertEquals(Map.of(Phase.SCAN, 3L), e.phaseMillis());
+        assertNull(RunLedger.Entry.parse("1\tlocal\tok"));
+    }
+
+    @Test
+    public void testPercentile() {
+        final long[] values = {10, 20, 30, 40, 50, 60, 70, 80, 90, 100};
+        assertEquals(50, RunLedger.percentile(values, 50));
+        assertEquals(90, RunLedger.percentile(values, 90));
+        assertEquals(100, RunLedger.percentile(values, 100));
+        assertEquals(10, RunLedger.percentile(values, 1));
+        assertEquals(7, RunLedger.percentile(new long[]{7}, 90));
+    }
+
+    @Test
+    public void testPrometheusFile(@TempDir Path tempDir) throws IOException {
+        final Map<Phase, Long> phases = new EnumMap<>(Phase.class);
+        phases.put(Phase.PUSH, 2500L);
+        final List<RunLedger.Entry> entries = List.of(
+                new RunLedger.Entry(1700000000000L, "full", RunLedger.FAILED, 1000, -1, -1, new EnumMap<>(Phase.class)),
+                new RunLedger.Entry(1700000100000L, "full", RunLedger.OK, 3000, 5, 1024, phases));
+        final Path out = tempDir.resolve("textfile/fastback.prom");
+        RunLedger.writePrometheusFile(out, "my \"world\"", entries);
+        final String text = Files.readString(out);
+        assertTrue(text.contains("fastback_run_duration_seconds{world=\"my \\\"world\\\"\",action=\"full\"} 3.0\n"), text);
+        assertTrue(text.contains("fastback_run_success{world=\"my \\\"world\\\"\",action=\"full\"} 1\n"), text);
+        assertTrue(text.contains("fastback_phase_duration_seconds{world=\"my \\\"world\\\"\",phase=\"push\"} 2.5\n"), text);
+        assertTrue(text.contains("outcome=\"failed\"} 1\n"), text);
+        assertTrue(text.contains("fastback_snapshot_changed_bytes{world=\"my \\\"world\\\"\"} 1024\n"), text);
+    }
+}
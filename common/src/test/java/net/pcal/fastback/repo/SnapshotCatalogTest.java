@@ -0,0 +1,174 @@
+/*
+ * FastBack - Fast, incremental Minecraft backups powered by Git.
+ * Copyright (C) 2022 pcal.net
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pcal.fastback.repo;
+
+import net.pcal.fastback.logging.Log4jLogger;
+import net.pcal.fastback.logging.SystemLogger;
+import org.apache.logging.log4j.LogManager;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+import static net.pcal.fastback.config.FastbackConfigKey.IS_NATIVE_GIT_ENABLED;
+import static net.pcal.fastback.config.OtherConfigKey.COMMIT_SIGNING_ENABLED;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * @author pcal
+ * @since 0.16.0
+ */
+public class SnapshotCatalogTest {
+
+    @BeforeAll
+    public static void setup() {
+        SystemLogger.Singleton.register(new Log4jLogger(LogManager.getLogger("mocklogger")));
+    }
+
+    @Test
+    public void testFileFormat(@TempDir Path tempDir) throws Exception {
+        try (final RepoImpl repo = createRepo(tempDir)) {
+            final SnapshotId sid = repo.createSnapshotId("2024-01-01_00-00-00");
+            final ObjectId commit = createBranch(repo, sid, "one");
+            final SnapshotStats stats = SnapshotCatalog.recordCommit(repo, sid, 1234);
+            assertNotNull(stats);
+            assertEquals(1234, stats.durationMillis());
+            assertEquals(1, stats.changedFileCount());
+            assertEquals(3, stats.bytesAdded());
+
+            final List<String> lines = Files.readAllLines(catalogFile(repo), StandardCharsets.UTF_8);
+            assertEquals(2, lines.size());
+            assertEquals("# fastback snapshot catalog v1", lines.get(0));
+            final String[] f = lines.get(1).split("\t");
+            assertEquals(9, f.length);
+            assertEquals(sid.getBranchName(), f[0]);
+            assertEquals(sid.getShortName(), f[1]);
+            assertEquals(String.valueOf(sid.getDate().getTime()), f[2]);
+            assertEquals(commit.name(), f[3]);
+            assertEquals(stats.treeId(), f[4]);
+
+            final SnapshotCatalog catalog = SnapshotCatalog.load(repo);
+            assertEquals(Set.of(sid), catalog.getSnapshots());
+            assertEquals(stats, catalog.getStats(sid));
+        }
+    }
+
+    /**
+     * Branches created, moved and deleted behind the catalog's back have to show up in the next load, and
+     * loading must not write anything.
+     */
+    @Test
+    public void testReconcile(@TempDir Path tempDir) throws Exception {
+        try (final RepoImpl repo = createRepo(tempDir)) {
+            final SnapshotId sid1 = repo.createSnapshotId("2024-01-01_00-00-00");
+            final SnapshotId sid2 = repo.createSnapshotId("2024-01-02_00-00-00");
+            createBranch(repo, sid1, "one");
+            SnapshotCatalog.recordCommit(repo, sid1, 1);
+            final byte[] saved = Files.readAllBytes(catalogFile(repo));
+            assertEquals(Set.of(sid1), SnapshotCatalog.load(repo).getSnapshots());
+
+            createBranch(repo, sid2, "two");
+            SnapshotCatalog catalog = SnapshotCatalog.load(repo);
+            assertEquals(Set.of(sid1, sid2), catalog.getSnapshots());
+            assertNotNull(catalog.getStats(sid1));
+            assertNull(catalog.getStats(sid2));
+
+            createBranch(repo, sid1, "moved");
+            catalog = SnapshotCatalog.load(repo);
+            assertEquals(Set.of(sid1, sid2), catalog.getSnapshots());
+            assertNull(catalog.getStats(sid1));
+
+            final RefUpdate ru = repo.getJGit().getRepository().updateRef(Constants.R_HEADS + sid1.getBranchName());
+            ru.setForceUpdate(true);
+            ru.delete();
+            assertEquals(Set.of(sid2), SnapshotCatalog.load(repo).getSnapshots());
+            assertEquals(new String(saved, StandardCharsets.UTF_8), Files.readString(catalogFile(repo)));
+        }
+    }
+
+    /**
+     * A backup holding the lock mustn't make listing fail.
+     */
+    @Test
+    public void testLoadWhileLocked(@TempDir Path tempDir) throws Exception {
+        try (final RepoImpl repo = createRepo(tempDir)) {
+            final SnapshotId sid = repo.createSnapshotId("2024-01-01_00-00-00");
+            createBranch(repo, sid, "one");
+            SnapshotCatalog.recordCommit(repo, sid, 1);
+            final Path lockFile = catalogFile(repo).resolveSibling("snapshot-catalog.lock");
+            Files.createFile(lockFile);
+            createBranch(repo, repo.createSnapshotId("2024-01-02_00-00-00"), "two");
+            assertEquals(2, SnapshotCatalog.load(repo).getSnapshots().size());
+            Files.delete(lockFile);
+        }
+    }
+
+    private static RepoImpl createRepo(Path tempDir) throws Exception {
+        final Path worldDir = tempDir.resolve("world");
+        Git.init().setDirectory(worldDir.toFile()).call().close();
+        WorldIdUtils.createWorldId(worldDir);
+        final RepoImpl repo = new RepoImpl(Git.open(worldDir.toFile()));
+        repo.getConfig().updater().
+                set(COMMIT_SIGNING_ENABLED, false).
+                set(IS_NATIVE_GIT_ENABLED, false).
+                save();
+        return repo;
+    }
+
+    private static Path catalogFile(RepoImpl repo) {
+        return repo.getDirectory().toPath().resolve("fastback/snapshot-catalog");
+    }
+
+    private static ObjectId createBranch(RepoImpl repo, SnapshotId sid, String content) throws Exception {
+        final Repository jrepo = repo.getJGit().getRepository();
+        final ObjectId commit;
+        try (final ObjectInserter ins = jrepo.newObjectInserter()) {
+            final TreeFormatter tree = new TreeFormatter();
+            tree.append("level.dat", FileMode.REGULAR_FILE, ins.insert(Constants.OBJ_BLOB, content.getBytes(StandardCharsets.UTF_8)));
+            final CommitBuilder cb = new CommitBuilder();
+            cb.setTreeId(ins.insert(tree));
+            cb.setAuthor(new PersonIdent("test", "test@example.com"));
+            cb.setCommitter(cb.getAuthor());
+            cb.setMessage(sid.getBranchName());
+            commit = ins.insert(cb);
+            ins.flush();
+        }
+        final RefUpdate ru = jrepo.updateRef(Constants.R_HEADS + sid.getBranchName());
+        ru.setNewObjectId(commit);
+        ru.forceUpdate();
+        return commit;
+    }
+}
@@ -0,0 +1,506 @@
+/*
+ * FastBack - Fast, incremental Minecraft backups powered by Git.
+ * Copyright (C) 2022 pcal.net
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pcal.fastback.repo;
+
+import net.pcal.fastback.repo.RegionFileUtils.Region;
+import org.apache.commons.io.FileUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static java.util.Objects.requireNonNull;
+import static net.pcal.fastback.repo.RegionFileUtils.CHUNKS_PER_REGION;
+
+/**
+ * Generates worlds that look enough like real minecraft worlds to benchmark backups against: region files with
+ * valid headers and zlib-compressed chunk nbt, matching entities and poi regions, a level.dat and playerdata.
+ * <p>
+ * Everything is derived from the seed, so the same options always produce byte-for-byte the same world.  After
+ * generating, {@link #mutate} rewrites a chosen fraction of the chunks the way a running server would, so
+ * successive snapshots have a controllable amount of churn.
+ *
+ * @author pcal
+ * @since 0.16.0
+ */
+public class SyntheticWorld {
+
+    // ======================================================================
+    // Constants
+
+    /**
+     * @param seed              everything about the world is derived from this.
+     * @param targetRegionBytes keep adding terrain regions until they add up to at least this many bytes.
+     * @param chunkDensity      fraction of the chunks in each region that have been generated.
+     * @param playerCount       number of playerdata files.
+     */
+    public record Options(long seed, long targetRegionBytes, double chunkDensity, int playerCount) {
+
+        public static Options of(long seed, long targetRegionBytes) {
+            return new Options(seed, targetRegionBytes, 0.9, 4);
+        }
+    }
+
+    private static final int DATA_VERSION = 3700; // 1.20.4
+    private static final int MIN_SECTION = -4;
+    private static final int SECTION_COUNT = 24;
+    private static final int SEA_LEVEL = 63;
+    private static final int BLOCKS_PER_SECTION = 4096;
+    private static final long BASE_TIMESTAMP = 1700000000L;
+
+    /**
+     * Every eighth region also gets generated in the nether.
+     */
+    private static final int NETHER_EVERY = 8;
+
+    private static final String[] UNDERGROUND = {"minecraft:stone", "minecraft:deepslate", "minecraft:andesite",
+            "minecraft:diorite", "minecraft:granite", "minecraft:gravel", "minecraft:coal_ore", "minecraft:iron_ore",
+            "minecraft:copper_ore", "minecraft:cave_air", "minecraft:water", "minecraft:dirt"};
+    private static final String[] SURFACE = {"minecraft:air", "minecraft:grass_block", "minecraft:dirt",
+            "minecraft:oak_log", "minecraft:oak_leaves", "minecraft:short_grass", "minecraft:water", "minecraft:sand"};
+    private static final String[] ENTITY_TYPES = {"minecraft:cow", "minecraft:sheep", "minecraft:zombie",
+            "minecraft:item", "minecraft:bat"};
+
+    // ======================================================================
+    // Fields
+
+    private final Path worldDir;
+    private final Options options;
+    private final List<RegionRef> regions;
+    private int generation;
+
+    /**
+     * A region that exists in the world, identified by its dimension directory and region coordinates.
+     */
+    private record RegionRef(String dimensionPath, int regionX, int regionZ) {
+
+        Path file(Path worldDir, String kind) {
+            return worldDir.resolve(dimensionPath + kind).resolve("r." + regionX + "." + regionZ + ".mca");
+        }
+    }
+
+    // ======================================================================
+    // Public
+
+    /**
+     * Generate a new world in the given directory, which must not already contain one.
+     */
+    public static SyntheticWorld generate(final Path worldDir, final Options options) throws IOException {
+        final SyntheticWorld out = new SyntheticWorld(worldDir, options, new ArrayList<>(), 0);
+        long regionBytes = 0;
+        int i = 0;
+        while (regionBytes < options.targetRegionBytes() || out.regions.isEmpty()) {
+            final int[] xz = spiral(i);
+            final RegionRef overworld = new RegionRef("", xz[0], xz[1]);
+            out.writeRegion(overworld, null);
+            out.regions.add(overworld);
+            regionBytes += Files.size(overworld.file(worldDir, "region"));
+            if (i % NETHER_EVERY == 0) {
+                final RegionRef nether = new RegionRef("DIM-1/", xz[0], xz[1]);
+                out.writeRegion(nether, null);
+                out.regions.add(nether);
+            }
+            i++;
+        }
+        out.writeMetadata();
+        return out;
+    }
+
+    /**
+     * Copy the world to another directory, e.g. to reuse an expensive-to-generate world across benchmark runs.
+     */
+    public SyntheticWorld copyTo(final Path targetDir) throws IOException {
+        FileUtils.copyDirectory(this.worldDir.toFile(), targetDir.toFile());
+        return new SyntheticWorld(targetDir, this.options, new ArrayList<>(this.regions), this.generation);
+    }
+
+    public Path getWorldDirectory() {
+        return this.worldDir;
+    }
+
+    /**
+     * @return the terrain region files, overworld and nether.
+     */
+    public List<Path> getRegionFiles() {
+        final List<Path> out = new ArrayList<>();
+        for (final RegionRef r : this.regions) out.add(r.file(this.worldDir, "region"));
+        return out;
+    }
+
+    /**
+     * Rewrite the given fraction of the world's chunks, along with level.dat and playerdata, which the server
+     * rewrites on every save.  Which chunks change is determined by the seed and the number of previous mutations.
+     *
+     * @return the number of chunks that were changed.
+     */
+    public int mutate(final double chunkFraction) throws IOException {
+        this.generation++;
+        final SplittableRandom random = new SplittableRandom(mix(this.options.seed(), "mutate", this.generation, 0));
+        int changed = 0;
+        for (final RegionRef region : this.regions) {
+            final boolean[] dirty = new boolean[CHUNKS_PER_REGION];
+            boolean any = false;
+            for (int i = 0; i < CHUNKS_PER_REGION; i++) {
+                if (random.nextDouble() < chunkFraction && isChunkPresent(region, i)) {
+                    dirty[i] = true;
+                    any = true;
+                    changed++;
+                }
+            }
+            if (any) writeRegion(region, dirty);
+        }
+        writeMetadata();
+        return changed;
+    }
+
+    /**
+     * Delete the given fraction of the regions, e.g. as if someone had trimmed the world with an external tool.
+     *
+     * @return the number of regions that were deleted.
+     */
+    public int deleteRegions(final double fraction) throws IOException {
+        final List<RegionRef> shuffled = new ArrayList<>(this.regions);
+        Collections.shuffle(shuffled, new Random(mix(this.options.seed(), "delete", this.generation, 0)));
+        final int count = Math.max(1, (int) Math.round(shuffled.size() * fraction));
+        for (final RegionRef region : shuffled.subList(0, count)) {
+            for (final String kind : List.of("region", "entities", "poi")) {
+                Files.deleteIfExists(region.file(this.worldDir, kind));
+            }
+            this.regions.remove(region);
+        }
+        return count;
+    }
+
+    // ======================================================================
+    // Private
+
+    private SyntheticWorld(final Path worldDir, final Options options, final List<RegionRef> regions, final int generation) {
+        this.worldDir = requireNonNull(worldDir);
+        this.options = requireNonNull(options);
+        this.regions = regions;
+        this.generation = generation;
+    }
+
+    /**
+     * Write the terrain, entities and poi files for a region.
+     *
+     * @param dirty chunks to regenerate for the current generation, or null to write the region as first generated.
+     */
+    private void writeRegion(final RegionRef ref, final boolean[] dirty) throws IOException {
+        final Path terrainFile = ref.file(this.worldDir, "region");
+        final Region terrain = dirty == null ? Region.empty() : Region.parse(Files.readAllBytes(terrainFile));
+        final Path entitiesFile = ref.file(this.worldDir, "entities");
+        final Region entities = dirty == null || !Files.exists(entitiesFile) ? Region.empty() : Region.parse(Files.readAllBytes(entitiesFile));
+        final Region poi = dirty == null ? Region.empty() : null;
+        final int timestamp = (int) (BASE_TIMESTAMP + this.generation * 300L);
+        for (int i = 0; i < CHUNKS_PER_REGION; i++) {
+            if (dirty != null ? !dirty[i] : !isChunkPresent(ref, i)) continue;
+            final int chunkX = ref.regionX() * 32 + (i & 31), chunkZ = ref.regionZ() * 32 + (i >> 5);
+            final SplittableRandom random = new SplittableRandom(mix(this.options.seed(), ref.dimensionPath(), chunkX, chunkZ));
+            // Terrain depends only on position.  What players have done to it depends on the generation.
+            final SplittableRandom activity = new SplittableRandom(mix(this.options.seed(), "activity", i + ref.regionX() * 7919 + ref.regionZ() * 104729, this.generation));
+            terrain.setChunk(i, payload(terrainChunk(chunkX, chunkZ, random, activity)), timestamp);
+            final Map<String, Object> entityChunk = entityChunk(chunkX, chunkZ, activity);
+            entities.setChunk(i, entityChunk == null ? null : payload(entityChunk), timestamp);
+            if (poi != null && random.nextInt(16) == 0) poi.setChunk(i, payload(poiChunk(random)), timestamp);
+        }
+        write(terrain, terrainFile);
+        if (!entities.isEmpty()) {
+            write(entities, entitiesFile);
+        } else {
+            Files.deleteIfExists(entitiesFile);
+        }
+        if (poi != null && !poi.isEmpty()) write(poi, ref.file(this.worldDir, "poi"));
+    }
+
+    private boolean isChunkPresent(final RegionRef ref, final int index) {
+        final long h = mix(this.options.seed(), ref.dimensionPath() + "present", ref.regionX() * 1024 + index, ref.regionZ());
+        return (h >>> 11) * 0x1.0p-53 < this.options.chunkDensity();
+    }
+
+    private Map<String, Object> terrainChunk(final int chunkX, final int chunkZ, final SplittableRandom random, final SplittableRandom activity) {
+        final int surface = SEA_LEVEL + random.nextInt(-4, 24);
+        final List<Object> sections = new ArrayList<>();
+        for (int s = 0; s < SECTION_COUNT; s++) {
+            final int sectionY = MIN_SECTION + s;
+            final Map<String, Object> section = new LinkedHashMap<>();
+            section.put("Y", (byte) sectionY);
+            final int bottom = sectionY * 16;
+            if (bottom > surface + 8) {
+                section.put("block_states", compound("palette", List.of(compound("Name", "minecraft:air"))));
+            } else {
+                section.put("block_states", blockStates(bottom < surface - 8 ? UNDERGROUND : SURFACE, bottom, surface, random, activity));
+            }
+            section.put("biomes", compound("palette", List.of("minecraft:plains")));
+            if (bottom <= surface + 8) {
+                final byte[] skyLight = new byte[2048];
+                if (bottom >= surface - 16) for (int i = 0; i < skyLight.length; i++) skyLight[i] = (byte) 0xff;
+                section.put("SkyLight", skyLight);
+            }
+            sections.add(section);
+        }
+        final Map<String, Object> out = new LinkedHashMap<>();
+        out.put("DataVersion", DATA_VERSION);
+        out.put("xPos", chunkX);
+        out.put("yPos", MIN_SECTION);
+        out.put("zPos", chunkZ);
+        out.put("Status", "minecraft:full");
+        out.put("LastUpdate", (long) this.generation * 6000 + random.nextInt(6000));
+        out.put("InhabitedTime", (long) this.generation * 1200);
+        out.put("sections", sections);
+        out.put("Heightmaps", compound("MOTION_BLOCKING", heightmap(surface), "WORLD_SURFACE", heightmap(surface)));
+        return out;
+    }
+
+    /**
+     * Mostly layered, with some noise and the odd change from player activity, so it compresses about as well as
+     * real chunks do.
+     */
+    private static Map<String, Object> blockStates(final String[] palette, final int bottom, final int surface,
+                                                   final SplittableRandom random, final SplittableRandom activity) {
+        final int bits = 4;
+        final int perLong = 64 / bits;
+        final long[] data = new long[(BLOCKS_PER_SECTION + perLong - 1) / perLong];
+        for (int i = 0; i < BLOCKS_PER_SECTION; i++) {
+            final int y = bottom + (i >> 8);
+            int state;
+            if (palette == SURFACE) {
+                state = y > surface ? 0 : y == surface ? 1 : 2;
+                if (y > surface && y < surface + 6 && random.nextInt(64) == 0) state = 3 + random.nextInt(3);
+                if (y <= SEA_LEVEL && state == 0) state = 6;
+            } else {
+                state = y < 0 ? 1 : 0;
+                final int r = random.nextInt(100);
+                if (r < 3) state = 2 + random.nextInt(palette.length - 2);
+            }
+            if (activity.nextInt(2048) == 0) state = activity.nextInt(palette.length);
+            data[i / perLong] |= (long) state << ((i % perLong) * bits);
+        }
+        final List<Object> paletteList = new ArrayList<>();
+        for (final String name : palette) paletteList.add(compound("Name", name));
+        return compound("palette", paletteList, "data", data);
+    }
+
+    private static long[] heightmap(final int surface) {
+        final int bits = 9;
+        final int perLong = 64 / bits;
+        final long[] out = new long[(256 + perLong - 1) / perLong];
+        for (int i = 0; i < 256; i++) out[i / perLong] |= (long) (surface + 1 - MIN_SECTION * 16) << ((i % perLong) * bits);
+        return out;
+    }
+
+    /**
+     * @return the chunk's entities, or null if it doesn't have any.
+     */
+    private static Map<String, Object> entityChunk(final int chunkX, final int chunkZ, final SplittableRandom activity) {
+        final int count = activity.nextInt(16) - 12;
+        if (count <= 0) return null;
+        final List<Object> entities = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            final Map<String, Object> e = new LinkedHashMap<>();
+            e.put("id", ENTITY_TYPES[activity.nextInt(ENTITY_TYPES.length)]);
+            e.put("Pos", List.of(chunkX * 16 + activity.nextDouble() * 16, 64 + activity.nextDouble() * 8, chunkZ * 16 + activity.nextDouble() * 16));
+            e.put("Motion", List.of(0.0, -0.0784, 0.0));
+            e.put("Rotation", List.of((float) activity.nextDouble() * 360, 0.0f));
+            e.put("Health", (float) activity.nextInt(1, 21));
+            e.put("UUID", new int[]{activity.nextInt(), activity.nextInt(), activity.nextInt(), activity.nextInt()});
+            entities.add(e);
+        }
+        return compound("DataVersion", DATA_VERSION, "Position", new int[]{chunkX, chunkZ}, "Entities", entities);
+    }
+
+    private static Map<String, Object> poiChunk(final SplittableRandom random) {
+        final Map<String, Object> records = compound("type", "minecraft:home", "free_tickets", random.nextInt(2),
+                "pos", new int[]{random.nextInt(16), 64, random.nextInt(16)});
+        return compound("DataVersion", DATA_VERSION, "Sections", compound("4", compound("Valid", (byte) 1, "Records", List.of(records))));
+    }
+
+    /**
+     * level.dat and playerdata.  Players wander a little every generation.
+     */
+    private void writeMetadata() throws IOException {
+        final SplittableRandom random = new SplittableRandom(mix(this.options.seed(), "metadata", this.generation, 0));
+        final Map<String, Object> data = new LinkedHashMap<>();
+        data.put("DataVersion", DATA_VERSION);
+        data.put("LevelName", "synthetic-" + this.options.seed());
+        data.put("SpawnX", 0);
+        data.put("SpawnY", SEA_LEVEL + 1);
+        data.put("SpawnZ", 0);
+        data.put("Time", this.generation * 6000L);
+        data.put("DayTime", this.generation * 6000L % 24000);
+        data.put("LastPlayed", (BASE_TIMESTAMP + this.generation * 300L) * 1000);
+        data.put("RandomSeed", this.options.seed());
+        writeGzipped(compound("Data", data), this.worldDir.resolve("level.dat"));
+        final Random uuids = new Random(this.options.seed());
+        for (int p = 0; p < this.options.playerCount(); p++) {
+            final UUID uuid = new UUID(uuids.nextLong(), uuids.nextLong());
+            final List<Object> inventory = new ArrayList<>();
+            for (int slot = 0; slot < 36; slot++) {
+                if (random.nextInt(3) == 0) continue;
+                inventory.add(compound("Slot", (byte) slot, "id", SURFACE[1 + random.nextInt(SURFACE.length - 1)],
+                        "Count", (byte) random.nextInt(1, 65)));
+            }
+            final Map<String, Object> player = new LinkedHashMap<>();
+            player.put("DataVersion", DATA_VERSION);
+            player.put("Pos", List.of(random.nextDouble(-256, 256), SEA_LEVEL + 1.0, random.nextDouble(-256, 256)));
+            player.put("Dimension", "minecraft:overworld");
+            player.put("Health", 20.0f);
+            player.put("XpLevel", this.generation);
+            player.put("Inventory", inventory);
+            writeGzipped(player, this.worldDir.resolve("playerdata").resolve(uuid + ".dat"));
+        }
+    }
+
+    // ======================================================================
+    // Private - file formats
+
+    private static void write(final Region region, final Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        try (final OutputStream out = Files.newOutputStream(file)) {
+            region.write(out);
+        }
+    }
+
+    /**
+     * @return the chunk in region file form: length, compression type (2 = zlib) and compressed nbt.
+     */
+    private static byte[] payload(final Map<String, Object> nbt) throws IOException {
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (final DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(compressed))) {
+            writeRoot(nbt, out);
+        }
+        final byte[] data = compressed.toByteArray();
+        return ByteBuffer.allocate(5 + data.length).putInt(data.length + 1).put((byte) 2).put(data).array();
+    }
+
+    private static void writeGzipped(final Map<String, Object> nbt, final Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        try (final DataOutputStream out = new DataOutputStream(new GZIPOutputStream(Files.newOutputStream(file)))) {
+            writeRoot(nbt, out);
+        }
+    }
+
+    private static void writeRoot(final Map<String, Object> compound, final DataOutputStream out) throws IOException {
+        out.writeByte(10);
+        out.writeUTF("");
+        writePayload(compound, out);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void writePayload(final Object value, final DataOutputStream out) throws IOException {
+        if (value instanceof Byte b) {
+            out.writeByte(b);
+        } else if (value instanceof Short s) {
+            out.writeShort(s);
+        } else if (value instanceof Integer i) {
+            out.writeInt(i);
+        } else if (value instanceof Long l) {
+            out.writeLong(l);
+        } else if (value instanceof Float f) {
+            out.writeFloat(f);
+        } else if (value instanceof Double d) {
+            out.writeDouble(d);
+        } else if (value instanceof byte[] a) {
+            out.writeInt(a.length);
+            out.write(a);
+        } else if (value instanceof String s) {
+            out.writeUTF(s);
+        } else if (value instanceof List<?> list) {
+            out.writeByte(list.isEmpty() ? 0 : tagType(list.get(0)));
+            out.writeInt(list.size());
+            for (final Object e : list) writePayload(e, out);
+        } else if (value instanceof Map<?, ?> map) {
+            for (final Map.Entry<String, Object> e : ((Map<String, Object>) map).entrySet()) {
+                out.writeByte(tagType(e.getValue()));
+                out.writeUTF(e.getKey());
+                writePayload(e.getValue(), out);
+            }
+            out.writeByte(0);
+        } else if (value instanceof int[] a) {
+            out.writeInt(a.length);
+            for (final int i : a) out.writeInt(i);
+        } else if (value instanceof long[] a) {
+            out.writeInt(a.length);
+            for (final long l : a) out.writeLong(l);
+        } else {
+            throw new IllegalArgumentException("Can't write " + value + " as nbt");
+        }
+    }
+
+    private static int tagType(final Object value) {
+        if (value instanceof Byte) return 1;
+        if (value instanceof Short) return 2;
+        if (value instanceof Integer) return 3;
+        if (value instanceof Long) return 4;
+        if (value instanceof Float) return 5;
+        if (value instanceof Double) return 6;
+        if (value instanceof byte[]) return 7;
+        if (value instanceof String) return 8;
+        if (value instanceof List) return 9;
+        if (value instanceof Map) return 10;
+        if (value instanceof int[]) return 11;
+        if (value instanceof long[]) return 12;
+        throw new IllegalArgumentException("Can't write " + value + " as nbt");
+    }
+
+    private static Map<String, Object> compound(final Object... keysAndValues) {
+        final Map<String, Object> out = new LinkedHashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) out.put((String) keysAndValues[i], keysAndValues[i + 1]);
+        return out;
+    }
+
+    // ======================================================================
+    // Private - determinism
+
+    /**
+     * Region coordinates in an outward square spiral, so worlds of any size are roughly centered on spawn.
+     */
+    private static int[] spiral(final int n) {
+        if (n == 0) return new int[]{0, 0};
+        final int ring = (int) Math.ceil((Math.sqrt(n + 1) - 1) / 2);
+        final int side = ring * 2;
+        final int maxInRing = (side + 1) * (side + 1) - 1;
+        final int offset = maxInRing - n;
+        if (offset < side) return new int[]{ring - offset, -ring};
+        if (offset < side * 2) return new int[]{-ring, -ring + (offset - side)};
+        if (offset < side * 3) return new int[]{-ring + (offset - side * 2), ring};
+        return new int[]{ring, ring - (offset - side * 3)};
+    }
+
+    private static long mix(final long seed, final String salt, final int a, final int b) {
+        long h = seed ^ salt.hashCode() * 0x9E3779B97F4A7C15L;
+        h = (h ^ a) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ b) * 0x94D049BB133111EBL;
+        return h ^ (h >>> 31);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * FastBack - Fast, incremental Minecraft backups powered by Git.
+ * Copyright (C) 2022 pcal.net
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pcal.fastback.repo;
+
+import net.pcal.fastback.logging.Log4jLogger;
+import net.pcal.fastback.logging.SystemLogger;
+import net.pcal.fastback.repo.RegionFileUtils.Region;
+import org.apache.logging.log4j.LogManager;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.InflaterInputStream;
+
+import static net.pcal.fastback.repo.RegionFileUtils.CHUNKS_PER_REGION;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author pcal
+ * @since 0.16.0
+ */
+public class SyntheticWorldTest {
+
+    private static final SyntheticWorld.Options OPTIONS = new SyntheticWorld.Options(42, 1, 0.1, 2);
+
+    @BeforeAll
+    public static void setup() {
+        SystemLogger.Singleton.register(new Log4jLogger(LogManager.getLogger("test")));
+    }
+
+    @Test
+    public void testDeterministic(@TempDir Path a, @TempDir Path b) throws IOException {
+        SyntheticWorld.generate(a, OPTIONS).mutate(0.5);
+        SyntheticWorld.generate(b, OPTIONS).mutate(0.5);
+        final List<Path> files;
+        try (final var walk = Files.walk(a)) {
+            files = walk.filter(Files::isRegularFile).toList();
+        }
+        assertFalse(files.isEmpty());
+        for (final Path file : files) {
+            assertArrayEquals(Files.readAllBytes(file), Files.readAllBytes(b.resolve(a.relativize(file))), file.toString());
+        }
+    }
+
+    @Test
+    public void testReadable(@TempDir Path worldDir) throws IOException {
+        final SyntheticWorld world = SyntheticWorld.generate(worldDir, OPTIONS);
+        final Region region = Region.parse(Files.readAllBytes(worldDir.resolve("region/r.0.0.mca")));
+        int chunks = 0;
+        for (int i = 0; i < CHUNKS_PER_REGION; i++) {
+            if (region.getPayload(i) == null) continue;
+            chunks++;
+            final Map<String, Object> chunk = readChunk(region.getPayload(i));
+            assertEquals(i & 31, chunk.get("xPos"));
+            assertEquals(i >> 5, chunk.get("zPos"));
+            assertTrue(chunk.get("sections") instanceof List<?> sections && sections.size() == 24);
+        }
+        assertTrue(chunks > 0);
+        assertTrue(Files.exists(worldDir.resolve("DIM-1/region/r.0.0.mca")));
+        assertEquals(0, NbtUtils.get(NbtUtils.readCompressed(worldDir.resolve("level.dat")), "Data", "SpawnX"));
+        final Path playerData = worldDir.resolve("playerdata");
+        try (final var players = Files.list(playerData)) {
+            assertEquals(2, players.count());
+        }
+        assertTrue(HydrationUtils.getPriorityRegionPaths(worldDir).contains("region/r.0.0.mca"));
+        assertEquals(List.of(worldDir.resolve("region/r.0.0.mca"), worldDir.resolve("DIM-1/region/r.0.0.mca")), world.getRegionFiles());
+    }
+
+    @Test
+    public void testMutate(@TempDir Path worldDir) throws IOException {
+        final SyntheticWorld world = SyntheticWorld.generate(worldDir, OPTIONS);
+        final Path file = worldDir.resolve("region/r.0.0.mca");
+        final Region before = Region.parse(Files.readAllBytes(file));
+        final int changed = world.mutate(0.5);
+        final Region after = Region.parse(Files.readAllBytes(file));
+        int present = 0, differ = 0;
+        for (int i = 0; i < CHUNKS_PER_REGION; i++) {
+            if (before.getPayload(i) == null) continue;
+            present++;
+            assertNotNull(after.getPayload(i));
+            if (!Arrays.equals(before.getPayload(i), after.getPayload(i))) {
+                differ++;
+                assertTrue(after.getTimestamp(i) > before.getTimestamp(i));
+            }
+        }
+        assertTrue(differ > present / 4 && differ < present * 3 / 4, differ + " of " + present);
+        assertTrue(changed >= differ);
+    }
+
+    private static Map<String, Object> readChunk(byte[] payload) throws IOException {
+        assertEquals(2, payload[4]);
+        try (final InputStream in = new InflaterInputStream(new ByteArrayInputStream(payload, 5, payload.length - 5))) {
+            return NbtUtils.read(in);
+        }
+    }
+}
@@ -106,11 +106,11 @@ public class V1SnapshotIdTest {
 
     // so other tests can get at it
     public static SnapshotId v1sid(WorldId wid, Date date) throws ParseException {
-        return V1.create(wid, SnapshotIdCodec.DATE_FORMAT.format(date));
+        return V1.create(wid, SnapshotIdCodec.DATE_FORMAT.format(date.toInstant()));
     }
 
     public static SnapshotId v1sid(String wid, Date date) throws ParseException {
-        return V1.create(createWorldId(wid), SnapshotIdCodec.DATE_FORMAT.format(date));
+        return V1.create(createWorldId(wid), SnapshotIdCodec.DATE_FORMAT.format(date.toInstant()));
     }
 
     public static WorldId createWorldId(String wid) {
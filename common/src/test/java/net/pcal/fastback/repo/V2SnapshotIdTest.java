@@ -28,11 +28,17 @@ import org.junit.jupiter.api.Test;
 
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static net.pcal.fastback.repo.SnapshotIdUtils.SnapshotIdCodec.V2;
 import static net.pcal.fastback.repo.V1SnapshotIdTest.createWorldId;
@@ -45,6 +51,8 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
  */
 public class V2SnapshotIdTest {
 
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm-ss");
+
     @BeforeAll
     public static void setup() {
         SystemLogger.Singleton.register(new Log4jLogger(LogManager.getLogger("mocklogger")));
@@ -102,6 +110,31 @@ public class V2SnapshotIdTest {
         assertEquals(List.of(s3, s4, s5), sorted(sids.get(wid1)));
     }
 
+    @Test
+    public void testConcurrentParsing() throws Exception {
+        final String wid = generateRandomWorldId(4);
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                final int thread = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 2000; i++) {
+                        final LocalDateTime expected = LocalDateTime.of(2000 + thread, 1 + i % 12, 1 + i % 28, i % 24, i % 60, thread);
+                        final String shortName = DATE_FORMAT.format(expected);
+                        final SnapshotId sid = V2.fromBranch(wid + "/" + shortName);
+                        assertEquals(shortName, sid.getShortName());
+                        assertEquals(expected.atZone(ZoneId.systemDefault()).toInstant(), sid.getDate().toInstant());
+                    }
+                    return null;
+                }));
+            }
+            for (final Future<?> f : futures) f.get();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
     private static List<SnapshotId> sorted(Collection<SnapshotId> sids) {
         List<SnapshotId> out = new ArrayList<>(sids);
         Collections.sort(out);
@@ -0,0 +1,102 @@
+/*
+ * FastBack - Fast, incremental Minecraft backups powered by Git.
+ * Copyright (C) 2022 pcal.net
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pcal.fastback.retention;
+
+import net.pcal.fastback.logging.Log4jLogger;
+import net.pcal.fastback.logging.SystemLogger;
+import net.pcal.fastback.repo.SnapshotId;
+import net.pcal.fastback.repo.WorldId;
+import org.apache.logging.log4j.LogManager;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import static net.pcal.fastback.repo.V1SnapshotIdTest.createWorldId;
+import static net.pcal.fastback.repo.V1SnapshotIdTest.v1sid;
+
+/**
+ * @author pcal
+ * @since 0.16.0
+ */
+public class SizeRetentionPolicyTest {
+
+    private static final long MB = 1024 * 1024;
+
+    @BeforeAll
+    public static void setup() {
+        SystemLogger.Singleton.register(new Log4jLogger(LogManager.getLogger("mocklogger")));
+    }
+
+    @Test
+    public void testSizeRetention() throws ParseException, IOException {
+        final List<SnapshotId> sids = createSnapshots(5);
+        final RetentionPolicy policy = SizeRetentionPolicy.Type.INSTANCE.createPolicy(Map.of("megabytes", "100"));
+        // each snapshot holds 40mb of its own, and the oldest two share another 20mb
+        final SnapshotSizeEstimator estimator = order -> {
+            Assertions.assertEquals(sids.subList(0, 4), order);
+            return new long[]{220 * MB, 180 * MB, 120 * MB, 80 * MB, 40 * MB};
+        };
+        final Collection<SnapshotId> toPrune = policy.getSnapshotsToPrune(new HashSet<>(sids), estimator);
+        Assertions.assertEquals(sids.subList(0, 3), toPrune);
+    }
+
+    @Test
+    public void testAlreadyUnderBudget() throws ParseException, IOException {
+        final List<SnapshotId> sids = createSnapshots(3);
+        final RetentionPolicy policy = SizeRetentionPolicy.Type.INSTANCE.createPolicy(Map.of("megabytes", "100"));
+        final Collection<SnapshotId> toPrune = policy.getSnapshotsToPrune(new HashSet<>(sids),
+                order -> new long[]{90 * MB, 60 * MB, 30 * MB});
+        Assertions.assertEquals(List.of(), toPrune);
+    }
+
+    @Test
+    public void testLatestIsAlwaysKept() throws ParseException, IOException {
+        final List<SnapshotId> sids = createSnapshots(3);
+        final RetentionPolicy policy = SizeRetentionPolicy.Type.INSTANCE.createPolicy(Map.of("megabytes", "10"));
+        final Collection<SnapshotId> toPrune = policy.getSnapshotsToPrune(new HashSet<>(sids),
+                order -> new long[]{90 * MB, 60 * MB, 30 * MB});
+        Assertions.assertEquals(sids.subList(0, 2), toPrune);
+    }
+
+    @Test
+    public void testNoSizesNoPruning() throws ParseException, IOException {
+        final Set<SnapshotId> sids = new HashSet<>(createSnapshots(3));
+        final RetentionPolicy policy = SizeRetentionPolicy.Type.INSTANCE.createPolicy(Map.of("megabytes", "10"));
+        Assertions.assertEquals(List.of(), new ArrayList<>(policy.getSnapshotsToPrune(sids, null)));
+    }
+
+    private static List<SnapshotId> createSnapshots(int count) throws ParseException {
+        final WorldId wid = createWorldId(UUID.randomUUID().toString());
+        final long start = new Date().getTime() - count * 60_000L;
+        final List<SnapshotId> out = new ArrayList<>();
+        for (int i = 0; i < count; i++) out.add(v1sid(wid, new Date(start + i * 60_000L)));
+        return out;
+    }
+}
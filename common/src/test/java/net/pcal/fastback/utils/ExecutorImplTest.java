@@ -0,0 +1,83 @@
+/*
+ * FastBack - Fast, incremental Minecraft backups powered by Git.
+ * Copyright (C) 2022 pcal.net
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pcal.fastback.utils;
+
+import net.pcal.fastback.logging.Log4jLogger;
+import net.pcal.fastback.logging.SystemLogger;
+import net.pcal.fastback.logging.UserLogger;
+import net.pcal.fastback.logging.UserMessage;
+import net.pcal.fastback.utils.Executor.ExecutionLock;
+import net.pcal.fastback.utils.Executor.Priority;
+import org.apache.logging.log4j.LogManager;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author pcal
+ * @since 0.16.0
+ */
+public class ExecutorImplTest {
+
+    @BeforeAll
+    public static void setup() {
+        SystemLogger.Singleton.register(new Log4jLogger(LogManager.getLogger("mocklogger")));
+    }
+
+    /**
+     * The shutdown backup has to run even if the write lane is backed up.
+     */
+    @Test
+    public void testShutdownTaskWhenQueueIsFull() throws InterruptedException {
+        final ExecutorImpl executor = new ExecutorImpl();
+        final List<UserMessage> messages = new CopyOnWriteArrayList<>();
+        final UserLogger ulog = messages::add;
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicBoolean shutdownRan = new AtomicBoolean();
+        executor.start();
+        executor.execute(ExecutionLock.WRITE, Priority.MANUAL, null, ulog, () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < 20; i++) {
+            executor.execute(ExecutionLock.WRITE, Priority.MAINTENANCE, null, ulog, () -> {});
+        }
+        final int busy = messages.size();
+        assertTrue(busy > 0, "queue should have filled up");
+        executor.execute(ExecutionLock.WRITE, Priority.SHUTDOWN, null, ulog, () -> shutdownRan.set(true));
+        assertEquals(busy, messages.size());
+        release.countDown();
+        executor.stop();
+        assertTrue(shutdownRan.get());
+    }
+}
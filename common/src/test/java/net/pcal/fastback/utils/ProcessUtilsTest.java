@@ -0,0 +1,57 @@
+/*
+ * FastBack - Fast, incremental Minecraft backups powered by Git.
+ * Copyright (C) 2022 pcal.net
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pcal.fastback.utils;
+
+import net.pcal.fastback.logging.Log4jLogger;
+import net.pcal.fastback.logging.SystemLogger;
+import org.apache.logging.log4j.LogManager;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * @author pcal
+ * @since 0.16.0
+ */
+@DisabledOnOs(OS.WINDOWS)
+public class ProcessUtilsTest {
+
+    @BeforeAll
+    public static void setup() {
+        SystemLogger.Singleton.register(new Log4jLogger(LogManager.getLogger("mocklogger")));
+    }
+
+    /**
+     * Restores rely on this to keep git from smudging lfs files during checkout.
+     */
+    @Test
+    public void testEnvironmentIsPassed() throws ProcessException {
+        final List<String> stdout = new ArrayList<>();
+        ProcessUtils.doExec(new String[]{"sh", "-c", "echo \"$GIT_LFS_SKIP_SMUDGE\""},
+                Map.of("GIT_LFS_SKIP_SMUDGE", "1"), stdout::add, line -> {});
+        assertEquals(List.of("1"), stdout);
+    }
+}
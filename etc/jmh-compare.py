@@ -0,0 +1,53 @@
+#!/usr/bin/env python3
+#
+# Compare JMH results against a saved baseline and fail if anything got slower.
+#
+# usage: jmh-compare.py <baseline.json> <results.json> [max-regression-percent]
+#
+# Benchmarks are matched by name and parameters.  Ones that are only in one of the files are reported but don't
+# fail the comparison.
+#
+import json
+import sys
+
+
+def load(path):
+    out = {}
+    with open(path) as f:
+        for r in json.load(f):
+            params = ','.join(k + '=' + v for k, v in sorted(r.get('params', {}).items()))
+            out[r['benchmark'] + '(' + params + ')'] = r['primaryMetric']
+    return out
+
+
+def main():
+    if len(sys.argv) < 3:
+        print('usage: jmh-compare.py <baseline.json> <results.json> [max-regression-percent]')
+        return 2
+    baseline = load(sys.argv[1])
+    results = load(sys.argv[2])
+    max_regression = float(sys.argv[3]) if len(sys.argv) > 3 else 10.0
+    failed = False
+    for key in sorted(set(baseline) | set(results)):
+        if key not in baseline:
+            print('NEW      %s' % key)
+            continue
+        if key not in results:
+            print('MISSING  %s' % key)
+            continue
+        before, after = baseline[key], results[key]
+        # time per op: bigger is worse.  ops per time: smaller is worse.
+        higher_is_worse = after['scoreUnit'].endswith('/op')
+        change = (after['score'] - before['score']) / before['score'] * 100 if before['score'] else 0.0
+        regression = change if higher_is_worse else -change
+        # don't flag changes that are within the measurement error
+        noise = abs(after.get('scoreError') or 0) + abs(before.get('scoreError') or 0)
+        slower = regression > max_regression and abs(after['score'] - before['score']) > noise
+        failed = failed or slower
+        print('%-8s %s: %.3f -> %.3f %s (%+.1f%%)' % ('SLOWER' if slower else 'ok', key, before['score'],
+                                                   after['score'], after['scoreUnit'], change))
+    return 1 if failed else 0
+
+
+if __name__ == '__main__':
+    sys.exit(main())
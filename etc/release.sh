@@ -45,6 +45,22 @@ if [ "${CURRENT_BRANCH}" != 'main' ]; then
 fi
 
 
+#
+# Check for performance regressions.  Set SKIP_BENCHMARKS=1 to release anyway, e.g. from a machine other than the
+# one the baseline came from.
+#
+
+if [ -z "${SKIP_BENCHMARKS:-}" ]; then
+    if [ ! -f etc/benchmarks/baseline.json ]; then
+        echo "No benchmark baseline.  Run 'make benchmark-baseline' and commit it, or set SKIP_BENCHMARKS=1"
+        exit 1
+    fi
+    make benchmark
+else
+    echo "WARNING: skipping benchmark comparison"
+fi
+
+
 #
 # Build release
 #
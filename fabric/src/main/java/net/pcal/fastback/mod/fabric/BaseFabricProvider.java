@@ -50,6 +50,7 @@ import static net.pcal.fastback.commands.Commands.createBackupCommand;
 import static net.pcal.fastback.logging.SystemLogger.syslog;
 import static net.pcal.fastback.mod.MinecraftProvider.messageToText;
 import static net.pcal.fastback.mod.MinecraftProvider.register;
+import static net.pcal.fastback.repo.Hydrator.hydrator;
 
 /**
  * @author pcal
@@ -154,6 +155,11 @@ abstract class BaseFabricProvider implements MinecraftProvider, MixinGateway {
         return out;
     }
 
+    @Override
+    public boolean isOnDemandHydrationSupported() {
+        return true;
+    }
+
     // ======================================================================
     // MixinGateway implementation
 
@@ -171,6 +177,11 @@ abstract class BaseFabricProvider implements MinecraftProvider, MixinGateway {
         }
     }
 
+    @Override
+    public void regionFileOpening(Path regionFile) {
+        hydrator().ensureHydrated(regionFile);
+    }
+
     // ======================================================================
     // Package private
 
@@ -20,6 +20,8 @@ package net.pcal.fastback.mod.fabric;
 
 import net.minecraft.client.gui.GuiGraphics;
 
+import java.nio.file.Path;
+
 /**
  * Singleton 'gateway' that mixin code goes through to call back into the mod.
  *
@@ -38,6 +40,8 @@ public interface MixinGateway {
 
     void renderMessageScreen(GuiGraphics drawContext, float tickDelta);
 
+    void regionFileOpening(Path regionFile);
+
     class Singleton {
         private static MixinGateway INSTANCE = null;
 
@@ -0,0 +1,54 @@
+/*
+ * FastBack - Fast, incremental Minecraft backups powered by Git.
+ * Copyright (C) 2022 pcal.net
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pcal.fastback.mod.fabric.mixins;
+
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.chunk.storage.RegionFile;
+import net.minecraft.world.level.chunk.storage.RegionFileStorage;
+import net.pcal.fastback.mod.fabric.MixinGateway;
+import org.spongepowered.asm.mixin.Final;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+
+import java.nio.file.Path;
+
+/**
+ * Gives us a chance to hydrate a region file in a lazily-restored world before minecraft opens it.
+ *
+ * @author pcal
+ * @since 0.16.0
+ */
+@Mixin(RegionFileStorage.class)
+public class RegionFileStorageMixin {
+
+    @Shadow
+    @Final
+    private Path folder;
+
+    /**
+     * Intercept just before a region file that isn't in the cache gets opened.
+     */
+    @Inject(method = "getRegionFile", at = @At(value = "NEW", target = "net/minecraft/world/level/chunk/storage/RegionFile"))
+    public void fastback_getRegionFile(ChunkPos pos, CallbackInfoReturnable<RegionFile> ci) {
+        MixinGateway.get().regionFileOpening(this.folder.resolve("r." + pos.getRegionX() + "." + pos.getRegionZ() + ".mca"));
+    }
+}
@@ -10,7 +10,7 @@ import net.minecraft.world.level.storage.LevelStorageSource;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.event.RegisterCommandsEvent;
 import net.minecraftforge.event.server.ServerStartedEvent;
-import net.minecraftforge.event.server.ServerStoppingEvent;
+import net.minecraftforge.event.server.ServerStoppedEvent;
 import net.minecraftforge.eventbus.api.IEventBus;
 import net.minecraftforge.fml.event.lifecycle.FMLDedicatedServerSetupEvent;
 import net.minecraftforge.fml.javafmlmod.FMLJavaModLoadingContext;
@@ -47,7 +47,7 @@ class ForgeCommonProvider implements MinecraftProvider {
         final IEventBus modEventBus = FMLJavaModLoadingContext.get().getModEventBus();
         modEventBus.addListener(this::onDedicatedServerStartupEvent);
         MinecraftForge.EVENT_BUS.addListener(this::onServerStartupEvent);
-        MinecraftForge.EVENT_BUS.addListener(this::onServerStoppingEvent);
+        MinecraftForge.EVENT_BUS.addListener(this::onServerStoppedEvent);
         MinecraftForge.EVENT_BUS.addListener(this::onRegisterCommandEvent);
     }
 
@@ -64,7 +64,7 @@ class ForgeCommonProvider implements MinecraftProvider {
         requireNonNull(this.lifecycleListener).onWorldStart();
     }
 
-    private void onServerStoppingEvent(ServerStoppingEvent event) {
+    private void onServerStoppedEvent(ServerStoppedEvent event) {
         requireNonNull(this.lifecycleListener).onWorldStop();
         this.logicalServer = null;
     }
@@ -116,6 +116,11 @@ class ForgeCommonProvider implements MinecraftProvider {
         return false;
     }
 
+    @Override
+    public boolean isOnDemandHydrationSupported() {
+        return false; // no mixins on forge yet
+    }
+
     @Override
     public void setHudText(UserMessage userMessage) {
     }